@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Builds synthetic arenas for the benchmarks. The arenas are layered like real ones: solid ground,
+ * a build layer with noise, then air.
+ * 
+ * @author lizardfreak321
+ */
+public final class Arenas {
+	// Blocks used for the noise in the build layer, including signs and blocks that need data.
+	private static final int[] NOISE_IDS = { 1, 4, 5, 17, 35, 44, 53, 63, 89, 98, 159 };
+
+	private Arenas() {
+	}
+
+	/**
+	 * Creates a region of the given size.
+	 * 
+	 * @param sizeX
+	 *            The X size of the region.
+	 * @param sizeY
+	 *            The Y size of the region.
+	 * @param sizeZ
+	 *            The Z size of the region.
+	 * @param noise
+	 *            The chance from 0 to 1 of each block in the build layer not being air.
+	 * @param seed
+	 *            The seed, so every run gets the same arena.
+	 * @return The region.
+	 */
+	static RegionData create(int sizeX, int sizeY, int sizeZ, double noise, long seed) {
+		Random random = new Random(seed);
+		RegionData region = new RegionData(sizeX, sizeY, sizeZ);
+		int ground = sizeY / 4;
+		int build = sizeY / 2;
+		for (int x = 0; x < sizeX; x++) {
+			for (int y = 0; y < sizeY; y++) {
+				for (int z = 0; z < sizeZ; z++) {
+					int index = region.index(x, y, z);
+					if (y == 0) {
+						region.blocks[index] = 7 << 4;
+					} else if (y < ground) {
+						region.blocks[index] = 1 << 4;
+					} else if (y < build && random.nextDouble() < noise) {
+						int id = NOISE_IDS[random.nextInt(NOISE_IDS.length)];
+						int data = RollbackOperation.isSimple(id, RollbackOperation.simpleBlocks) ? 0
+								: random.nextInt(16);
+						region.blocks[index] = (char) (id << 4 | data);
+						if (RollbackOperation.hasText(id)) {
+							region.text.put(index, new String[] { "Arena", "" + x, "" + y, "" + z });
+						}
+					}
+				}
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * @return The save file of the region, encoded in memory.
+	 */
+	static byte[] encode(RegionData region) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			region.write(out);
+		} catch (IOException e) {
+			// Can't happen with an in-memory stream.
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+}
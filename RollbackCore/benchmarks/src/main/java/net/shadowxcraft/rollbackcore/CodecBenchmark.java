@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the run length encoding used by copies and pastes, without the world access. Each
+ * invocation handles the entire arena, so blocks per second is size^3 / time.
+ * 
+ * @author lizardfreak321
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ "64" })
+	public int size;
+
+	// The chance of a block in the build layer not being air.
+	@Param({ "0.0", "0.05", "0.3" })
+	public double noise;
+
+	private RegionData region;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() {
+		region = Arenas.create(size, size, size, noise, 321);
+		encoded = Arenas.encode(region);
+	}
+
+	/**
+	 * Encodes every block the way CopyTask does, into a stream that throws the bytes away.
+	 */
+	@Benchmark
+	public long encode() throws IOException {
+		CountingOutputStream counter = new CountingOutputStream();
+		SaveWriter out = new SaveWriter(new BufferedOutputStream(counter), new ColumnIndex(size, size, size, 0, 0));
+		ColumnIndex.Cursor cursor = out.index.new Cursor();
+		char[] blocks = region.blocks;
+		while (!cursor.isDone()) {
+			int i = region.index(cursor.x, cursor.y, cursor.z);
+			out.writeBlock(blocks[i] >> 4, blocks[i] & 15, region.text.get(i));
+			if (cursor.next() == ColumnIndex.NEXT_COLUMN)
+				out.endColumn();
+		}
+		out.finish();
+		return counter.count;
+	}
+
+	/**
+	 * Decodes every block the way PasteTask does.
+	 */
+	@Benchmark
+	public void decode(Blackhole blackhole) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(encoded));
+		BlockDecoder.Header header = BlockDecoder.readHeader(in);
+		BlockDecoder decoder = BlockDecoder.create(in, header.version, header.simpleBlocks);
+		// The save ends with the positions of its columns, so it stops after the last block.
+		for (long blocks = (long) size * size * size; blocks > 0; blocks--) {
+			if (!decoder.nextBlock())
+				throw new IOException("The save ended early.");
+			blackhole.consume(decoder.id);
+			blackhole.consume(decoder.data);
+		}
+	}
+
+	/**
+	 * Decodes the entire save into memory, like migrations and distributed saves do.
+	 */
+	@Benchmark
+	public RegionData readRegion() throws IOException {
+		return RegionData.read(new BufferedInputStream(new ByteArrayInputStream(encoded)), "benchmark");
+	}
+
+	// An output stream that only counts how much was written to it.
+	static final class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the number helpers in FileUtilities that every older file format relies on, and the
+ * varints of the BlockCodec that replace them in the block encoding.
+ * 
+ * @author lizardfreak321
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileUtilitiesBenchmark {
+	private static final int VALUES = 1024;
+
+	private final int[] shorts = new int[VALUES];
+	private final int[] ints = new int[VALUES];
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(VALUES * 4);
+	private byte[] encodedShorts;
+	private byte[] encodedInts;
+	private final ByteBuffer buffer = ByteBuffer.allocate(VALUES * BlockCodec.MAX_VARINT);
+	private byte[] encodedVarInts;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(321);
+		for (int i = 0; i < VALUES; i++) {
+			shorts[i] = random.nextInt(65025);
+			ints[i] = random.nextInt();
+		}
+		encodedShorts = writeShorts();
+		encodedInts = writeInts();
+		writeVarInts();
+		encodedVarInts = Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public byte[] writeShorts() throws IOException {
+		out.reset();
+		for (int value : shorts) {
+			FileUtilities.writeShort(out, value);
+		}
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public byte[] writeInts() throws IOException {
+		out.reset();
+		for (int value : ints) {
+			FileUtilities.writeInt(out, value);
+		}
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public int readShorts() throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(encodedShorts);
+		int sum = 0;
+		for (int i = 0; i < VALUES; i++) {
+			sum += FileUtilities.readShort(in);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public int readInts() throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(encodedInts);
+		int sum = 0;
+		for (int i = 0; i < VALUES; i++) {
+			sum += FileUtilities.readInt(in);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public ByteBuffer writeVarInts() {
+		buffer.clear();
+		for (int value : shorts) {
+			BlockCodec.putVarInt(buffer, value);
+		}
+		return buffer;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public int readVarInts() throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(encodedVarInts);
+		int sum = 0;
+		for (int i = 0; i < VALUES; i++) {
+			sum += BlockCodec.getVarInt(in);
+		}
+		return sum;
+	}
+}
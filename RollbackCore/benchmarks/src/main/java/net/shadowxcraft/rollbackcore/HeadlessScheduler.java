@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * A scheduler that only advances when it is told to. Every sync task runs on the thread that calls
+ * {@link #tick()}, in the order they were scheduled, so runs are repeatable. Async tasks run on
+ * real worker threads since the point of them is to get off the main thread.
+ * 
+ * @author lizardfreak321
+ */
+public final class HeadlessScheduler implements InvocationHandler {
+	// How long a real tick is. Used to wait for worker threads the way a real server would.
+	private static final long TICK_NANOS = 50000000;
+
+	private final BukkitScheduler scheduler;
+	private final Map<Integer, Task> tasks = new TreeMap<Integer, Task>();
+	// Tasks scheduled from worker threads, added to the tasks at the start of the next tick.
+	private final List<Task> incoming = new ArrayList<Task>();
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+	private final AtomicInteger runningAsync = new AtomicInteger();
+	private int nextId = 1;
+	private long currentTick = 0;
+	private Thread mainThread = Thread.currentThread();
+
+	HeadlessScheduler() {
+		scheduler = (BukkitScheduler) Proxy.newProxyInstance(BukkitScheduler.class.getClassLoader(),
+				new Class<?>[] { BukkitScheduler.class }, this);
+	}
+
+	/**
+	 * @return The scheduler the plugin sees through Bukkit.getScheduler().
+	 */
+	public BukkitScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return How many ticks have run.
+	 */
+	public long getCurrentTick() {
+		return currentTick;
+	}
+
+	/**
+	 * @return If the calling thread is the one running the ticks.
+	 */
+	public boolean isPrimaryThread() {
+		return Thread.currentThread() == mainThread;
+	}
+
+	/**
+	 * Runs one tick. Every sync task that is due runs once.
+	 */
+	public void tick() {
+		mainThread = Thread.currentThread();
+		currentTick++;
+		synchronized (incoming) {
+			for (Task task : incoming) {
+				tasks.put(task.id, task);
+			}
+			incoming.clear();
+		}
+
+		// Copied since tasks can schedule and cancel other tasks.
+		List<Task> due = new ArrayList<Task>();
+		for (Task task : tasks.values()) {
+			if (task.nextRun <= currentTick) {
+				due.add(task);
+			}
+		}
+		for (Task task : due) {
+			if (task.cancelled) {
+				continue;
+			}
+			task.runnable.run();
+			if (task.period <= 0) {
+				task.cancelled = true;
+			} else {
+				task.nextRun = currentTick + task.period;
+			}
+		}
+
+		Iterator<Task> iterator = tasks.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().cancelled) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return If there are sync tasks waiting or async tasks running.
+	 */
+	public boolean isIdle() {
+		synchronized (incoming) {
+			return tasks.isEmpty() && incoming.isEmpty() && runningAsync.get() == 0;
+		}
+	}
+
+	/**
+	 * Ticks until there is nothing left to do. Ticks that only wait on worker threads take as long
+	 * as real ticks, the rest run back to back.
+	 * 
+	 * @param maxTicks
+	 *            The most ticks to run, in case something never finishes.
+	 * @return The number of ticks it took.
+	 * @throws IllegalStateException
+	 *             If it wasn't idle after the max ticks.
+	 */
+	public long runUntilIdle(long maxTicks) {
+		long start = currentTick;
+		while (!isIdle()) {
+			if (currentTick - start >= maxTicks) {
+				throw new IllegalStateException("Still running after " + maxTicks + " ticks.");
+			}
+			long tickStart = System.nanoTime();
+			tick();
+			if (tasksWaiting() == 0 && runningAsync.get() > 0) {
+				waitForWorkers(TICK_NANOS - (System.nanoTime() - tickStart));
+			}
+		}
+		return currentTick - start;
+	}
+
+	/**
+	 * Cancels every task and stops the worker threads.
+	 */
+	public void shutdown() {
+		synchronized (incoming) {
+			tasks.clear();
+			incoming.clear();
+		}
+		workers.shutdownNow();
+	}
+
+	private int tasksWaiting() {
+		synchronized (incoming) {
+			return tasks.size() + incoming.size();
+		}
+	}
+
+	private void waitForWorkers(long nanos) {
+		synchronized (runningAsync) {
+			if (nanos > 0 && runningAsync.get() > 0 && tasksWaiting() == 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(runningAsync, nanos);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private Task schedule(Plugin plugin, Runnable runnable, long delay, long period) {
+		Task task;
+		synchronized (incoming) {
+			task = new Task(nextId++, plugin, runnable, period);
+			// Bukkit runs tasks with no delay on the next tick.
+			task.nextRun = currentTick + Math.max(1, delay);
+			if (isPrimaryThread()) {
+				tasks.put(task.id, task);
+			} else {
+				incoming.add(task);
+			}
+		}
+		synchronized (runningAsync) {
+			runningAsync.notifyAll();
+		}
+		return task;
+	}
+
+	private Task runAsync(Plugin plugin, final Runnable runnable) {
+		final Task task;
+		synchronized (incoming) {
+			task = new Task(nextId++, plugin, runnable, 0);
+		}
+		task.sync = false;
+		runningAsync.incrementAndGet();
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!task.cancelled) {
+						runnable.run();
+					}
+				} finally {
+					synchronized (runningAsync) {
+						runningAsync.decrementAndGet();
+						runningAsync.notifyAll();
+					}
+				}
+			}
+		});
+		return task;
+	}
+
+	private void cancel(int id) {
+		synchronized (incoming) {
+			Task task = tasks.get(id);
+			if (task == null) {
+				for (Task waiting : incoming) {
+					if (waiting.id == id) {
+						task = waiting;
+					}
+				}
+			}
+			if (task != null) {
+				task.cancelled = true;
+			}
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "scheduleSyncRepeatingTask":
+			return schedule((Plugin) args[0], (Runnable) args[1], (Long) args[2], (Long) args[3]).id;
+		case "scheduleSyncDelayedTask":
+			return schedule((Plugin) args[0], (Runnable) args[1], args.length > 2 ? (Long) args[2] : 0, 0).id;
+		case "runTask":
+			return schedule((Plugin) args[0], (Runnable) args[1], 0, 0).task;
+		case "runTaskLater":
+			return schedule((Plugin) args[0], (Runnable) args[1], (Long) args[2], 0).task;
+		case "runTaskTimer":
+			return schedule((Plugin) args[0], (Runnable) args[1], (Long) args[2], (Long) args[3]).task;
+		case "runTaskAsynchronously":
+			return runAsync((Plugin) args[0], (Runnable) args[1]).task;
+		case "scheduleAsyncDelayedTask":
+			return runAsync((Plugin) args[0], (Runnable) args[1]).id;
+		case "cancelTask":
+			cancel((Integer) args[0]);
+			return null;
+		case "cancelTasks":
+			synchronized (incoming) {
+				for (Task task : tasks.values()) {
+					task.cancelled = true;
+				}
+			}
+			return null;
+		case "isQueued":
+			synchronized (incoming) {
+				Task task = tasks.get((Integer) args[0]);
+				return task != null && !task.cancelled;
+			}
+		case "isCurrentlyRunning":
+			return false;
+		default:
+			if (method.getDeclaringClass() == Object.class) {
+				return Mocks.basic(proxy, method, args);
+			}
+			throw new UnsupportedOperationException("The headless scheduler has no " + method.getName());
+		}
+	}
+
+	// A scheduled task and the BukkitTask the plugin gets for it.
+	private final class Task implements InvocationHandler {
+		final int id;
+		final Plugin owner;
+		final Runnable runnable;
+		final long period;
+		final BukkitTask task;
+		long nextRun;
+		boolean sync = true;
+		volatile boolean cancelled = false;
+
+		Task(int id, Plugin owner, Runnable runnable, long period) {
+			this.id = id;
+			this.owner = owner;
+			this.runnable = runnable;
+			this.period = period;
+			this.task = (BukkitTask) Proxy.newProxyInstance(BukkitTask.class.getClassLoader(),
+					new Class<?>[] { BukkitTask.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getTaskId":
+				return id;
+			case "getOwner":
+				return owner;
+			case "isSync":
+				return sync;
+			case "isCancelled":
+				return cancelled;
+			case "cancel":
+				cancel(id);
+				return null;
+			default:
+				return Mocks.basic(proxy, method, args);
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.event.Event;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+/**
+ * A server with no network, no players, and a scheduler that only ticks when told to. It lets
+ * copies, pastes, entity clears and WatchDog rollbacks run without Spigot. Bukkit only allows one
+ * server per JVM, so there is only ever one, shared by everything that uses it.
+ * 
+ * @author lizardfreak321
+ */
+public final class HeadlessServer implements InvocationHandler {
+	private static HeadlessServer instance = null;
+
+	private final Logger logger = Logger.getLogger("HeadlessServer");
+	private final HeadlessScheduler scheduler = new HeadlessScheduler();
+	private final Map<String, HeadlessWorld> worlds = new LinkedHashMap<String, HeadlessWorld>();
+	private final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+	private final Server server;
+	private final PluginManager pluginManager;
+	private final File dataFolder;
+
+	private HeadlessServer() throws IOException {
+		logger.setLevel(Level.WARNING);
+		dataFolder = Files.createTempDirectory("rollbackcore").toFile();
+		server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[] { Server.class }, this);
+		pluginManager = (PluginManager) Proxy.newProxyInstance(PluginManager.class.getClassLoader(),
+				new Class<?>[] { PluginManager.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("callEvent")) {
+							events.add((Event) args[0]);
+							return null;
+						}
+						return Mocks.basic(proxy, method, args);
+					}
+				});
+		Bukkit.setServer(server);
+		Main.plugin = new HeadlessPlugin(new JavaPluginLoader(server), new PluginDescriptionFile("RollbackCore",
+				"headless", Main.class.getName()), dataFolder, new File(dataFolder, "RollbackCore.jar"));
+		// The same folders Main creates when it is enabled.
+		Main.savesPath = new File(dataFolder, "saves").toPath();
+		Main.regionsPath = new File(Main.savesPath.toFile(), "regions").toPath();
+		Files.createDirectories(Main.regionsPath);
+	}
+
+	/**
+	 * Starts the server if it isn't already.
+	 * 
+	 * @return The server.
+	 * @throws IOException
+	 *             If the data folder of the plugin can't be created.
+	 */
+	public static synchronized HeadlessServer get() throws IOException {
+		if (instance == null) {
+			instance = new HeadlessServer();
+		}
+		return instance;
+	}
+
+	public HeadlessScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return The data folder of the plugin, a new temporary folder.
+	 */
+	public File getDataFolder() {
+		return dataFolder;
+	}
+
+	/**
+	 * Creates a new empty world, replacing any with the same name.
+	 */
+	public HeadlessWorld createWorld(String name) {
+		HeadlessWorld world = new HeadlessWorld(name);
+		worlds.put(name, world);
+		return world;
+	}
+
+	/**
+	 * @return Every event called since the last time they were cleared.
+	 */
+	public List<Event> getEvents() {
+		synchronized (events) {
+			return new ArrayList<Event>(events);
+		}
+	}
+
+	/**
+	 * @return The last event of the type called, null if there was none.
+	 */
+	public <T extends Event> T getLastEvent(Class<T> type) {
+		synchronized (events) {
+			for (int i = events.size() - 1; i >= 0; i--) {
+				if (type.isInstance(events.get(i))) {
+					return type.cast(events.get(i));
+				}
+			}
+		}
+		return null;
+	}
+
+	public void clearEvents() {
+		events.clear();
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "getLogger":
+			return logger;
+		case "getName":
+			return "HeadlessServer";
+		case "getVersion":
+		case "getBukkitVersion":
+			return "headless";
+		case "getScheduler":
+			return scheduler.getScheduler();
+		case "getPluginManager":
+			return pluginManager;
+		case "getViewDistance":
+			return 10;
+		case "isPrimaryThread":
+			return scheduler.isPrimaryThread();
+		case "getOnlinePlayers":
+			return Collections.emptyList();
+		case "getWorlds":
+			List<World> list = new ArrayList<World>();
+			for (HeadlessWorld world : worlds.values()) {
+				list.add(world.getWorld());
+			}
+			return list;
+		case "getWorld":
+			if (args[0] instanceof String) {
+				HeadlessWorld world = worlds.get(args[0]);
+				return world == null ? null : world.getWorld();
+			}
+			for (HeadlessWorld world : worlds.values()) {
+				if (world.getWorld().getUID().equals(args[0])) {
+					return world.getWorld();
+				}
+			}
+			return null;
+		case "getWorldContainer":
+			return dataFolder.getParentFile();
+		default:
+			return Mocks.basic(proxy, method, args);
+		}
+	}
+
+	// The plugin instance the operations use for scheduling and file paths.
+	static final class HeadlessPlugin extends JavaPlugin {
+		HeadlessPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+			super(loader, description, dataFolder, file);
+		}
+	}
+}
@@ -0,0 +1,696 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CommandBlock;
+import org.bukkit.block.Sign;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+/**
+ * An in-memory world. It only does what the plugin needs: blocks with IDs, data, and sign or
+ * command block text, chunks that load and unload, snapshots, and entities that can be removed.
+ * There is no physics and no lighting, so the numbers only show the cost of the plugin itself.
+ * Only use it from the thread running the ticks, the same as a real world.
+ * 
+ * @author lizardfreak321
+ */
+public final class HeadlessWorld implements InvocationHandler {
+	static final int HEIGHT = 256;
+
+	private final String name;
+	private final UUID uid = UUID.randomUUID();
+	private final World world;
+	private final Map<Long, ChunkData> chunks = new HashMap<Long, ChunkData>();
+	private boolean autoSave = true;
+	// Statistics, since the plugin can't be asked directly.
+	long blockReads = 0;
+	long blockWrites = 0;
+	long chunkLoads = 0;
+	long chunkUnloads = 0;
+	long chunkRefreshes = 0;
+
+	public HeadlessWorld(String name) {
+		this.name = name;
+		this.world = (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class },
+				this);
+	}
+
+	/**
+	 * @return The world the plugin sees.
+	 */
+	public World getWorld() {
+		return world;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The ID of the block, without counting it as a read.
+	 */
+	public int getTypeId(int x, int y, int z) {
+		return y < 0 || y >= HEIGHT ? 0 : chunk(x >> 4, z >> 4, false).blocks[index(x, y, z)] >> 4;
+	}
+
+	/**
+	 * @return The data of the block, without counting it as a read.
+	 */
+	public int getData(int x, int y, int z) {
+		return y < 0 || y >= HEIGHT ? 0 : chunk(x >> 4, z >> 4, false).blocks[index(x, y, z)] & 15;
+	}
+
+	/**
+	 * Sets a block without counting it as a write.
+	 */
+	public void setBlock(int x, int y, int z, int id, int data) {
+		if (y < 0 || y >= HEIGHT) {
+			return;
+		}
+		ChunkData chunk = chunk(x >> 4, z >> 4, false);
+		chunk.blocks[index(x, y, z)] = (char) (id << 4 | data & 15);
+		chunk.text.remove(index(x, y, z));
+	}
+
+	/**
+	 * Sets the text of a sign or command block without counting it as a write.
+	 */
+	public void setText(int x, int y, int z, String[] lines) {
+		chunk(x >> 4, z >> 4, false).text.put(index(x, y, z), lines.clone());
+	}
+
+	/**
+	 * @return The text of the block, null if it has none.
+	 */
+	public String[] getText(int x, int y, int z) {
+		if (y < 0 || y >= HEIGHT) {
+			return null;
+		}
+		return chunk(x >> 4, z >> 4, false).text.get(index(x, y, z));
+	}
+
+	/**
+	 * Places a region in the world.
+	 */
+	void fill(RegionData region, int minX, int minY, int minZ) {
+		for (int x = 0; x < region.sizeX; x++) {
+			for (int y = 0; y < region.sizeY; y++) {
+				for (int z = 0; z < region.sizeZ; z++) {
+					int index = region.index(x, y, z);
+					char block = region.blocks[index];
+					setBlock(minX + x, minY + y, minZ + z, block >> 4, block & 15);
+					String[] lines = region.text.get(index);
+					if (lines != null) {
+						setText(minX + x, minY + y, minZ + z, lines);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies part of the world into a region, to check results against.
+	 */
+	RegionData capture(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ) {
+		RegionData region = new RegionData(sizeX, sizeY, sizeZ);
+		for (int x = 0; x < sizeX; x++) {
+			for (int y = 0; y < sizeY; y++) {
+				for (int z = 0; z < sizeZ; z++) {
+					int index = region.index(x, y, z);
+					region.blocks[index] = (char) (getTypeId(minX + x, minY + y, minZ + z) << 4
+							| getData(minX + x, minY + y, minZ + z));
+					String[] lines = getText(minX + x, minY + y, minZ + z);
+					if (lines != null) {
+						region.text.put(index, lines);
+					}
+				}
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * Adds an entity to the world.
+	 */
+	public void addEntity(double x, double y, double z, EntityType type) {
+		ChunkData chunk = chunk(Location.locToBlock(x) >> 4, Location.locToBlock(z) >> 4, false);
+		chunk.entities.add(new EntityData(x, y, z, type));
+	}
+
+	/**
+	 * @return The number of entities in the world.
+	 */
+	public int getEntityCount() {
+		int count = 0;
+		for (ChunkData chunk : chunks.values()) {
+			count += chunk.entities.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of chunks currently loaded.
+	 */
+	public int getLoadedChunkCount() {
+		int count = 0;
+		for (ChunkData chunk : chunks.values()) {
+			if (chunk.loaded) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public long getBlockReads() {
+		return blockReads;
+	}
+
+	public long getBlockWrites() {
+		return blockWrites;
+	}
+
+	public long getChunkLoads() {
+		return chunkLoads;
+	}
+
+	public long getChunkUnloads() {
+		return chunkUnloads;
+	}
+
+	public long getChunkRefreshes() {
+		return chunkRefreshes;
+	}
+
+	/**
+	 * Sets every statistic back to 0.
+	 */
+	public void resetStatistics() {
+		blockReads = 0;
+		blockWrites = 0;
+		chunkLoads = 0;
+		chunkUnloads = 0;
+		chunkRefreshes = 0;
+	}
+
+	/**
+	 * Unloads every chunk, like the world would be after a restart.
+	 */
+	public void unloadAll() {
+		for (ChunkData chunk : chunks.values()) {
+			chunk.loaded = false;
+		}
+	}
+
+	static int index(int x, int y, int z) {
+		return y << 8 | (z & 15) << 4 | x & 15;
+	}
+
+	static long key(int chunkX, int chunkZ) {
+		return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+	}
+
+	// Gets the chunk, creating it empty if it never existed.
+	ChunkData chunk(int chunkX, int chunkZ, boolean load) {
+		long key = key(chunkX, chunkZ);
+		ChunkData chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = new ChunkData(chunkX, chunkZ);
+			chunks.put(key, chunk);
+		}
+		if (load && !chunk.loaded) {
+			chunk.loaded = true;
+			chunkLoads++;
+		}
+		return chunk;
+	}
+
+	// Getting a block loads its chunk, the same as in a real world.
+	private Block block(int x, int y, int z) {
+		chunk(x >> 4, z >> 4, true);
+		return (Block) Proxy.newProxyInstance(Block.class.getClassLoader(), new Class<?>[] { Block.class },
+				new BlockHandler(x, y, z));
+	}
+
+	@SuppressWarnings("deprecation")
+	private BlockState state(int x, int y, int z) {
+		int id = getTypeId(x, y, z);
+		Class<?>[] interfaces;
+		if (id == RollbackOperation.signPostID || id == RollbackOperation.wallSignID) {
+			interfaces = new Class<?>[] { Sign.class };
+		} else if (RollbackOperation.hasText(id)) {
+			interfaces = new Class<?>[] { CommandBlock.class };
+		} else {
+			interfaces = new Class<?>[] { BlockState.class };
+		}
+		String[] lines = getText(x, y, z);
+		return (BlockState) Proxy.newProxyInstance(BlockState.class.getClassLoader(), interfaces,
+				new StateHandler(x, y, z, id, getData(x, y, z), lines == null ? new String[] { "", "", "", "" }
+						: lines.clone()));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "getName":
+			return name;
+		case "getUID":
+			return uid;
+		case "isAutoSave":
+			return autoSave;
+		case "setAutoSave":
+			autoSave = (Boolean) args[0];
+			return null;
+		case "getMaxHeight":
+			return HEIGHT;
+		case "getSeaLevel":
+			return 63;
+		case "getEnvironment":
+			return World.Environment.NORMAL;
+		case "getWorldFolder":
+			return new File(name);
+		case "getBlockAt":
+			if (args.length == 1) {
+				Location location = (Location) args[0];
+				return block(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+			}
+			return block((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+		case "getBlockTypeIdAt":
+			blockReads++;
+			if (args.length == 1) {
+				Location location = (Location) args[0];
+				return getTypeId(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+			}
+			return getTypeId((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+		case "getChunkAt":
+			if (args.length == 2) {
+				return chunk((Integer) args[0], (Integer) args[1], true).chunk;
+			} else if (args[0] instanceof Location) {
+				Location location = (Location) args[0];
+				return chunk(location.getBlockX() >> 4, location.getBlockZ() >> 4, true).chunk;
+			}
+			Block block = (Block) args[0];
+			return chunk(block.getX() >> 4, block.getZ() >> 4, true).chunk;
+		case "isChunkLoaded":
+			if (args.length == 1) {
+				Chunk chunk = (Chunk) args[0];
+				return chunk(chunk.getX(), chunk.getZ(), false).loaded;
+			}
+			return chunk((Integer) args[0], (Integer) args[1], false).loaded;
+		case "loadChunk":
+			if (args.length == 1) {
+				Chunk chunk = (Chunk) args[0];
+				chunk(chunk.getX(), chunk.getZ(), true);
+			} else {
+				chunk((Integer) args[0], (Integer) args[1], true);
+			}
+			return method.getReturnType() == boolean.class ? true : null;
+		case "unloadChunk":
+		case "unloadChunkRequest":
+			if (args.length > 0 && args[0] instanceof Chunk) {
+				Chunk chunk = (Chunk) args[0];
+				return chunk(chunk.getX(), chunk.getZ(), false).unload();
+			}
+			return chunk((Integer) args[0], (Integer) args[1], false).unload();
+		case "getLoadedChunks":
+			List<Chunk> loaded = new ArrayList<Chunk>();
+			for (ChunkData chunk : chunks.values()) {
+				if (chunk.loaded) {
+					loaded.add(chunk.chunk);
+				}
+			}
+			return loaded.toArray(new Chunk[loaded.size()]);
+		case "refreshChunk":
+			chunkRefreshes++;
+			return true;
+		case "getPlayers":
+			return Collections.emptyList();
+		case "getEntities":
+		case "getLivingEntities":
+			List<Entity> entities = new ArrayList<Entity>();
+			for (ChunkData chunk : chunks.values()) {
+				if (chunk.loaded) {
+					for (EntityData entity : chunk.entities) {
+						entities.add(entity.entity);
+					}
+				}
+			}
+			return entities;
+		case "save":
+			return null;
+		case "toString":
+			return "HeadlessWorld{" + name + "}";
+		default:
+			return Mocks.basic(proxy, method, args);
+		}
+	}
+
+	// The blocks, text, and entities of one chunk.
+	final class ChunkData implements InvocationHandler {
+		final int x;
+		final int z;
+		final char[] blocks = new char[16 * 16 * HEIGHT];
+		final Map<Integer, String[]> text = new HashMap<Integer, String[]>();
+		final List<EntityData> entities = new ArrayList<EntityData>();
+		final Chunk chunk;
+		boolean loaded = false;
+
+		ChunkData(int x, int z) {
+			this.x = x;
+			this.z = z;
+			this.chunk = (Chunk) Proxy.newProxyInstance(Chunk.class.getClassLoader(), new Class<?>[] { Chunk.class },
+					this);
+		}
+
+		boolean unload() {
+			if (loaded) {
+				loaded = false;
+				chunkUnloads++;
+			}
+			return true;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getX":
+				return x;
+			case "getZ":
+				return z;
+			case "getWorld":
+				return world;
+			case "getBlock":
+				return block(x << 4 | (Integer) args[0], (Integer) args[1], z << 4 | (Integer) args[2]);
+			case "isLoaded":
+				return loaded;
+			case "load":
+				chunk(x, z, true);
+				return true;
+			case "unload":
+				return unload();
+			case "getChunkSnapshot":
+				return snapshot();
+			case "getTileEntities":
+				List<BlockState> states = new ArrayList<BlockState>();
+				for (int index : text.keySet()) {
+					states.add(state(x << 4 | index & 15, index >> 8, z << 4 | index >> 4 & 15));
+				}
+				return states.toArray(new BlockState[states.size()]);
+			case "getEntities":
+				Entity[] array = new Entity[entities.size()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = entities.get(i).entity;
+				}
+				return array;
+			case "toString":
+				return "HeadlessChunk{" + x + "," + z + "}";
+			default:
+				return Mocks.basic(proxy, method, args);
+			}
+		}
+
+		private ChunkSnapshot snapshot() {
+			final char[] copy = blocks.clone();
+			return (ChunkSnapshot) Proxy.newProxyInstance(ChunkSnapshot.class.getClassLoader(),
+					new Class<?>[] { ChunkSnapshot.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							switch (method.getName()) {
+							case "getX":
+								return x;
+							case "getZ":
+								return z;
+							case "getWorldName":
+								return name;
+							case "getBlockTypeId":
+								return copy[index((Integer) args[0], (Integer) args[1], (Integer) args[2])] >> 4;
+							case "getBlockData":
+								return copy[index((Integer) args[0], (Integer) args[1], (Integer) args[2])] & 15;
+							case "getBlockType":
+								return material(
+										copy[index((Integer) args[0], (Integer) args[1], (Integer) args[2])] >> 4);
+							case "isSectionEmpty":
+								int start = (Integer) args[0] << 12;
+								for (int i = start; i < start + 4096; i++) {
+									if (copy[i] != 0) {
+										return false;
+									}
+								}
+								return true;
+							case "getHighestBlockYAt":
+								for (int y = HEIGHT - 1; y >= 0; y--) {
+									if (copy[index((Integer) args[0], y, (Integer) args[1])] != 0) {
+										return y + 1;
+									}
+								}
+								return 0;
+							default:
+								return Mocks.basic(proxy, method, args);
+							}
+						}
+					});
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	static Material material(int id) {
+		return Material.getMaterial(id);
+	}
+
+	// A view of one block of the world.
+	private final class BlockHandler implements InvocationHandler {
+		private final int x, y, z;
+
+		BlockHandler(int x, int y, int z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getTypeId":
+				blockReads++;
+				return getTypeId(x, y, z);
+			case "getData":
+				blockReads++;
+				return (byte) getData(x, y, z);
+			case "getType":
+				blockReads++;
+				return material(getTypeId(x, y, z));
+			case "setTypeIdAndData":
+				write((Integer) args[0], (Byte) args[1]);
+				return true;
+			case "setTypeId":
+				write((Integer) args[0], 0);
+				return true;
+			case "setType":
+				write(((Material) args[0]).getId(), 0);
+				return null;
+			case "setData":
+				write(getTypeId(x, y, z), (Byte) args[0]);
+				return null;
+			case "getState":
+				blockReads++;
+				return state(x, y, z);
+			case "getX":
+				return x;
+			case "getY":
+				return y;
+			case "getZ":
+				return z;
+			case "getLocation":
+				return new Location(world, x, y, z);
+			case "getWorld":
+				return world;
+			case "getChunk":
+				return chunk(x >> 4, z >> 4, true).chunk;
+			case "getRelative":
+				if (args[0] instanceof BlockFace) {
+					BlockFace face = (BlockFace) args[0];
+					return block(x + face.getModX(), y + face.getModY(), z + face.getModZ());
+				}
+				return block(x + (Integer) args[0], y + (Integer) args[1], z + (Integer) args[2]);
+			case "equals":
+				return args[0] instanceof Block && ((Block) args[0]).getWorld().equals(world)
+						&& ((Block) args[0]).getX() == x && ((Block) args[0]).getY() == y
+						&& ((Block) args[0]).getZ() == z;
+			case "hashCode":
+				return (y << 24) ^ (x << 12) ^ z;
+			default:
+				return Mocks.basic(proxy, method, args);
+			}
+		}
+
+		private void write(int id, int data) {
+			blockWrites++;
+			setBlock(x, y, z, id, data);
+			if (RollbackOperation.hasText(id)) {
+				setText(x, y, z, new String[] { "", "", "", "" });
+			}
+		}
+	}
+
+	// A snapshot of a block that can be changed and put back with update().
+	private final class StateHandler implements InvocationHandler {
+		private final int x, y, z;
+		private int id;
+		private int data;
+		private final String[] lines;
+
+		StateHandler(int x, int y, int z, int id, int data, String[] lines) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.id = id;
+			this.data = data;
+			this.lines = lines;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getTypeId":
+				return id;
+			case "getType":
+				return material(id);
+			case "getRawData":
+				return (byte) data;
+			case "setRawData":
+				data = (Byte) args[0];
+				return null;
+			case "setTypeId":
+				id = (Integer) args[0];
+				return true;
+			case "getX":
+				return x;
+			case "getY":
+				return y;
+			case "getZ":
+				return z;
+			case "getLocation":
+				if (args != null && args.length == 1 && args[0] != null) {
+					Location location = (Location) args[0];
+					location.setWorld(world);
+					location.setX(x);
+					location.setY(y);
+					location.setZ(z);
+					return location;
+				}
+				return new Location(world, x, y, z);
+			case "getWorld":
+				return world;
+			case "getBlock":
+				return block(x, y, z);
+			case "getChunk":
+				return chunk(x >> 4, z >> 4, true).chunk;
+			case "getLines":
+				return lines.clone();
+			case "getLine":
+				return lines[(Integer) args[0]];
+			case "setLine":
+				lines[(Integer) args[0]] = (String) args[1];
+				return null;
+			case "getName":
+				return lines[0];
+			case "setName":
+				lines[0] = (String) args[0];
+				return null;
+			case "getCommand":
+				return lines[1];
+			case "setCommand":
+				lines[1] = (String) args[0];
+				return null;
+			case "update":
+				blockWrites++;
+				chunk(x >> 4, z >> 4, true);
+				setBlock(x, y, z, id, data);
+				if (RollbackOperation.hasText(id)) {
+					setText(x, y, z, lines);
+				}
+				return true;
+			case "isPlaced":
+				return true;
+			default:
+				return Mocks.basic(proxy, method, args);
+			}
+		}
+	}
+
+	// An entity that can only be removed.
+	private final class EntityData implements InvocationHandler {
+		final double x, y, z;
+		final EntityType type;
+		final Entity entity;
+
+		EntityData(double x, double y, double z, EntityType type) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.type = type;
+			this.entity = (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(),
+					new Class<?>[] { Entity.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getLocation":
+				return new Location(world, x, y, z);
+			case "getType":
+				return type;
+			case "getWorld":
+				return world;
+			case "remove":
+				Iterator<EntityData> iterator = chunk(Location.locToBlock(x) >> 4, Location.locToBlock(z) >> 4,
+						false).entities.iterator();
+				while (iterator.hasNext()) {
+					if (iterator.next() == this) {
+						iterator.remove();
+					}
+				}
+				return null;
+			default:
+				return Mocks.basic(proxy, method, args);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of WatchDog backups, the same way ImportOperation reads them.
+ * 
+ * @author lizardfreak321
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportBenchmark {
+	private static final int ENTRIES = 1 << 14;
+
+	private byte[] backup;
+	private final int[] entry = new int[5];
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(321);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(ENTRIES * 8);
+		// Only the blocks, since the header is only read once.
+		for (int i = 0; i < ENTRIES; i++) {
+			FileUtilities.writeShort(out, random.nextInt(256));
+			FileUtilities.writeShort(out, random.nextInt(256));
+			FileUtilities.writeShort(out, random.nextInt(256));
+			FileUtilities.writeIDAndData(out, random.nextInt(256), (byte) random.nextInt(16));
+		}
+		backup = out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public int readEntries() throws IOException {
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(backup));
+		int sum = 0;
+		while (in.available() > 7) {
+			ImportOperation.readEntry(in, entry);
+			sum += entry[3];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-block lookups that the encoder and decoder do for every block.
+ * 
+ * @author lizardfreak321
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IsSimpleBenchmark {
+	private static final int IDS = 1024;
+
+	private final int[] ids = new int[IDS];
+
+	@Setup
+	public void setup() {
+		Random random = new Random(321);
+		for (int i = 0; i < IDS; i++) {
+			ids[i] = random.nextInt(256);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IDS)
+	public int isSimple() {
+		int simple = 0;
+		for (int id : ids) {
+			if (RollbackOperation.isSimple(id, RollbackOperation.simpleBlocks)) {
+				simple++;
+			}
+		}
+		return simple;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IDS)
+	public int hasText() {
+		int text = 0;
+		for (int id : ids) {
+			if (RollbackOperation.hasText(id)) {
+				text++;
+			}
+		}
+		return text;
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+
+/**
+ * Creates bare stand-ins of the Bukkit interfaces the benchmarks need, since there is no server
+ * to get the real ones from. Anything not handled returns null, false, or 0.
+ * 
+ * @author lizardfreak321
+ */
+public final class Mocks {
+
+	private Mocks() {
+	}
+
+	/**
+	 * @param name
+	 *            The name of the world.
+	 * @return A world that only knows its name. Equal only to itself.
+	 */
+	public static World world(final String name) {
+		return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getName":
+						case "toString":
+							return name;
+						default:
+							return basic(proxy, method, args);
+						}
+					}
+				});
+	}
+
+	/**
+	 * @return A block state at the location with the ID and data.
+	 */
+	@SuppressWarnings("deprecation")
+	public static BlockState blockState(final World world, final int x, final int y, final int z, final int id,
+			final byte data) {
+		return (BlockState) Proxy.newProxyInstance(BlockState.class.getClassLoader(),
+				new Class<?>[] { BlockState.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getLocation":
+							if (args == null || args.length == 0) {
+								return new Location(world, x, y, z);
+							}
+							Location loc = (Location) args[0];
+							if (loc != null) {
+								loc.setWorld(world);
+								loc.setX(x);
+								loc.setY(y);
+								loc.setZ(z);
+							}
+							return loc;
+						case "getWorld":
+							return world;
+						case "getX":
+							return x;
+						case "getY":
+							return y;
+						case "getZ":
+							return z;
+						case "getTypeId":
+							return id;
+						case "getRawData":
+							return data;
+						default:
+							return basic(proxy, method, args);
+						}
+					}
+				});
+	}
+
+	// Handles the methods of Object and gives every other method the default value of its type.
+	static Object basic(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return args != null && args.length == 1 && proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "toString":
+			return proxy.getClass().getSimpleName();
+		default:
+			return defaultValue(method.getReturnType());
+		}
+	}
+
+	static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		} else if (type == boolean.class) {
+			return false;
+		} else if (type == char.class) {
+			return (char) 0;
+		} else if (type == byte.class) {
+			return (byte) 0;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == float.class) {
+			return 0F;
+		} else {
+			return 0D;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.Location;
+import org.bukkit.entity.EntityType;
+
+import net.shadowxcraft.rollbackcore.events.CopyEndEvent;
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+import net.shadowxcraft.rollbackcore.events.PasteEndEvent;
+import net.shadowxcraft.rollbackcore.events.RollbackEvent;
+import net.shadowxcraft.rollbackcore.events.WDRollbackEndEvent;
+
+/**
+ * Runs full reset cycles on the headless server: a copy of a synthetic arena, a paste over a
+ * damaged version of it, and a WatchDog rollback of logged damage. Each step is checked against the
+ * original arena and reports blocks per second, ticks taken and peak heap.
+ * 
+ * Run it directly with: java -cp benchmarks.jar net.shadowxcraft.rollbackcore.ResetCycle [size]
+ * [noise] [damage] [snapshots]
+ * 
+ * @author lizardfreak321
+ */
+public final class ResetCycle {
+	// Stops an operation that never ends from hanging forever.
+	private static final long MAX_TICKS = 1000000;
+
+	private final HeadlessServer server;
+	private final HeadlessWorld world;
+	private final RegionData arena;
+	private final Location min;
+	private final Location max;
+	private final File file;
+	private final double damage;
+	private final boolean snapshots;
+	private final Random random = new Random(321);
+	private WatchDogRegion watchDog = null;
+
+	/**
+	 * Creates the arena in a new world.
+	 * 
+	 * @param size
+	 *            The width, length and height of the arena.
+	 * @param noise
+	 *            The chance from 0 to 1 of each block in the build layer not being air.
+	 * @param damage
+	 *            The fraction from 0 to 1 of the arena that gets changed before each reset.
+	 * @param snapshots
+	 *            If the copies are taken from chunk snapshots.
+	 * @throws IOException
+	 *             If the server can't start.
+	 */
+	public ResetCycle(int size, double noise, double damage, boolean snapshots) throws IOException {
+		this.server = HeadlessServer.get();
+		this.world = server.createWorld("arena");
+		this.arena = Arenas.create(size, Math.min(size, HeadlessWorld.HEIGHT), size, noise, 321);
+		this.min = new Location(world.getWorld(), 0, 0, 0);
+		this.max = new Location(world.getWorld(), arena.sizeX - 1, arena.sizeY - 1, arena.sizeZ - 1);
+		this.file = new File(server.getDataFolder(), "saves/arena.dat");
+		this.damage = damage;
+		this.snapshots = snapshots;
+		world.fill(arena, 0, 0, 0);
+		world.unloadAll();
+	}
+
+	/**
+	 * Saves the arena.
+	 */
+	public Result copy() {
+		Copy copy = new Copy(min.clone(), max.clone(), file.getPath(), null, "", snapshots);
+		Result result = run("copy", arena.blocks.length, copy, CopyEndEvent.class);
+		if (!file.exists()) {
+			throw new IllegalStateException("The copy didn't create " + file);
+		}
+		return result;
+	}
+
+	/**
+	 * Damages the arena and adds entities so there is something for a paste to do. Needs a copy
+	 * first.
+	 */
+	public void damageForPaste() {
+		for (int i = 0; i < damagedBlocks(); i++) {
+			world.setBlock(random.nextInt(arena.sizeX), random.nextInt(arena.sizeY), random.nextInt(arena.sizeZ),
+					random.nextInt(4), 0);
+		}
+		for (int i = 0; i < arena.sizeX; i++) {
+			world.addEntity(random.nextInt(arena.sizeX), arena.sizeY / 2, random.nextInt(arena.sizeZ),
+					EntityType.DROPPED_ITEM);
+		}
+		world.unloadAll();
+	}
+
+	/**
+	 * Pastes the save over the arena and clears its entities.
+	 */
+	public Result paste() {
+		Paste paste = new Paste(min.clone(), file.getPath(), null, true, false, "");
+		Result result = run("paste", arena.blocks.length, paste, PasteEndEvent.class);
+		verify("paste");
+		if (world.getEntityCount() > 0) {
+			throw new IllegalStateException("The paste left " + world.getEntityCount() + " entities.");
+		}
+		return result;
+	}
+
+	/**
+	 * Starts a WatchDog and damages the arena through it, the way the block listeners log changes.
+	 */
+	public void damageForRollback() {
+		if (watchDog != null) {
+			watchDog.remove();
+		}
+		watchDog = new WatchDogRegion(min.clone(), max.clone(), "");
+		for (int i = 0; i < damagedBlocks(); i++) {
+			int x = random.nextInt(arena.sizeX);
+			int y = random.nextInt(arena.sizeY);
+			int z = random.nextInt(arena.sizeZ);
+			WatchDogRegion.logBlock(world.getWorld().getBlockAt(x, y, z));
+			world.setBlock(x, y, z, random.nextInt(4), 0);
+		}
+		world.unloadAll();
+	}
+
+	/**
+	 * Rolls back the logged damage.
+	 */
+	public Result rollback() {
+		final WatchDogRegion rolledBack = watchDog;
+		watchDog = null;
+		Result result = run("rollback", damagedBlocks(), new Runnable() {
+			@Override
+			public void run() {
+				rolledBack.rollBack(null, false, true);
+			}
+		}, WDRollbackEndEvent.class);
+		rolledBack.remove();
+		verify("rollback");
+		return result;
+	}
+
+	/**
+	 * Deletes the save.
+	 */
+	public void close() {
+		if (watchDog != null) {
+			watchDog.remove();
+		}
+		file.delete();
+	}
+
+	private int damagedBlocks() {
+		return Math.max(1, (int) (arena.blocks.length * damage));
+	}
+
+	private Result run(String name, long blocks, Runnable start, Class<? extends RollbackEvent> endEvent) {
+		HeadlessScheduler scheduler = server.getScheduler();
+		server.clearEvents();
+		world.resetStatistics();
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+
+		long startTime = System.nanoTime();
+		start.run();
+		long ticks = scheduler.runUntilIdle(MAX_TICKS);
+		long nanos = System.nanoTime() - startTime;
+
+		// The pools peak at different times, so this is an upper bound.
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		RollbackEvent event = server.getLastEvent(endEvent);
+		if (event == null || event.endStatus() != EndStatus.SUCCESS) {
+			throw new IllegalStateException("The " + name + " ended with "
+					+ (event == null ? "no end event" : event.endStatus()));
+		}
+		return new Result(name, blocks, nanos, ticks, peakHeap, world.getBlockWrites(), world.getChunkLoads());
+	}
+
+	private void verify(String name) {
+		RegionData result = world.capture(0, 0, 0, arena.sizeX, arena.sizeY, arena.sizeZ);
+		if (!Arrays.equals(result.blocks, arena.blocks) || result.text.size() != arena.text.size()) {
+			throw new IllegalStateException("The " + name + " didn't restore the arena.");
+		}
+		for (Map.Entry<Integer, String[]> entry : arena.text.entrySet()) {
+			if (!Arrays.equals(entry.getValue(), result.text.get(entry.getKey()))) {
+				throw new IllegalStateException("The " + name + " didn't restore the text at " + entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * The measurements of one step of the cycle.
+	 */
+	public static final class Result {
+		public final String name;
+		public final long blocks;		// The blocks the step covers.
+		public final long nanos;		// The time from starting to the end event.
+		public final long ticks;		// The ticks it took.
+		public final long peakHeap;		// The peak heap in bytes.
+		public final long blockWrites;	// The blocks it set in the world.
+		public final long chunkLoads;	// The chunks it loaded.
+
+		Result(String name, long blocks, long nanos, long ticks, long peakHeap, long blockWrites,
+				long chunkLoads) {
+			this.name = name;
+			this.blocks = blocks;
+			this.nanos = nanos;
+			this.ticks = ticks;
+			this.peakHeap = peakHeap;
+			this.blockWrites = blockWrites;
+			this.chunkLoads = chunkLoads;
+		}
+
+		public double getBlocksPerSecond() {
+			return blocks / (nanos / 1000000000.0);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-8s %,12d blocks %,10.1f ms %,14.0f blocks/s %,7d ticks %,8d writes %,6d chunk loads"
+					+ " %,8.1f MB peak heap", name, blocks, nanos / 1000000.0, getBlocksPerSecond(), ticks,
+					blockWrites, chunkLoads, peakHeap / 1048576.0);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		double noise = args.length > 1 ? Double.parseDouble(args[1]) : 0.05;
+		double damage = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+		boolean snapshots = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+		System.out.println("Arena " + size + "^3, noise " + noise + ", damage " + damage + ", target time "
+				+ Config.targetTime + " ms" + (snapshots ? ", snapshot copies" : ""));
+		ResetCycle cycle = new ResetCycle(size, noise, damage, snapshots);
+		try {
+			System.out.println(cycle.copy());
+			cycle.damageForPaste();
+			System.out.println(cycle.paste());
+			cycle.damageForRollback();
+			System.out.println(cycle.rollback());
+		} finally {
+			cycle.close();
+			HeadlessServer.get().getScheduler().shutdown();
+		}
+	}
+}
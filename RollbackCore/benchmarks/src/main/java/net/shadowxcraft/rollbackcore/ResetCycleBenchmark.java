@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures whole copies, pastes and WatchDog rollbacks on the headless server. Each invocation is
+ * an entire operation, so the per-invocation setup doesn't skew the results. The ticks, blocks per
+ * second and peak heap of each operation are reported as extra counters.
+ * 
+ * @author lizardfreak321
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResetCycleBenchmark {
+
+	@Param({ "64", "128" })
+	public int size;
+
+	@Param({ "0.05", "0.3" })
+	public double noise;
+
+	// The fraction of the arena damaged before each paste and rollback.
+	@Param({ "0.01" })
+	public double damage;
+
+	@Param({ "false", "true" })
+	public boolean snapshots;
+
+	private ResetCycle cycle;
+
+	/**
+	 * The measurements of the last operation, added to the results by JMH.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+		public long ticks;
+		public double blocksPerSecond;
+		public double peakHeapMB;
+
+		void record(ResetCycle.Result result) {
+			ticks = result.ticks;
+			blocksPerSecond = result.getBlocksPerSecond();
+			peakHeapMB = result.peakHeap / 1048576.0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		cycle = new ResetCycle(size, noise, damage, snapshots);
+		cycle.copy();
+	}
+
+	/**
+	 * Damages the arena before each paste.
+	 */
+	@State(Scope.Thread)
+	public static class PasteDamage {
+		@Setup(Level.Invocation)
+		public void damage(ResetCycleBenchmark benchmark) {
+			benchmark.cycle.damageForPaste();
+		}
+	}
+
+	/**
+	 * Damages the arena through a WatchDog before each rollback.
+	 */
+	@State(Scope.Thread)
+	public static class RollbackDamage {
+		@Setup(Level.Invocation)
+		public void damage(ResetCycleBenchmark benchmark) {
+			benchmark.cycle.damageForRollback();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cycle.close();
+	}
+
+	@Benchmark
+	public void copy(Counters counters) {
+		counters.record(cycle.copy());
+	}
+
+	@Benchmark
+	public void paste(PasteDamage damage, Counters counters) {
+		counters.record(cycle.paste());
+	}
+
+	@Benchmark
+	public void rollback(RollbackDamage damage, Counters counters) {
+		counters.record(cycle.rollback());
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost the block listeners pay for every block change while WatchDogs are active.
+ * The regions are 32 blocks wide, spread out over a grid, and the logged blocks are spread over all
+ * of them with a quarter outside of every region.
+ * 
+ * @author lizardfreak321
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WatchDogBenchmark {
+	private static final int REGION_SIZE = 32;
+	private static final int SPACING = 64;
+	private static final int STATES = 1 << 16;
+
+	@Param({ "1", "16", "256" })
+	public int regions;
+
+	private final List<WatchDogRegion> watchDogs = new ArrayList<WatchDogRegion>();
+	private final BlockState[] states = new BlockState[STATES];
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		World world = Mocks.world("benchmark");
+		int columns = (int) Math.ceil(Math.sqrt(regions));
+		for (int i = 0; i < regions; i++) {
+			int x = (i % columns) * SPACING;
+			int z = (i / columns) * SPACING;
+			watchDogs.add(new WatchDogRegion(new Location(world, x, 0, z),
+					new Location(world, x + REGION_SIZE - 1, REGION_SIZE - 1, z + REGION_SIZE - 1), ""));
+		}
+
+		Random random = new Random(321);
+		for (int i = 0; i < STATES; i++) {
+			int region = random.nextInt(regions);
+			int x = (region % columns) * SPACING + random.nextInt(REGION_SIZE);
+			int z = (region / columns) * SPACING + random.nextInt(REGION_SIZE);
+			// A quarter of the changes happen between the regions.
+			if (random.nextInt(4) == 0) {
+				x += REGION_SIZE;
+			}
+			states[i] = Mocks.blockState(world, x, random.nextInt(REGION_SIZE), z, 1, (byte) 0);
+		}
+	}
+
+	// Starts every iteration with empty logs, otherwise everything would already be logged.
+	@Setup(Level.Iteration)
+	public void clearLogs() {
+		for (WatchDogRegion watchDog : watchDogs) {
+			watchDog.reset();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (WatchDogRegion watchDog : watchDogs) {
+			watchDog.remove();
+		}
+		watchDogs.clear();
+	}
+
+	@Benchmark
+	public void logBlock() {
+		WatchDogRegion.logBlock(states[next]);
+		next = (next + 1) & (STATES - 1);
+	}
+
+	@Benchmark
+	public void addState() {
+		BlockState state = states[next];
+		watchDogs.get(next % regions).addState(state, state.getLocation());
+		next = (next + 1) & (STATES - 1);
+	}
+}
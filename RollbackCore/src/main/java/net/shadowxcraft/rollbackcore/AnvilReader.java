@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.bukkit.World;
+import org.bukkit.World.Environment;
+
+/**
+ * Reads chunks straight from the region files of a world, so copies don't have to load the chunks
+ * nobody is in. Only the block IDs and data of the 1.12 chunk format are read, along with where the
+ * tile entities are. The whole NBT of a chunk can be read too, which {@link AnvilWriter} changes.
+ *
+ * The server only writes a chunk to its region file some time after it unloads, so chunks are only
+ * read from the files if they aren't loaded and didn't unload recently. How recently is set by
+ * Config.regionWriteDelay, which is a guess and not a lock. The server may still be behind on
+ * writing, or load, change and save the chunk again while a worker thread reads it. So once the data
+ * of a chunk is read, its location and timestamp in the header of the file are read again, and the
+ * chunk is loaded through the world instead if they changed. The timestamp is in seconds and a chunk
+ * that still fits is written over its old sectors, so a chunk written again in the same second as
+ * its last write can still be read half written or old.
+ *
+ * @author lizardfreak321
+ */
+final class AnvilReader implements Closeable {
+	static final int SECTOR = 4096;				// The size of the sectors of region files.
+	static final byte TAG_END = 0, TAG_BYTE = 1, TAG_SHORT = 2, TAG_INT = 3, TAG_LONG = 4, TAG_FLOAT = 5,
+			TAG_DOUBLE = 6, TAG_BYTE_ARRAY = 7, TAG_STRING = 8, TAG_LIST = 9, TAG_COMPOUND = 10,
+			TAG_INT_ARRAY = 11, TAG_LONG_ARRAY = 12;
+
+	// When the chunks of each world that unloaded recently unloaded, oldest first.
+	private static final Map<String, LinkedHashMap<Long, Long>> unloaded = new HashMap<String, LinkedHashMap<Long, Long>>();
+
+	/**
+	 * A list tag, which keeps the type of its elements so it is written back the same when empty.
+	 */
+	static final class TagList extends ArrayList<Object> {
+		private static final long serialVersionUID = 1L;
+		final byte type;
+
+		TagList(byte type, int capacity) {
+			super(capacity);
+			this.type = type;
+		}
+	}
+
+	private final File folder;
+	// The open region files by their key, null for the ones that don't exist.
+	private final Map<Long, RandomAccessFile> files = new HashMap<Long, RandomAccessFile>();
+
+	/**
+	 * The blocks of a chunk read from its region file.
+	 */
+	static final class Chunk extends ChunkBlocks {
+		private final byte[][] blocks = new byte[16][];	// The low 8 bits of the IDs of each section.
+		private final byte[][] add = new byte[16][];	// The high 4 bits of the IDs, if there are any.
+		private final byte[][] data = new byte[16][];
+		int[] tileEntities = new int[0];				// The X, Y and Z of each tile entity.
+
+		@Override
+		int getBlockTypeId(int x, int y, int z) {
+			byte[] section = blocks[y >> 4];
+			if (section == null)
+				return 0;
+			int index = (y & 15) << 8 | z << 4 | x;
+			int id = section[index] & 255;
+			return add[y >> 4] == null ? id : id | nibble(add[y >> 4], index) << 8;
+		}
+
+		@Override
+		int getBlockData(int x, int y, int z) {
+			byte[] section = data[y >> 4];
+			return section == null ? 0 : nibble(section, (y & 15) << 8 | z << 4 | x);
+		}
+
+		@Override
+		boolean isSectionEmpty(int section) {
+			return blocks[section] == null;
+		}
+
+		private static final int nibble(byte[] bytes, int index) {
+			return bytes[index >> 1] >> ((index & 1) << 2) & 15;
+		}
+	}
+
+	/**
+	 * @param world
+	 *            The world, whose folder is found on the main thread.
+	 */
+	AnvilReader(World world) {
+		this.folder = regionFolder(world);
+	}
+
+	/**
+	 * @return The folder with the region files of the world.
+	 */
+	static final File regionFolder(World world) {
+		return regionFolder(world.getWorldFolder(), world.getEnvironment());
+	}
+
+	/**
+	 * @param worldFolder
+	 *            The folder of the world, which doesn't have to be loaded.
+	 * @return The folder with the region files of a world of that environment.
+	 */
+	static final File regionFolder(File worldFolder, Environment environment) {
+		switch (environment) {
+		case NETHER:
+			return new File(worldFolder, "DIM-1/region");
+		case THE_END:
+			return new File(worldFolder, "DIM1/region");
+		default:
+			return new File(worldFolder, "region");
+		}
+	}
+
+	/**
+	 * Finds the environment of a world that isn't loaded from the region folders it has.
+	 *
+	 * @return The environment, or null if the folder has no region files.
+	 */
+	static final Environment findEnvironment(File worldFolder) {
+		for (Environment environment : new Environment[] { Environment.NORMAL, Environment.NETHER,
+				Environment.THE_END }) {
+			if (regionFolder(worldFolder, environment).isDirectory())
+				return environment;
+		}
+		return null;
+	}
+
+	/**
+	 * Records that a chunk unloaded, since it is written to its region file some time after.
+	 */
+	static final void chunkUnloaded(World world, int chunkX, int chunkZ) {
+		LinkedHashMap<Long, Long> chunks = unloaded.get(world.getName());
+		if (chunks == null) {
+			chunks = new LinkedHashMap<Long, Long>();
+			unloaded.put(world.getName(), chunks);
+		}
+		long now = System.currentTimeMillis();
+		Long key = Utilities.chunkKey(chunkX, chunkZ);
+		// Removed first so that it moves to the end.
+		chunks.remove(key);
+		chunks.put(key, now);
+		// The oldest ones are written by now.
+		Iterator<Long> times = chunks.values().iterator();
+		while (times.hasNext() && now - times.next() > writeDelay())
+			times.remove();
+	}
+
+	/**
+	 * Must be called on the main thread.
+	 *
+	 * @return If the chunk in its region file is the same as in the world, because it isn't loaded
+	 *         and didn't unload recently.
+	 */
+	static final boolean isWritten(World world, int chunkX, int chunkZ) {
+		if (world.isChunkLoaded(chunkX, chunkZ))
+			return false;
+		LinkedHashMap<Long, Long> chunks = unloaded.get(world.getName());
+		Long time = chunks == null ? null : chunks.get(Utilities.chunkKey(chunkX, chunkZ));
+		return time == null || System.currentTimeMillis() - time > writeDelay();
+	}
+
+	// How long after a chunk unloaded it may still be waiting to be written, in milliseconds. The
+	// server queues the chunks it unloads to be written by its file IO thread, so this is a guess.
+	private static final long writeDelay() {
+		return Config.regionWriteDelay * 1000L;
+	}
+
+	/**
+	 * Reads a chunk from its region file.
+	 *
+	 * @return The chunk, or null if it isn't in the region files, like when it was never generated,
+	 *         or if the server wrote it while it was read.
+	 * @throws IOException
+	 *             If it couldn't be read or is corrupted.
+	 */
+	final Chunk read(int chunkX, int chunkZ) throws IOException {
+		RandomAccessFile file = file(chunkX >> 5, chunkZ >> 5);
+		if (file == null)
+			return null;
+		long header = header(file, chunkX, chunkZ);
+		Map<?, ?> root = readRoot(file, chunkX, chunkZ);
+		// Moved or written again while it was read, so the bytes may be half of each write.
+		if (root == null || header(file, chunkX, chunkZ) != header)
+			return null;
+		try {
+			return readLevel((Map<?, ?>) root.get("Level"), chunkX, chunkZ);
+		} catch (ClassCastException | NullPointerException e) {
+			throw new IOException("Chunk " + chunkX + "," + chunkZ + " is missing part of its blocks.", e);
+		}
+	}
+
+	// The location and timestamp of a chunk in the header of its region file. The server changes at
+	// least one of them each time it writes the chunk, unless it is within the same second.
+	private static final long header(RandomAccessFile file, int chunkX, int chunkZ) throws IOException {
+		int entry = 4 * ((chunkX & 31) + (chunkZ & 31) * 32);
+		file.seek(entry);
+		long location = file.readInt();
+		file.seek(SECTOR + entry);
+		return location << 32 | file.readInt() & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Reads the whole NBT of a chunk from its region file.
+	 *
+	 * @param file
+	 *            The region file of the chunk, or null if it doesn't exist.
+	 * @return The root compound, or null if the chunk isn't in the file.
+	 * @throws IOException
+	 *             If it couldn't be read or is corrupted.
+	 */
+	static final Map<String, Object> readRoot(RandomAccessFile file, int chunkX, int chunkZ) throws IOException {
+		if (file == null)
+			return null;
+		file.seek(4 * ((chunkX & 31) + (chunkZ & 31) * 32));
+		int location = file.readInt();
+		if (location == 0)
+			return null;
+		long offset = (long) (location >>> 8) * SECTOR;
+		file.seek(offset);
+		int length = file.readInt();
+		if (length < 1 || length > (location & 255) * SECTOR - 4)
+			throw new IOException("Chunk " + chunkX + "," + chunkZ + " has an invalid length.");
+		int compression = file.read();
+		byte[] bytes = new byte[length - 1];
+		file.readFully(bytes);
+
+		InputStream in;
+		if (compression == 1)
+			in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		else if (compression == 2)
+			in = new InflaterInputStream(new ByteArrayInputStream(bytes));
+		else
+			throw new IOException("Chunk " + chunkX + "," + chunkZ + " has an unknown compression " + compression);
+		// Closed so the native memory of the inflater is freed right away.
+		try (DataInputStream nbt = new DataInputStream(new BufferedInputStream(in))) {
+			if (nbt.readByte() != TAG_COMPOUND)
+				throw new IOException("Chunk " + chunkX + "," + chunkZ + " is not a compound.");
+			nbt.readUTF();
+			@SuppressWarnings("unchecked")
+			Map<String, Object> root = (Map<String, Object>) readTag(nbt, TAG_COMPOUND);
+			return root;
+		}
+	}
+
+	// Gets the blocks and tile entities of a chunk from its level tag.
+	private static final Chunk readLevel(Map<?, ?> level, int chunkX, int chunkZ) throws IOException {
+		if (level == null || !Integer.valueOf(chunkX).equals(level.get("xPos"))
+				|| !Integer.valueOf(chunkZ).equals(level.get("zPos")))
+			throw new IOException("Chunk " + chunkX + "," + chunkZ + " is not where it should be.");
+
+		Chunk chunk = new Chunk();
+		List<?> sections = (List<?>) level.get("Sections");
+		if (sections != null) {
+			for (Object entry : sections) {
+				Map<?, ?> section = (Map<?, ?>) entry;
+				int y = ((Number) section.get("Y")).intValue();
+				byte[] blocks = (byte[]) section.get("Blocks");
+				byte[] add = (byte[]) section.get("Add");
+				byte[] data = (byte[]) section.get("Data");
+				if (y < 0 || y > 15 || blocks == null || blocks.length != 4096 || data == null || data.length != 2048
+						|| (add != null && add.length != 2048))
+					throw new IOException("Chunk " + chunkX + "," + chunkZ + " has an invalid section.");
+				chunk.blocks[y] = blocks;
+				chunk.add[y] = add;
+				chunk.data[y] = data;
+			}
+		}
+		List<?> tileEntities = (List<?>) level.get("TileEntities");
+		if (tileEntities != null) {
+			chunk.tileEntities = new int[tileEntities.size() * 3];
+			for (int i = 0; i < tileEntities.size(); i++) {
+				Map<?, ?> tileEntity = (Map<?, ?>) tileEntities.get(i);
+				chunk.tileEntities[i * 3] = ((Number) tileEntity.get("x")).intValue();
+				chunk.tileEntities[i * 3 + 1] = ((Number) tileEntity.get("y")).intValue();
+				chunk.tileEntities[i * 3 + 2] = ((Number) tileEntity.get("z")).intValue();
+			}
+		}
+		return chunk;
+	}
+
+	// Opens a region file, or returns null if it doesn't exist.
+	private final RandomAccessFile file(int regionX, int regionZ) throws IOException {
+		long key = Utilities.chunkKey(regionX, regionZ);
+		if (files.containsKey(key))
+			return files.get(key);
+		File file = new File(folder, "r." + regionX + "." + regionZ + ".mca");
+		RandomAccessFile region = file.length() >= 2 * SECTOR ? new RandomAccessFile(file, "r") : null;
+		files.put(key, region);
+		return region;
+	}
+
+	// Reads the value of a tag. Compounds become maps in the order of their tags, and lists become
+	// TagLists.
+	private static final Object readTag(DataInputStream in, byte type) throws IOException {
+		switch (type) {
+		case TAG_BYTE:
+			return in.readByte();
+		case TAG_SHORT:
+			return in.readShort();
+		case TAG_INT:
+			return in.readInt();
+		case TAG_LONG:
+			return in.readLong();
+		case TAG_FLOAT:
+			return in.readFloat();
+		case TAG_DOUBLE:
+			return in.readDouble();
+		case TAG_BYTE_ARRAY: {
+			byte[] bytes = new byte[length(in)];
+			in.readFully(bytes);
+			return bytes;
+		}
+		case TAG_STRING:
+			return in.readUTF();
+		case TAG_LIST: {
+			byte elementType = in.readByte();
+			int length = length(in);
+			TagList list = new TagList(elementType, Math.min(length, 1024));
+			for (int i = 0; i < length; i++)
+				list.add(readTag(in, elementType));
+			return list;
+		}
+		case TAG_COMPOUND: {
+			Map<String, Object> compound = new LinkedHashMap<String, Object>();
+			for (byte tag = in.readByte(); tag != TAG_END; tag = in.readByte())
+				compound.put(in.readUTF(), readTag(in, tag));
+			return compound;
+		}
+		case TAG_INT_ARRAY: {
+			int[] ints = new int[length(in)];
+			for (int i = 0; i < ints.length; i++)
+				ints[i] = in.readInt();
+			return ints;
+		}
+		case TAG_LONG_ARRAY: {
+			long[] longs = new long[length(in)];
+			for (int i = 0; i < longs.length; i++)
+				longs[i] = in.readLong();
+			return longs;
+		}
+		default:
+			throw new IOException("Unknown NBT tag " + type);
+		}
+	}
+
+	private static final int length(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Negative NBT length " + length);
+		return length;
+	}
+
+	/**
+	 * Closes the region files.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (RandomAccessFile file : files.values())
+			if (file != null)
+				file.close();
+		files.clear();
+	}
+}
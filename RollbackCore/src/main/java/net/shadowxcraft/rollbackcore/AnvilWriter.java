@@ -0,0 +1,526 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Changes the blocks of chunks in the region files of a world that isn't loaded. Each chunk is read
+ * with all of its NBT, changed in memory, and written back in the 1.12 format once it is saved.
+ * Nothing else may use the region files in the meantime, so the world must stay unloaded.
+ *
+ * The height maps of the columns that changed are made again, and the chunks are marked as not lit,
+ * so the server lights them again once they are loaded. Chunks that were never generated are
+ * created with only the blocks that were set.
+ *
+ * @see AnvilReader
+ * @author lizardfreak321
+ */
+final class AnvilWriter implements Closeable {
+	static final int HEIGHT = 256;				// The height of 1.12 worlds.
+	private static final int DATA_VERSION = 1343; // The data version of 1.12.2 chunks.
+	private static final int MAX_SECTORS = 255;	// The most sectors a chunk can have in a region file.
+
+	private final File folder;					// The folder with the region files.
+	private final boolean skyLight;				// If the sections of the world have sky light.
+	// The open region files by their key.
+	private final Map<Long, Region> files = new HashMap<Long, Region>();
+
+	// An open region file, and the sectors its chunks use.
+	private static final class Region {
+		private final RandomAccessFile file;
+		private final BitSet used = new BitSet();
+
+		private Region(RandomAccessFile file) throws IOException {
+			this.file = file;
+			// The locations and the times of the chunks.
+			if (file.length() < 2 * AnvilReader.SECTOR)
+				file.setLength(2 * AnvilReader.SECTOR);
+			used.set(0, 2);
+			file.seek(0);
+			for (int i = 0; i < 1024; i++) {
+				int location = file.readInt();
+				if (location != 0)
+					used.set(location >>> 8, (location >>> 8) + (location & 255));
+			}
+		}
+
+		// Finds the first run of free sectors that is long enough, which may go past the end.
+		private final int free(int sectors) {
+			int offset = used.nextClearBit(0);
+			while (used.nextSetBit(offset) != -1 && used.nextSetBit(offset) < offset + sectors)
+				offset = used.nextClearBit(used.nextSetBit(offset));
+			return offset;
+		}
+	}
+
+	/**
+	 * A chunk that is being changed.
+	 */
+	final class Chunk {
+		final int chunkX, chunkZ;
+		private final Map<String, Object> root;
+		private final Map<String, Object> level;
+		private final List<Object> sectionList;			// The sections as they are written.
+		private final byte[][] blocks = new byte[16][];	// The low 8 bits of the IDs of each section.
+		private final byte[][] add = new byte[16][];	// The high 4 bits of the IDs, if there are any.
+		private final byte[][] data = new byte[16][];
+		// The tile entities by the index of their block, y << 8 | z << 4 | x.
+		private final Map<Integer, Map<String, Object>> tileEntities = new LinkedHashMap<Integer, Map<String, Object>>();
+		private final boolean[] changedColumns = new boolean[256]; // The columns with a new block, z << 4 | x.
+		private int changed = 0;						// The number of blocks that were set.
+
+		@SuppressWarnings("unchecked")
+		private Chunk(int chunkX, int chunkZ, Map<String, Object> root) throws IOException {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			if (root == null) {
+				root = new LinkedHashMap<String, Object>();
+				root.put("DataVersion", DATA_VERSION);
+				Map<String, Object> level = new LinkedHashMap<String, Object>();
+				level.put("xPos", chunkX);
+				level.put("zPos", chunkZ);
+				level.put("LastUpdate", 0L);
+				level.put("LightPopulated", (byte) 0);
+				// It must not get trees and ores once it loads.
+				level.put("TerrainPopulated", (byte) 1);
+				level.put("V", (byte) 1);
+				level.put("InhabitedTime", 0L);
+				level.put("HeightMap", new int[256]);
+				level.put("Sections", new AnvilReader.TagList(AnvilReader.TAG_COMPOUND, 16));
+				level.put("Entities", new AnvilReader.TagList(AnvilReader.TAG_COMPOUND, 0));
+				level.put("TileEntities", new AnvilReader.TagList(AnvilReader.TAG_COMPOUND, 0));
+				root.put("Level", level);
+			}
+			this.root = root;
+
+			try {
+				level = (Map<String, Object>) root.get("Level");
+				if (level == null || !Integer.valueOf(chunkX).equals(level.get("xPos"))
+						|| !Integer.valueOf(chunkZ).equals(level.get("zPos")))
+					throw new IOException("Chunk " + chunkX + "," + chunkZ + " is not where it should be.");
+				sectionList = (List<Object>) level.get("Sections");
+				for (Object entry : sectionList) {
+					Map<String, Object> section = (Map<String, Object>) entry;
+					int y = ((Number) section.get("Y")).intValue();
+					byte[] sectionBlocks = (byte[]) section.get("Blocks");
+					byte[] sectionAdd = (byte[]) section.get("Add");
+					byte[] sectionData = (byte[]) section.get("Data");
+					if (y < 0 || y > 15 || blocks[y] != null || sectionBlocks == null || sectionBlocks.length != 4096
+							|| sectionData == null || sectionData.length != 2048
+							|| (sectionAdd != null && sectionAdd.length != 2048))
+						throw new IOException("Chunk " + chunkX + "," + chunkZ + " has an invalid section.");
+					blocks[y] = sectionBlocks;
+					add[y] = sectionAdd;
+					data[y] = sectionData;
+				}
+				List<Object> tileList = (List<Object>) level.get("TileEntities");
+				if (tileList != null) {
+					for (Object entry : tileList) {
+						Map<String, Object> tileEntity = (Map<String, Object>) entry;
+						int x = ((Number) tileEntity.get("x")).intValue() - (chunkX << 4);
+						int y = ((Number) tileEntity.get("y")).intValue();
+						int z = ((Number) tileEntity.get("z")).intValue() - (chunkZ << 4);
+						tileEntities.put(y << 8 | z << 4 | x, tileEntity);
+					}
+				}
+			} catch (ClassCastException | NullPointerException e) {
+				throw new IOException("Chunk " + chunkX + "," + chunkZ + " is missing part of its blocks.", e);
+			}
+		}
+
+		/**
+		 * Sets a block, unless it is already there. Blocks with text get a new tile entity with it,
+		 * any other tile entity of a block that changed is removed, and is made again by the server
+		 * if the new block has one.
+		 *
+		 * @param x
+		 *            The X inside the chunk, from 0 to 15.
+		 * @param y
+		 *            The Y, from 0 to {@link AnvilWriter#HEIGHT} - 1.
+		 * @param z
+		 *            The Z inside the chunk, from 0 to 15.
+		 * @param lines
+		 *            The text of signs and command blocks, null for other blocks.
+		 * @return If it changed the block.
+		 */
+		final boolean setBlock(int x, int y, int z, int id, int blockData, String[] lines) {
+			int section = y >> 4;
+			if (blocks[section] == null) {
+				if (id == 0)
+					return false;
+				addSection(section);
+			}
+			int index = (y & 15) << 8 | z << 4 | x;
+			int oldId = blocks[section][index] & 255;
+			if (add[section] != null)
+				oldId |= nibble(add[section], index) << 8;
+			Map<String, Object> tileEntity = lines != null && RollbackOperation.hasText(id)
+					? tileEntity(id, x, y, z, lines)
+					: null;
+			int key = y << 8 | z << 4 | x;
+			if (oldId == id && nibble(data[section], index) == blockData
+					&& (tileEntity == null || sameText(tileEntities.get(key), tileEntity)))
+				return false;
+
+			blocks[section][index] = (byte) id;
+			if (id > 255 && add[section] == null) {
+				add[section] = new byte[2048];
+				section(section).put("Add", add[section]);
+			}
+			if (add[section] != null)
+				setNibble(add[section], index, id >> 8);
+			setNibble(data[section], index, blockData);
+			if (tileEntity != null)
+				tileEntities.put(key, tileEntity);
+			else
+				tileEntities.remove(key);
+			changedColumns[z << 4 | x] = true;
+			changed++;
+			return true;
+		}
+
+		// Adds an empty section, fully lit by the sky until the server lights it.
+		private final void addSection(int y) {
+			blocks[y] = new byte[4096];
+			data[y] = new byte[2048];
+			Map<String, Object> section = new LinkedHashMap<String, Object>();
+			section.put("Y", (byte) y);
+			section.put("Blocks", blocks[y]);
+			section.put("Data", data[y]);
+			section.put("BlockLight", new byte[2048]);
+			if (skyLight) {
+				byte[] light = new byte[2048];
+				Arrays.fill(light, (byte) 0xFF);
+				section.put("SkyLight", light);
+			}
+			sectionList.add(section);
+		}
+
+		@SuppressWarnings("unchecked")
+		private final Map<String, Object> section(int y) {
+			for (Object entry : sectionList) {
+				Map<String, Object> section = (Map<String, Object>) entry;
+				if (((Number) section.get("Y")).intValue() == y)
+					return section;
+			}
+			throw new IllegalStateException("Section " + y + " is missing.");
+		}
+
+		// Creates the tile entity of a sign or command block with its text.
+		private final Map<String, Object> tileEntity(int id, int x, int y, int z, String[] lines) {
+			Map<String, Object> tileEntity = new LinkedHashMap<String, Object>();
+			if (id == RollbackOperation.wallSignID || id == RollbackOperation.signPostID) {
+				tileEntity.put("id", "minecraft:sign");
+				for (int line = 0; line < 4; line++)
+					tileEntity.put("Text" + (line + 1), toJson(line < lines.length ? lines[line] : ""));
+			} else {
+				// Saved as its name and command, see RollbackOperation#getText.
+				tileEntity.put("id", "minecraft:command_block");
+				tileEntity.put("Command", lines[1]);
+				if (!lines[0].equals("@"))
+					tileEntity.put("CustomName", lines[0]);
+			}
+			tileEntity.put("x", (chunkX << 4) + x);
+			tileEntity.put("y", y);
+			tileEntity.put("z", (chunkZ << 4) + z);
+			return tileEntity;
+		}
+
+		/**
+		 * @return The number of blocks that were set.
+		 */
+		final int getChanged() {
+			return changed;
+		}
+
+		// Makes the height maps of the columns that changed again, and writes the tile entities.
+		private final void finish() {
+			Object heights = level.get("HeightMap");
+			int[] heightMap = heights instanceof int[] && ((int[]) heights).length == 256 ? (int[]) heights
+					: new int[256];
+			for (int column = 0; column < 256; column++) {
+				if (changedColumns[column])
+					heightMap[column] = height(column & 15, column >> 4);
+			}
+			level.put("HeightMap", heightMap);
+			level.put("LightPopulated", (byte) 0);
+
+			AnvilReader.TagList tileList = new AnvilReader.TagList(AnvilReader.TAG_COMPOUND, tileEntities.size());
+			tileList.addAll(tileEntities.values());
+			level.put("TileEntities", tileList);
+		}
+
+		// The Y above the highest block of the column that blocks light.
+		private final int height(int x, int z) {
+			for (int section = 15; section >= 0; section--) {
+				if (blocks[section] == null)
+					continue;
+				for (int y = 15; y >= 0; y--) {
+					int index = y << 8 | z << 4 | x;
+					int id = blocks[section][index] & 255;
+					if (add[section] != null)
+						id |= nibble(add[section], index) << 8;
+					if (!BlockClasses.is(id, BlockClasses.TRANSPARENT))
+						return (section << 4) + y + 1;
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * @param folder
+	 *            The folder with the region files, see {@link AnvilReader#regionFolder}.
+	 * @param skyLight
+	 *            If the world has sky light, which only the nether and the end don't.
+	 */
+	AnvilWriter(File folder, boolean skyLight) {
+		this.folder = folder;
+		this.skyLight = skyLight;
+	}
+
+	/**
+	 * Reads a chunk to change it. It is only written once it is saved.
+	 *
+	 * @return The chunk, which is created empty if it isn't in the region files.
+	 * @throws IOException
+	 *             If it couldn't be read or is corrupted.
+	 */
+	final Chunk read(int chunkX, int chunkZ) throws IOException {
+		File file = regionFile(chunkX >> 5, chunkZ >> 5);
+		RandomAccessFile region = file.exists() ? file(chunkX >> 5, chunkZ >> 5).file : null;
+		return new Chunk(chunkX, chunkZ, AnvilReader.readRoot(region, chunkX, chunkZ));
+	}
+
+	/**
+	 * Writes a chunk back to its region file, if any of its blocks changed.
+	 *
+	 * @throws IOException
+	 *             If it couldn't be written, or is too large for a region file.
+	 */
+	final void save(Chunk chunk) throws IOException {
+		if (chunk.changed == 0)
+			return;
+		chunk.finish();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16384);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+			out.writeByte(AnvilReader.TAG_COMPOUND);
+			out.writeUTF("");
+			writeTag(out, chunk.root);
+		}
+		// The length includes the byte of the compression.
+		int length = bytes.size() + 1;
+		int sectors = (length + 4 + AnvilReader.SECTOR - 1) / AnvilReader.SECTOR;
+		if (sectors > MAX_SECTORS)
+			throw new IOException("Chunk " + chunk.chunkX + "," + chunk.chunkZ + " is too large for its region file.");
+
+		Region region = file(chunk.chunkX >> 5, chunk.chunkZ >> 5);
+		RandomAccessFile file = region.file;
+		int header = 4 * ((chunk.chunkX & 31) + (chunk.chunkZ & 31) * 32);
+		file.seek(header);
+		int location = file.readInt();
+		// Always written to free sectors, so the old chunk is still whole if it stops while writing.
+		long offset = region.free(sectors);
+		file.seek(offset * AnvilReader.SECTOR);
+		file.writeInt(length);
+		file.writeByte(2); // Zlib
+		file.write(bytes.toByteArray());
+		if (file.length() < (offset + sectors) * AnvilReader.SECTOR)
+			file.setLength((offset + sectors) * AnvilReader.SECTOR);
+
+		// The location is only changed once the chunk is there, and frees the sectors it used.
+		file.seek(header);
+		file.writeInt((int) offset << 8 | sectors);
+		file.seek(AnvilReader.SECTOR + header);
+		file.writeInt((int) (System.currentTimeMillis() / 1000));
+		region.used.set((int) offset, (int) offset + sectors);
+		if (location != 0)
+			region.used.clear(location >>> 8, (location >>> 8) + (location & 255));
+	}
+
+	private final File regionFile(int regionX, int regionZ) {
+		return new File(folder, "r." + regionX + "." + regionZ + ".mca");
+	}
+
+	// Opens a region file to read and write, creating it if it doesn't exist.
+	private final Region file(int regionX, int regionZ) throws IOException {
+		long key = Utilities.chunkKey(regionX, regionZ);
+		Region region = files.get(key);
+		if (region == null) {
+			if (!folder.isDirectory() && !folder.mkdirs())
+				throw new IOException("Could not create " + folder.getPath());
+			RandomAccessFile file = new RandomAccessFile(regionFile(regionX, regionZ), "rw");
+			try {
+				region = new Region(file);
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+			files.put(key, region);
+		}
+		return region;
+	}
+
+	// Writes the value of a tag, whose type is found from the class of the value.
+	private static final void writeTag(DataOutputStream out, Object value) throws IOException {
+		switch (type(value)) {
+		case AnvilReader.TAG_BYTE:
+			out.writeByte((Byte) value);
+			break;
+		case AnvilReader.TAG_SHORT:
+			out.writeShort((Short) value);
+			break;
+		case AnvilReader.TAG_INT:
+			out.writeInt((Integer) value);
+			break;
+		case AnvilReader.TAG_LONG:
+			out.writeLong((Long) value);
+			break;
+		case AnvilReader.TAG_FLOAT:
+			out.writeFloat((Float) value);
+			break;
+		case AnvilReader.TAG_DOUBLE:
+			out.writeDouble((Double) value);
+			break;
+		case AnvilReader.TAG_BYTE_ARRAY:
+			out.writeInt(((byte[]) value).length);
+			out.write((byte[]) value);
+			break;
+		case AnvilReader.TAG_STRING:
+			out.writeUTF((String) value);
+			break;
+		case AnvilReader.TAG_LIST: {
+			List<?> list = (List<?>) value;
+			// Empty lists are read with the type they were written with, which the server leaves
+			// as TAG_END, so lists that were empty get the type of what was added to them.
+			byte elementType = !list.isEmpty() ? type(list.get(0))
+					: list instanceof AnvilReader.TagList ? ((AnvilReader.TagList) list).type : AnvilReader.TAG_END;
+			out.writeByte(elementType);
+			out.writeInt(list.size());
+			for (Object element : list)
+				writeTag(out, element);
+			break;
+		}
+		case AnvilReader.TAG_COMPOUND:
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				out.writeByte(type(entry.getValue()));
+				out.writeUTF((String) entry.getKey());
+				writeTag(out, entry.getValue());
+			}
+			out.writeByte(AnvilReader.TAG_END);
+			break;
+		case AnvilReader.TAG_INT_ARRAY:
+			out.writeInt(((int[]) value).length);
+			for (int i : (int[]) value)
+				out.writeInt(i);
+			break;
+		default:
+			out.writeInt(((long[]) value).length);
+			for (long l : (long[]) value)
+				out.writeLong(l);
+		}
+	}
+
+	private static final byte type(Object value) throws IOException {
+		if (value instanceof Byte)
+			return AnvilReader.TAG_BYTE;
+		if (value instanceof Short)
+			return AnvilReader.TAG_SHORT;
+		if (value instanceof Integer)
+			return AnvilReader.TAG_INT;
+		if (value instanceof Long)
+			return AnvilReader.TAG_LONG;
+		if (value instanceof Float)
+			return AnvilReader.TAG_FLOAT;
+		if (value instanceof Double)
+			return AnvilReader.TAG_DOUBLE;
+		if (value instanceof byte[])
+			return AnvilReader.TAG_BYTE_ARRAY;
+		if (value instanceof String)
+			return AnvilReader.TAG_STRING;
+		if (value instanceof List)
+			return AnvilReader.TAG_LIST;
+		if (value instanceof Map)
+			return AnvilReader.TAG_COMPOUND;
+		if (value instanceof int[])
+			return AnvilReader.TAG_INT_ARRAY;
+		if (value instanceof long[])
+			return AnvilReader.TAG_LONG_ARRAY;
+		throw new IOException("Can't write " + value + " as NBT.");
+	}
+
+	// If the text of the tile entity is the same as that of the new one.
+	private static final boolean sameText(Map<String, Object> tileEntity, Map<String, Object> text) {
+		if (tileEntity == null)
+			return false;
+		for (Map.Entry<String, Object> entry : text.entrySet())
+			if (!entry.getValue().equals(tileEntity.get(entry.getKey())))
+				return false;
+		return true;
+	}
+
+	// Signs keep their lines as JSON text. Color codes in the text still work.
+	private static final String toJson(String line) {
+		StringBuilder json = new StringBuilder(line.length() + 12).append("{\"text\":\"");
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		return json.append("\"}").toString();
+	}
+
+	private static final int nibble(byte[] bytes, int index) {
+		return bytes[index >> 1] >> ((index & 1) << 2) & 15;
+	}
+
+	private static final void setNibble(byte[] bytes, int index, int value) {
+		int shift = (index & 1) << 2;
+		bytes[index >> 1] = (byte) (bytes[index >> 1] & ~(15 << shift) | (value & 15) << shift);
+	}
+
+	/**
+	 * Closes the region files.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Region region : files.values())
+			region.file.close();
+		files.clear();
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * Keeps track of which chunks of each region changed since the region was last saved, so
+ * "/rollback updateregion -changed" only has to copy those chunks again. Changes are found through
+ * the same events the WatchDogs use, and through the pastes and rollbacks of this plugin. Changes
+ * made without events, like by WorldEdit or other plugins editing the world directly, or while the
+ * plugin wasn't running, are not seen. That is why the whole region is copied unless "-changed" is
+ * given.
+ *
+ * The changes of a region are only known if it was saved since the server started, or if the
+ * server was stopped normally since. After a crash, the next update copies the whole region.
+ *
+ * @see Copy#update(Location, Location, String, Set, org.bukkit.command.CommandSender, String)
+ * @author lizardfreak321
+ */
+public final class ArenaChangeTracker {
+	private static final String STATE_FILE = "region-changes.yml";
+
+	private static final Map<String, Arena> arenas = new HashMap<String, Arena>();
+
+	// A region from the config.
+	static final class Arena {
+		final String name;
+		final String world;				// The name of the world it is in.
+		final int minX, minY, minZ;
+		final int maxX, maxY, maxZ;
+		final File file;				// The save of the region.
+		final Set<Long> chunks = new HashSet<Long>(); // The chunks changed since it was saved.
+		boolean known = false;			// If every change since it was saved is in the set.
+
+		Arena(String name, Location min, Location max) {
+			this.name = name;
+			this.world = min.getWorld().getName();
+			this.minX = min.getBlockX();
+			this.minY = min.getBlockY();
+			this.minZ = min.getBlockZ();
+			this.maxX = max.getBlockX();
+			this.maxY = max.getBlockY();
+			this.maxZ = max.getBlockZ();
+			this.file = Paths.get(Main.regionsPath.toString(), name + ".dat").toFile().getAbsoluteFile();
+		}
+
+		private final boolean hasBounds(String otherWorld, Location min, Location max) {
+			return otherWorld.equals(world) && min.getBlockX() == minX && min.getBlockY() == minY
+					&& min.getBlockZ() == minZ && max.getBlockX() == maxX && max.getBlockY() == maxY
+					&& max.getBlockZ() == maxZ;
+		}
+
+		private final boolean overlaps(String otherWorld, int otherMinX, int otherMinZ, int otherMaxX,
+				int otherMaxZ) {
+			return otherWorld.equals(world) && otherMinX <= maxX && otherMaxX >= minX
+					&& otherMinZ <= maxZ && otherMaxZ >= minZ;
+		}
+
+		// Marks the chunks of the region that overlap the area.
+		private final void markArea(int fromX, int fromZ, int toX, int toZ) {
+			for (int chunkX = Math.max(fromX, minX) >> 4; chunkX <= Math.min(toX, maxX) >> 4; chunkX++)
+				for (int chunkZ = Math.max(fromZ, minZ) >> 4; chunkZ <= Math.min(toZ, maxZ) >> 4; chunkZ++)
+					chunks.add(Utilities.chunkKey(chunkX, chunkZ));
+		}
+	}
+
+	private ArenaChangeTracker() {
+	}
+
+	/**
+	 * Starts tracking the regions in the config, and reads the changes that were saved when the
+	 * server stopped. Called when the plugin is enabled.
+	 */
+	static final void load() {
+		arenas.clear();
+		for (String name : Config.getRegionNames()) {
+			Location min = Config.getRegionMinLocation(name);
+			Location max = Config.getRegionMaxLocation(name);
+			if (max != null && min.getWorld() != null)
+				arenas.put(name, new Arena(name, min, max));
+		}
+
+		File file = new File(Main.plugin.getDataFolder(), STATE_FILE);
+		if (!file.exists())
+			return;
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+		ConfigurationSection section = yaml.getConfigurationSection("regions");
+		if (section != null) {
+			for (String name : section.getKeys(false)) {
+				Arena arena = arenas.get(name);
+				// The save must not have changed while the server was off.
+				if (arena == null || !arena.file.exists()
+						|| arena.file.lastModified() != section.getLong(name + ".modified", -1))
+					continue;
+				try {
+					for (String chunk : section.getStringList(name + ".chunks")) {
+						String[] parts = chunk.split(",");
+						arena.chunks.add(Utilities.chunkKey(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+					}
+					arena.known = true;
+				} catch (RuntimeException e) {
+					Main.plugin.getLogger().warning("Ignoring the saved changes of region " + name + ".");
+					arena.chunks.clear();
+				}
+			}
+		}
+		// Deleted so that it isn't trusted again after a crash.
+		if (!file.delete())
+			Main.plugin.getLogger().warning("Failed deleting " + file.getPath());
+	}
+
+	/**
+	 * Saves the changes of every region that are known, so they are still known after a restart.
+	 * Called when the plugin is disabled.
+	 */
+	static final void save() {
+		YamlConfiguration yaml = new YamlConfiguration();
+		for (Arena arena : arenas.values()) {
+			if (!arena.known || !arena.file.exists())
+				continue;
+			List<String> chunks = new ArrayList<String>(arena.chunks.size());
+			for (long key : arena.chunks)
+				chunks.add(Utilities.chunkKeyX(key) + "," + Utilities.chunkKeyZ(key));
+			yaml.set("regions." + arena.name + ".modified", arena.file.lastModified());
+			yaml.set("regions." + arena.name + ".chunks", chunks);
+		}
+		try {
+			yaml.save(new File(Main.plugin.getDataFolder(), STATE_FILE));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts tracking a region that was added or moved. Its changes are unknown until it is saved.
+	 */
+	static final void track(String name, Location min, Location max) {
+		arenas.put(name, new Arena(name, min, max));
+	}
+
+	/**
+	 * @return If any region is tracked.
+	 */
+	public static final boolean isTracking() {
+		return !arenas.isEmpty();
+	}
+
+	/**
+	 * Records that a block changed.
+	 */
+	public static final void blockChanged(World world, int x, int z) {
+		SectionStore.blockChanged(world, x, z);
+		for (Arena arena : arenas.values()) {
+			if (x >= arena.minX && x <= arena.maxX && z >= arena.minZ && z <= arena.maxZ
+					&& world.getName().equals(arena.world))
+				arena.chunks.add(Utilities.chunkKey(x >> 4, z >> 4));
+		}
+	}
+
+	/**
+	 * @param name
+	 *            The name of the region, case sensitive.
+	 * @return A copy of the keys of the chunks that changed since the region was saved, or null if
+	 *         that isn't known and the whole region has to be copied.
+	 */
+	public static final Set<Long> getChangedChunks(String name) {
+		Arena arena = arenas.get(name);
+		if (arena == null || !arena.known)
+			return null;
+		return new HashSet<Long>(arena.chunks);
+	}
+
+	// Called when a copy starts. Returns the region it saves, if it is one.
+	static final Arena copyStarted(Copy copy) {
+		File file = new File(copy.fileName).getAbsoluteFile();
+		for (Arena arena : arenas.values()) {
+			if (!arena.file.equals(file))
+				continue;
+			if (!arena.hasBounds(copy.getMin().getWorld().getName(), copy.getMin(), copy.getMax())) {
+				arena.known = false;
+				return null;
+			}
+			if (copy.changedColumns == null) {
+				arena.chunks.clear();
+			} else {
+				// Changes from now on are recorded again, since the chunks are copied over a few ticks.
+				ColumnIndex index = copy.createIndex();
+				for (int column = 0; column < index.getColumns(); column++) {
+					if (copy.changedColumns[column])
+						arena.chunks.remove(Utilities.chunkKey((arena.minX >> 4) + column / index.columnsZ,
+								(arena.minZ >> 4) + column % index.columnsZ));
+				}
+			}
+			// Unknown until the new save is written.
+			arena.known = false;
+			return arena;
+		}
+		return null;
+	}
+
+	static final void copyEnded(Arena arena, EndStatus status) {
+		if (arena != null)
+			arena.known = status == EndStatus.SUCCESS;
+	}
+
+	/**
+	 * Called when a paste starts. A region pasted from its own save matches its save again once the
+	 * paste is done, anything else pasted over a region changes it.
+	 *
+	 * @param world
+	 *            The name of the world it pastes in, which doesn't have to be loaded.
+	 * @return The region that is being reset, if it is one.
+	 */
+	static final Arena pasteStarted(String fileName, String world, Location min, Location max, boolean ignoreAir) {
+		File file = new File(fileName).getAbsoluteFile();
+		Arena reset = null;
+		for (Arena arena : arenas.values()) {
+			if (!ignoreAir && arena.file.equals(file) && arena.hasBounds(world, min, max)) {
+				arena.chunks.clear();
+				ArenaWatchDogs.resetStarted(arena.name);
+				reset = arena;
+			} else if (arena.overlaps(world, min.getBlockX(), min.getBlockZ(), max.getBlockX(),
+					max.getBlockZ())) {
+				arena.markArea(min.getBlockX(), min.getBlockZ(), max.getBlockX(), max.getBlockZ());
+			}
+		}
+		return reset;
+	}
+
+	static final void pasteEnded(Arena arena, EndStatus status) {
+		// If it failed, part of it may not have been pasted.
+		if (arena != null) {
+			arena.known = status == EndStatus.SUCCESS;
+			ArenaWatchDogs.resetEnded(arena.name, status);
+		}
+	}
+}
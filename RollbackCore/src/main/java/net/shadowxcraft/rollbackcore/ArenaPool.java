@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * A pool of instances of the same arena, which are reset in the background. Each slot is a region
+ * from the config, and every slot is reset to the same template save. When a round starts, a slot
+ * that is already reset is handed out right away instead of waiting for a paste. Slots that are
+ * given back are queued, and the queued slots are reset together by a {@link TemplatePaste}.
+ * 
+ * The resets have a low priority. They only start while no other operation is running, unless the
+ * oldest slot in the queue has waited longer than the "pool.maxwait" setting of the config.
+ * 
+ * @author lizardfreak321
+ */
+public final class ArenaPool {
+	private static final long CHECK_TICKS = 20;	// How often the queues are checked.
+	private static final Map<String, ArenaPool> pools = new LinkedHashMap<String, ArenaPool>();
+	private static int taskID = -1;				// The ID of the task that checks the queues.
+
+	private final String name;					// The name of the pool.
+	private final String template;				// The save the slots are reset to.
+	private final Map<String, Slot> slots = new LinkedHashMap<String, Slot>(); // The slots by region.
+	private final LinkedList<Slot> resetQueue = new LinkedList<Slot>(); // The slots waiting for a reset.
+	// How long the slots waited in the queue before their reset started.
+	private final LatencyHistogram queueLatency = new LatencyHistogram();
+	private TemplatePaste reset = null;			// The running reset, if there is one.
+	private long retryTime = 0;					// The nano-time a failed reset can be tried again at.
+	private boolean removed = false;
+
+	/**
+	 * The states a slot goes through. Slots start out queued, since what is in them isn't known.
+	 */
+	public enum State {
+		READY, IN_USE, QUEUED, RESETTING
+	}
+
+	private static final class Slot {
+		final String region;	// The name of the region in the config.
+		final Location min;		// Where the template is pasted.
+		State state = State.QUEUED;
+		long queuedTime;		// The nano-time it was queued at.
+
+		Slot(String region, Location min) {
+			this.region = region;
+			this.min = min;
+			this.queuedTime = System.nanoTime();
+		}
+	}
+
+	private ArenaPool(String name, String template) {
+		this.name = name;
+		this.template = template;
+	}
+
+	/**
+	 * Creates a pool and queues every slot to be reset.
+	 * 
+	 * @param name
+	 *            The name of the pool.
+	 * @param template
+	 *            The path of the save every slot is reset to.
+	 * @param regions
+	 *            The regions of the config that are the slots, case sensitive. They should be the
+	 *            same size as the template.
+	 * @return The pool, or null if a pool with that name exists or a region isn't in the config.
+	 */
+	public static final ArenaPool create(String name, String template, Collection<String> regions) {
+		if (pools.containsKey(name))
+			return null;
+		ArenaPool pool = new ArenaPool(name, template);
+		for (String region : regions) {
+			Location min = Config.getRegionMinLocation(region);
+			if (min.getWorld() == null || Config.getRegionMaxLocation(region) == null) {
+				Main.plugin.getLogger().warning("Can't create the pool " + name + ", the region " + region
+						+ " is missing from the config.");
+				return null;
+			}
+			Slot slot = new Slot(region, min);
+			pool.slots.put(region, slot);
+			pool.resetQueue.add(slot);
+		}
+		pools.put(name, pool);
+		if (taskID == -1) {
+			taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Main.plugin, new Runnable() {
+				@Override
+				public void run() {
+					for (ArenaPool pool : pools.values())
+						pool.checkQueue();
+				}
+			}, CHECK_TICKS, CHECK_TICKS);
+		}
+		return pool;
+	}
+
+	/**
+	 * @return The pool with that name, or null if there is none.
+	 */
+	public static final ArenaPool get(String name) {
+		return pools.get(name);
+	}
+
+	/**
+	 * @return Every pool.
+	 */
+	public static final Collection<ArenaPool> getPools() {
+		return Collections.unmodifiableCollection(pools.values());
+	}
+
+	/**
+	 * Removes the pool. A reset that is running finishes, but the slots are not handed out again.
+	 */
+	public final void remove() {
+		removed = true;
+		pools.remove(name);
+		if (pools.isEmpty() && taskID != -1) {
+			Bukkit.getScheduler().cancelTask(taskID);
+			taskID = -1;
+		}
+	}
+
+	/**
+	 * Hands out a slot that is reset.
+	 * 
+	 * @return The name of the region of the slot, or null if no slot is ready.
+	 */
+	public final String acquire() {
+		for (Slot slot : slots.values()) {
+			if (slot.state == State.READY) {
+				slot.state = State.IN_USE;
+				return slot.region;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gives a slot back once the round in it is over, which queues it to be reset.
+	 * 
+	 * @param region
+	 *            The name of the region of the slot.
+	 * @return False if the slot wasn't handed out.
+	 */
+	public final boolean release(String region) {
+		Slot slot = slots.get(region);
+		if (slot == null || slot.state != State.IN_USE)
+			return false;
+		queue(slot);
+		return true;
+	}
+
+	private final void queue(Slot slot) {
+		slot.state = State.QUEUED;
+		slot.queuedTime = System.nanoTime();
+		resetQueue.add(slot);
+	}
+
+	// Starts resetting the queued slots if it is time to.
+	private final void checkQueue() {
+		if (reset != null || resetQueue.isEmpty())
+			return;
+		long now = System.nanoTime();
+		if (now < retryTime)
+			return;
+		if (TaskManager.getNumTasks() > 0 && now - resetQueue.getFirst().queuedTime < Config.poolMaxWait * 1000000000L)
+			return;
+
+		List<Location> origins = new ArrayList<Location>(resetQueue.size());
+		for (Slot slot : resetQueue) {
+			slot.state = State.RESETTING;
+			queueLatency.record(now - slot.queuedTime);
+			origins.add(slot.min);
+		}
+		resetQueue.clear();
+		reset = new TemplatePaste(template, origins, null, true, false, Main.prefix);
+		reset.pool = this;
+		reset.start();
+	}
+
+	// Called by the reset when one of the slots is done.
+	final void targetEnded(Paste target, EndStatus status) {
+		for (Slot slot : slots.values()) {
+			if (slot.state != State.RESETTING || !slot.min.equals(target.getMin()))
+				continue;
+			if (status == EndStatus.SUCCESS) {
+				slot.state = State.READY;
+			} else {
+				// Tried again later, so a missing save doesn't try every second.
+				Main.plugin.getLogger().warning("Resetting " + slot.region + " of the pool " + name + " "
+						+ status.getDescription());
+				retryTime = System.nanoTime() + Config.poolMaxWait * 1000000000L;
+				queue(slot);
+			}
+			return;
+		}
+	}
+
+	// Called by the reset once every slot is done.
+	final void resetEnded() {
+		reset = null;
+		if (removed)
+			return;
+		checkQueue();
+	}
+
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The path of the save the slots are reset to.
+	 */
+	public final String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return The state of a slot, or null if the region isn't in the pool.
+	 */
+	public final State getState(String region) {
+		Slot slot = slots.get(region);
+		return slot == null ? null : slot.state;
+	}
+
+	/**
+	 * @return The number of slots.
+	 */
+	public final int getSize() {
+		return slots.size();
+	}
+
+	/**
+	 * @return The number of slots that are in the given state.
+	 */
+	public final int count(State state) {
+		int count = 0;
+		for (Slot slot : slots.values())
+			if (slot.state == state)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return The number of slots that can be handed out right away.
+	 */
+	public final int getReady() {
+		return count(State.READY);
+	}
+
+	/**
+	 * @return How long the oldest slot in the queue has waited in milliseconds, 0 if it is empty.
+	 */
+	public final long getOldestQueuedMillis() {
+		return resetQueue.isEmpty() ? 0 : (System.nanoTime() - resetQueue.getFirst().queuedTime) / 1000000;
+	}
+
+	/**
+	 * @return How long the slots waited in the queue before their reset started.
+	 */
+	public final LatencyHistogram getQueueLatency() {
+		return queueLatency.copy();
+	}
+}
@@ -0,0 +1,409 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+import net.shadowxcraft.rollbackcore.events.WDRollbackEndEvent;
+
+/**
+ * Keeps a WatchDog in each region of the config that has "watchdog: true", so rolling the region
+ * back only has to restore the blocks that changed instead of pasting all of it. The blocks are
+ * restored from the save of the region, not from the log, so the save stays what the region is
+ * reset to.
+ * 
+ * The log is only trusted after the region was pasted completely with the WatchDog running, and
+ * only while the save didn't change since. Until then, and once the WatchDog overflowed or the
+ * region was flagged with {@link #markUnreliable(String)}, the region is pasted completely. That is
+ * also the case after a restart, since the log is only kept in RAM.
+ * 
+ * @see WDRollbackEndEvent
+ * @author lizardfreak321
+ */
+public final class ArenaWatchDogs {
+	private static final Map<String, Watched> regions = new HashMap<String, Watched>();
+	static final List<Restore> runningRestores = new ArrayList<Restore>();
+
+	// A region with a WatchDog.
+	private static final class Watched {
+		final String name;
+		final Location min;
+		final Location max;
+		final File file;					// The save of the region.
+		WatchDogRegion watchDog = null;		// Created when the region is first pasted.
+		boolean reliable = false;			// If every change since it was pasted is logged.
+		long modified = 0;					// When the save was last changed, when it was pasted.
+		boolean restoring = false;
+
+		Watched(String name, Location min, Location max) {
+			this.name = name;
+			this.min = min;
+			this.max = max;
+			this.file = Paths.get(Main.regionsPath.toString(), name + ".dat").toFile().getAbsoluteFile();
+		}
+
+		private final boolean hasBounds(Location otherMin, Location otherMax) {
+			return otherMin.getWorld().equals(min.getWorld()) && otherMin.getBlockX() == min.getBlockX()
+					&& otherMin.getBlockY() == min.getBlockY() && otherMin.getBlockZ() == min.getBlockZ()
+					&& otherMax.getBlockX() == max.getBlockX() && otherMax.getBlockY() == max.getBlockY()
+					&& otherMax.getBlockZ() == max.getBlockZ();
+		}
+
+		private final boolean canRestore() {
+			return reliable && !restoring && watchDog != null && watchDog.isActive() && !watchDog.hasOverflowed()
+					&& !watchDog.isRollingBack() && file.lastModified() == modified;
+		}
+	}
+
+	private ArenaWatchDogs() {
+	}
+
+	/**
+	 * Reads which regions have a WatchDog from the config. The logs of the regions that didn't
+	 * change are kept. Called when the plugin is enabled and when the config is reloaded.
+	 */
+	static final void load() {
+		Map<String, Watched> old = new HashMap<String, Watched>(regions);
+		regions.clear();
+		for (String name : Config.getRegionNames()) {
+			if (!Config.isRegionWatched(name))
+				continue;
+			Location min = Config.getRegionMinLocation(name);
+			Location max = Config.getRegionMaxLocation(name);
+			if (max == null || min.getWorld() == null)
+				continue;
+			Watched region = old.remove(name);
+			if (region == null || !region.hasBounds(min, max)) {
+				if (region != null)
+					forget(region);
+				region = new Watched(name, min, max);
+			} else if (region.watchDog != null) {
+				region.watchDog.setMaxBlocks(Config.regionWatchDogMaxBlocks);
+			}
+			regions.put(name, region);
+		}
+		for (Watched region : old.values())
+			forget(region);
+	}
+
+	/**
+	 * Called when a region is added or moved. Its log starts over once it is pasted.
+	 */
+	static final void track(String name, Location min, Location max) {
+		Watched region = regions.remove(name);
+		if (region != null)
+			forget(region);
+		if (Config.isRegionWatched(name))
+			regions.put(name, new Watched(name, min, max));
+	}
+
+	private static final void forget(Watched region) {
+		if (region.watchDog != null && region.watchDog.isActive())
+			region.watchDog.remove();
+		region.reliable = false;
+	}
+
+	/**
+	 * @return If the region has a WatchDog.
+	 */
+	public static final boolean isWatched(String name) {
+		return regions.containsKey(name);
+	}
+
+	/**
+	 * @return If rolling back the region would only restore the blocks that changed.
+	 */
+	public static final boolean canRestore(String name) {
+		Watched region = regions.get(name);
+		return region != null && region.canRestore();
+	}
+
+	/**
+	 * Makes the next rollback of the region paste all of it. Use it after changing the region in a
+	 * way the WatchDog can't see, like without events.
+	 */
+	public static final void markUnreliable(String name) {
+		Watched region = regions.get(name);
+		if (region != null)
+			region.reliable = false;
+	}
+
+	/**
+	 * Rolls the region back by restoring the blocks its WatchDog logged from its save, if the log
+	 * can be trusted. A WDRollbackEndEvent is called once it is done.
+	 * 
+	 * @param name
+	 *            The name of the region, case sensitive.
+	 * @param sender
+	 *            The person who will get status messages. Use null for no messsages.
+	 * @param prefix
+	 *            The prefix that will be used when sending messages to the sender.
+	 * @param clearEntities
+	 *            If the entities of the region are removed first.
+	 * @return False if the log can't be trusted or the save can't be read one column at a time, in
+	 *         which case nothing was started and the region has to be pasted.
+	 */
+	public static final boolean restore(String name, CommandSender sender, String prefix, boolean clearEntities) {
+		Watched region = regions.get(name);
+		if (region == null || !region.canRestore())
+			return false;
+		if (!SaveLookup.canRead(region.file, region.max.getBlockX() - region.min.getBlockX() + 1,
+				region.max.getBlockY() - region.min.getBlockY() + 1, region.max.getBlockZ() - region.min.getBlockZ() + 1))
+			return false;
+		new Restore(region, sender, prefix, clearEntities).start();
+		return true;
+	}
+
+	// Called when the region starts being pasted from its save, completely or not.
+	static final void resetStarted(String name) {
+		Watched region = regions.get(name);
+		if (region == null)
+			return;
+		if (region.watchDog == null || !region.watchDog.isActive()) {
+			region.watchDog = new WatchDogRegion(region.min.clone(), region.max.clone(), Main.prefix);
+			region.watchDog.setMaxBlocks(Config.regionWatchDogMaxBlocks);
+		}
+		// Only the changes from now on are left to restore once it is done.
+		region.watchDog.reset();
+		region.reliable = false;
+	}
+
+	static final void resetEnded(String name, EndStatus status) {
+		Watched region = regions.get(name);
+		if (region == null)
+			return;
+		region.reliable = status == EndStatus.SUCCESS;
+		region.modified = region.file.lastModified();
+	}
+
+	/**
+	 * Cancels every running restore.
+	 * 
+	 * @return The number of restores that were canceled.
+	 */
+	static final int cancelAll() {
+		// Copies the list since ending a restore removes it from the list.
+		List<Restore> restores = new ArrayList<Restore>(runningRestores);
+		for (Restore restore : restores)
+			restore.end(EndStatus.FAIL_EXERNAL_TERMONATION);
+		return restores.size();
+	}
+
+	// Restores the logged blocks of a region from its save.
+	private static final class Restore implements Runnable {
+		private final Watched region;
+		private int[] xs, ys, zs;					// The logged blocks, relative to the min corner.
+		private final CommandSender sender;
+		private final String prefix;
+		private final boolean clearEntities;
+		private final boolean originalWorldSaveSetting;
+		private final long startTime = System.nanoTime();
+		private final OperationStats stats;
+		private final ChunkRefresher refresher;
+		private ArenaChangeTracker.Arena arena = null;
+		private OperationAreas.Area area = null;	// The area it claimed while it runs.
+		// Used to start it again once the operations it overlaps end.
+		private final OperationAreas.Waiting waiting = new OperationAreas.Waiting() {
+			@Override
+			public void retry() {
+				start();
+			}
+
+			@Override
+			public void end(EndStatus status) {
+				Restore.this.end(status);
+			}
+		};
+		private SaveLookup blocks = null;			// The saved blocks, null until they are read.
+		private ClearEntities clearing = null;
+		private int taskID = -1;
+		private int index = 0;						// The block being restored.
+		private int changed = 0;					// The number of blocks that changed.
+		private long tick = 0;
+		private boolean ended = false;
+
+		Restore(Watched region, CommandSender sender, String prefix, boolean clearEntities) {
+			this.region = region;
+			this.sender = sender;
+			this.prefix = prefix;
+			this.clearEntities = clearEntities;
+			this.originalWorldSaveSetting = region.min.getWorld().isAutoSave();
+			stats = Statistics.start(OperationStats.Type.WATCHDOG_ROLLBACK, region.name);
+			refresher = new ChunkRefresher(region.min.getWorld());
+		}
+
+		// Takes the blocks the WatchDog logged, once nothing else can change the region.
+		private final void takeLoggedLocations() {
+			List<Location> locations = region.watchDog.takeLoggedLocations();
+			// Sorted by height to prevent issues with blocks that are effected by gravity.
+			Collections.sort(locations, new Comparator<Location>() {
+				@Override
+				public int compare(Location a, Location b) {
+					return a.getBlockY() - b.getBlockY();
+				}
+			});
+			xs = new int[locations.size()];
+			ys = new int[locations.size()];
+			zs = new int[locations.size()];
+			for (int i = 0; i < xs.length; i++) {
+				Location location = locations.get(i);
+				xs[i] = location.getBlockX() - region.min.getBlockX();
+				ys[i] = location.getBlockY() - region.min.getBlockY();
+				zs[i] = location.getBlockZ() - region.min.getBlockZ();
+			}
+			stats.totalBlocks = xs.length;
+		}
+
+		// Reads the saved blocks asynchronously, then restores them on the main thread.
+		private final void start() {
+			region.restoring = true;
+			area = OperationAreas.claim(region.min, region.max, true, waiting);
+			if (area == null)
+				return;
+			// Taken only once it can run, so a restore that is rejected or canceled while it
+			// waits leaves the log as it was.
+			takeLoggedLocations();
+			runningRestores.add(this);
+			arena = ArenaChangeTracker.pasteStarted(region.file.getPath(), region.min.getWorld().getName(), region.min,
+					region.max, false);
+			if (sender != null)
+				sender.sendMessage(prefix + "Restoring the " + xs.length + " blocks of " + region.name
+						+ " that changed.");
+
+			Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+				@Override
+				public void run() {
+					SaveLookup lookup = null;
+					EndStatus status;
+					try {
+						lookup = SaveLookup.read(region.file, xs, ys, zs);
+						status = lookup == null ? EndStatus.FAIL_INCOMPATIBLE_VERSION : EndStatus.SUCCESS;
+					} catch (EOFException e) {
+						status = EndStatus.FILE_END_EARLY;
+					} catch (IOException e) {
+						e.printStackTrace();
+						status = EndStatus.FAIL_IO_ERROR;
+					}
+					final SaveLookup result = lookup;
+					final EndStatus resultStatus = status;
+					Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+						@Override
+						public void run() {
+							read(result, resultStatus);
+						}
+					});
+				}
+			});
+		}
+
+		private final void read(SaveLookup lookup, EndStatus status) {
+			if (ended)
+				return;
+			if (status != EndStatus.SUCCESS) {
+				end(status);
+				return;
+			}
+			blocks = lookup;
+			if (clearEntities) {
+				// In case there are entities that can cause problems, like lit TNT.
+				clearing = new ClearEntities(region.min, region.max, null, false).progressiveClearEntities();
+			}
+			// Disables auto saving to increase performance.
+			region.min.getWorld().setAutoSave(false);
+			taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Main.plugin, this, 1, 1);
+		}
+
+		@Override
+		public void run() {
+			tick++;
+			long startTime = System.nanoTime();
+			long now = startTime;
+			World world = region.min.getWorld();
+			stats.startTick();
+
+			while ((clearing == null || clearing.isDone()) && index < xs.length
+					&& now - startTime < TaskManager.getMaxTime() * 1000000) {
+				int x = region.min.getBlockX() + xs[index];
+				int y = region.min.getBlockY() + ys[index];
+				int z = region.min.getBlockZ() + zs[index];
+				stats.visit(world, x, y, z);
+				stats.blockId = blocks.ids[index];
+				stats.blocksVisited++;
+				if (RollbackOperation.setBlock(world.getBlockAt(x, y, z), blocks.ids[index], blocks.data[index],
+						blocks.lines[index])) {
+					changed++;
+					stats.blocksChanged++;
+					refresher.blockChanged(x, z);
+				}
+				index++;
+				now = System.nanoTime();
+				stats.iteration(now);
+			}
+			stats.endTick();
+
+			// Lets the user know how it is going.
+			if (sender != null && tick % 100 == 0)
+				sender.sendMessage(prefix + new DecimalFormat("#.0").format(index * 100.0 / xs.length)
+						+ "% done with restoring " + region.name + ".");
+			if (index >= xs.length)
+				end(EndStatus.SUCCESS);
+		}
+
+		private final void end(EndStatus status) {
+			if (ended)
+				return;
+			ended = true;
+			if (taskID != -1)
+				Bukkit.getScheduler().cancelTask(taskID);
+			taskID = -1;
+			runningRestores.remove(this);
+			OperationAreas.dequeue(waiting);
+			OperationAreas.release(area);
+			area = null;
+			region.restoring = false;
+			// The blocks it didn't restore are no longer logged.
+			if (xs != null && status != EndStatus.SUCCESS)
+				region.reliable = false;
+			refresher.finish();
+			region.min.getWorld().setAutoSave(originalWorldSaveSetting);
+			Statistics.end(stats, status);
+			ArenaChangeTracker.pasteEnded(arena, status);
+			if (sender != null)
+				sender.sendMessage(prefix + "Restoring " + region.name + " " + status.getDescription());
+			new WDRollbackEndEvent(region.watchDog, System.nanoTime() - startTime, changed, status);
+		}
+	}
+}
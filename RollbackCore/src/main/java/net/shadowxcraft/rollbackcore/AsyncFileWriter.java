@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Writes a file on a worker thread, so a slow disk doesn't stall the tick that writes it. The bytes
+ * are collected in a few reusable buffers, and each full buffer is handed to the worker thread,
+ * which writes it to the file and hands it back. Writing only waits when every buffer is still
+ * waiting to be written, so code on the main thread should stop for the tick once
+ * {@link #isBackedUp()} instead.
+ *
+ * @author lizardfreak321
+ */
+class AsyncFileWriter extends OutputStream {
+	static final int BUFFERS = 4;				// The number of buffers.
+	static final int BUFFER_SIZE = 64 * 1024;	// The size of each buffer.
+	// Put in the queue after the last buffer, to tell the worker thread to close the file.
+	private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+	private final FileChannel channel;
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+	private final CountDownLatch closed = new CountDownLatch(1);	// Opened once the file is closed.
+	private ByteBuffer buffer;					// The buffer being filled.
+	private boolean closing = false;			// If no more bytes can be written.
+	private volatile Runnable onClose = null;	// Run on the main thread once the file is closed.
+	private volatile IOException failure = null;// Why writing or closing the file failed.
+	private volatile boolean aborted = false;	// If the rest is dropped instead of written.
+	private volatile File deleteOnClose = null;	// Deleted once the file is closed, if it was aborted.
+
+	/**
+	 * Creates or replaces the file, and starts the worker thread.
+	 *
+	 * @throws IOException
+	 *             If the file can't be opened.
+	 */
+	@SuppressWarnings("resource")
+	AsyncFileWriter(File file) throws IOException {
+		channel = new FileOutputStream(file).getChannel();
+		for (int i = 1; i < BUFFERS; i++)
+			free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				writeBuffers();
+			}
+		});
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining())
+			nextBuffer();
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!buffer.hasRemaining())
+				nextBuffer();
+			int count = Math.min(len, buffer.remaining());
+			buffer.put(b, off, count);
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Does nothing, the buffers are written as they fill up and when the file is closed.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * @return If writing past the current buffer would wait for the worker thread, because every
+	 *         other buffer is still waiting to be written.
+	 */
+	final boolean isBackedUp() {
+		return free.isEmpty();
+	}
+
+	/**
+	 * @return Why writing the file failed, or null if it didn't.
+	 */
+	final IOException getFailure() {
+		return failure;
+	}
+
+	// Hands the full buffer to the worker thread, and takes a free one.
+	private final void nextBuffer() throws IOException {
+		if (closing)
+			throw new IOException("The file is closed.");
+		if (failure != null)
+			throw failure;
+		try {
+			filled.put(buffer);
+			buffer = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to write.");
+		}
+	}
+
+	/**
+	 * Writes the rest and closes the file on the worker thread, which syncs it to the disk first.
+	 *
+	 * @param onClose
+	 *            Run on the main thread once the file is closed. {@link #getFailure()} says if it
+	 *            was written.
+	 * @throws IOException
+	 *             If writing already failed.
+	 */
+	final void closeAsync(Runnable onClose) throws IOException {
+		this.onClose = onClose;
+		finishWriting();
+	}
+
+	/**
+	 * Writes the rest and closes the file, and waits until it is closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		finishWriting();
+		try {
+			closed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the file to close.");
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Stops writing without waiting for the worker thread, for a file that won't be used. The
+	 * buffers that weren't written yet are dropped, the file isn't synced to the disk, and it is
+	 * deleted once the worker thread closed it.
+	 *
+	 * @param file
+	 *            The file being written, or null to keep it.
+	 */
+	final void abort(File file) {
+		deleteOnClose = file;
+		aborted = true;
+		if (!closing) {
+			closing = true;
+			// The buffer being filled is dropped, so the marker always fits.
+			filled.add(CLOSE);
+		}
+		// In case the worker thread closed it before it could see the file.
+		if (file != null && closed.getCount() == 0)
+			file.delete();
+	}
+
+	private final void finishWriting() throws IOException {
+		if (closing)
+			return;
+		closing = true;
+		// The queue has room for every buffer and the marker, so this doesn't wait.
+		filled.add(buffer);
+		filled.add(CLOSE);
+		if (failure != null)
+			throw failure;
+	}
+
+	// Runs on the worker thread until the file is closed.
+	private final void writeBuffers() {
+		try {
+			while (true) {
+				ByteBuffer next = filled.take();
+				if (next == CLOSE)
+					break;
+				// After a failure the buffers are still handed back, so writing never waits forever.
+				if (failure == null && !aborted) {
+					try {
+						next.flip();
+						while (next.hasRemaining())
+							channel.write(next);
+					} catch (IOException e) {
+						failure = e;
+					}
+				}
+				next.clear();
+				free.put(next);
+			}
+			// Synced so the file is complete on the disk before anything uses it.
+			if (failure == null && !aborted)
+				channel.force(true);
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			failure = new IOException("Interrupted while writing.");
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+			closed.countDown();
+		}
+		File file = deleteOnClose;
+		if (file != null)
+			file.delete();
+		final Runnable callback = onClose;
+		if (callback != null)
+			Bukkit.getScheduler().runTask(Main.plugin, callback);
+	}
+}
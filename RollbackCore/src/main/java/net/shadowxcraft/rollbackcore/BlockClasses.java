@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.material.Attachable;
+import org.bukkit.material.MaterialData;
+
+/**
+ * Sorts the block IDs by what they need from the blocks around them. Blocks that aren't in any of
+ * the classes are plain solid blocks, and don't need anything.
+ *
+ * @author lizardfreak321
+ */
+final class BlockClasses {
+	static final int ATTACHABLE = 1;	// Drops as an item if the block it is on isn't there.
+	static final int FLUID = 2;			// Flows into the air around it.
+	static final int TRANSPARENT = 4;	// Light goes through it without dimming, so it isn't in height maps.
+
+	// Blocks that have to be set after everything else by two pass pastes.
+	static final int DEFERRED = ATTACHABLE | FLUID;
+
+	private static final byte[] classes = new byte[4096];
+
+	static {
+		set(ATTACHABLE, 6, 26, 27, 28, 31, 32, 37, 38, 39, 40, 50, 55, 59, 63, 64, 65, 66, 68, 69, 70, 71, 72,
+				75, 76, 77, 78, 81, 83, 90, 93, 94, 96, 104, 105, 106, 111, 115, 127, 131, 132, 140, 141, 142,
+				143, 144, 147, 148, 149, 150, 157, 167, 171, 175, 176, 177, 193, 194, 195, 196, 197, 199, 200,
+				207);
+		set(FLUID, 8, 9, 10, 11);
+		set(TRANSPARENT, 0, 6, 20, 26, 27, 28, 31, 32, 34, 36, 37, 38, 39, 40, 50, 51, 52, 54, 55, 59, 63, 64,
+				65, 66, 68, 69, 70, 71, 72, 75, 76, 77, 78, 81, 83, 85, 90, 92, 93, 94, 95, 96, 101, 102, 104,
+				105, 106, 107, 111, 113, 115, 116, 117, 118, 119, 120, 122, 127, 130, 131, 132, 138, 139, 140,
+				141, 142, 143, 144, 145, 146, 147, 148, 149, 150, 151, 154, 157, 160, 165, 166, 167, 171, 175,
+				176, 177, 178, 183, 184, 185, 186, 187, 188, 189, 190, 191, 192, 193, 194, 195, 196, 197, 198,
+				199, 200, 207, 209, 217, 219, 220, 221, 222, 223, 224, 225, 226, 227, 228, 229, 230, 231, 232,
+				233, 234);
+	}
+
+	private BlockClasses() {
+	}
+
+	private static final void set(int blockClass, int... ids) {
+		for (int id : ids)
+			classes[id] |= blockClass;
+	}
+
+	/**
+	 * @return The classes of the block, as flags.
+	 */
+	static final int get(int id) {
+		return id >= 0 && id < classes.length ? classes[id] : 0;
+	}
+
+	/**
+	 * @return If the block is in the class.
+	 */
+	static final boolean is(int id, int blockClass) {
+		return (get(id) & blockClass) != 0;
+	}
+
+	/**
+	 * Checks if an attachable block would drop if it was set now.
+	 *
+	 * @param block
+	 *            Where it would be set.
+	 * @return False if it would stay, or if what it needs isn't known, like for vines and lily pads.
+	 */
+	@SuppressWarnings("deprecation")
+	static final boolean wouldDrop(Block block, int id, int data) {
+		BlockFace face;
+		switch (id) {
+		case 106:	// Vines
+		case 111:	// Lily pads
+		case 199:	// Chorus plants
+		case 200:	// Chorus flowers
+			return false;
+		default:
+			Material material = Material.getMaterial(id);
+			MaterialData materialData = material == null ? null : material.getNewData((byte) data);
+			face = materialData instanceof Attachable ? ((Attachable) materialData).getAttachedFace()
+					: BlockFace.DOWN;
+		}
+		return face != null && !block.getRelative(face).getType().isSolid();
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The block encoding of saves since version 5. Each run of the same block is the block as a varint,
+ * its ID shifted left by 4 with the data in the low 4 bits, followed by how many times it repeats
+ * as a varint. Blocks with text have a count of 0 followed by their 4 lines, each a varint length
+ * and that many bytes of UTF-8. A varint stores 7 bits per byte, the low bits first, with the high
+ * bit set on every byte but the last, so runs of any length take a few bytes. A section that is
+ * all one block, air or not, is a single run, which pastes check against the world as a whole.
+ *
+ * Older saves are still read by the {@link BlockDecoder} with the helpers of FileUtilities.
+ *
+ * @see BlockEncoder
+ * @author lizardfreak321
+ */
+final class BlockCodec {
+	static final int MAX_VARINT = 5;		// The most bytes an int takes as a varint.
+	static final int BUFFER_SIZE = 8192;	// How many bytes are read from or written to a stream at once.
+
+	private BlockCodec() {
+	}
+
+	/**
+	 * @return The block as it is written, its ID and data in one number.
+	 */
+	static final int toBlock(int id, int data) {
+		return id << 4 | data & 15;
+	}
+
+	/**
+	 * Adds a varint to the buffer, which must have room for {@link #MAX_VARINT} bytes.
+	 */
+	static final void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads a varint from the buffer.
+	 *
+	 * @throws BufferUnderflowException
+	 *             If the buffer ends in the middle of it.
+	 * @throws IOException
+	 *             If it is longer than an int can be, which means the save is corrupted.
+	 */
+	static final int getVarInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 7 * MAX_VARINT; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("A number in the save is too long, it is corrupted.");
+	}
+
+	/**
+	 * Reads the blocks of a save of version 5 or later. The bytes are either all in memory already,
+	 * or read from a stream in large blocks as they are needed.
+	 */
+	static final class Decoder extends BlockDecoder {
+		private final InputStream in;	// Where more bytes come from, null if they are all in the buffer.
+		private ByteBuffer buffer;		// The bytes that were read but not decoded yet.
+		private int count = 0;			// How many more times the current block repeats.
+
+		/**
+		 * Reads the blocks from a stream. It reads ahead, so nothing else can be read from the stream
+		 * after the blocks.
+		 */
+		Decoder(InputStream in) {
+			super(null, null);
+			this.in = in;
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.limit(0);
+		}
+
+		/**
+		 * Reads the blocks from bytes that are already in memory.
+		 */
+		Decoder(byte[] bytes, int offset, int length) {
+			super(null, null);
+			this.in = null;
+			this.buffer = ByteBuffer.wrap(bytes, offset, length);
+		}
+
+		@Override
+		boolean nextBlock() throws IOException {
+			if (count <= 0) {
+				// The varints of a run are read together.
+				fill(MAX_VARINT * 2);
+				if (!buffer.hasRemaining())
+					return false;
+				try {
+					int block = getVarInt(buffer);
+					id = block >>> 4;
+					data = block & 15;
+					count = getVarInt(buffer);
+					if (count == 0) {
+						lines = readLines();
+						count = 1;
+					} else {
+						lines = null;
+					}
+				} catch (BufferUnderflowException e) {
+					// It was cut off in the middle of the run.
+					return false;
+				}
+			}
+			count--;
+			return true;
+		}
+
+		@Override
+		int getRepeats() {
+			return count;
+		}
+
+		@Override
+		void skipRepeats(int blocks) {
+			count -= blocks;
+		}
+
+		private final String[] readLines() throws IOException {
+			String[] lines = new String[4];
+			for (int i = 0; i < 4; i++) {
+				fill(MAX_VARINT);
+				int length = getVarInt(buffer);
+				fill(length);
+				if (buffer.remaining() < length)
+					throw new BufferUnderflowException();
+				lines[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+						StandardCharsets.UTF_8);
+				buffer.position(buffer.position() + length);
+			}
+			return lines;
+		}
+
+		// Reads from the stream until at least that many bytes are in the buffer, or the stream ends.
+		private final void fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes || in == null)
+				return;
+			if (buffer.capacity() < bytes) {
+				// Only long text doesn't fit.
+				buffer = ByteBuffer.allocate(bytes).put(buffer);
+			} else {
+				buffer.compact();
+			}
+			while (buffer.position() < bytes) {
+				int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+				if (read < 0)
+					break;
+				buffer.position(buffer.position() + read);
+			}
+			buffer.flip();
+		}
+	}
+}
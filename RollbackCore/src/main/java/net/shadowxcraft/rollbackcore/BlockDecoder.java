@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the blocks of a save file one at a time. The counterpart of the BlockEncoder, shared by
+ * everything that reads save files. This class reads the saves of version 4 and older, the newer
+ * ones are read by a {@link BlockCodec.Decoder}, so use the create methods to get the right one.
+ * 
+ * @author lizardfreak321
+ */
+class BlockDecoder {
+	private final InputStream in;		// The stream the blocks are read from.
+	private final int[] simpleBlocks;	// Stores what blocks do not have the data saved.
+	private int count = 0;				// How many more times the current block repeats.
+	int id;								// The ID of the current block.
+	int data;							// The data of the current block.
+	String[] lines = null;				// The text of the current block, null if it has none.
+
+	BlockDecoder(InputStream in, int[] simpleBlocks) {
+		this.in = in;
+		this.simpleBlocks = simpleBlocks;
+	}
+
+	/**
+	 * Creates the decoder for the blocks of a save.
+	 * 
+	 * @param in
+	 *            The stream of the save, after the header. The decoder may read ahead, so nothing
+	 *            else can be read from it after the blocks.
+	 * @param version
+	 *            The version of the save.
+	 * @param simpleBlocks
+	 *            The blocks that don't have their data saved, from the header.
+	 */
+	static final BlockDecoder create(InputStream in, int version, int[] simpleBlocks) {
+		if (version >= 5)
+			return new BlockCodec.Decoder(in);
+		return new BlockDecoder(in, simpleBlocks);
+	}
+
+	/**
+	 * Creates the decoder for blocks of a save that are already in memory, like one of its columns.
+	 * 
+	 * @param version
+	 *            The version of the save.
+	 */
+	static final BlockDecoder create(byte[] bytes, int offset, int length, int version, int[] simpleBlocks) {
+		if (version >= 5)
+			return new BlockCodec.Decoder(bytes, offset, length);
+		return new BlockDecoder(new ByteArrayInputStream(bytes, offset, length), simpleBlocks);
+	}
+
+	/**
+	 * Creates the decoder for a section of the section store. Sections say how they are encoded,
+	 * since the store is shared by saves of every version.
+	 * 
+	 * @param bytes
+	 *            The section, starting with its size.
+	 * @param simpleBlocks
+	 *            The blocks that don't have their data saved, from the manifest.
+	 */
+	static final BlockDecoder forSection(byte[] bytes, int[] simpleBlocks) {
+		return create(bytes, SectionStore.SECTION_HEADER, bytes.length - SectionStore.SECTION_HEADER,
+				(bytes[0] & SectionStore.VARINTS) != 0 ? 5 : 4, simpleBlocks);
+	}
+
+	/**
+	 * Moves on to the next block of the file.
+	 * 
+	 * @return False if the file ended early, which normally happens when there was a copy error or
+	 *         the file got corrupted.
+	 * @throws IOException
+	 */
+	boolean nextBlock() throws IOException {
+		// Less than or equal to 0 means it needs to check for the next set of blocks.
+		if (count <= 0) {
+			// Gets the ID of the block.
+			id = in.read();
+			if (id == -1) {
+				return false;
+			}
+
+			// For compression, it checks if this block doesn't need data saved.
+			if (RollbackOperation.isSimple(id, simpleBlocks)) {
+				data = 0;
+			} else {
+				data = in.read();
+			}
+
+			// For compression, it reads how many times this block is repeated. Signs and
+			// command blocks have 0 followed by their text, other blocks have 0 followed by the
+			// count as a short when it is above 255. Only version 4 writes that, older versions
+			// never wrote 0 for blocks without text.
+			count = in.read();
+			if (count == 0 && RollbackOperation.hasText(id)) {
+				lines = readLines();
+				count = 1;
+			} else if (count == 0) {
+				count = FileUtilities.readShort(in);
+				lines = null;
+			} else {
+				lines = null;
+			}
+		}
+		count--;
+		return true;
+	}
+
+	/**
+	 * @return How many more times the current block repeats after it.
+	 */
+	int getRepeats() {
+		return count;
+	}
+
+	/**
+	 * Moves on past blocks that repeat the current block, without going through them one at a time.
+	 * 
+	 * @param blocks
+	 *            The number of blocks to skip, at most {@link #getRepeats()}.
+	 */
+	void skipRepeats(int blocks) {
+		count -= blocks;
+	}
+
+	// Used in the reading of the text of signs and command blocks.
+	private final String[] readLines() throws IOException {
+		// Signs have 4 lines.
+		String lines[] = new String[4];
+		for (int lineNumber = 0; lineNumber < 4; lineNumber++) {
+			StringBuilder line = new StringBuilder();
+			int character = in.read();
+			// Stops at the end of the file too so a cut off file can't loop forever.
+			while (character > 0) {
+				line.append((char) character);
+				character = in.read();
+			}
+			lines[lineNumber] = line.toString();
+		}
+		return lines;
+	}
+
+	/**
+	 * Reads the start of a save file.
+	 * 
+	 * @param in
+	 *            The stream of the file, at the start of the file.
+	 * @return The header of the file, or null if the version of the file is not supported.
+	 * @throws IOException
+	 */
+	static final Header readHeader(InputStream in) throws IOException {
+		Header header = new Header();
+		// In case the file they are trying to read is out of date or too new.
+		header.version = in.read();
+
+		if (header.version >= 1 && header.version <= 5) {
+			int length = in.read();
+			header.simpleBlocks = new int[length];
+			for (int i = 0; i < length; i++)
+				header.simpleBlocks[i] = in.read();
+		} else if (header.version == 0) {
+			header.simpleBlocks = RollbackOperation.version1Blocks;
+		} else {
+			return null;
+		}
+
+		// Reads the sizes using readShort because it can be larger than 255
+		header.sizeX = FileUtilities.readShort(in);
+		header.sizeY = FileUtilities.readShort(in);
+		header.sizeZ = FileUtilities.readShort(in);
+
+		if (header.version >= 3) {
+			header.index = new ColumnIndex(header.sizeX + 1, header.sizeY + 1, header.sizeZ + 1, in.read(), in.read());
+		} else if (header.version == 2) {
+			header.index = ColumnIndex.version2(header.sizeX + 1, header.sizeY + 1, header.sizeZ + 1, in.read(),
+					in.read());
+		} else {
+			header.index = ColumnIndex.whole(header.sizeX + 1, header.sizeY + 1, header.sizeZ + 1);
+		}
+		return header;
+	}
+
+	/**
+	 * The values stored at the start of a save file.
+	 */
+	static final class Header {
+		int version;		// The version of the file format.
+		int[] simpleBlocks;	// The blocks that don't have their data saved.
+		int sizeX;			// The difference between the max and min X of the region.
+		int sizeY;			// The difference between the max and min Y of the region.
+		int sizeZ;			// The difference between the max and min Z of the region.
+		ColumnIndex index;	// The order of the blocks. A single column before version 2.
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes blocks to a save file using the run length encoding of the current file format. It is
+ * shared by every copy task so that they all write the exact same files.
+ * 
+ * @see BlockCodec
+ * @author lizardfreak321
+ */
+class BlockEncoder {
+	static final int MAX_RUN = Integer.MAX_VALUE;	// The longest run written with one count.
+
+	private final OutputStream out;	// The stream the blocks get written to.
+	// The runs that weren't written to the stream yet, so it is written to in large blocks.
+	private final ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.BUFFER_SIZE);
+	private int lastId = -1;		// Used to keep track of which ID was the previous for the count.
+	private int lastData = -1;		// Used to keep track of which Data was the previous for the count.
+	private int count = 0;			// Used to keep track of how many times the block repeats.
+
+	BlockEncoder(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Adds the next block to the file.
+	 * 
+	 * @param id
+	 *            The ID of the block.
+	 * @param data
+	 *            The data value of the block.
+	 * @param lines
+	 *            The text of the block if it is a sign or command block, else null.
+	 * @throws IOException
+	 */
+	final void writeBlock(int id, int data, String[] lines) throws IOException {
+		// The data of these blocks was never saved, so they still repeat whatever it is.
+		if (RollbackOperation.isSimple(id, RollbackOperation.simpleBlocks)) {
+			data = 0;
+		}
+		// If they are the same, skip writing. If it's -1 it means it is the first block so it
+		// should skip writing.
+		if (id == lastId && data == lastData && count != MAX_RUN && !RollbackOperation.hasText(id)) {
+			// This means that the block repeated itself, so it keeps track of it, rather than
+			// writing it every time. This is to compress the output file.
+			count++;
+		} else {
+			// Write the count of the previous block down.
+			writeCount();
+
+			// Write the ID and data of the new block.
+			reserve(BlockCodec.MAX_VARINT);
+			BlockCodec.putVarInt(buffer, BlockCodec.toBlock(id, data));
+
+			if (RollbackOperation.hasText(id)) {
+				// A count of 0 signifies that the text follows.
+				reserve(1);
+				buffer.put((byte) 0);
+				for (int i = 0; i < 4; i++) {
+					writeText(lines == null || lines[i] == null ? "" : lines[i]);
+				}
+				count = 0;
+			} else {
+				// Sets count = to one to signify it is the first block in a row.
+				count = 1;
+			}
+		}
+
+		// Sets the last values to the last used ones so that it can check
+		// if the new block is the same as the last one.
+		lastId = id;
+		lastData = data;
+	}
+
+	/**
+	 * Adds the same block many times, without going through them one at a time.
+	 * 
+	 * @param id
+	 *            The ID of the block, which must not have text.
+	 * @param data
+	 *            The data value of the block.
+	 * @param blocks
+	 *            How many times it is added.
+	 * @throws IOException
+	 */
+	final void writeRun(int id, int data, long blocks) throws IOException {
+		while (blocks > 0) {
+			// Starts a new run, or adds to the last one if it is the same block.
+			writeBlock(id, data, null);
+			int added = (int) Math.min(blocks - 1, MAX_RUN - count);
+			count += added;
+			blocks -= added + 1;
+		}
+	}
+
+	// Writes the count of the current run. Blocks with text have no count.
+	private final void writeCount() throws IOException {
+		if (count != 0) {
+			reserve(BlockCodec.MAX_VARINT);
+			BlockCodec.putVarInt(buffer, count);
+		}
+	}
+
+	// Writes a line of text as its length followed by its UTF-8 bytes.
+	private final void writeText(String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		reserve(BlockCodec.MAX_VARINT);
+		BlockCodec.putVarInt(buffer, bytes.length);
+		reserve(bytes.length);
+		if (bytes.length > buffer.remaining()) {
+			// Too long for the buffer, which was just emptied.
+			out.write(bytes);
+		} else {
+			buffer.put(bytes);
+		}
+	}
+
+	// Writes the buffer to the stream first if it doesn't have room for that many more bytes.
+	private final void reserve(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flushBuffer();
+		}
+	}
+
+	private final void flushBuffer() throws IOException {
+		out.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the start of a save file. The version, the blocks that don't have their data saved,
+	 * the size of the region, and how its columns line up with the chunks.
+	 * 
+	 * @param out
+	 *            The stream of the file.
+	 * @param index
+	 *            The columns of the region.
+	 * @throws IOException
+	 */
+	static final void writeHeader(OutputStream out, ColumnIndex index) throws IOException {
+		// Writes the version so that the plugin can convert/reject incompatible versions.
+		out.write(RollbackOperation.VERSION);
+		// VERSION 1 SPECIFIC
+		out.write(RollbackOperation.simpleBlocks.length);
+		for (int id : RollbackOperation.simpleBlocks) {
+			out.write(id);
+		}
+		// END VERSION 1 SPECIFIC
+
+		// Writes the sizes to the file using writeShort because it can be larger than 255.
+		FileUtilities.writeShort(out, index.sizeX - 1);
+		FileUtilities.writeShort(out, index.sizeY - 1);
+		FileUtilities.writeShort(out, index.sizeZ - 1);
+
+		// VERSION 2 SPECIFIC
+		out.write(index.alignX);
+		out.write(index.alignZ);
+		// END VERSION 2 SPECIFIC
+	}
+
+	/**
+	 * Writes the count of the last block to finish the file or column, and writes everything to the
+	 * stream. Signs and command blocks don't compress, so they have no count to write. The next
+	 * block starts a new run.
+	 * 
+	 * @throws IOException
+	 */
+	final void finish() throws IOException {
+		writeCount();
+		flushBuffer();
+		count = 0;
+		lastId = -1;
+		lastData = -1;
+	}
+}
@@ -42,7 +42,9 @@ import org.bukkit.event.block.LeavesDecayEvent;
 import org.bukkit.event.entity.EntityChangeBlockEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.event.world.WorldInitEvent;
 
 /**
  * This class contains all of the listeners to things that can change a block.
@@ -110,7 +112,7 @@ public class BukkitListener implements Listener {
 
 	@EventHandler(priority = EventPriority.MONITOR)
 	public void onBlockPistonExtendEvent(BlockPistonExtendEvent event) {
-		if (!event.isCancelled() && WatchDogRegion.hasActiveRegion()) {
+		if (!event.isCancelled() && (WatchDogRegion.hasActiveRegion() || ArenaChangeTracker.isTracking())) {
 			WatchDogRegion.logBlock(event.getBlock());
 
 			for (Block block : event.getBlocks()) {
@@ -123,7 +125,7 @@ public class BukkitListener implements Listener {
 	@EventHandler(priority = EventPriority.MONITOR)
 	public void onBlockPistonRetractEvent(BlockPistonRetractEvent event) {
 		WatchDogRegion.logBlock(event.getBlock());
-		if (!event.isCancelled() && WatchDogRegion.hasActiveRegion()) {
+		if (!event.isCancelled() && (WatchDogRegion.hasActiveRegion() || ArenaChangeTracker.isTracking())) {
 			try {
 				for (Block block : event.getBlocks()) {
 					WatchDogRegion.logBlock(block);
@@ -202,4 +204,19 @@ public class BukkitListener implements Listener {
 		}
 	}
 
+	// Copies don't read chunks from the region files until they were written.
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkUnloadEvent(ChunkUnloadEvent event) {
+		if (!event.isCancelled()) {
+			AnvilReader.chunkUnloaded(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ());
+		}
+	}
+
+	// Pastes can't write to the region files of a world once it loads chunks from them, which it
+	// only does after this event.
+	@EventHandler(priority = EventPriority.LOWEST)
+	public void onWorldInitEvent(WorldInitEvent event) {
+		Paste.worldInit(event.getWorld());
+	}
+
 }
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import org.bukkit.ChunkSnapshot;
+
+/**
+ * The blocks of a chunk that was captured for a copy, either as a snapshot of a loaded chunk or
+ * read from the region files of the world. Coordinates are relative to the chunk.
+ *
+ * @author lizardfreak321
+ */
+abstract class ChunkBlocks {
+
+	abstract int getBlockTypeId(int x, int y, int z);
+
+	abstract int getBlockData(int x, int y, int z);
+
+	/**
+	 * @return If the 16 blocks high section is all air.
+	 */
+	abstract boolean isSectionEmpty(int section);
+
+	/**
+	 * @return The blocks of the snapshot.
+	 */
+	static final ChunkBlocks of(final ChunkSnapshot snapshot) {
+		return new ChunkBlocks() {
+			@SuppressWarnings("deprecation")
+			@Override
+			int getBlockTypeId(int x, int y, int z) {
+				return snapshot.getBlockTypeId(x, y, z);
+			}
+
+			@SuppressWarnings("deprecation")
+			@Override
+			int getBlockData(int x, int y, int z) {
+				return snapshot.getBlockData(x, y, z);
+			}
+
+			@Override
+			boolean isSectionEmpty(int section) {
+				return snapshot.isSectionEmpty(section);
+			}
+		};
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.World;
+
+/**
+ * Counts the blocks an operation changed in each chunk, and resends the chunks where at least
+ * {@link Config#chunkRefreshThreshold} blocks changed to the players that can see them once nothing
+ * more is changed there. The server only sends the changes of a chunk one tick at a time while it
+ * is being changed, so this gives the players all of it at once in its final state.
+ *
+ * @author lizardfreak321
+ */
+final class ChunkRefresher {
+	private final World world;
+	private final int threshold;		// Zero if chunks are never resent.
+	private final Map<Long, Integer> changes = new HashMap<Long, Integer>();
+	// The chunk of the last change, counted separately since most changes are in the same chunk.
+	private long lastKey = 0;
+	private int lastChanges = 0;
+
+	ChunkRefresher(World world) {
+		this.world = world;
+		this.threshold = Config.chunkRefreshThreshold;
+	}
+
+	/**
+	 * Records that a block of the chunk changed.
+	 */
+	final void blockChanged(int x, int z) {
+		if (threshold <= 0)
+			return;
+		long key = Utilities.chunkKey(x >> 4, z >> 4);
+		if (key != lastKey || lastChanges == 0) {
+			storeLast();
+			Integer stored = changes.remove(key);
+			lastKey = key;
+			lastChanges = stored == null ? 0 : stored;
+		}
+		lastChanges++;
+	}
+
+	private final void storeLast() {
+		if (lastChanges > 0)
+			changes.put(lastKey, lastChanges);
+		lastChanges = 0;
+	}
+
+	/**
+	 * Called once the operation is done with a chunk. Resends it if enough of it changed.
+	 */
+	final void chunkDone(int chunkX, int chunkZ) {
+		if (threshold <= 0)
+			return;
+		storeLast();
+		Integer count = changes.remove(Utilities.chunkKey(chunkX, chunkZ));
+		// Chunks that aren't loaded are sent to the players in full once they are loaded again.
+		if (count != null && count >= threshold && world.isChunkLoaded(chunkX, chunkZ))
+			world.refreshChunk(chunkX, chunkZ);
+	}
+
+	/**
+	 * Called once the operation is done, or has stopped. Resends the chunks left.
+	 */
+	final void finish() {
+		storeLast();
+		for (long key : new ArrayList<Long>(changes.keySet()))
+			chunkDone(Utilities.chunkKeyX(key), Utilities.chunkKeyZ(key));
+	}
+}
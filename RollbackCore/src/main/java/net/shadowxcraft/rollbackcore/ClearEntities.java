@@ -47,6 +47,7 @@ public class ClearEntities {
 	private long startclearTime;
 	boolean quick;
 	ClearEntitiesTask task;
+	OperationStats stats = null;	// The performance statistics, null until it starts.
 
 	/**
 	 * The constructor for the ClearEntities class, used to clear entities in a region.
@@ -113,6 +114,7 @@ public class ClearEntities {
 	public final ClearEntities progressiveClearEntities() {
 		runningClears.add(this); // To manage timings.
 		startclearTime = System.nanoTime();
+		stats = Statistics.start(OperationStats.Type.CLEAR_ENTITIES, min.getWorld().getName());
 		this.task = new ClearEntitiesTask(min, max, quick, allowedEntities, this);
 		this.task.runTaskTimer(Main.plugin, 1, 1);
 		return this;
@@ -164,14 +166,19 @@ class ClearEntitiesTask extends BukkitRunnable {
 	public void run() {
 		long startTime = System.nanoTime();
 		boolean skip = false;
+		parentTask.stats.startTick();
 
 		if (quick && loadedChunks == null)
 			loadedChunks = min.getWorld().getLoadedChunks();
 		// Quick loop
-		while (quick && index < loadedChunks.length
-				&& System.nanoTime() - startTime < TaskManager.getMaxTime() * 1000000) {
-			clearEntitiesInChunk(loadedChunks[index]);
+		long now = startTime;
+		while (quick && index < loadedChunks.length && now - startTime < TaskManager.getMaxTime() * 1000000) {
+			Chunk chunk = loadedChunks[index];
+			parentTask.stats.visit(chunk.getWorld(), chunk.getX() << 4, 0, chunk.getZ() << 4);
+			clearEntitiesInChunk(chunk);
 			index++;
+			now = System.nanoTime();
+			parentTask.stats.iteration(now);
 		}
 
 		// Full loop
@@ -179,18 +186,23 @@ class ClearEntitiesTask extends BukkitRunnable {
 			fullClear();
 
 			// Checks if it has run out of time
-			if (System.nanoTime() - startTime > TaskManager.getMaxTime() * 1000000) {
+			now = System.nanoTime();
+			parentTask.stats.iteration(now);
+			if (now - startTime > TaskManager.getMaxTime() * 1000000) {
 				skip = true;
 			} else {
 				skip = false;
 			}
 		}
 
+		parentTask.stats.endTick();
+
 		// If this is true, it means it is done.
 		if (tempX > max.getBlockX() || (quick && index >= loadedChunks.length)) {
 			this.cancel();
 			ClearEntities.runningClears.remove(parentTask);
 			isDone = true;
+			Statistics.end(parentTask.stats, EndStatus.SUCCESS);
 			new ClearEntitiesEndEvent(parentTask, System.nanoTime() - parentTask.getStartClearTime(),
 					EndStatus.SUCCESS);
 		}
@@ -198,6 +210,7 @@ class ClearEntitiesTask extends BukkitRunnable {
 
 	private void fullClear() {
 		Location location = new Location(min.getWorld(), tempX, 0, tempZ);
+		parentTask.stats.visit(min.getWorld(), tempX, 0, tempZ);
 		// Gets the chunk at that location.
 		Chunk chunk = location.getChunk();
 
@@ -223,6 +236,7 @@ class ClearEntitiesTask extends BukkitRunnable {
 				EntityType type = entity.getType();
 				if (!allowedEntities.contains(type)) {
 					entity.remove();
+					parentTask.stats.entitiesRemoved++;
 				}
 			}
 		}
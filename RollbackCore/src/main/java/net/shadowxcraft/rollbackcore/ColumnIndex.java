@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The chunk columns a save is split into. Since version 2, a save stores the blocks one chunk
+ * column at a time, each encoded on its own, and ends with the position of every column in the
+ * file. That way one column can be found and replaced without decoding the rest of the save.
+ * In version 2 the blocks of a column are in the same X, Y, Z order as the whole region of older
+ * saves, so older saves are read as a single column that covers the whole region. Since version 3
+ * they go one horizontal layer at a time instead, Y then Z then X, so the layers of air and floor
+ * that arenas are mostly made of become long runs.
+ *
+ * @author lizardfreak321
+ */
+class ColumnIndex {
+	static final int NEXT_BLOCK = 0;	// The cursor moved inside the section.
+	static final int NEXT_X = 1;		// The cursor moved to the next X in the same section, before v3.
+	static final int NEXT_SECTION = 2;	// The cursor finished a section, but not its column.
+	static final int NEXT_COLUMN = 3;	// The cursor finished a column.
+
+	final int sizeX;		// The number of blocks along the X axis.
+	final int sizeY;		// The number of blocks along the Y axis.
+	final int sizeZ;		// The number of blocks along the Z axis.
+	final int alignX;		// The X of the min corner inside its chunk when it was copied.
+	final int alignZ;		// The Z of the min corner inside its chunk when it was copied.
+	final int columnsX;		// The number of columns along the X axis.
+	final int columnsZ;		// The number of columns along the Z axis.
+	final boolean whole;	// If it is an older save, which is one column.
+	final boolean layered;	// If the blocks go one layer at a time, since version 3.
+
+	/**
+	 * Creates the index of a save that is split into chunk columns.
+	 *
+	 * @param sizeX
+	 *            The number of blocks along the X axis.
+	 * @param sizeY
+	 *            The number of blocks along the Y axis.
+	 * @param sizeZ
+	 *            The number of blocks along the Z axis.
+	 * @param alignX
+	 *            The X of the min corner of the region inside its chunk, from 0 to 15.
+	 * @param alignZ
+	 *            The Z of the min corner of the region inside its chunk, from 0 to 15.
+	 */
+	ColumnIndex(int sizeX, int sizeY, int sizeZ, int alignX, int alignZ) {
+		this(sizeX, sizeY, sizeZ, alignX & 15, alignZ & 15, false, true);
+	}
+
+	/**
+	 * Creates the index of a version 2 save, where the blocks of each column are in X, Y, Z order.
+	 */
+	static final ColumnIndex version2(int sizeX, int sizeY, int sizeZ, int alignX, int alignZ) {
+		return new ColumnIndex(sizeX, sizeY, sizeZ, alignX & 15, alignZ & 15, false, false);
+	}
+
+	private ColumnIndex(int sizeX, int sizeY, int sizeZ, int alignX, int alignZ, boolean whole,
+			boolean layered) {
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		this.alignX = alignX;
+		this.alignZ = alignZ;
+		this.whole = whole;
+		this.layered = layered;
+		this.columnsX = whole ? 1 : (alignX + sizeX + 15) >> 4;
+		this.columnsZ = whole ? 1 : (alignZ + sizeZ + 15) >> 4;
+	}
+
+	/**
+	 * @return The index of an older save, which is one column that covers the whole region.
+	 */
+	static final ColumnIndex whole(int sizeX, int sizeY, int sizeZ) {
+		return new ColumnIndex(sizeX, sizeY, sizeZ, 0, 0, true, false);
+	}
+
+	final int getColumns() {
+		return columnsX * columnsZ;
+	}
+
+	// The bounds of a column, relative to the min corner of the region. The max values are inclusive.
+	final int minX(int column) {
+		int columnX = column / columnsZ;
+		return columnX == 0 ? 0 : (columnX << 4) - alignX;
+	}
+
+	final int maxX(int column) {
+		return whole ? sizeX - 1 : Math.min(sizeX - 1, ((column / columnsZ + 1) << 4) - alignX - 1);
+	}
+
+	final int minZ(int column) {
+		int columnZ = column % columnsZ;
+		return columnZ == 0 ? 0 : (columnZ << 4) - alignZ;
+	}
+
+	final int maxZ(int column) {
+		return whole ? sizeZ - 1 : Math.min(sizeZ - 1, ((column % columnsZ + 1) << 4) - alignZ - 1);
+	}
+
+	/**
+	 * @return The column a block is in, from its X and Z relative to the min corner.
+	 */
+	final int column(int x, int z) {
+		if (whole)
+			return 0;
+		return ((x + alignX) >> 4) * columnsZ + ((z + alignZ) >> 4);
+	}
+
+	/**
+	 * @return The number of blocks in a column.
+	 */
+	final long blocks(int column) {
+		return (long) (maxX(column) - minX(column) + 1) * sizeY * (maxZ(column) - minZ(column) + 1);
+	}
+
+	/**
+	 * @return The number of blocks in one layer of a column.
+	 */
+	final long layerBlocks(int column) {
+		return (long) (maxX(column) - minX(column) + 1) * (maxZ(column) - minZ(column) + 1);
+	}
+
+	/**
+	 * @return The number of sections each column is split into when they are that high.
+	 */
+	final int sections(int height) {
+		return (sizeY + height - 1) / height;
+	}
+
+	/**
+	 * @return If the layout of the blocks is the same as in the other index.
+	 */
+	final boolean matches(ColumnIndex other) {
+		return whole == other.whole && layered == other.layered && sizeX == other.sizeX && sizeY == other.sizeY && sizeZ == other.sizeZ
+				&& alignX == other.alignX && alignZ == other.alignZ;
+	}
+
+	/**
+	 * @return The number of blocks saved before the block in its section, when the columns are split
+	 *         into sections that high. The position is relative to the min corner.
+	 */
+	final long offset(int x, int y, int z, int height) {
+		int column = column(x, z);
+		int fromY = y / height * height;
+		long columnSizeX = maxX(column) - minX(column) + 1;
+		long columnSizeZ = maxZ(column) - minZ(column) + 1;
+		if (layered)
+			return ((y - fromY) * columnSizeZ + z - minZ(column)) * columnSizeX + x - minX(column);
+		return ((x - minX(column)) * (Math.min(sizeY, fromY + height) - fromY) + y - fromY) * columnSizeZ + z
+				- minZ(column);
+	}
+
+	/**
+	 * @return If the columns line up with the chunks when the region is at that location.
+	 */
+	final boolean isAligned(int minX, int minZ) {
+		return !whole && (minX & 15) == alignX && (minZ & 15) == alignZ;
+	}
+
+	/**
+	 * Reads the position of every column from the end of a save. Only saves split into columns have
+	 * them.
+	 *
+	 * @param file
+	 *            The save, opened for reading. Its position is not changed.
+	 * @return The positions of the columns in the file. The last one is where the positions start,
+	 *         so column i goes from positions[i] to positions[i + 1].
+	 * @throws IOException
+	 *             If the file can't be read or the positions don't make sense, which means it was
+	 *             cut off or is corrupted.
+	 */
+	final long[] readPositions(FileChannel file) throws IOException {
+		int columns = getColumns();
+		long start = file.size() - 4L * (columns + 1);
+		if (whole || start < 0)
+			throw new IOException("The save is not split into columns.");
+		byte[] bytes = new byte[4 * (columns + 1)];
+		FileUtilities.readFully(file, bytes, bytes.length, start);
+
+		// Written with FileUtilities.writeInt, so the low byte is first.
+		int[] ints = new int[columns + 1];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(ints);
+		long[] positions = new long[columns + 1];
+		for (int i = 0; i <= columns; i++) {
+			positions[i] = ints[i] & 0xFFFFFFFFL;
+			if (positions[i] > start || (i > 0 && positions[i] < positions[i - 1]))
+				throw new IOException("The column positions of the save are corrupted.");
+		}
+		if (positions[columns] != start)
+			throw new IOException("The column positions of the save are corrupted.");
+		return positions;
+	}
+
+	/**
+	 * Walks through the blocks in the order they are saved in. Starts at the first block. Each
+	 * column can be split into sections along the Y axis, which are walked through one at a time.
+	 */
+	final class Cursor {
+		private final int height;	// The height of the sections.
+		private final int sections;	// The number of sections in each column.
+		int column = 0;				// The column it is in.
+		int section = 0;			// The section of the column it is in, from the bottom.
+		int x;						// The position of the block, relative to the min corner.
+		int y = 0;
+		int z;
+
+		// Walks through whole columns, the order of saves.
+		Cursor() {
+			this(sizeY);
+		}
+
+		/**
+		 * @param height
+		 *            The height of the sections the columns are split into.
+		 */
+		Cursor(int height) {
+			this.height = height;
+			this.sections = sections(height);
+			x = minX(0);
+			z = minZ(0);
+		}
+
+		/**
+		 * Moves to the first block of a section.
+		 */
+		final void moveTo(int column, int section) {
+			this.column = column;
+			this.section = section;
+			x = minX(column);
+			y = section * height;
+			z = minZ(column);
+		}
+
+		/**
+		 * @return If it went past the last block.
+		 */
+		final boolean isDone() {
+			return column >= getColumns();
+		}
+
+		/**
+		 * Moves on to the next block.
+		 *
+		 * @return NEXT_BLOCK, NEXT_X if it moved to the next X of the section, NEXT_SECTION if it
+		 *         finished the section, or NEXT_COLUMN if it finished the column.
+		 */
+		final int next() {
+			if (layered) {
+				x++;
+				if (x <= maxX(column))
+					return NEXT_BLOCK;
+				x = minX(column);
+				z++;
+				if (z <= maxZ(column))
+					return NEXT_BLOCK;
+				z = minZ(column);
+				y++;
+				if (y < sizeY && y < (section + 1) * height)
+					return NEXT_BLOCK;
+				return endSection();
+			}
+			z++;
+			if (z <= maxZ(column))
+				return NEXT_BLOCK;
+			z = minZ(column);
+			y++;
+			if (y < sizeY && y < (section + 1) * height)
+				return NEXT_BLOCK;
+			y = section * height;
+			x++;
+			if (x <= maxX(column))
+				return NEXT_X;
+			return endSection();
+		}
+
+		/**
+		 * Moves on by whole layers, without going through their blocks. Only for layered indexes,
+		 * and it has to be at the first block of a layer.
+		 *
+		 * @param layers
+		 *            The number of layers, at most {@link #layersLeft()}.
+		 * @return NEXT_BLOCK, or NEXT_SECTION or NEXT_COLUMN if it finished the section.
+		 */
+		final int skipLayers(int layers) {
+			y += layers;
+			if (y < sizeY && y < (section + 1) * height)
+				return NEXT_BLOCK;
+			return endSection();
+		}
+
+		/**
+		 * @return The number of layers left in the section, counting the one it is in.
+		 */
+		final int layersLeft() {
+			return Math.min(sizeY, (section + 1) * height) - y;
+		}
+
+		/**
+		 * Moves on to the first block of the next section, without going through the rest of this
+		 * one.
+		 *
+		 * @return NEXT_SECTION, or NEXT_COLUMN if it finished the column.
+		 */
+		final int endSection() {
+			if (section + 1 < sections) {
+				section++;
+				x = minX(column);
+				y = section * height;
+				z = minZ(column);
+				return NEXT_SECTION;
+			}
+			section = 0;
+			y = 0;
+			column++;
+			if (column < getColumns()) {
+				x = minX(column);
+				z = minZ(column);
+			}
+			return NEXT_COLUMN;
+		}
+
+		/**
+		 * @return The number of blocks in the section it is in.
+		 */
+		final long sectionBlocks() {
+			return (long) (maxX(column) - minX(column) + 1) * (Math.min(sizeY, (section + 1) * height)
+					- section * height) * (maxZ(column) - minZ(column) + 1);
+		}
+	}
+}
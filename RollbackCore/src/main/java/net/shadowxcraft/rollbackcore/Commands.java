@@ -21,13 +21,18 @@ package net.shadowxcraft.rollbackcore;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.World.Environment;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -75,6 +80,14 @@ public class Commands implements CommandExecutor {
 					} else if (args[0].equalsIgnoreCase("arena") || args[0].equalsIgnoreCase("rollbackregion")
 							|| args[0].equalsIgnoreCase("region")) {
 						regionRollackCommand(sender, args);
+					} else if (args[0].equalsIgnoreCase("migrate")) {
+						migrateCommand(sender, args);
+					} else if (args[0].equalsIgnoreCase("stats")) {
+						statsCommand(sender, args);
+					} else if (args[0].equalsIgnoreCase("trace")) {
+						traceCommand(sender, args);
+					} else if (args[0].equalsIgnoreCase("sections")) {
+						sectionsCommand(sender, args);
 					} else if (args[0].equalsIgnoreCase("help")) {
 						helpCommand(sender);
 					} else if (args[0].equalsIgnoreCase("cancel") || args[0].equalsIgnoreCase("cancelall")) {
@@ -95,6 +108,7 @@ public class Commands implements CommandExecutor {
 
 	private final void reloadCommand(CommandSender sender) {
 		Config.loadConfigs(plugin);
+		ArenaWatchDogs.load();
 		sender.sendMessage(prefix + "Reloaded!");
 	}
 
@@ -135,12 +149,24 @@ public class Commands implements CommandExecutor {
 				return;
 			}
 			
+			// With -changed, only the chunks that changed since the last save are copied again, if
+			// they are known. Changes made without events aren't seen, so it isn't the default.
+			Set<Long> changed = null;
+			if (args.length >= 3 && args[2].equalsIgnoreCase("-changed"))
+				changed = ArenaChangeTracker.getChangedChunks(name);
+			if (changed != null) {
+				Copy update = Copy.update(min, max, filePath, changed, sender, prefix);
+				if (update != null) {
+					sender.sendMessage(prefix + "Saving " + changed.size() + " changed chunks of " + name + ".");
+					update.run();
+					return;
+				}
+			}
+
 			new Copy(min.getBlockX(), min.getBlockY(), min.getBlockZ(), max.getBlockX(), max.getBlockY(),
 					max.getBlockZ(), max.getWorld(), filePath, sender).run();
-			
-			
 		} else {
-			sender.sendMessage(prefix + "Usage: /rollback rollbackregion <arenaname> [-clearEntities -ignoreAir]");
+			sender.sendMessage(prefix + "Usage: /rollback updateregion <arenaname> [-changed]");
 		}
 	}
 
@@ -178,7 +204,20 @@ public class Commands implements CommandExecutor {
 
 			try {
 				World world = plugin.getServer().getWorld(args[4]);
-				if (world == null) {
+				Environment environment = world == null
+						? AnvilReader.findEnvironment(new File(plugin.getServer().getWorldContainer(), args[4]))
+						: null;
+				if (world == null && environment != null) {
+					// Written to the region files of the world while it isn't loaded.
+					boolean clearEntities = otherArgs.remove("-clearentities");
+					new Paste(args[4], environment, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+							Integer.parseInt(args[3]), args[5], sender, otherArgs.remove("-ignoreair"), prefix).run();
+					if (clearEntities)
+						sender.sendMessage(prefix + "Entities can't be cleared while the world isn't loaded.");
+					if (otherArgs.size() > 0)
+						sender.sendMessage(
+								Main.prefix + "Unknown args " + otherArgs.toString() + ". Continuing with operation.");
+				} else if (world == null) {
 					sender.sendMessage(prefix + "Unknown world!");
 				} else {
 					min = new Location(world, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
@@ -232,9 +271,14 @@ public class Commands implements CommandExecutor {
 				// Checks if it is a single file, if not, it uses the distributed
 				// system.
 				if (dat.exists()) {
-					Paste paste = new Paste(temp, name + ".dat", sender, otherArgs.remove("-clearentities"),
-							otherArgs.remove("-ignoreair"), Main.prefix);
-					Bukkit.getScheduler().runTaskLater(Main.plugin, paste, 1);
+					boolean clearEntities = otherArgs.remove("-clearentities");
+					boolean ignoreAir = otherArgs.remove("-ignoreair");
+					// Regions with a WatchDog only restore the blocks that changed, if that is known.
+					if (ignoreAir || otherArgs.remove("-full")
+							|| !ArenaWatchDogs.restore(args[1], sender, Main.prefix, clearEntities)) {
+						Paste paste = new Paste(temp, name + ".dat", sender, clearEntities, ignoreAir, Main.prefix);
+						Bukkit.getScheduler().runTaskLater(Main.plugin, paste, 1);
+					}
 					if (otherArgs.size() > 0)
 						sender.sendMessage(
 								Main.prefix + "Unknown args " + otherArgs.toString() + ". Continuing with operation.");
@@ -254,10 +298,149 @@ public class Commands implements CommandExecutor {
 						+ "Could not find world! Please re-create the arena save or edit the config to contain a valid world.");
 			}
 		} else {
-			sender.sendMessage(prefix + "Usage: /rollback rollbackregion <arenaname> [-clearEntities -ignoreAir]");
+			sender.sendMessage(
+					prefix + "Usage: /rollback rollbackregion <arenaname> [-clearEntities -ignoreAir -full]");
 		}
 	}
 
+	private final void migrateCommand(CommandSender sender, String[] args) {
+		if (args.length == 2) {
+			File target;
+			if (args[1].equalsIgnoreCase("all")) {
+				target = Main.savesPath.toFile();
+			} else {
+				String name = Paths.get(Main.regionsPath.toString(), args[1]).toString();
+				// Single file saves take priority, the same way they do when rolling back.
+				target = new File(name + ".dat");
+				if (!target.exists())
+					target = new File(name);
+				if (!target.exists()) {
+					sender.sendMessage(prefix + "Not a file!");
+					return;
+				}
+			}
+			if (SaveMigrator.migrate(target, sender, prefix) != null)
+				sender.sendMessage(prefix + "Migrating old saves in the background...");
+		} else {
+			sender.sendMessage(prefix + "Usage: /rollback migrate <arenaname|all>");
+		}
+	}
+
+	private final void statsCommand(CommandSender sender, String[] args) {
+		if (args.length == 2 && args[1].equalsIgnoreCase("reset")) {
+			Statistics.reset();
+			sender.sendMessage(prefix + "Reset the statistics.");
+		} else if (args.length == 2 && args[1].equalsIgnoreCase("worst")) {
+			sender.sendMessage(ChatColor.GRAY + "----------------------- " + ChatColor.GREEN + "[" + ChatColor.DARK_GREEN
+					+ "Slowest" + ChatColor.GREEN + "]" + ChatColor.GRAY + " -----------------------");
+			for (OperationStats.Type type : OperationStats.Type.values()) {
+				List<OperationStats.Iteration> worst = Statistics.getTotals(type).getWorstIterations();
+				if (!worst.isEmpty()) {
+					sender.sendMessage(ChatColor.GREEN + type.toString() + ":");
+					for (OperationStats.Iteration iteration : worst)
+						sender.sendMessage(ChatColor.GRAY + "  " + iteration);
+				}
+			}
+			sender.sendMessage(ChatColor.GRAY + "----------------------------------------------------");
+		} else if (args.length == 1) {
+			sender.sendMessage(ChatColor.GRAY + "----------------------- " + ChatColor.GREEN + "[" + ChatColor.DARK_GREEN
+					+ "Stats" + ChatColor.GREEN + "]" + ChatColor.GRAY + " -----------------------");
+			sender.sendMessage(ChatColor.GRAY + "Target time: " + Config.targetTime + "ms, currently "
+					+ new DecimalFormat("#.##").format(TaskManager.getMaxTime()) + "ms per operation.");
+			for (OperationStats stats : Statistics.getRunning()) {
+				sender.sendMessage(ChatColor.GREEN + "Running " + stats.getType() + " " + stats.getName() + ": "
+						+ ChatColor.GRAY + statsLine(stats));
+			}
+			sender.sendMessage(ChatColor.GRAY + "Totals since "
+					+ new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(Statistics.getResetTime())) + ":");
+			for (OperationStats.Type type : OperationStats.Type.values()) {
+				OperationStats stats = Statistics.getTotals(type);
+				if (stats.getOperations() > 0) {
+					sender.sendMessage(ChatColor.GREEN + type.toString() + " x" + stats.getOperations() + ": "
+							+ ChatColor.GRAY + statsLine(stats));
+				}
+			}
+			DecimalFormat format = new DecimalFormat("#.#");
+			for (ArenaPool pool : ArenaPool.getPools()) {
+				LatencyHistogram latency = pool.getQueueLatency();
+				sender.sendMessage(ChatColor.GREEN + "Pool " + pool.getName() + ": " + ChatColor.GRAY
+						+ pool.getReady() + "/" + pool.getSize() + " ready, "
+						+ pool.count(ArenaPool.State.IN_USE) + " in use, "
+						+ pool.count(ArenaPool.State.QUEUED) + " queued, queue wait p50 "
+						+ format.format(latency.getPercentileMillis(50)) + "ms p99 "
+						+ format.format(latency.getPercentileMillis(99)) + "ms");
+			}
+			sender.sendMessage(ChatColor.GRAY + "----------------------------------------------------");
+		} else {
+			sender.sendMessage(prefix + "Usage: /rollback stats [reset|worst]");
+		}
+	}
+
+	private final void traceCommand(CommandSender sender, String[] args) {
+		if (args.length == 2 && args[1].equalsIgnoreCase("start")) {
+			if (Tracer.start())
+				sender.sendMessage(prefix + "Started tracing. Use /rollback trace dump to save it.");
+			else
+				sender.sendMessage(prefix + "Already tracing.");
+		} else if (args.length == 2 && args[1].equalsIgnoreCase("stop")) {
+			if (Tracer.stop())
+				sender.sendMessage(prefix + "Stopped tracing. " + Tracer.getSize() + " events can still be dumped.");
+			else
+				sender.sendMessage(prefix + "Not tracing.");
+		} else if (args.length == 2 && args[1].equalsIgnoreCase("dump")) {
+			if (Tracer.dump(sender, prefix))
+				sender.sendMessage(prefix + "Writing " + Tracer.getSize() + " trace events...");
+			else
+				sender.sendMessage(prefix + "Nothing has been traced. Use /rollback trace start first.");
+		} else {
+			sender.sendMessage(prefix + "Usage: /rollback trace <start|stop|dump>");
+		}
+	}
+
+	private final void sectionsCommand(CommandSender sender, String[] args) {
+		if (args.length == 2 && args[1].equalsIgnoreCase("prune")) {
+			if (SectionStore.prune(sender, prefix))
+				sender.sendMessage(prefix + "Deleting the sections no save uses in the background...");
+			else
+				sender.sendMessage(prefix + "Wait for the running copies to finish first.");
+		} else {
+			sender.sendMessage(prefix + "Usage: /rollback sections prune");
+		}
+	}
+
+	// Formats the statistics of an operation as one line.
+	private static final String statsLine(OperationStats stats) {
+		DecimalFormat number = new DecimalFormat("#,###");
+		DecimalFormat decimal = new DecimalFormat("#,##0.#");
+		String line = number.format(stats.getBlocksVisited()) + " blocks ("
+				+ number.format(stats.getBlocksPerSecond()) + "/s), " + number.format(stats.getBlocksChanged())
+				+ " changed, ";
+		if (stats.getEntitiesRemoved() > 0)
+			line += number.format(stats.getEntitiesRemoved()) + " entities, ";
+		if (stats.getDropsAvoided() > 0)
+			line += number.format(stats.getDropsAvoided()) + " drops avoided, ";
+		line += number.format(stats.getChunkLoads()) + " chunk loads, " + stats.getTicks() + " ticks using "
+				+ decimal.format(stats.getBudgetUsage() * 100) + "% of budget (max "
+				+ decimal.format(stats.getMaxTickNanos() / 1000000.0) + "ms)";
+		if (stats.getTicks() > 0) {
+			LatencyHistogram histogram = stats.getTickHistogram();
+			line += ", ticks p50 " + decimal.format(histogram.getPercentileMillis(50)) + "ms p99 "
+					+ decimal.format(histogram.getPercentileMillis(99)) + "ms";
+		}
+		if (stats.getOverruns() > 0)
+			line += ", " + number.format(stats.getOverruns()) + " overruns ("
+					+ decimal.format(stats.getOverrunNanos() / 1000000.0) + "ms over)";
+		if (stats.getAsyncNanos() > 0)
+			line += ", " + decimal.format(stats.getAsyncNanos() / 1000000.0) + "ms async";
+		if (stats.getBytesRead() > 0)
+			line += ", " + decimal.format(stats.getBytesRead() / 1024.0) + "KB read";
+		if (stats.getBytesWritten() > 0)
+			line += ", " + decimal.format(stats.getBytesWritten() / 1024.0) + "KB written";
+		if (stats.getAllocatedBytes() > 0)
+			line += ", " + decimal.format(stats.getAllocatedBytes() / 1048576.0) + "MB allocated";
+		return line + ".";
+	}
+
 	private final void helpCommand(CommandSender sender) {
 		sender.sendMessage(ChatColor.GRAY + "----------------------- " + ChatColor.GREEN + "[" + ChatColor.DARK_GREEN
 				+ "Help" + ChatColor.GREEN + "]" + ChatColor.GRAY + " -----------------------");
@@ -267,6 +450,12 @@ public class Commands implements CommandExecutor {
 		sender.sendMessage(ChatColor.GRAY + "/rollback watchdog <create|rollback> | The watchdog region commands.");
 		sender.sendMessage(ChatColor.GRAY
 				+ "/rollback <rollbackregion|addregion> <name> | Used for integration with minigame plugins.");
+		sender.sendMessage(ChatColor.GRAY
+				+ "/rollback updateregion <name> [-changed] | Saves a region again, or only what changed through events.");
+		sender.sendMessage(ChatColor.GRAY + "/rollback migrate <name|all> | Converts old saves to the newest format.");
+		sender.sendMessage(ChatColor.GRAY + "/rollback stats [reset|worst] | Shows the performance of the operations.");
+		sender.sendMessage(ChatColor.GRAY + "/rollback trace <start|stop|dump> | Records a timeline of each tick.");
+		sender.sendMessage(ChatColor.GRAY + "/rollback sections prune | Deletes the stored sections no save uses.");
 		sender.sendMessage(ChatColor.GRAY + "----------------------------------------------------");
 	}
 
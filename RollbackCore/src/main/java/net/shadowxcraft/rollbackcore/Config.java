@@ -28,10 +28,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -47,6 +51,40 @@ public class Config {
 	// Used to store the amount of time all running tasks added up should target
 	// in one tick.
 	public static int targetTime = 25;
+	// The size of the tiles of distributed copies and pastes. Always a multiple of 16.
+	public static int tileSize = 64;
+	// The number of tiles of a distributed operation that can run at the same time.
+	public static int activeTiles = 4;
+	// If the tiles of distributed copies are captured with chunk snapshots.
+	public static boolean snapshotTiles = true;
+	// The number of events the tracer keeps. Once it is full, the oldest are replaced.
+	public static int traceBufferSize = 50000;
+	// If copies store their sections in the shared section store instead of in the save.
+	public static boolean sectionStore = false;
+	// If pastes skip the sections that are already in the world. Off by default, since changes made
+	// without events would be left in the world.
+	public static boolean skipPastedSections = false;
+	// The seconds a slot of an arena pool waits for the other operations before it is reset anyway.
+	public static int poolMaxWait = 30;
+	// The most blocks the WatchDog of a region logs before its region has to be pasted completely.
+	public static int regionWatchDogMaxBlocks = 100000;
+	// The blocks that have to change in a chunk before it is resent once it is done, zero for never.
+	// Off by default, since each resent chunk is sent whole on top of the block changes.
+	public static int chunkRefreshThreshold = 0;
+	// If pastes set attached blocks and fluids after every other block. Off by default, since it
+	// changes the order blocks are set in.
+	public static boolean twoPassPaste = false;
+	// If pastes compare the world to the save off the main thread, and only set what is different.
+	// Off by default, since blocks changed between the capture and the paste are missed.
+	public static boolean plannedPaste = false;
+	// If copies write their files on a worker thread instead of the main thread.
+	public static boolean asyncWrites = true;
+	// If copies read the chunks that aren't loaded from the region files instead of loading them.
+	public static boolean readRegionFiles = false;
+	// How many seconds after a chunk unloaded the server may still be writing it to its region file.
+	public static int regionWriteDelay = 30;
+	// What happens when an operation would start where another one is running.
+	public static OverlapPolicy overlapPolicy = OverlapPolicy.QUEUE;
 
 	private Config() {
 	}
@@ -63,6 +101,24 @@ public class Config {
 		checkConfig();
 		// Loads the target time.
 		Config.targetTime = getTargetTime();
+		// Loads the distributed settings.
+		loadDistributedSettings();
+		// Loads the tracing settings.
+		loadTracingSettings();
+		// Loads the section store settings.
+		loadSectionStoreSettings();
+		// Loads the arena pool settings.
+		loadPoolSettings();
+		// Loads the region WatchDog settings.
+		loadRegionWatchDogSettings();
+		// Loads the chunk refresh settings.
+		loadChunkRefreshSettings();
+		// Loads the paste settings.
+		loadPasteSettings();
+		// Loads the copy settings.
+		loadCopySettings();
+		// Loads the overlap policy.
+		loadOverlapSettings();
 		// Alerts user though console.
 		plugin.getLogger().info("Configs loaded!");
 	}
@@ -101,6 +157,66 @@ public class Config {
 			yaml.set("Config.rollback.targettime", 25);
 		}
 
+		if (!yaml.contains("Config.rollback.distributed.tilesize")) {
+			yaml.set("Config.rollback.distributed.tilesize", 64);
+		}
+
+		if (!yaml.contains("Config.rollback.distributed.activetiles")) {
+			yaml.set("Config.rollback.distributed.activetiles", 4);
+		}
+
+		if (!yaml.contains("Config.rollback.distributed.snapshots")) {
+			yaml.set("Config.rollback.distributed.snapshots", true);
+		}
+
+		if (!yaml.contains("Config.rollback.tracing.buffersize")) {
+			yaml.set("Config.rollback.tracing.buffersize", 50000);
+		}
+
+		if (!yaml.contains("Config.rollback.sectionstore.enabled")) {
+			yaml.set("Config.rollback.sectionstore.enabled", false);
+		}
+
+		if (!yaml.contains("Config.rollback.sectionstore.skipunchanged")) {
+			yaml.set("Config.rollback.sectionstore.skipunchanged", false);
+		}
+
+		if (!yaml.contains("Config.rollback.pool.maxwait")) {
+			yaml.set("Config.rollback.pool.maxwait", 30);
+		}
+
+		if (!yaml.contains("Config.rollback.regionwatchdog.maxblocks")) {
+			yaml.set("Config.rollback.regionwatchdog.maxblocks", 100000);
+		}
+
+		if (!yaml.contains("Config.rollback.chunkrefresh.threshold")) {
+			yaml.set("Config.rollback.chunkrefresh.threshold", 0);
+		}
+
+		if (!yaml.contains("Config.rollback.twopass")) {
+			yaml.set("Config.rollback.twopass", false);
+		}
+
+		if (!yaml.contains("Config.rollback.planned")) {
+			yaml.set("Config.rollback.planned", false);
+		}
+
+		if (!yaml.contains("Config.rollback.asyncwrites")) {
+			yaml.set("Config.rollback.asyncwrites", true);
+		}
+
+		if (!yaml.contains("Config.rollback.regionfiles")) {
+			yaml.set("Config.rollback.regionfiles", false);
+		}
+
+		if (!yaml.contains("Config.rollback.regionfileswritedelay")) {
+			yaml.set("Config.rollback.regionfileswritedelay", 30);
+		}
+
+		if (!yaml.contains("Config.rollback.overlap")) {
+			yaml.set("Config.rollback.overlap", "queue");
+		}
+
 		if (!yaml.contains("configversion")) {
 			yaml.set("configversion", 1.0);
 		}
@@ -150,6 +266,114 @@ public class Config {
 		return finalizedTargetTime;
 	}
 
+	// Gets the tile settings of distributed operations from the config.
+	private static final void loadDistributedSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		// Rounds the tile size up to whole chunks so that tiles never share a chunk.
+		int size = yaml.getInt("Config.rollback.distributed.tilesize", 64);
+		if (size < 16) {
+			size = 16;
+		}
+		tileSize = (size + 15) / 16 * 16;
+
+		activeTiles = yaml.getInt("Config.rollback.distributed.activetiles", 4);
+		if (activeTiles < 1) {
+			activeTiles = 1;
+			Main.plugin.getLogger().info("Your set value for activetiles was too low! Setting to 1.");
+		}
+
+		snapshotTiles = yaml.getBoolean("Config.rollback.distributed.snapshots", true);
+	}
+
+	// Gets the size of the trace buffer from the config.
+	private static final void loadTracingSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		traceBufferSize = yaml.getInt("Config.rollback.tracing.buffersize", 50000);
+		if (traceBufferSize < 100) {
+			traceBufferSize = 100;
+			Main.plugin.getLogger().info("Your set value for buffersize was too low! Setting to 100.");
+		}
+	}
+
+	private static final void loadSectionStoreSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		sectionStore = yaml.getBoolean("Config.rollback.sectionstore.enabled", false);
+		skipPastedSections = yaml.getBoolean("Config.rollback.sectionstore.skipunchanged", false);
+	}
+
+	private static final void loadPoolSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		poolMaxWait = yaml.getInt("Config.rollback.pool.maxwait", 30);
+		if (poolMaxWait < 0) {
+			poolMaxWait = 0;
+			Main.plugin.getLogger().info("Your set value for maxwait was too low! Setting to 0.");
+		}
+	}
+
+	private static final void loadRegionWatchDogSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		regionWatchDogMaxBlocks = yaml.getInt("Config.rollback.regionwatchdog.maxblocks", 100000);
+		if (regionWatchDogMaxBlocks < 1) {
+			regionWatchDogMaxBlocks = 1;
+			Main.plugin.getLogger().info("Your set value for maxblocks was too low! Setting to 1.");
+		}
+	}
+
+	private static final void loadChunkRefreshSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		chunkRefreshThreshold = yaml.getInt("Config.rollback.chunkrefresh.threshold", 0);
+		if (chunkRefreshThreshold < 0) {
+			chunkRefreshThreshold = 0;
+			Main.plugin.getLogger().info("Your set value for threshold was too low! Setting to 0.");
+		}
+	}
+
+	private static final void loadPasteSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		twoPassPaste = yaml.getBoolean("Config.rollback.twopass", false);
+		plannedPaste = yaml.getBoolean("Config.rollback.planned", false);
+	}
+
+	private static final void loadCopySettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		asyncWrites = yaml.getBoolean("Config.rollback.asyncwrites", true);
+		readRegionFiles = yaml.getBoolean("Config.rollback.regionfiles", false);
+		regionWriteDelay = yaml.getInt("Config.rollback.regionfileswritedelay", 30);
+		if (regionWriteDelay < 0) {
+			regionWriteDelay = 0;
+			Main.plugin.getLogger().info("Your set value for regionfileswritedelay was too low! Setting to 0.");
+		}
+	}
+
+	private static final void loadOverlapSettings() {
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		String policy = yaml.getString("Config.rollback.overlap", "queue");
+		try {
+			overlapPolicy = OverlapPolicy.valueOf(policy.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			overlapPolicy = OverlapPolicy.QUEUE;
+			Main.plugin.getLogger().info("Your set value for overlap was not allow, reject, queue or merge! Setting to queue.");
+		}
+	}
+
 	// WARNING: Case sensitive!
 	public static final Location getRegionMinLocation(String regionName) {
 		// For debug reasons.
@@ -206,6 +430,34 @@ public class Config {
 		return new Location(world, x + sizeX - 1, y + sizeY - 1, z + sizeZ - 1);
 	}
 
+	/**
+	 * WARNING: Case sensitive!
+	 * 
+	 * @return If the region has "watchdog: true", which keeps a WatchDog in it so rolling it back
+	 *         only restores the blocks that changed.
+	 */
+	public static final boolean isRegionWatched(String regionName) {
+		// Loads the config.yml
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		return yaml.getBoolean("Config.arenas." + regionName + ".watchdog", false);
+	}
+
+	/**
+	 * @return The names of the regions in the config.
+	 */
+	public static final Set<String> getRegionNames() {
+		// Loads the config.yml
+		File file = new File(plugin.getDataFolder() + "/config.yml");
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+
+		ConfigurationSection section = yaml.getConfigurationSection("Config.arenas");
+		if (section == null)
+			return new HashSet<String>();
+		return section.getKeys(false);
+	}
+
 	// Returns false if it fails.
 	public static final boolean setArenaLocation(String arena, int x, int y, int z,
 			int sizeX, int sizeY, int sizeZ, World world)
@@ -235,6 +487,10 @@ public class Config {
 			e.printStackTrace();
 			return false;
 		}
+		ArenaChangeTracker.track(arena, new Location(world, x, y, z),
+				new Location(world, x + sizeX - 1, y + sizeY - 1, z + sizeZ - 1));
+		ArenaWatchDogs.track(arena, new Location(world, x, y, z),
+				new Location(world, x + sizeX - 1, y + sizeY - 1, z + sizeZ - 1));
 		return true;
 	}
 }
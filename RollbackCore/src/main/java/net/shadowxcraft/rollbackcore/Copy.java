@@ -19,21 +19,32 @@
 
 package net.shadowxcraft.rollbackcore;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.CommandBlock;
-import org.bukkit.block.Sign;
+import org.bukkit.block.BlockState;
 import org.bukkit.command.CommandSender;
 
 import net.shadowxcraft.rollbackcore.events.CopyEndEvent;
@@ -47,11 +58,40 @@ import net.shadowxcraft.rollbackcore.events.EndStatus;
  */
 public class Copy extends RollbackOperation {
 
-	private CopyTask copyTask;				// The copy task that this object is using.
-	private BufferedOutputStream out;
+	private SnapshotCopyTask snapshotTask;	// The snapshot task if this copy uses snapshots.
+	private SaveWriter out;
+	private AsyncFileWriter writer = null;	// Writes the file on a worker thread, if enabled.
 	private File file;
+	private File tempFile = null;			// Written instead of the file, and moved over it once done.
 	private Long startTime = -1l;
+	private final boolean useSnapshots;		// If the blocks are encoded off the main thread.
+	final boolean sections;					// If it writes a manifest of the section store.
+	DistributedOperation distributed = null;// The distributed operation this copy is a tile of.
+	// Set when only some chunks of an existing save are copied again. The other columns are copied
+	// from the old save as they are.
+	File previous = null;
+	long[] previousPositions = null;		// Where each column is in the old save.
+	boolean[] changedColumns = null;		// The columns that are copied from the world.
+	String[] previousHashes = null;			// The sections of the old save, if it is a manifest.
+	private ArenaChangeTracker.Arena arena = null; // The arena this saves, if it is tracked.
 	static final List<Copy> runningCopies = new ArrayList<Copy>();
+	// The copies waiting for the pastes they overlap, which already have their file.
+	private static final List<Copy> queuedCopies = new ArrayList<Copy>();
+	private OperationAreas.Area area = null;	// The area it claimed while it runs.
+	// Used to start it again once the pastes it overlaps end.
+	private final OperationAreas.Waiting waiting = new OperationAreas.Waiting() {
+		@Override
+		public void retry() {
+			queuedCopies.remove(Copy.this);
+			copy();
+		}
+
+		@Override
+		public void end(EndStatus status) {
+			queuedCopies.remove(Copy.this);
+			endUnstarted(status);
+		}
+	};
 
 	/**
 	 * Used to schedule a copy. This is the legacy constructor. Used by the copyDistributed method.
@@ -100,6 +140,35 @@ public class Copy extends RollbackOperation {
 	 *            The prefix that will be used when sending messages to the sender.
 	 */
 	public Copy(Location min, Location max, String fileName, CommandSender sender, String prefix) {
+		this(min, max, fileName, sender, prefix, false);
+	}
+
+	/**
+	 * Used to schedule a copy that can optionally be taken from chunk snapshots. Snapshot copies
+	 * only capture the chunks on the main thread and encode the file on a worker thread, but they
+	 * use more RAM since every chunk of the region is held until it is written.
+	 * 
+	 * @param min
+	 *            The location that contains data for the min location of the region.
+	 * @param max
+	 *            The location that contains data for the max location of the region.
+	 * @param fileName
+	 *            The fileName and directory of the folder that will contain the saved data.
+	 *            Recommended: Make a sub-folder in your Main.plugin and put them in there.
+	 * @param sender
+	 *            Where status messages will be sent. Null for no messages, consoleSender for
+	 *            console, and a player for a player.
+	 * @param prefix
+	 *            The prefix that will be used when sending messages to the sender.
+	 * @param useSnapshots
+	 *            If the copy should be taken from chunk snapshots. Always true when the section
+	 *            store is enabled, or when chunks are read from the region files.
+	 */
+	public Copy(Location min, Location max, String fileName, CommandSender sender, String prefix,
+			boolean useSnapshots) {
+		// Sections are only written from snapshots.
+		this.sections = Config.sectionStore;
+		this.useSnapshots = useSnapshots || sections || Config.readRegionFiles;
 		this.min = min;
 		this.max = max;
 		if (!fileName.contains(".")) {
@@ -133,17 +202,81 @@ public class Copy extends RollbackOperation {
 
 	}
 
+	/**
+	 * Used to schedule a copy that only copies the chunks that changed since a region was last
+	 * saved. The rest of the save is reused as it is, and the new save replaces the old one once it
+	 * is written, so the old one can be pasted until then.
+	 * 
+	 * @param min
+	 *            The location that contains data for the min location of the region.
+	 * @param max
+	 *            The location that contains data for the max location of the region.
+	 * @param fileName
+	 *            The save, which must have been copied from the same region.
+	 * @param chunks
+	 *            The keys of the chunks that changed, from {@link Utilities#chunkKey(int, int)}.
+	 * @param sender
+	 *            Where status messages will be sent. Null for no messages.
+	 * @param prefix
+	 *            The prefix that will be used when sending messages to the sender.
+	 * @return The copy, or null if the save can't be updated, like when it is in an older format or
+	 *         has a different size. A full copy is needed then.
+	 */
+	public static final Copy update(Location min, Location max, String fileName, Set<Long> chunks,
+			CommandSender sender, String prefix) {
+		Copy copy = new Copy(min, max, fileName, sender, prefix, true);
+		File file = new File(copy.fileName);
+		ColumnIndex index = copy.createIndex();
+		// The old save has to be stored the same way the new one will be.
+		if (SectionStore.isManifest(file) != copy.sections)
+			return null;
+		try {
+			if (copy.sections) {
+				SectionStore.Manifest manifest = SectionStore.readManifest(file);
+				if (manifest == null || !manifest.index.matches(index)
+						|| !Arrays.equals(manifest.simpleBlocks, simpleBlocks))
+					return null;
+				copy.previousHashes = manifest.hashes;
+			} else {
+				try (FileChannel save = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+						InputStream in = new BufferedInputStream(Channels.newInputStream(save))) {
+					BlockDecoder.Header header = BlockDecoder.readHeader(in);
+					// The columns are copied as they are, so they have to be encoded the same way.
+					if (header == null || header.version != VERSION || !header.index.matches(index)
+							|| !Arrays.equals(header.simpleBlocks, simpleBlocks))
+						return null;
+					copy.previousPositions = index.readPositions(save);
+				}
+			}
+		} catch (IOException e) {
+			return null;
+		}
+
+		copy.previous = file;
+		copy.changedColumns = new boolean[index.getColumns()];
+		int minChunkX = min.getBlockX() >> 4;
+		int minChunkZ = min.getBlockZ() >> 4;
+		for (long key : chunks) {
+			int chunkX = Utilities.chunkKeyX(key) - minChunkX;
+			int chunkZ = Utilities.chunkKeyZ(key) - minChunkZ;
+			if (chunkX >= 0 && chunkX < index.columnsX && chunkZ >= 0 && chunkZ < index.columnsZ)
+				copy.changedColumns[chunkX * index.columnsZ + chunkZ] = true;
+		}
+		return copy;
+	}
+
 	/**
 	 * Cancels all of the running copy operations.
 	 * 
 	 * @return The number of operations cancelled.
 	 */
 	public static final int cancelAll() {
-		int numberOfTasks = runningCopies.size();
-		for (int i = 0; i < numberOfTasks; i++) {
-			runningCopies.get(i).end(EndStatus.FAIL_EXERNAL_TERMONATION);
+		// Copies the list since ending a copy removes it from the list.
+		List<Copy> copies = new ArrayList<Copy>(runningCopies);
+		for (Copy copy : copies) {
+			copy.end(EndStatus.FAIL_EXERNAL_TERMONATION);
 		}
-		return numberOfTasks;
+		return copies.size();
 	}
 
 	/**
@@ -158,23 +291,44 @@ public class Copy extends RollbackOperation {
 	// The internal method to start the copy operation.
 	protected final boolean copy() {
 		startTime = System.nanoTime();
-		// Checks if there are any currently running pastes of the exact same thing.
+		// Checks if there are any currently running or waiting copies to the same file. Checked
+		// again when a waiting copy is retried.
 		for (Copy runningCopy : runningCopies) {
 			if (runningCopy.fileName.equals(fileName)) {
-				new CopyEndEvent(this, 0, EndStatus.FAIL_DUPLICATE);
+				endUnstarted(EndStatus.FAIL_DUPLICATE);
 				return false;
 			}
 		}
-
-		if (!initializeStream())
+		for (Copy queuedCopy : queuedCopies) {
+			if (queuedCopy.fileName.equals(fileName)) {
+				endUnstarted(EndStatus.FAIL_DUPLICATE);
+				return false;
+			}
+		}
+		// Copying blocks that are being pasted would save them half pasted.
+		area = OperationAreas.claim(min, max, false, waiting);
+		if (area == null) {
+			// The file is taken while it waits, unless it was rejected.
+			if (OperationAreas.isQueued(waiting))
+				queuedCopies.add(this);
 			return false;
+		}
 
-		if (!startFile())
+		stats = Statistics.start(OperationStats.Type.COPY, fileName);
+		stats.totalBlocks = (long) (max.getBlockX() - min.getBlockX() + 1) * (max.getBlockY() - min.getBlockY() + 1)
+				* (max.getBlockZ() - min.getBlockZ() + 1);
+		arena = ArenaChangeTracker.copyStarted(this);
+		if (!initializeStream())
 			return false;
 
-		CopyTask task = new CopyTask(min, max, out, this, sender, prefix);
+		Runnable task;
+		if (useSnapshots) {
+			snapshotTask = new SnapshotCopyTask(min, max, out, this);
+			task = snapshotTask;
+		} else {
+			task = new CopyTask(min, max, out, this, sender, prefix);
+		}
 
-		this.copyTask = task;
 		runningCopies.add(this);
 		taskID = Main.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(Main.plugin, task, 1, 1);
 		return true;
@@ -184,60 +338,54 @@ public class Copy extends RollbackOperation {
 	private final boolean initializeStream() {
 		// Initializes the file
 		file = new File(fileName);
-		if (file.exists()) {
-			// Deletes it if it exists so it starts over.
-			file.delete();
-		}
+		// The old save stays in place until the new one is done, so pastes of it can still run, and
+		// it is kept if the copy fails. Pastes that opened it keep reading it after it is replaced.
+		tempFile = new File(fileName + ".tmp");
+		File target = tempFile;
 
 		// Creates the file.
 		try {
-			File parent = file.getParentFile();
+			File parent = target.getParentFile();
 			if(parent != null) {
 				parent.mkdirs();
 			}
-			file.createNewFile();
+			target.createNewFile();
 		} catch (IOException e) {
-			System.out.print("Path: " + file.getAbsolutePath());
+			System.out.print("Path: " + target.getAbsolutePath());
 			e.printStackTrace();
 			end(EndStatus.FAIL_IO_ERROR);
 			return false;
 		}
 
-		// Initializes the FileOutputStream.
+		// Manifests are written all at once by the worker thread.
+		if (sections)
+			return true;
+
+		// Initializes the FileOutputStream and writes the initial data- Version, blocks, and size.
 		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
+			OutputStream stream;
+			if (Config.asyncWrites) {
+				writer = new AsyncFileWriter(target);
+				stream = writer;
+			} else {
+				stream = new BufferedOutputStream(new FileOutputStream(target));
+			}
+			out = new SaveWriter(stream, createIndex());
 		} catch (IOException e) {
 			e.printStackTrace();
+			// Stops the writer thread.
+			if (writer != null)
+				writer.abort(null);
 			end(EndStatus.FAIL_IO_ERROR);
 			return false;
 		}
 		return true;
 	}
 
-	// Writes the initial data- Version, blocks, and size.
-	private final boolean startFile() {
-		// Writes the version so that the plugin can convert/reject incompatible
-		// versions.
-		try {
-			out.write(VERSION);
-			// VERSION 1 SPECIFIC
-			out.write(simpleBlocks.length);
-			for (int id : simpleBlocks) {
-				out.write(id);
-			}
-			// END VERSION 1 SPECIFIC
-
-			// Writes the sizes to the file using writeShort because it can be
-			// larger than 255.
-			FileUtilities.writeShort(out, max.getBlockX() - min.getBlockX());
-			FileUtilities.writeShort(out, max.getBlockY() - min.getBlockY());
-			FileUtilities.writeShort(out, max.getBlockZ() - min.getBlockZ());
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			end(EndStatus.FAIL_IO_ERROR);
-			return false;
-		}
-		return true;
+	// The columns of the region. They line up with the chunks of the world.
+	final ColumnIndex createIndex() {
+		return new ColumnIndex(max.getBlockX() - min.getBlockX() + 1, max.getBlockY() - min.getBlockY() + 1,
+				max.getBlockZ() - min.getBlockZ() + 1, min.getBlockX(), min.getBlockZ());
 	}
 
 	/**
@@ -251,10 +399,19 @@ public class Copy extends RollbackOperation {
 	// Ends it with that end status.
 	protected final void end(EndStatus endStatus) {
 		runningCopies.remove(this);
-		// Closes the resource to close resources.
-		if (out != null)
+		OperationAreas.dequeue(waiting);
+		OperationAreas.release(area);
+		area = null;
+		// The worker thread owns the stream while it is encoding, so it closes it once it stops.
+		if (snapshotTask != null && snapshotTask.stopEncoding()) {
+			// Nothing to close here.
+		} else if (writer != null && endStatus != EndStatus.SUCCESS) {
+			// The file is dropped, so the main thread doesn't wait for the disk.
+			writer.abort(tempFile);
+		} else if (out != null)
+			// Closes the resource to close resources.
 			try {
-				copyTask.out.close();
+				out.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -263,7 +420,99 @@ public class Copy extends RollbackOperation {
 			Bukkit.getScheduler().cancelTask(taskID);
 			taskID = -1;
 		}
+		if (tempFile != null) {
+			if (endStatus == EndStatus.SUCCESS) {
+				try {
+					FileUtilities.replaceFile(tempFile.toPath(), file.toPath());
+				} catch (IOException e) {
+					e.printStackTrace();
+					endStatus = EndStatus.FAIL_IO_ERROR;
+				}
+			}
+			// Deleted by the worker thread instead if it is still writing it.
+			if (endStatus != EndStatus.SUCCESS && (snapshotTask == null || !snapshotTask.isEncoding()))
+				tempFile.delete();
+		}
+		ArenaChangeTracker.copyEnded(arena, endStatus);
+		if (stats != null && file != null)
+			stats.bytesWritten = file.length();
+		Statistics.end(stats, endStatus);
 		new CopyEndEvent(this, System.nanoTime() - startTime, endStatus);
+		if (distributed != null)
+			distributed.tileEnded(this, endStatus, 0);
+	}
+
+	// Ends it without copying anything, when it can't start.
+	private final void endUnstarted(EndStatus endStatus) {
+		new CopyEndEvent(this, 0, endStatus);
+		if (distributed != null)
+			distributed.tileEnded(this, endStatus, 0);
+	}
+
+	/**
+	 * @return If the file is written slower than the blocks are encoded, so the main thread should
+	 *         stop for the tick instead of waiting for the writer thread.
+	 */
+	final boolean isWriteBackedUp() {
+		return writer != null && writer.isBackedUp();
+	}
+
+	// Ends it once the file is written. When a writer thread writes the file, it syncs and closes
+	// the file off the main thread first, so the end event only fires once the save is complete.
+	final void endWhenWritten(EndStatus endStatus) {
+		if (writer == null || endStatus != EndStatus.SUCCESS) {
+			end(endStatus);
+			return;
+		}
+		if (taskID >= 0) {
+			Bukkit.getScheduler().cancelTask(taskID);
+			taskID = -1;
+		}
+		try {
+			writer.closeAsync(new Runnable() {
+				@Override
+				public void run() {
+					IOException failure = writer.getFailure();
+					if (failure != null)
+						failure.printStackTrace();
+					if (runningCopies.contains(Copy.this))
+						end(failure == null ? EndStatus.SUCCESS : EndStatus.FAIL_IO_ERROR);
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+			end(EndStatus.FAIL_IO_ERROR);
+		}
+	}
+
+	/**
+	 * @return The writer thread of the file, or null if the file is written on the thread that
+	 *         encodes it.
+	 */
+	final AsyncFileWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * @return The file written instead of the save until it is done, or null if the copy didn't
+	 *         start.
+	 */
+	final File getTempFile() {
+		return tempFile;
+	}
+
+	/**
+	 * @return The file being written.
+	 */
+	final File getTarget() {
+		return tempFile == null ? file : tempFile;
+	}
+
+	/**
+	 * @return The max location of the region being copied.
+	 */
+	public Location getMax() {
+		return max;
 	}
 
 }
@@ -276,44 +525,50 @@ public class Copy extends RollbackOperation {
 class CopyTask extends RollbackOperation {
 	final private Location tempLoc;		// Stores the location that is currently being worked on.
 	private final Copy copy;					// Stores the copy object this works with.
-	final BufferedOutputStream out;		// Used to read from the file.
-	int lastId = -1;	// Used to keep track of which ID was the previous for the count.
-	int lastData = -1;	// Used to keep track of which Data was the previous for the count.
-	int count = 0;		// Used for compression to keep track of how many times the block repeats.
+	private final SaveWriter out;		// Used to write the blocks to the file.
+	private final ColumnIndex.Cursor cursor;	// The block being worked on, in the order of the file.
 	long tick = 0;		// Used to keep track of how many ticks the copy operation has run.
 	long blockIndex = 0;// Used to store the index of the block, for statistical reasons.
 
-	public CopyTask(Location min, Location max, BufferedOutputStream out, Copy copy, CommandSender sender,
-			String prefix) {
+	public CopyTask(Location min, Location max, SaveWriter out, Copy copy, CommandSender sender, String prefix) {
 		this.min = min;
 		this.tempLoc = min.clone();
 		this.max = max;
 		this.out = out;
+		this.cursor = out.index.new Cursor();
 		this.copy = copy;
 		this.sender = sender;
 		this.prefix = prefix;
-		this.lastChunkX = min.getChunk().getX();
+		this.stats = copy.stats;
+		updateLocation();
 	}
 
 	@Override
 	public void run() {
 		long startTime = System.nanoTime(); // Used to keep track of time.
 		tick++; // Increments the tick variable.
+		stats.startTick();
 
 		boolean skip = false; // To know when to quit the loop for that tick.
 
-		while (tempLoc.getBlockX() <= max.getBlockX() && !skip) {
+		while (!cursor.isDone() && !skip) {
+			// Stops for the tick instead of waiting when the file is written slower than this.
+			if (copy.isWriteBackedUp())
+				break;
 			nextBlock();
 			// Checks if it has run out of time.
-			if (System.nanoTime() - startTime > TaskManager.getMaxTime() * 1000000) {
+			long now = System.nanoTime();
+			stats.iteration(now);
+			if (now - startTime > TaskManager.getMaxTime() * 1000000) {
 				skip = true;
 			} else {
 				skip = false;
 			}
 		}
+		stats.endTick();
 
 		statusMessage(min, max, blockIndex, tick);
-		if (tempLoc.getBlockX() > max.getBlockX()) {
+		if (cursor.isDone()) {
 			finish();
 		}
 	}
@@ -321,6 +576,8 @@ class CopyTask extends RollbackOperation {
 	@SuppressWarnings("deprecation")
 	private final void nextBlock() {
 		// Gets the location from the XYZ of the for loops.
+		stats.visit(tempLoc.getWorld(), tempLoc.getBlockX(), tempLoc.getBlockY(), tempLoc.getBlockZ());
+		stats.blocksVisited++;
 
 		// Gets the block at the current location.
 		Block block = tempLoc.getBlock();
@@ -328,130 +585,424 @@ class CopyTask extends RollbackOperation {
 		// Gets the value and ID of the block at the location.
 		int id = block.getTypeId();
 		byte data = block.getData();
-		// Material type = block.getType();
+		stats.blockId = id;
 
-		// If they are the same, skip writing. If it's -1 it means it is the first block so it
-		// should skip writing. If it's 255, write it because that's the max value the byte
-		// array can hold.
-		// !(type.equals(Material.SIGN_POST) || type.equals(Material.WALL_SIGN))
-		if (id == lastId && data == lastData && count != 255 && id != wallSignID &&
-				id != signPostID && Arrays.binarySearch(commandBlockIDs, id) < 0) {
+		try {
+			// Only signs and command blocks need their state, which is slow to get.
+			out.writeBlock(id, data, hasText(id) ? getText(id, block.getState()) : null);
+
+			// Updates variables.
+			blockIndex++;
+			int column = cursor.column;
+			if (cursor.next() == ColumnIndex.NEXT_COLUMN) {
+				out.endColumn();
+				// The column is done, so its chunk can be unloaded to save RAM.
+				unloadColumn(min, out.index, column, null);
+			}
+			updateLocation();
+		} catch (IOException e) {
+			e.printStackTrace();
+			copy.end(EndStatus.FAIL_IO_ERROR);
+		}
+	}
 
-			// This means that the block repeated itself, so it keeps track of it, rather than
-			// writing it every time. This is to compress the output file.
-			count++;
+	// Moves the location to the block of the cursor.
+	private final void updateLocation() {
+		tempLoc.setX(min.getBlockX() + cursor.x);
+		tempLoc.setY(min.getBlockY() + cursor.y);
+		tempLoc.setZ(min.getBlockZ() + cursor.z);
+	}
 
-		} else {
+	private final void finish() {
+		// Writes the positions of the columns to finish the file.
+		try {
+			out.finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+			copy.end(EndStatus.FAIL_IO_ERROR);
+			return;
+		}
+
+		copy.endWhenWritten(EndStatus.SUCCESS);
+	}
+
+	protected final void statusMessage(Location min, Location max, long index, long tick) {
+		if (sender != null && tick % 100 == 0) {
+			int sizeX = max.getBlockX() - min.getBlockX();
+			int sizeY = max.getBlockY() - min.getBlockY();
+			int sizeZ = max.getBlockZ() - min.getBlockZ();
+			long maxBlocks = sizeX * sizeY;
+			maxBlocks *= sizeZ;
+			double percent = (index / (double) maxBlocks) * 100;
+			sender.sendMessage(prefix + "Working on copy operation; " + new DecimalFormat("#.0").format(percent)
+					+ "% done (" + index + "/" + maxBlocks + ")");
+		}
+	}
+}
+/**
+ * SnapshotCopyTask class, used by the Copy task when it copies from chunk snapshots. The chunks are
+ * captured progressively on the main thread, then the file is encoded on a worker thread.
+ * 
+ * @author lizardfreak321
+ */
+class SnapshotCopyTask extends RollbackOperation {
+	private final Copy copy;					// Stores the copy object this works with.
+	private final SaveWriter out;				// Used to write to the file, null for manifests.
+	private final ColumnIndex index;			// The columns of the region.
+	private final int minChunkX;				// The X of the first chunk of the region.
+	private final int minChunkZ;				// The Z of the first chunk of the region.
+	private final int maxHeight;				// The height of the world.
+	private final ChunkBlocks[][] snapshots;	// The captured chunks, indexed by X then Z.
+	// The text of the signs and command blocks, since snapshots don't contain it.
+	private final Map<Long, String[]> text = new HashMap<Long, String[]>();
+	private final AnvilReader reader;			// Reads the unloaded chunks, null if they are loaded.
+	private final List<Long> unloaded = new ArrayList<Long>();	// The chunks to read from the files.
+	private final List<Long> reload = new ArrayList<Long>();	// The chunks the files didn't have.
+	private int chunkX;							// The X of the next chunk to capture.
+	private int chunkZ;							// The Z of the next chunk to capture.
+	private boolean encoding = false;			// If the worker thread is writing the file.
+	private volatile boolean cancelled = false;	// Set when the copy ends while encoding.
+
+	SnapshotCopyTask(Location min, Location max, SaveWriter out, Copy copy) {
+		this.min = min;
+		this.max = max;
+		this.out = out;
+		this.copy = copy;
+		this.index = copy.createIndex();
+		this.stats = copy.stats;
+		this.maxHeight = min.getWorld().getMaxHeight();
+		minChunkX = min.getBlockX() >> 4;
+		minChunkZ = min.getBlockZ() >> 4;
+		snapshots = new ChunkBlocks[(max.getBlockX() >> 4) - minChunkX + 1][(max.getBlockZ() >> 4) - minChunkZ
+				+ 1];
+		reader = Config.readRegionFiles && AnvilReader.regionFolder(min.getWorld()).isDirectory()
+				? new AnvilReader(min.getWorld())
+				: null;
+		chunkX = minChunkX;
+		chunkZ = minChunkZ;
+	}
+
+	@Override
+	public void run() {
+		long startTime = System.nanoTime(); // Used to keep track of time.
+		World world = min.getWorld();
+		boolean skip = false; // To know when to quit the loop for that tick.
+		stats.startTick();
+
+		while (chunkX <= max.getBlockX() >> 4 && !skip) {
+			// When updating a save, only the chunks that changed are needed.
+			if (copy.changedColumns == null
+					|| copy.changedColumns[(chunkX - minChunkX) * index.columnsZ + chunkZ - minChunkZ]) {
+				if (reader != null && AnvilReader.isWritten(world, chunkX, chunkZ)) {
+					// Read from its region file off the main thread instead of loading it.
+					unloaded.add(Utilities.chunkKey(chunkX, chunkZ));
+				} else {
+					stats.visit(world, chunkX << 4, 0, chunkZ << 4);
+					captureChunk(world.getChunkAt(chunkX, chunkZ));
+				}
+			}
+
+			chunkZ++;
+			if (chunkZ > max.getBlockZ() >> 4) {
+				chunkZ = minChunkZ;
+				chunkX++;
+			}
+
+			// Checks if it has run out of time.
+			long now = System.nanoTime();
+			stats.iteration(now);
+			skip = now - startTime > TaskManager.getMaxTime() * 1000000;
+		}
+		// The chunks that couldn't be read from the region files are loaded after all.
+		while (chunkX > max.getBlockX() >> 4 && !reload.isEmpty() && !skip) {
+			long key = reload.remove(reload.size() - 1);
+			stats.visit(world, Utilities.chunkKeyX(key) << 4, 0, Utilities.chunkKeyZ(key) << 4);
+			captureChunk(world.getChunkAt(Utilities.chunkKeyX(key), Utilities.chunkKeyZ(key)));
+
+			long now = System.nanoTime();
+			stats.iteration(now);
+			skip = now - startTime > TaskManager.getMaxTime() * 1000000;
+		}
+		stats.endTick();
+
+		if (chunkX > max.getBlockX() >> 4 && reload.isEmpty()) {
+			// Every chunk is captured, so the rest can be done off the main thread.
+			Bukkit.getScheduler().cancelTask(copy.taskID);
+			copy.taskID = -1;
+			synchronized (this) {
+				encoding = true;
+			}
+			Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+				@Override
+				public void run() {
+					if (unloaded.isEmpty())
+						encode();
+					else
+						readUnloaded();
+				}
+			});
+		}
+	}
+
+	// Runs on a worker thread. Reads the chunks that aren't loaded from the region files, and then
+	// encodes the blocks, unless some chunks have to be loaded on the main thread after all.
+	private final void readUnloaded() {
+		long startTime = System.nanoTime();
+		long startAllocated = OperationStats.allocatedByThread();
+		int failed = 0;
+		try {
+			for (long key : unloaded) {
+				if (cancelled)
+					break;
+				int x = Utilities.chunkKeyX(key);
+				int z = Utilities.chunkKeyZ(key);
+				AnvilReader.Chunk chunk = null;
+				try {
+					chunk = reader.read(x, z);
+				} catch (IOException e) {
+					failed++;
+				}
+				// The text of signs and command blocks is only read through the world.
+				if (chunk == null || hasTextInRegion(chunk))
+					reload.add(key);
+				else
+					snapshots[x - minChunkX][z - minChunkZ] = chunk;
+			}
+		} finally {
 			try {
-				writeIDsToFile(id, data, block);
+				reader.close();
 			} catch (IOException e) {
 				e.printStackTrace();
-				copy.end(EndStatus.FAIL_IO_ERROR);
-
 			}
 		}
+		unloaded.clear();
+		stats.addAsync(System.nanoTime() - startTime, OperationStats.allocatedByThread() - startAllocated, 0);
+		if (failed > 0)
+			Main.plugin.getLogger().warning("Could not read " + failed + " chunks of " + copy.getFileName()
+					+ " from the region files, loading them instead.");
+
+		boolean captured;
+		synchronized (this) {
+			if (cancelled) {
+				closeCancelled();
+				return;
+			}
+			captured = reload.isEmpty();
+			if (!captured)
+				encoding = false;
+		}
+		if (captured) {
+			encode();
+			return;
+		}
+		Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				if (Copy.runningCopies.contains(copy))
+					copy.taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Main.plugin,
+							SnapshotCopyTask.this, 1, 1);
+			}
+		});
+	}
 
-		updateVariables();
+	// If a chunk read from a file has a block with text in the region.
+	private final boolean hasTextInRegion(AnvilReader.Chunk chunk) {
+		int[] tileEntities = chunk.tileEntities;
+		for (int i = 0; i < tileEntities.length; i += 3) {
+			int x = tileEntities[i], y = tileEntities[i + 1], z = tileEntities[i + 2];
+			if (x >= min.getBlockX() && x <= max.getBlockX() && y >= min.getBlockY() && y <= max.getBlockY()
+					&& z >= min.getBlockZ() && z <= max.getBlockZ() && y >= 0 && y < maxHeight
+					&& hasText(chunk.getBlockTypeId(x & 15, y, z & 15)))
+				return true;
+		}
+		return false;
+	}
 
-		// Sets the Last ints to last used ones so that it can check
-		// if the new block is the same as the last one.
-		lastId = id;
-		lastData = data;
+	@SuppressWarnings("deprecation")
+	private final void captureChunk(Chunk chunk) {
+		snapshots[chunk.getX() - minChunkX][chunk.getZ() - minChunkZ] = ChunkBlocks.of(chunk.getChunkSnapshot(false,
+				false, false));
+
+		// Snapshots don't contain the text of signs and command blocks, so it is saved separately.
+		for (BlockState state : chunk.getTileEntities()) {
+			int id = state.getTypeId();
+			if (hasText(id) && Utilities.isInRegion(state.getLocation(), min, max)) {
+				text.put(Utilities.blockKey(state.getX(), state.getY(), state.getZ()), getText(id, state));
+			}
+		}
 
+		// Unloads the chunk to save RAM, the snapshot is all that is needed.
+		safeUnloadChunk(chunk);
 	}
 
-	private final void writeIDsToFile(int id, int data, Block block) throws IOException {
-		// Write the count of the previous block down.
-		if (count != 0) {
-			out.write(count);
+	// The copy already ended while the worker thread had the stream, so nothing else will close it.
+	private final void closeCancelled() {
+		if (copy.getWriter() != null) {
+			copy.getWriter().abort(copy.getTempFile());
+			return;
 		}
+		try {
+			if (out != null)
+				out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (copy.getTempFile() != null)
+			copy.getTempFile().delete();
+	}
 
-		// Write the ID of the new block.
-		out.write(id);
+	// Runs on a worker thread. Writes every block in the same order as the CopyTask.
+	private final void encode() {
+		long startTime = System.nanoTime();
+		long startAllocated = OperationStats.allocatedByThread();
+		long blocks = 0;
+		EndStatus status = EndStatus.SUCCESS;
+		try {
+			blocks = copy.sections ? writeSections() : writeColumns();
+		} catch (IOException e) {
+			e.printStackTrace();
+			status = EndStatus.FAIL_IO_ERROR;
+		}
+		stats.addAsync(System.nanoTime() - startTime, OperationStats.allocatedByThread() - startAllocated, blocks);
 
-		// Checks if it is a sign.
-		if (id == wallSignID || id == signPostID || Arrays.binarySearch(commandBlockIDs, id) >= 0) {
-			// If it is a sign, write the data (Direction it is facing in a
-			// sign's case)
-			out.write(data);
-			// Write 0 to signify the start of a line
-			out.write(0);
-			
-			String[] lines;
-			if(id == wallSignID || id == signPostID)
-				lines = ((Sign) block.getState()).getLines();
-			else {
-				CommandBlock cBlock = (CommandBlock) block.getState();
-				lines = new String[]{cBlock.getName(), cBlock.getCommand(),"",""};
-			}
-			
-			for (int i = 0; i < 4; i++) {
-				// Write the line to the file.
-				String signText = lines[i];
-				for (int indx = 0; indx < signText.length(); indx++) {
-					out.write(signText.charAt(indx));
-				}
-				// Write 0 to signify the end of the line and start of a new
-				// one.
-				out.write(0);
-			}
-			count = 0;
-		} else {
-			// Skip writing the ID if the block doesn't need the ID saved to
-			// save an average of about 15% of the data.
-			if (!isSimple(id, simpleBlocks)) {
-				out.write(data);
+		synchronized (this) {
+			encoding = false;
+			if (cancelled) {
+				closeCancelled();
+				return;
 			}
-			// Sets count = to one to signify it is the first block in a
-			// row.
-			count = 1;
 		}
 
+		// Events need to be called on the main thread.
+		final EndStatus endStatus = status;
+		Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				if (Copy.runningCopies.contains(copy))
+					copy.endWhenWritten(endStatus);
+			}
+		});
 	}
 
-	private final void updateVariables() {
-		// Updates variables.
-		blockIndex++;
-		tempLoc.setZ(tempLoc.getBlockZ() + 1);
+	// Writes the save one column after another. Returns the number of blocks encoded.
+	private final long writeColumns() throws IOException {
+		long blocks = 0;
+		RandomAccessFile previous = null;
+		try {
+			if (copy.previous != null)
+				previous = new RandomAccessFile(copy.previous, "r");
+			byte[] buffer = new byte[0];
+			ColumnIndex.Cursor cursor = index.new Cursor();
+
+			for (int column = 0; column < index.getColumns() && !cancelled; column++) {
+				if (previous != null && !copy.changedColumns[column]) {
+					// The column didn't change, so it is copied from the old save without decoding it.
+					long position = copy.previousPositions[column];
+					int length = (int) (copy.previousPositions[column + 1] - position);
+					if (buffer.length < length)
+						buffer = new byte[length];
+					previous.seek(position);
+					previous.readFully(buffer, 0, length);
+					out.writeColumn(buffer, length);
+					continue;
+				}
 
-		if (tempLoc.getBlockZ() > max.getBlockZ()) {
-			tempLoc.setZ(min.getBlockZ());
-			tempLoc.setY(tempLoc.getBlockY() + 1);
+				cursor.moveTo(column, 0);
+				writeBlocks(out.encoder, cursor);
+				out.endColumn();
+				blocks += index.blocks(column);
+			}
+			if (!cancelled)
+				out.finish();
+		} finally {
+			if (previous != null)
+				previous.close();
 		}
-		if (tempLoc.getBlockY() > max.getBlockY()) {
-			tempLoc.setY(min.getBlockY());
-			tempLoc.setX(tempLoc.getBlockX() + 1);
+		return blocks;
+	}
 
-			checkChunks(tempLoc);
+	// Adds each section to the section store and writes the manifest. Returns the number of blocks
+	// encoded.
+	private final long writeSections() throws IOException {
+		long blocks = 0;
+		int sections = index.sections(SectionStore.HEIGHT);
+		String[] hashes = new String[index.getColumns() * sections];
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		BlockEncoder encoder = new BlockEncoder(buffer);
+		ColumnIndex.Cursor cursor = index.new Cursor(SectionStore.HEIGHT);
+
+		for (int column = 0; column < index.getColumns() && !cancelled; column++) {
+			if (copy.previousHashes != null && !copy.changedColumns[column]) {
+				// The column didn't change, so it uses the same sections as before.
+				System.arraycopy(copy.previousHashes, column * sections, hashes, column * sections, sections);
+				continue;
+			}
+			for (int section = 0; section < sections; section++) {
+				int fromY = min.getBlockY() + section * SectionStore.HEIGHT;
+				int toY = Math.min(max.getBlockY(), fromY + SectionStore.HEIGHT - 1);
+				// The size is part of what is hashed, so sections with the same blocks in a different
+				// shape are stored separately.
+				buffer.reset();
+				buffer.write(index.maxX(column) - index.minX(column) | SectionStore.LAYERED | SectionStore.VARINTS);
+				buffer.write(toY - fromY);
+				buffer.write(index.maxZ(column) - index.minZ(column));
+				cursor.moveTo(column, section);
+				writeBlocks(encoder, cursor);
+				encoder.finish();
+
+				byte[] bytes = buffer.toByteArray();
+				String hash = SectionStore.hash(bytes, bytes.length);
+				SectionStore.store(hash, bytes, bytes.length);
+				hashes[column * sections + section] = hash;
+				blocks += (long) (index.maxX(column) - index.minX(column) + 1) * (toY - fromY + 1)
+						* (index.maxZ(column) - index.minZ(column) + 1);
+			}
 		}
+		if (!cancelled)
+			SectionStore.writeManifest(copy.getTarget(), new SectionStore.Manifest(simpleBlocks, index, hashes));
+		return blocks;
 	}
 
-	private final void finish() {
-		// Writes the count to finish the file.
-		// Skips signs because signs don't compress.
-		if (lastId != 63 && lastId != 68) {
-			try {
-				out.write(count);
-			} catch (IOException e) {
-				e.printStackTrace();
-				copy.end(EndStatus.FAIL_IO_ERROR);
-				return;
+	// Encodes the blocks of the section the cursor is at, one layer at a time in the order of the
+	// cursor. Copies are always layered since they write the current version.
+	private final void writeBlocks(BlockEncoder encoder, ColumnIndex.Cursor cursor) throws IOException {
+		ChunkBlocks snapshot = snapshots[cursor.column / index.columnsZ][cursor.column % index.columnsZ];
+		long layer = index.layerBlocks(cursor.column);
+		for (long blocks = cursor.sectionBlocks(); blocks > 0; blocks -= layer) {
+			int y = min.getBlockY() + cursor.y;
+			// Layers outside the world or in an empty section of the chunk are all air, so they are
+			// added as one run without reading them.
+			if (y < 0 || y >= maxHeight || snapshot.isSectionEmpty(y >> 4)) {
+				encoder.writeRun(0, 0, layer);
+				cursor.skipLayers(1);
+				continue;
+			}
+			for (long i = layer; i > 0; i--, cursor.next()) {
+				int x = min.getBlockX() + cursor.x;
+				int z = min.getBlockZ() + cursor.z;
+				int id = snapshot.getBlockTypeId(x & 15, y, z & 15);
+				encoder.writeBlock(id, snapshot.getBlockData(x & 15, y, z & 15),
+						hasText(id) ? text.get(Utilities.blockKey(x, y, z)) : null);
 			}
 		}
+	}
 
-		copy.end(EndStatus.SUCCESS);
+	/**
+	 * @return If the worker thread is encoding, meaning it still has the stream and the files.
+	 */
+	synchronized final boolean isEncoding() {
+		return encoding;
 	}
 
-	protected final void statusMessage(Location min, Location max, long index, long tick) {
-		if (sender != null && tick % 100 == 0) {
-			int sizeX = max.getBlockX() - min.getBlockX();
-			int sizeY = max.getBlockY() - min.getBlockY();
-			int sizeZ = max.getBlockZ() - min.getBlockZ();
-			long maxBlocks = sizeX * sizeY;
-			maxBlocks *= sizeZ;
-			double percent = (index / (double) maxBlocks) * 100;
-			sender.sendMessage(prefix + "Working on copy operation; " + new DecimalFormat("#.0").format(percent)
-					+ "% done (" + index + "/" + maxBlocks + ")");
-		}
+	/**
+	 * Tells the worker thread to stop if it is encoding.
+	 * 
+	 * @return If it was encoding, meaning the worker thread will close the stream.
+	 */
+	synchronized final boolean stopEncoding() {
+		if (!encoding)
+			return false;
+		cancelled = true;
+		return true;
 	}
-}
\ No newline at end of file
+}
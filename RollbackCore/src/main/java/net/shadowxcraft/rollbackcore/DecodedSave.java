@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A save that was decoded into memory, so it can be pasted in several places without reading the
+ * file again. The blocks are kept as runs of the same block, in the order of a
+ * {@link ColumnIndex.Cursor} of {@link #height}. Nothing changes once it is read, so any number of
+ * pastes can read it at the same time, each with its own {@link Reader}.
+ *
+ * @see TemplatePaste
+ * @author lizardfreak321
+ */
+final class DecodedSave {
+	final int[] simpleBlocks;			// The blocks of the save that don't have their data saved.
+	final ColumnIndex index;			// The columns of the save.
+	final int height;					// The height of the sections the columns were read in.
+	// Only added to while it is read.
+	private char[] blocks = new char[1024];	// The ID and data of each run, as id << 8 | data.
+	private int[] counts = new int[1024];	// The number of blocks in each run.
+	private final Map<Integer, String[]> lines = new HashMap<Integer, String[]>(); // The text of runs.
+	private int runs = 0;				// The number of runs.
+	private boolean lastHasText = false; // If the last run is a block with text.
+
+	private DecodedSave(int[] simpleBlocks, ColumnIndex index, int height) {
+		this.simpleBlocks = simpleBlocks;
+		this.index = index;
+		this.height = height;
+	}
+
+	/**
+	 * Reads and decodes a save or a manifest of the section store. Doesn't use the Bukkit API, so it
+	 * can be called from any thread.
+	 *
+	 * @param file
+	 *            The save.
+	 * @return The decoded save, or null if the version of the file is not supported.
+	 * @throws EOFException
+	 *             If the file or one of its sections ended early.
+	 * @throws IOException
+	 *             If it couldn't be read.
+	 */
+	static final DecodedSave read(File file) throws IOException {
+		try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			in.mark(1);
+			boolean isManifest = in.read() == SectionStore.MANIFEST;
+			in.reset();
+			if (!isManifest) {
+				BlockDecoder.Header header = BlockDecoder.readHeader(in);
+				if (header == null)
+					return null;
+				DecodedSave save = new DecodedSave(header.simpleBlocks, header.index, header.index.sizeY);
+				save.decode(BlockDecoder.create(in, header.version, header.simpleBlocks),
+						(long) header.index.sizeX * header.index.sizeY * header.index.sizeZ);
+				return save;
+			}
+
+			SectionStore.Manifest manifest = SectionStore.readManifest(in, file.getPath());
+			if (manifest == null)
+				return null;
+			DecodedSave save = new DecodedSave(manifest.simpleBlocks, manifest.index, SectionStore.HEIGHT);
+			int sections = manifest.index.sections(SectionStore.HEIGHT);
+			ColumnIndex.Cursor cursor = manifest.index.new Cursor(SectionStore.HEIGHT);
+			while (!cursor.isDone()) {
+				byte[] bytes = SectionStore.load(manifest.hashes[cursor.column * sections + cursor.section]);
+				save.decode(BlockDecoder.forSection(bytes, manifest.simpleBlocks), cursor.sectionBlocks());
+				cursor.endSection();
+			}
+			return save;
+		}
+	}
+
+	// Adds the next blocks of the decoder.
+	private final void decode(BlockDecoder decoder, long count) throws IOException {
+		for (long i = 0; i < count; i++) {
+			if (!decoder.nextBlock())
+				throw new EOFException("The save ended early.");
+			char block = (char) (decoder.id << 8 | decoder.data);
+			// Blocks with text always get their own run.
+			if (decoder.lines == null && !lastHasText && runs > 0 && blocks[runs - 1] == block
+					&& counts[runs - 1] < Integer.MAX_VALUE) {
+				counts[runs - 1]++;
+				continue;
+			}
+			if (runs == blocks.length) {
+				blocks = Arrays.copyOf(blocks, runs * 2);
+				counts = Arrays.copyOf(counts, runs * 2);
+			}
+			blocks[runs] = block;
+			counts[runs] = 1;
+			lastHasText = decoder.lines != null;
+			if (lastHasText)
+				lines.put(runs, decoder.lines);
+			runs++;
+		}
+	}
+
+	/**
+	 * @return About how many bytes of memory the blocks use.
+	 */
+	final long getEstimatedMemory() {
+		return blocks.length * 6L + lines.size() * 200L;
+	}
+
+	/**
+	 * Reads the blocks from the start, one at a time, like the decoder of a file.
+	 */
+	final class Reader extends BlockDecoder {
+		private int run = -1;		// The run of the current block.
+		private int count = 0;		// How many more times the current block repeats.
+
+		Reader() {
+			super(null, simpleBlocks);
+		}
+
+		@Override
+		boolean nextBlock() {
+			if (count <= 0) {
+				if (run + 1 >= runs)
+					return false;
+				run++;
+				id = blocks[run] >> 8;
+				data = blocks[run] & 0xFF;
+				lines = DecodedSave.this.lines.isEmpty() ? null : DecodedSave.this.lines.get(run);
+				count = counts[run];
+			}
+			count--;
+			return true;
+		}
+
+		@Override
+		int getRepeats() {
+			return count;
+		}
+
+		@Override
+		void skipRepeats(int blocks) {
+			count -= blocks;
+		}
+	}
+}
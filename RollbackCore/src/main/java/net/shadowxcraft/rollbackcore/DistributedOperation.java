@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import net.shadowxcraft.rollbackcore.events.DistributedEndEvent;
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * Runs a copy or paste that is split up into tiles. Several tiles can run at the same time, and one
+ * DistributedEndEvent is called once all of them finish.
+ * 
+ * @see DistributedEndEvent
+ * @see Rollback#copyTiled
+ * @see Rollback#pasteTiled
+ * @author lizardfreak321
+ */
+public class DistributedOperation {
+	static final List<DistributedOperation> runningOperations = new ArrayList<DistributedOperation>();
+	// The tiles that have not been started yet.
+	private final LinkedList<RollbackOperation> waitingTiles = new LinkedList<RollbackOperation>();
+	private final String name;				// The name of the save.
+	private final boolean copy;				// If this is a copy, else it is a paste.
+	private final World world;				// The world the operation is in.
+	private final boolean originalWorldSaveSetting; // Restored once the pastes are done.
+	public final CommandSender sender;		// The optional sender of messages.
+	public final String prefix;				// The prefix used by messages.
+	private int tiles = 0;					// The number of tiles in total.
+	private int activeTiles = 0;			// The number of tiles that are running.
+	private int finishedTiles = 0;			// The number of tiles that ended.
+	private long blocks = 0;				// The blocks copied or changed by the finished tiles.
+	private long startTime = -1;			// The nano-time the operation started at.
+	private EndStatus endStatus = EndStatus.SUCCESS; // The status of the first tile that failed.
+
+	DistributedOperation(String name, boolean copy, World world, CommandSender sender, String prefix) {
+		this.name = name;
+		this.copy = copy;
+		this.world = world;
+		this.originalWorldSaveSetting = world.isAutoSave();
+		this.sender = sender;
+		this.prefix = prefix;
+	}
+
+	// Adds a copy or paste to the operation. Must be done before it starts.
+	final void addTile(Copy tile) {
+		tile.distributed = this;
+		waitingTiles.add(tile);
+		tiles++;
+	}
+
+	final void addTile(Paste tile) {
+		tile.distributed = this;
+		waitingTiles.add(tile);
+		tiles++;
+	}
+
+	/**
+	 * Starts the operation. It runs as many tiles at once as the config allows.
+	 */
+	final void start() {
+		startTime = System.nanoTime();
+		runningOperations.add(this);
+		if (tiles == 0) {
+			end();
+			return;
+		}
+		startTiles();
+	}
+
+	// Fills the free slots with the next waiting tiles.
+	private final void startTiles() {
+		while (activeTiles < Config.activeTiles && !waitingTiles.isEmpty()) {
+			activeTiles++;
+			// Started on the next tick so that a tile never starts from inside another tile's end.
+			Bukkit.getScheduler().runTask(Main.plugin, waitingTiles.removeFirst());
+		}
+	}
+
+	/**
+	 * Called by the tiles when they end.
+	 * 
+	 * @param tile
+	 *            The tile that ended.
+	 * @param status
+	 *            How the tile ended.
+	 * @param blocksChanged
+	 *            The number of blocks changed by the tile. Ignored for copies, since every block
+	 *            of the tile is copied.
+	 */
+	final void tileEnded(RollbackOperation tile, EndStatus status, long blocksChanged) {
+		activeTiles--;
+		finishedTiles++;
+
+		if (status.equals(EndStatus.SUCCESS)) {
+			if (copy) {
+				Copy copyTile = (Copy) tile;
+				long size = copyTile.getMax().getBlockX() - copyTile.getMin().getBlockX() + 1;
+				size *= copyTile.getMax().getBlockY() - copyTile.getMin().getBlockY() + 1;
+				size *= copyTile.getMax().getBlockZ() - copyTile.getMin().getBlockZ() + 1;
+				blocks += size;
+			} else {
+				blocks += blocksChanged;
+			}
+			if (sender != null)
+				sender.sendMessage(prefix + "Finished tile " + finishedTiles + "/" + tiles + ".");
+		} else if (endStatus.equals(EndStatus.SUCCESS)) {
+			// Stops starting new tiles, the running ones are allowed to finish.
+			endStatus = status;
+			waitingTiles.clear();
+		}
+
+		if (activeTiles <= 0 && waitingTiles.isEmpty()) {
+			end();
+		} else {
+			startTiles();
+		}
+	}
+
+	private final void end() {
+		runningOperations.remove(this);
+		if (!copy) {
+			// Each paste changes the setting, so the one from before any of them started is restored.
+			world.setAutoSave(originalWorldSaveSetting);
+		}
+		new DistributedEndEvent(this, System.nanoTime() - startTime, blocks, endStatus);
+	}
+
+	/**
+	 * @return The name of the folder the tiles are saved in.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return If this operation is a copy. If false, it is a paste.
+	 */
+	public boolean isCopy() {
+		return copy;
+	}
+
+	/**
+	 * @return The number of tiles the operation is split into.
+	 */
+	public int getTiles() {
+		return tiles;
+	}
+
+	/**
+	 * @return The number of tiles that have not started yet.
+	 */
+	public int getWaitingTiles() {
+		return waitingTiles.size();
+	}
+
+	/**
+	 * @return The number of tiles that ended.
+	 */
+	public int getFinishedTiles() {
+		return finishedTiles;
+	}
+}
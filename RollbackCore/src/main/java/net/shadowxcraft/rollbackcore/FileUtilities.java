@@ -20,11 +20,18 @@
 package net.shadowxcraft.rollbackcore;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public class FileUtilities {
 
@@ -70,6 +77,41 @@ public class FileUtilities {
 		writeShort(out, storedValue);
 	}
 
+	/**
+	 * Moves a finished file over the file it replaces in one step, so anything that opens the
+	 * target either gets the old file or the new one, never a partly written one. Streams that
+	 * already have the old file open keep reading the old file.
+	 * 
+	 * @param source
+	 *            The finished file, normally a temporary file next to the target.
+	 * @param target
+	 *            The file that gets replaced.
+	 * @throws IOException
+	 */
+	public static void replaceFile(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			// Some file systems can't do it atomically, a normal replace is the best they can do.
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads bytes from a position of a file without moving the position of the channel, so several
+	 * threads can read the same open file.
+	 * 
+	 * @throws EOFException
+	 *             If the file ends first.
+	 */
+	static void readFully(FileChannel channel, byte[] bytes, int length, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException();
+		}
+	}
+
 	// public static void readIDAndData(InputStream in) throws IOException {
 	// int storedValue = readShort(in);
 	// System.out.println("ID: " + (storedValue >> 4));
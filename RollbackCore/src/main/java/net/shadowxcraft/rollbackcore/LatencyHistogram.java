@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+/**
+ * Counts how long something took, in buckets that double in size. Bucket 0 holds everything under
+ * 64 microseconds, each bucket after it goes up to twice the last, and the last bucket holds
+ * everything that is longer. That is precise enough to tell a 2ms tick from a 20ms tick while using
+ * a fixed amount of RAM no matter how many times are recorded.
+ *
+ * @see OperationStats#getTickHistogram()
+ * @author lizardfreak321
+ */
+public class LatencyHistogram {
+	public static final int BUCKETS = 16;
+	private static final int FIRST_BUCKET_SHIFT = 6; // The first bucket ends at 2^6 microseconds.
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+
+	/**
+	 * Records one time.
+	 *
+	 * @param nanos
+	 *            The time in nanoseconds.
+	 */
+	public synchronized final void record(long nanos) {
+		counts[bucket(nanos)]++;
+		count++;
+		totalNanos += nanos;
+		if (nanos > maxNanos)
+			maxNanos = nanos;
+	}
+
+	// Gets the bucket a time goes in.
+	static final int bucket(long nanos) {
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros >> FIRST_BUCKET_SHIFT);
+		return bucket < BUCKETS ? bucket : BUCKETS - 1;
+	}
+
+	/**
+	 * Adds every time from another histogram.
+	 */
+	public final void add(LatencyHistogram histogram) {
+		LatencyHistogram copy = histogram.copy();
+		synchronized (this) {
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] += copy.counts[i];
+			count += copy.count;
+			totalNanos += copy.totalNanos;
+			maxNanos = Math.max(maxNanos, copy.maxNanos);
+		}
+	}
+
+	/**
+	 * @return A copy that won't change when this one does.
+	 */
+	public synchronized final LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+		copy.count = count;
+		copy.totalNanos = totalNanos;
+		copy.maxNanos = maxNanos;
+		return copy;
+	}
+
+	/**
+	 * @param bucket
+	 *            The index of the bucket.
+	 * @return The times under this many microseconds go in the bucket, unless they fit in an
+	 *         earlier one. {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public static final long getUpperBoundMicros(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << (bucket + FIRST_BUCKET_SHIFT);
+	}
+
+	/**
+	 * @return The number of times in each bucket.
+	 */
+	public synchronized final long[] getCounts() {
+		return counts.clone();
+	}
+
+	public synchronized final long getCount() {
+		return count;
+	}
+
+	public synchronized final long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public synchronized final double getMeanNanos() {
+		return count == 0 ? 0 : totalNanos / (double) count;
+	}
+
+	/**
+	 * @param percentile
+	 *            From 0 to 100.
+	 * @return The time in milliseconds that the given percent of the times are under, rounded up to
+	 *         the end of its bucket. Never more than the longest time recorded. 0 if it is empty.
+	 */
+	public synchronized final double getPercentileMillis(double percentile) {
+		if (count == 0)
+			return 0;
+		long target = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			seen += counts[i];
+			if (seen >= target && seen > 0)
+				return Math.min(getUpperBoundMicros(i) / 1000.0, maxNanos / 1000000.0);
+		}
+		return maxNanos / 1000000.0;
+	}
+}
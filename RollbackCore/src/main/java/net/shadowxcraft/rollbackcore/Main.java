@@ -62,6 +62,8 @@ public class Main extends JavaPlugin implements Listener {
 			this.getLogger().warning("Failed to create directories.");
 		}
 		Config.loadConfigs(plugin);
+		ArenaChangeTracker.load();
+		ArenaWatchDogs.load();
 
 		metrics = new Metrics(this);
 
@@ -85,6 +87,8 @@ public class Main extends JavaPlugin implements Listener {
 
 		if (Bukkit.getPluginManager().getPlugin("Skript") != null)
 			SkriptSupport.initSkriptSupport();
+
+		RollbackCoreMonitor.register(this);
 	}
 
 	@EventHandler
@@ -102,6 +106,9 @@ public class Main extends JavaPlugin implements Listener {
 	// Fired when plugin is disabled
 	@Override
 	public void onDisable() {
+		RollbackCoreMonitor.unregister();
+		Tracer.stop();
+		ArenaChangeTracker.save();
 		plugin = null;
 	}
 
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * Keeps track of the areas the running operations work in, so an operation that would overlap
+ * another one is handled by {@link Config#overlapPolicy} instead of both changing the same blocks.
+ *
+ * The areas of each world are kept by their min X, along with the widest area, so only the areas
+ * that start between the min X of a new area minus that width and its max X have to be checked.
+ *
+ * @author lizardfreak321
+ */
+final class OperationAreas {
+	private static final Map<String, WorldAreas> worlds = new HashMap<String, WorldAreas>();
+	// The operations that wait for an area, until they are retried.
+	private static final List<Waiting> queued = new ArrayList<Waiting>();
+
+	/**
+	 * An operation that can wait for the operations it overlaps.
+	 */
+	interface Waiting {
+		/**
+		 * Starts the operation again, once an operation it waited for ended. It is checked again,
+		 * since it may overlap another one.
+		 */
+		void retry();
+
+		/**
+		 * Ends the operation without starting it, like when it is rejected.
+		 */
+		void end(EndStatus status);
+	}
+
+	/**
+	 * The area of a running operation.
+	 */
+	static final class Area {
+		final String world;
+		final int minX, minY, minZ;
+		final int maxX, maxY, maxZ;
+		final boolean writes;		// If the operation changes blocks, instead of only reading them.
+		// The operations that wait for this one to end.
+		private final List<Waiting> waiting = new ArrayList<Waiting>();
+
+		private Area(String world, Location min, Location max, boolean writes) {
+			this.world = world;
+			this.minX = min.getBlockX();
+			this.minY = min.getBlockY();
+			this.minZ = min.getBlockZ();
+			this.maxX = max.getBlockX();
+			this.maxY = max.getBlockY();
+			this.maxZ = max.getBlockZ();
+			this.writes = writes;
+		}
+
+		// If both can't run at the same time. Only the X range is known to overlap.
+		private final boolean conflicts(Area other) {
+			return (writes || other.writes) && other.maxX >= minX && other.minZ <= maxZ && other.maxZ >= minZ
+					&& other.minY <= maxY && other.maxY >= minY;
+		}
+	}
+
+	// The areas of one world.
+	private static final class WorldAreas {
+		final TreeMap<Integer, List<Area>> byMinX = new TreeMap<Integer, List<Area>>();
+		int maxWidth = 0;			// The widest area along X since the world had no areas.
+		int size = 0;
+
+		private final Area findConflict(Area area) {
+			for (List<Area> areas : byMinX.subMap(area.minX - maxWidth, true, area.maxX, true).values())
+				for (Area other : areas)
+					if (area.conflicts(other))
+						return other;
+			return null;
+		}
+
+		private final void add(Area area) {
+			List<Area> areas = byMinX.get(area.minX);
+			if (areas == null) {
+				areas = new ArrayList<Area>(1);
+				byMinX.put(area.minX, areas);
+			}
+			areas.add(area);
+			maxWidth = Math.max(maxWidth, area.maxX - area.minX);
+			size++;
+		}
+
+		private final boolean remove(Area area) {
+			List<Area> areas = byMinX.get(area.minX);
+			if (areas == null || !areas.remove(area))
+				return false;
+			if (areas.isEmpty())
+				byMinX.remove(area.minX);
+			if (--size == 0)
+				maxWidth = 0;
+			return true;
+		}
+	}
+
+	private OperationAreas() {
+	}
+
+	/**
+	 * Adds the area of an operation that is about to start, unless it overlaps a running operation
+	 * that it conflicts with. It is then queued behind that operation or ended, depending on the
+	 * policy.
+	 *
+	 * @param min
+	 *            The min corner of the operation.
+	 * @param max
+	 *            The max corner of the operation.
+	 * @param writes
+	 *            If the operation changes the blocks.
+	 * @param waiting
+	 *            Used to retry or end the operation if it can't start now.
+	 * @return The area, which has to be released once the operation ends, or null if the operation
+	 *         can't start now.
+	 */
+	static final Area claim(Location min, Location max, boolean writes, Waiting waiting) {
+		return claim(min.getWorld().getName(), min, max, writes, waiting);
+	}
+
+	/**
+	 * Claims an area in a world by its name, which doesn't have to be loaded.
+	 *
+	 * @see #claim(Location, Location, boolean, Waiting)
+	 */
+	static final Area claim(String world, Location min, Location max, boolean writes, Waiting waiting) {
+		Area area = new Area(world, min, max, writes);
+		WorldAreas areas = worlds.get(area.world);
+		if (areas == null) {
+			areas = new WorldAreas();
+			worlds.put(area.world, areas);
+		}
+		if (Config.overlapPolicy != OverlapPolicy.ALLOW) {
+			Area conflict = areas.findConflict(area);
+			if (conflict != null) {
+				if (Config.overlapPolicy == OverlapPolicy.REJECT) {
+					waiting.end(EndStatus.FAIL_OVERLAP);
+				} else {
+					conflict.waiting.add(waiting);
+					queued.add(waiting);
+				}
+				return null;
+			}
+		}
+		areas.add(area);
+		return area;
+	}
+
+	/**
+	 * Removes the area of an operation that ended, and retries the operations that waited for it on
+	 * the next tick, so they never start from inside the end of another operation.
+	 *
+	 * @param area
+	 *            The area, or null if the operation never claimed one.
+	 */
+	static final void release(Area area) {
+		if (area == null)
+			return;
+		WorldAreas areas = worlds.get(area.world);
+		if (areas == null || !areas.remove(area))
+			return;
+		for (final Waiting waiting : area.waiting) {
+			Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+				@Override
+				public void run() {
+					// Not retried if it was canceled in the meantime.
+					if (queued.remove(waiting))
+						waiting.retry();
+				}
+			});
+		}
+		area.waiting.clear();
+	}
+
+	/**
+	 * @return If the operation is waiting for another one to end.
+	 */
+	static final boolean isQueued(Waiting waiting) {
+		return queued.contains(waiting);
+	}
+
+	/**
+	 * Stops an operation from waiting, when it is ended some other way.
+	 */
+	static final void dequeue(Waiting waiting) {
+		if (!queued.remove(waiting))
+			return;
+		for (WorldAreas areas : worlds.values())
+			for (List<Area> list : areas.byMinX.values())
+				for (Area area : list)
+					area.waiting.remove(waiting);
+	}
+
+	/**
+	 * Ends every operation that is waiting for another one.
+	 *
+	 * @return The number of operations that were canceled.
+	 */
+	static final int cancelQueued() {
+		// Copied since the operations may end others.
+		List<Waiting> canceled = new ArrayList<Waiting>(queued);
+		queued.clear();
+		for (WorldAreas areas : worlds.values())
+			for (List<Area> list : areas.byMinX.values())
+				for (Area area : list)
+					area.waiting.clear();
+		for (Waiting waiting : canceled)
+			waiting.end(EndStatus.FAIL_EXERNAL_TERMONATION);
+		return canceled.size();
+	}
+}
@@ -0,0 +1,517 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.World;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * The performance statistics of one operation, or the totals of every finished operation of a type.
+ * The per-block counters are only changed on the main thread. Work done on worker threads is added
+ * once it is done.
+ * 
+ * @see Statistics
+ * @author lizardfreak321
+ */
+public class OperationStats {
+	// Used to measure allocations. Not every JVM supports it.
+	private static final com.sun.management.ThreadMXBean threadBean;
+	static {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean) bean;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threadBean = null;
+		}
+	}
+
+	/**
+	 * The types of operations that are tracked.
+	 */
+	public enum Type {
+		COPY, PASTE, CLEAR_ENTITIES, WATCHDOG_ROLLBACK, WATCHDOG_IMPORT;
+	}
+
+	private static final AtomicInteger nextId = new AtomicInteger();
+	public static final int WORST_ITERATIONS = 10;	// How many of the slowest iterations are kept.
+
+	final int id = nextId.incrementAndGet(); // Tells operations apart in traces.
+	private final Type type;
+	private final String name;			// What the operation works on, like the file name.
+	private final long startTime = System.nanoTime();
+	private long endTime = -1;
+	private EndStatus endStatus = null;
+	int operations = 0;					// How many operations the totals contain.
+	long blocksVisited = 0;				// Blocks read from the world or file.
+	long blocksChanged = 0;				// Blocks set in the world.
+	long entitiesRemoved = 0;			// Entities removed by entity clears.
+	long dropsAvoided = 0;				// Attached blocks set after what they are on, so they didn't drop.
+	long bytesRead = 0;					// Bytes read from files.
+	long bytesWritten = 0;				// Bytes written to files.
+	long chunkLoads = 0;				// Chunks that had to be loaded.
+	long totalBlocks = -1;				// The blocks it will visit in total, -1 if unknown.
+	long ticks = 0;						// Ticks the operation ran in.
+	long tickNanos = 0;					// Time spent in those ticks.
+	long budgetNanos = 0;				// The time it was allowed in those ticks.
+	long maxTickNanos = 0;				// The longest it ran in one tick.
+	long asyncNanos = 0;				// Time spent on worker threads.
+	long allocatedBytes = 0;			// Bytes allocated by the operation, if the JVM supports it.
+	long overruns = 0;					// Ticks it ran more than a tenth past its budget.
+	long overrunNanos = 0;				// The time it ran past its budget in those ticks.
+	private final LatencyHistogram tickHistogram = new LatencyHistogram();
+	// The slowest iterations, slowest first. Null where there are fewer than WORST_ITERATIONS.
+	private final Iteration[] worst = new Iteration[WORST_ITERATIONS];
+	private long worstThreshold = 0;	// An iteration must be slower than this to be kept.
+	// Where the current iteration is, set by visit. Kept with the slowest iterations.
+	private World world;
+	private int x, y, z;
+	int blockId = -1;					// The ID of the block of the current iteration, -1 if none.
+	private long tickStart = -1;
+	private long tickAllocationStart;
+	private long lastIteration;			// When the last iteration in this tick ended.
+	private long slowestIteration;		// The longest iteration in this tick.
+	private long tickBlocksStart;		// The blocks visited when the tick started.
+	private long tickChunkLoadsStart;	// The chunk loads when the tick started.
+	private int lastChunkX = Integer.MIN_VALUE;
+	private int lastChunkZ = Integer.MIN_VALUE;
+
+	OperationStats(Type type, String name) {
+		this.type = type;
+		this.name = name;
+	}
+
+	/**
+	 * Call at the start of the operation's work in a tick.
+	 */
+	final void startTick() {
+		tickStart = System.nanoTime();
+		tickAllocationStart = allocatedByThread();
+		lastIteration = tickStart;
+		slowestIteration = 0;
+		tickBlocksStart = blocksVisited;
+		tickChunkLoadsStart = chunkLoads;
+	}
+
+	/**
+	 * Call after each iteration of the operation's loop with the time the loop already takes to
+	 * check its budget, so that the slowest iteration of each tick is known.
+	 * 
+	 * @param now
+	 *            The current {@link System#nanoTime()}.
+	 */
+	final void iteration(long now) {
+		long nanos = now - lastIteration;
+		if (nanos > slowestIteration)
+			slowestIteration = nanos;
+		if (nanos > worstThreshold)
+			addWorst(new Iteration(type, name, nanos, world == null ? null : world.getName(), x, y, z, blockId));
+		lastIteration = now;
+		blockId = -1;
+	}
+
+	// Adds an iteration to the slowest ones, replacing the fastest of them if it is full.
+	private final synchronized void addWorst(Iteration iteration) {
+		int index = WORST_ITERATIONS - 1;
+		if (worst[index] != null && worst[index].nanos >= iteration.nanos)
+			return;
+		while (index > 0 && (worst[index - 1] == null || worst[index - 1].nanos < iteration.nanos)) {
+			worst[index] = worst[index - 1];
+			index--;
+		}
+		worst[index] = iteration;
+		if (worst[WORST_ITERATIONS - 1] != null)
+			worstThreshold = worst[WORST_ITERATIONS - 1].nanos;
+	}
+
+	/**
+	 * Call at the end of the operation's work in a tick.
+	 */
+	final void endTick() {
+		if (tickStart == -1)
+			return;
+		long nanos = System.nanoTime() - tickStart;
+		long allocated = allocatedByThread() - tickAllocationStart;
+		long budget = (long) (TaskManager.getMaxTime() * 1000000);
+		synchronized (this) {
+			ticks++;
+			tickNanos += nanos;
+			budgetNanos += budget;
+			if (nanos > maxTickNanos)
+				maxTickNanos = nanos;
+			if (allocated > 0)
+				allocatedBytes += allocated;
+			// The budget is only checked between iterations, so a little over it is normal.
+			if (nanos > budget + budget / 10) {
+				overruns++;
+				overrunNanos += nanos - budget;
+			}
+		}
+		tickHistogram.record(nanos);
+		if (Tracer.isEnabled())
+			Tracer.tickSpan(this, tickStart, nanos, blocksVisited - tickBlocksStart,
+					chunkLoads - tickChunkLoadsStart, slowestIteration);
+		tickStart = -1;
+	}
+
+	/**
+	 * Adds work done on a worker thread.
+	 * 
+	 * @param nanos
+	 *            How long the work took.
+	 * @param allocated
+	 *            The bytes the work allocated, from {@link #allocatedByThread()}.
+	 * @param blocks
+	 *            The blocks it visited.
+	 */
+	final void addAsync(long nanos, long allocated, long blocks) {
+		synchronized (this) {
+			asyncNanos += nanos;
+			if (allocated > 0)
+				allocatedBytes += allocated;
+			blocksVisited += blocks;
+		}
+		if (Tracer.isEnabled())
+			Tracer.asyncSpan(this, System.nanoTime() - nanos, nanos, blocks);
+	}
+
+	/**
+	 * Call at the start of each iteration with the block it works on. Keeps the location for the
+	 * slowest iterations, and counts a chunk load if the block is in a chunk that is not loaded. Only
+	 * checks the chunk when the block is in a different chunk from the last block, so it is cheap
+	 * enough to call for every block.
+	 */
+	final void visit(World world, int x, int y, int z) {
+		this.world = world;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		int chunkX = x >> 4;
+		int chunkZ = z >> 4;
+		if (chunkX != lastChunkX || chunkZ != lastChunkZ) {
+			lastChunkX = chunkX;
+			lastChunkZ = chunkZ;
+			if (!world.isChunkLoaded(chunkX, chunkZ))
+				chunkLoads++;
+		}
+	}
+
+	/**
+	 * @return The bytes the current thread has allocated, or 0 if the JVM can't tell.
+	 */
+	static final long allocatedByThread() {
+		if (threadBean == null)
+			return 0;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	final synchronized void end(EndStatus endStatus) {
+		this.endStatus = endStatus;
+		this.endTime = System.nanoTime();
+	}
+
+	// Adds a finished operation to these totals.
+	final synchronized void add(OperationStats stats) {
+		operations++;
+		blocksVisited += stats.blocksVisited;
+		blocksChanged += stats.blocksChanged;
+		entitiesRemoved += stats.entitiesRemoved;
+		dropsAvoided += stats.dropsAvoided;
+		bytesRead += stats.bytesRead;
+		bytesWritten += stats.bytesWritten;
+		chunkLoads += stats.chunkLoads;
+		ticks += stats.ticks;
+		tickNanos += stats.tickNanos;
+		budgetNanos += stats.budgetNanos;
+		maxTickNanos = Math.max(maxTickNanos, stats.maxTickNanos);
+		asyncNanos += stats.asyncNanos;
+		allocatedBytes += stats.allocatedBytes;
+		overruns += stats.overruns;
+		overrunNanos += stats.overrunNanos;
+		tickHistogram.add(stats.tickHistogram);
+		for (Iteration iteration : stats.getWorstIterations())
+			addWorst(iteration);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return What the operation works on, normally the file name. Null for totals.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The number of operations in the totals, or 0 for a single operation.
+	 */
+	public synchronized int getOperations() {
+		return operations;
+	}
+
+	/**
+	 * @return The end status, or null if it is still running or these are totals.
+	 */
+	public synchronized EndStatus getEndStatus() {
+		return endStatus;
+	}
+
+	public synchronized boolean isRunning() {
+		return endTime == -1 && name != null;
+	}
+
+	/**
+	 * @return The {@link System#nanoTime()} the operation started at.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The nanoseconds from the start to the end, or to now if it is still running.
+	 */
+	public synchronized long getElapsedNanos() {
+		return (endTime == -1 ? System.nanoTime() : endTime) - startTime;
+	}
+
+	public synchronized long getBlocksVisited() {
+		return blocksVisited;
+	}
+
+	/**
+	 * @return The blocks the operation will visit in total, or -1 if it is unknown.
+	 */
+	public synchronized long getTotalBlocks() {
+		return totalBlocks;
+	}
+
+	/**
+	 * @return How far along the operation is from 0 to 1, or -1 if it is unknown.
+	 */
+	public synchronized double getProgress() {
+		if (endTime != -1)
+			return 1;
+		if (totalBlocks <= 0)
+			return -1;
+		return Math.min(1, blocksVisited / (double) totalBlocks);
+	}
+
+	public synchronized long getBlocksChanged() {
+		return blocksChanged;
+	}
+
+	public synchronized long getEntitiesRemoved() {
+		return entitiesRemoved;
+	}
+
+	/**
+	 * @return The attached blocks that pastes set after the blocks they are on, that would have
+	 *         dropped as items if they were set in order.
+	 */
+	public synchronized long getDropsAvoided() {
+		return dropsAvoided;
+	}
+
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public synchronized long getChunkLoads() {
+		return chunkLoads;
+	}
+
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * @return The nanoseconds spent on the main thread.
+	 */
+	public synchronized long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * @return The nanoseconds the operation was allowed on the main thread in the ticks it ran.
+	 */
+	public synchronized long getBudgetNanos() {
+		return budgetNanos;
+	}
+
+	/**
+	 * @return The most nanoseconds spent in a single tick.
+	 */
+	public synchronized long getMaxTickNanos() {
+		return maxTickNanos;
+	}
+
+	/**
+	 * @return The nanoseconds spent on worker threads.
+	 */
+	public synchronized long getAsyncNanos() {
+		return asyncNanos;
+	}
+
+	/**
+	 * @return The bytes allocated, or 0 if the JVM can't measure it.
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return The ticks in which it ran more than a tenth past its budget.
+	 */
+	public synchronized long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * @return The nanoseconds it ran past its budget in the overrun ticks.
+	 */
+	public synchronized long getOverrunNanos() {
+		return overrunNanos;
+	}
+
+	/**
+	 * @return A copy of the histogram of the time it took on the main thread in each tick.
+	 */
+	public LatencyHistogram getTickHistogram() {
+		return tickHistogram.copy();
+	}
+
+	/**
+	 * @return The slowest single iterations, slowest first.
+	 */
+	public synchronized List<Iteration> getWorstIterations() {
+		List<Iteration> list = new ArrayList<Iteration>(Arrays.asList(worst));
+		list.removeAll(Arrays.asList((Iteration) null));
+		return list;
+	}
+
+	/**
+	 * @return The blocks visited per second of main thread and worker time.
+	 */
+	public synchronized double getBlocksPerSecond() {
+		long nanos = tickNanos + asyncNanos;
+		return nanos == 0 ? 0 : blocksVisited / (nanos / 1000000000.0);
+	}
+
+	/**
+	 * @return How much of its budget it used on average, where 1 is all of it.
+	 */
+	public synchronized double getBudgetUsage() {
+		return budgetNanos == 0 ? 0 : tickNanos / (double) budgetNanos;
+	}
+
+	/**
+	 * One slow iteration of an operation's loop, which is normally one block or one chunk.
+	 */
+	public static final class Iteration {
+		private final Type type;
+		private final String operation;
+		private final long nanos;
+		private final String world;
+		private final int x, y, z;
+		private final int blockId;
+		private final long time = System.currentTimeMillis();
+
+		Iteration(Type type, String operation, long nanos, String world, int x, int y, int z, int blockId) {
+			this.type = type;
+			this.operation = operation;
+			this.nanos = nanos;
+			this.world = world;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.blockId = blockId;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @return The name of the operation it was part of.
+		 */
+		public String getOperation() {
+			return operation;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return The name of the world, or null if the operation did not say where it was.
+		 */
+		public String getWorld() {
+			return world;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		public int getZ() {
+			return z;
+		}
+
+		/**
+		 * @return The ID of the block it read or wrote, or -1 if it did not work on one block.
+		 */
+		public int getBlockId() {
+			return blockId;
+		}
+
+		/**
+		 * @return When it happened, in milliseconds since the epoch.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return new DecimalFormat("#,##0.##").format(nanos / 1000000.0) + "ms " + type + " at "
+					+ world + " " + x + "," + y + "," + z + (blockId == -1 ? "" : " (id " + blockId + ")");
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * What happens when an operation would start in an area where another operation is running, and
+ * one of them changes blocks there. Copies don't conflict with each other, since they only read.
+ *
+ * @see Config#overlapPolicy
+ * @author lizardfreak321
+ */
+public enum OverlapPolicy {
+	/**
+	 * Both run at the same time. Only pastes of the same save to the same place, and copies to the
+	 * same file, fail as duplicates.
+	 */
+	ALLOW,
+	/**
+	 * The new operation fails with {@link EndStatus#FAIL_OVERLAP}.
+	 */
+	REJECT,
+	/**
+	 * The new operation waits until the operations it overlaps end, and starts then.
+	 */
+	QUEUE,
+	/**
+	 * Like {@link #QUEUE}, but a paste of the same save to the same place as a running paste ends
+	 * along with it, with the same status, instead of failing as a duplicate.
+	 */
+	MERGE;
+}
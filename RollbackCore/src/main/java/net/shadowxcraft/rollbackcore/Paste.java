@@ -20,20 +20,25 @@
 package net.shadowxcraft.rollbackcore;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.World.Environment;
 import org.bukkit.block.Block;
-import org.bukkit.block.CommandBlock;
-import org.bukkit.block.Sign;
 import org.bukkit.command.CommandSender;
 
 import net.shadowxcraft.rollbackcore.events.EndStatus;
@@ -52,14 +57,20 @@ public class Paste extends RollbackOperation {
 	private ArrayList<Paste> pastes = null;
 	// Keeps track of the old world save setting because it is disabled during
 	// pasting.
-	private final boolean originalWorldSaveSetting;
+	private boolean originalWorldSaveSetting;
 	// Keeps track of if entities should be cleared.
 	private final boolean clearEntities;
 	private final boolean ignoreAir;
+	// The name of the world to paste in while it isn't loaded, null for pastes in a loaded world.
+	private final String unloadedWorld;
+	private final Environment environment;	// The environment of the unloaded world.
+	private UnloadedPasteTask unloadedTask = null; // Writes the region files of the unloaded world.
 	protected PasteTask pasteTask; // The paste task of this paste.
 	protected long startPasteTime = -1; // The nano-time the paste started at.
 	protected int blocksChanged = 0; // The number of blocks changed, for statistical reasons.
+	int dropsAvoided = 0; // Attached blocks that were set after what they are on, instead of dropping.
 	private BufferedInputStream in;
+	private FileChannel save;			// The open save, which the stream reads from.
 	private File file;
 	// Variables used to store the per-block values.
 	private int sizeX;
@@ -67,7 +78,34 @@ public class Paste extends RollbackOperation {
 	private int sizeZ;
 	private int version;
 	int[] simpleBlocks = version1Blocks;
+	private ColumnIndex index;			// The order the blocks are saved in.
+	private SectionStore.Manifest manifest = null; // The sections, if the save is in the section store.
+	private ArenaChangeTracker.Arena arena = null; // The region this resets, if it is tracked.
+	DistributedOperation distributed = null; // The distributed operation this paste is a tile of.
+	TemplatePaste template = null; // The template paste this paste is a target of.
+	DecodedSave decoded = null; // The save, if the template paste already decoded it.
 	static final List<Paste> runningPastes = new ArrayList<Paste>();
+	private OperationAreas.Area area = null; // The area it claimed while it runs.
+	// Pastes of the same save to the same place that end along with this one.
+	private final List<Paste> merged = new ArrayList<Paste>();
+	private Paste mergedInto = null; // The paste this one ends along with, if it was merged.
+	// Used to start it again once the operations it overlaps end.
+	private final OperationAreas.Waiting waiting = new OperationAreas.Waiting() {
+		@Override
+		public void retry() {
+			// The operation it waited for may have changed the setting back since.
+			if (min.getWorld() != null) {
+				originalWorldSaveSetting = min.getWorld().isAutoSave();
+				min.getWorld().setAutoSave(false);
+			}
+			paste();
+		}
+
+		@Override
+		public void end(EndStatus status) {
+			endUnstarted(status);
+		}
+	};
 
 	/**
 	 * The legacy constructor for backwards compatibility.
@@ -110,24 +148,71 @@ public class Paste extends RollbackOperation {
 		this.min = min;
 		this.originalWorldSaveSetting = min.getWorld().isAutoSave();
 		min.getWorld().setAutoSave(false);
+		this.fileName = savePath(fileName);
+		this.sender = sender;
+		this.prefix = prefix;
+		this.clearEntities = clearEntities;
+		this.ignoreAir = ignoreAir;
+		this.unloadedWorld = null;
+		this.environment = null;
+	}
+
+	/**
+	 * Used to create a paste into a world that may not be loaded, like the world of an arena that
+	 * is unloaded between matches. While the world isn't loaded, the blocks are written straight to
+	 * its region files on a worker thread, so the world must not be loaded until the
+	 * {@link PasteEndEvent}. If it is loaded when the paste starts, it is pasted like any other
+	 * paste. The min location of the paste has no world while it isn't loaded, see
+	 * {@link #getWorldName()}.
+	 * 
+	 * @param worldName   The name of the world, which is the name of its folder.
+	 * @param environment The environment of the world, which decides where its region
+	 *                    files are.
+	 * @param x           Where the min-x of the paste will be pasted.
+	 * @param y           Where the min-y of the paste will be pasted.
+	 * @param z           Where the min-z of the paste will be pasted.
+	 * @param fileName    The path of the file
+	 * @param sender      The person who will get status messages. Use null for no
+	 *                    messages, and consoleSender for console.
+	 * @param ignoreAir   Not check blocks that are air in the file.
+	 * @param prefix      Used for the prefix shown in the messages.
+	 */
+	public Paste(String worldName, Environment environment, int x, int y, int z, String fileName,
+			CommandSender sender, boolean ignoreAir, String prefix) {
+		this.min = new Location(null, x, y, z);
+		this.fileName = savePath(fileName);
+		this.sender = sender;
+		this.prefix = prefix;
+		this.clearEntities = false;
+		this.ignoreAir = ignoreAir;
+		this.unloadedWorld = worldName;
+		this.environment = environment;
+	}
+
+	// Saves named without an extension are in the saves folder.
+	private static final String savePath(String fileName) {
 		if (!fileName.contains(".")) {
 			fileName += ".dat";
 			if (!fileName.contains("/") || !fileName.contains("\\")) {
 				fileName = Main.plugin.getDataFolder().getAbsolutePath() + "/saves/" + fileName;
 			}
 		}
-		this.fileName = fileName;
-		this.sender = sender;
-		this.prefix = prefix;
-		this.clearEntities = clearEntities;
-		this.ignoreAir = ignoreAir;
+		return fileName;
+	}
+
+	/**
+	 * @return The name of the world it pastes in, which may not be loaded.
+	 */
+	public final String getWorldName() {
+		return min.getWorld() == null ? unloadedWorld : min.getWorld().getName();
 	}
 
 	public static int cancelAll() {
-		int numberOfTasks = runningPastes.size();
-		for (int i = 0; i < numberOfTasks; i++)
-			runningPastes.get(i).end(EndStatus.FAIL_EXERNAL_TERMONATION);
-		return numberOfTasks;
+		// Copies the list since ending a paste removes it from the list.
+		List<Paste> pastes = new ArrayList<Paste>(runningPastes);
+		for (Paste paste : pastes)
+			paste.end(EndStatus.FAIL_EXERNAL_TERMONATION);
+		return pastes.size();
 	}
 
 	/**
@@ -144,38 +229,144 @@ public class Paste extends RollbackOperation {
 	protected final void paste() {
 		if (startPasteTime == -1)
 			startPasteTime = System.nanoTime();
+		if (min.getWorld() == null) {
+			World world = Bukkit.getWorld(unloadedWorld);
+			if (world != null) {
+				// The world is loaded, so it is pasted through the world.
+				min.setWorld(world);
+				originalWorldSaveSetting = world.isAutoSave();
+				world.setAutoSave(false);
+			} else if (!new File(Bukkit.getWorldContainer(), unloadedWorld).isDirectory()) {
+				endUnstarted(EndStatus.FAIL_UNKNOWN_WORLD);
+				return;
+			}
+		}
 		// Checks if there are any currently running pastes of the exact same thing.
 		for (Paste runningPaste : runningPastes) {
 			if (runningPaste.fileName.equals(fileName) && runningPaste.min.getBlockX() == min.getBlockX()
 					&& runningPaste.min.getBlockY() == min.getBlockY()
 					&& runningPaste.min.getBlockZ() == min.getBlockZ()) {
-				new PasteEndEvent(this, 0, 0, EndStatus.FAIL_DUPLICATE);
+				if (Config.overlapPolicy == OverlapPolicy.MERGE && runningPaste.ignoreAir == ignoreAir) {
+					runningPaste.merged.add(this);
+					mergedInto = runningPaste;
+				} else {
+					endUnstarted(EndStatus.FAIL_DUPLICATE);
+				}
+				return;
+			}
+		}
+
+		stats = Statistics.start(OperationStats.Type.PASTE, fileName);
+		if (decoded != null) {
+			// The template paste already read the file.
+			simpleBlocks = decoded.simpleBlocks;
+			index = decoded.index;
+			setSize();
+		} else {
+			if (!initializeFile()) {
+				return;
+			}
+
+			if (!readFile()) {
 				return;
 			}
 		}
 
-		if (!initializeFile()) {
+		area = OperationAreas.claim(getWorldName(), min, max, true, waiting);
+		if (area == null) {
+			// It is read again when it is retried, in case the save changed in the meantime.
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				in = null;
+			}
+			Statistics.discard(stats);
+			stats = null;
 			return;
 		}
 
-		if (!readFile()) {
+		if (min.getWorld() == null) {
+			pasteUnloaded();
 			return;
 		}
 
+		arena = ArenaChangeTracker.pasteStarted(fileName, min.getWorld().getName(), min, max, ignoreAir);
+		// Pastes of sections keep track of the sections they paste themselves. Any other paste
+		// changes the sections that were pasted there.
+		boolean recordSections = manifest != null && !ignoreAir && index.isAligned(min.getBlockX(), min.getBlockZ());
+		if (!recordSections)
+			SectionStore.areaChanged(min.getWorld().getName(), min.getBlockX(), min.getBlockZ(), max.getBlockX(),
+					max.getBlockZ());
+
 		if (clearEntities)
 			new ClearEntities(min, max, null, false).progressiveClearEntities();
 
+		// Only the blocks that are different are pasted, found off the main thread.
+		PastePlanner planner = null;
+		if (Config.plannedPaste && decoded == null)
+			planner = PastePlanner.create(min, manifest == null ? save : null, index, manifest, version, simpleBlocks, ignoreAir, recordSections,
+					stats);
+
 		// Creates the new paste task, used for progressive pasting.
-		PasteTask task = new PasteTask(min, max, in, this, simpleBlocks, ignoreAir, sender, prefix);
+		PasteTask task = new PasteTask(min, max, in, this, version, simpleBlocks, index, decoded, manifest,
+				planner, recordSections, ignoreAir, sender, prefix);
 
 		this.pasteTask = task;
 		runningPastes.add(this);
 
-		// Schedules the repeating task for the pasting.
-		taskID = Main.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(Main.plugin, task, 1, 1);
+		// Schedules the repeating task for the pasting. Targets of a template paste are run by it.
+		if (template == null)
+			taskID = Main.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(Main.plugin, task, 1, 1);
 
 	}
 
+	// Starts writing the blocks to the region files of the world on a worker thread, while the world
+	// isn't loaded. Other pastes of the same world wait for it on their worker threads.
+	private final void pasteUnloaded() {
+		arena = ArenaChangeTracker.pasteStarted(fileName, unloadedWorld, min, max, ignoreAir);
+		SectionStore.areaChanged(unloadedWorld, min.getBlockX(), min.getBlockZ(), max.getBlockX(),
+				max.getBlockZ());
+		File folder = AnvilReader.regionFolder(new File(Bukkit.getWorldContainer(), unloadedWorld), environment);
+		unloadedTask = new UnloadedPasteTask(min, this, folder, environment == Environment.NORMAL, in, version,
+				simpleBlocks, index, manifest, ignoreAir);
+		in = null;
+		runningPastes.add(this);
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, unloadedTask);
+	}
+
+	// Called on the main thread once the worker thread is done with the region files.
+	final void unloadedEnded(UnloadedPasteTask task, EndStatus endStatus) {
+		// It may have ended while the region files were written.
+		if (task != unloadedTask)
+			return;
+		blocksChanged += task.blocksChanged;
+		stats.blocksChanged += task.blocksChanged;
+		end(endStatus);
+	}
+
+	/**
+	 * Ends the pastes that write to the region files of a world that is being loaded, and waits
+	 * until they stopped writing, since the server reads the files once it loads the spawn chunks.
+	 * Called when a world is initialized, before any of its chunks are loaded.
+	 */
+	static final void worldInit(World world) {
+		List<UnloadedPasteTask> stopped = new ArrayList<UnloadedPasteTask>();
+		for (Paste paste : new ArrayList<Paste>(runningPastes)) {
+			if (paste.unloadedTask != null && paste.unloadedWorld.equals(world.getName())) {
+				Main.plugin.getLogger().warning("World " + world.getName() + " was loaded while "
+						+ paste.fileName + " was pasted in its region files.");
+				stopped.add(paste.unloadedTask);
+				paste.end(EndStatus.FAIL_EXERNAL_TERMONATION);
+			}
+		}
+		// Every paste of the world is canceled, so each one stops after the chunk it is writing.
+		for (UnloadedPasteTask task : stopped)
+			task.awaitStopped();
+	}
+
 	private final boolean initializeFile() {
 		// Initializes the file.
 		file = new File(fileName);
@@ -187,8 +378,10 @@ public class Paste extends RollbackOperation {
 		}
 
 		try {
-			// Initializes the InputStream
-			in = new BufferedInputStream(new FileInputStream(file));
+			// Initializes the InputStream. Everything is read from this one open file, so a copy that
+			// replaces the save while it is pasted doesn't change what is pasted.
+			save = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			in = new BufferedInputStream(Channels.newInputStream(save));
 		} catch (IOException e) {
 			e.printStackTrace();
 			end(EndStatus.FAIL_IO_ERROR);
@@ -199,30 +392,34 @@ public class Paste extends RollbackOperation {
 
 	private final boolean readFile() {
 		try {
-			// In case the file they are trying to read is in of date or too
-			// new.
-			version = in.read();
-
-			if (version != 0 && version != 1) {
-				end(EndStatus.FAIL_INCOMPATIBLE_VERSION);
+			in.mark(1);
+			boolean isManifest = in.read() == SectionStore.MANIFEST;
+			in.reset();
+			if (isManifest) {
+				// The blocks are in the section store, so only the list of sections is read.
+				manifest = SectionStore.readManifest(in, fileName);
 				in.close();
-				return false;
-			}
-
-			if (version == 1) {
-				int length = in.read();
-				simpleBlocks = new int[length];
-				for (int i = 0; i < length; i++)
-					simpleBlocks[i] = (char) in.read();
+				if (manifest == null) {
+					end(EndStatus.FAIL_INCOMPATIBLE_VERSION);
+					return false;
+				}
+				version = VERSION;
+				simpleBlocks = manifest.simpleBlocks;
+				index = manifest.index;
 			} else {
-				simpleBlocks = version1Blocks;
-			}
+				// In case the file they are trying to read is out of date or too new.
+				BlockDecoder.Header header = BlockDecoder.readHeader(in);
+				if (header == null) {
+					end(EndStatus.FAIL_INCOMPATIBLE_VERSION);
+					in.close();
+					return false;
+				}
 
-			// Reads the sizes using readShort because it can be larger than 255
-			sizeX = FileUtilities.readShort(in);
-			sizeY = FileUtilities.readShort(in);
-			sizeZ = FileUtilities.readShort(in);
-			max = new Location(min.getWorld(), min.getX() + sizeX, min.getY() + sizeY, min.getZ() + sizeZ);
+				version = header.version;
+				simpleBlocks = header.simpleBlocks;
+				index = header.index;
+			}
+			setSize();
 
 		} catch (IOException e1) {
 			e1.printStackTrace();
@@ -232,6 +429,23 @@ public class Paste extends RollbackOperation {
 		return true;
 	}
 
+	// Sets the size and the max corner from the index of the save.
+	private final void setSize() {
+		sizeX = index.sizeX - 1;
+		sizeY = index.sizeY - 1;
+		sizeZ = index.sizeZ - 1;
+		max = new Location(min.getWorld(), min.getX() + sizeX, min.getY() + sizeY, min.getZ() + sizeZ);
+		stats.totalBlocks = (long) (sizeX + 1) * (sizeY + 1) * (sizeZ + 1);
+	}
+
+	/**
+	 * @return The attached blocks, like torches and signs, that were set after the blocks they are
+	 *         on instead of dropping as items. Only counts while pastes set blocks in two passes.
+	 */
+	public final int getDropsAvoided() {
+		return dropsAvoided;
+	}
+
 	/**
 	 * Ends the paste task if it is done or not. Sets everything back to the way it
 	 * should be and closes open resources.
@@ -241,7 +455,17 @@ public class Paste extends RollbackOperation {
 	}
 
 	protected final void end(EndStatus endStatus) {
-		min.getWorld().setAutoSave(originalWorldSaveSetting);
+		if (pasteTask != null) {
+			pasteTask.refresher.finish();
+			if (pasteTask.planner != null)
+				pasteTask.planner.cancel();
+		}
+		if (unloadedTask != null) {
+			unloadedTask.cancel();
+			unloadedTask = null;
+		}
+		if (min.getWorld() != null)
+			min.getWorld().setAutoSave(originalWorldSaveSetting);
 		try {
 			if (pasteTask != null && pasteTask.in != null)
 				pasteTask.in.close();
@@ -251,6 +475,15 @@ public class Paste extends RollbackOperation {
 		Bukkit.getScheduler().cancelTask(taskID);
 		taskID = -1;
 		runningPastes.remove(this);
+		OperationAreas.dequeue(waiting);
+		if (mergedInto != null)
+			mergedInto.merged.remove(this);
+		OperationAreas.release(area);
+		area = null;
+		if (stats != null && file != null && endStatus == EndStatus.SUCCESS)
+			stats.bytesRead = file.length();
+		Statistics.end(stats, endStatus);
+		ArenaChangeTracker.pasteEnded(arena, endStatus);
 
 		if (endStatus.equals(EndStatus.SUCCESS) && pastes != null && pastes.size() > 1) {
 			// This is for the legacy distributed pastes.
@@ -262,11 +495,35 @@ public class Paste extends RollbackOperation {
 			Paste nextPaste = pastes.get(0);
 			nextPaste.startPasteTime = this.startPasteTime;
 			nextPaste.blocksChanged = blocksChanged;
+			nextPaste.dropsAvoided = dropsAvoided;
 			// Schedules it.
 			Bukkit.getScheduler().runTaskLater(Main.plugin, nextPaste, 1);
 		} else {
 			new PasteEndEvent(this, System.nanoTime() - startPasteTime, blocksChanged, endStatus);
+			if (distributed != null)
+				distributed.tileEnded(this, endStatus, blocksChanged);
+			if (template != null)
+				template.targetEnded(this, endStatus);
 		}
+		// Copied since ending them may start other pastes.
+		List<Paste> mergedPastes = new ArrayList<Paste>(merged);
+		merged.clear();
+		for (Paste paste : mergedPastes) {
+			paste.endUnstarted(endStatus);
+			paste.mergedInto = null;
+		}
+	}
+
+	// Ends it without pasting anything, when it can't start or it ended along with another paste.
+	private final void endUnstarted(EndStatus endStatus) {
+		// A merged paste leaves the setting to the paste it ended with.
+		if (mergedInto == null && min.getWorld() != null)
+			min.getWorld().setAutoSave(originalWorldSaveSetting);
+		new PasteEndEvent(this, startPasteTime == -1 ? 0 : System.nanoTime() - startPasteTime, 0, endStatus);
+		if (distributed != null)
+			distributed.tileEnded(this, endStatus, 0);
+		if (template != null)
+			template.targetEnded(this, endStatus);
 	}
 }
 
@@ -280,19 +537,72 @@ class PasteTask extends RollbackOperation {
 	final private Location tempLoc; // Stores the location that is currently being worked on.
 	private int id; // The ID of the block being worked on.
 	private int data; // The data of the block being worked on.
-	private int compressCount = 0; // Used in the compression algorithm.
 	private String[] lines = null; // Used when getting the lines of a sign from file.
+	private BlockDecoder decoder; // Used to read the blocks from the file or section.
+	private final ColumnIndex columns; // The order the blocks are saved in.
+	private final ColumnIndex.Cursor cursor; // The position of the block in the save.
+	private final SectionStore.Manifest manifest; // The sections, null if the file has the blocks.
+	private final int sections; // The number of sections in each column.
+	private final boolean recordSections; // If the pasted sections are recorded.
+	private final boolean skipSections; // If sections that are already in the world are skipped.
+	private String sectionHash; // The section being pasted.
+	private int sectionX, sectionY, sectionZ; // The min corner of the section being pasted.
 	private long index = 0; // The index of the block.
 	private long tick = 0; // The current tick.
 	protected final BufferedInputStream in; // The stream used to read from the file.
 	protected final CommandSender sender; // The sender that all messages are sent to.
 	private String prefix; // The prefix all messages will have.
 	private final Paste paste; // The PasteTask object.
-	private final int[] simpleBlocks; // Stores what blocks do not need the data saved
 	private final boolean ignoreAir;
+	final ChunkRefresher refresher; // Resends the chunks where many blocks changed.
+	private final boolean twoPass; // If attached blocks and fluids are set after the other blocks.
+	private final Deferred attached = new Deferred(); // The attached blocks left for the second pass.
+	private final Deferred fluids = new Deferred(); // The fluids left for the second pass.
+	private int deferredIndex = 0; // The block of the second pass being set.
+	private int deferredColumn = -1; // The finished column whose second pass is left, -1 if none.
+	final PastePlanner planner; // Plans the columns, null if every block is checked here.
+	private PastePlanner.Plan plan = null; // The planned column being pasted.
+	private int planIndex = 0; // The change of the plan being pasted.
+	private boolean sectionDeferred = false; // If part of the section being pasted was left.
+	// The sections that are only recorded as pasted once the second pass is done.
+	private final List<int[]> deferredSections = new ArrayList<int[]>();
+	private final List<String> deferredHashes = new ArrayList<String>();
+	private final int maxHeight; // The height of the world.
+	// The chunks that layers were compared against this tick, by their key. Taken again every tick,
+	// since the world can change between ticks.
+	private final Map<Long, ChunkSnapshot> snapshots = new HashMap<Long, ChunkSnapshot>();
 
-	public PasteTask(Location min, Location max, BufferedInputStream in, Paste paste, int[] simpleBlocks,
-			boolean ignoreAir, CommandSender sender, String prefix) {
+	// Blocks that are left for the second pass, in the order they were read.
+	private static final class Deferred {
+		private int[] blocks = new int[80]; // The x, y, z, ID and data of each block.
+		private final Map<Integer, String[]> lines = new HashMap<Integer, String[]>();
+		int size = 0;
+
+		final void add(int x, int y, int z, int id, int data, String[] text) {
+			if (size * 5 == blocks.length) {
+				int[] larger = new int[blocks.length * 2];
+				System.arraycopy(blocks, 0, larger, 0, blocks.length);
+				blocks = larger;
+			}
+			blocks[size * 5] = x;
+			blocks[size * 5 + 1] = y;
+			blocks[size * 5 + 2] = z;
+			blocks[size * 5 + 3] = id;
+			blocks[size * 5 + 4] = data;
+			if (text != null)
+				lines.put(size, text);
+			size++;
+		}
+
+		final void clear() {
+			lines.clear();
+			size = 0;
+		}
+	}
+
+	public PasteTask(Location min, Location max, BufferedInputStream in, Paste paste, int version,
+			int[] simpleBlocks, ColumnIndex columns, DecodedSave decoded, SectionStore.Manifest manifest, PastePlanner planner,
+			boolean recordSections, boolean ignoreAir, CommandSender sender, String prefix) {
 		this.min = min;
 		this.tempLoc = min.clone();
 		this.max = max;
@@ -301,8 +611,31 @@ class PasteTask extends RollbackOperation {
 		this.sender = sender;
 		this.prefix = prefix;
 		this.paste = paste;
-		this.simpleBlocks = simpleBlocks;
+		this.stats = paste.stats;
+		this.columns = columns;
+		this.manifest = manifest;
+		this.recordSections = recordSections;
+		this.skipSections = recordSections && Config.skipPastedSections;
+		if (decoded != null) {
+			// Read from memory, the same blocks are shared by every target of a template paste.
+			this.decoder = decoded.new Reader();
+			this.cursor = columns.new Cursor(decoded.height);
+			this.sections = 1;
+		} else if (manifest == null) {
+			this.decoder = BlockDecoder.create(in, version, simpleBlocks);
+			this.cursor = columns.new Cursor();
+			this.sections = 1;
+		} else {
+			// Each section is read from its own file once it is reached.
+			this.decoder = null;
+			this.cursor = columns.new Cursor(SectionStore.HEIGHT);
+			this.sections = columns.sections(SectionStore.HEIGHT);
+		}
 		this.ignoreAir = ignoreAir;
+		this.refresher = new ChunkRefresher(min.getWorld());
+		this.twoPass = Config.twoPassPaste;
+		this.planner = planner;
+		this.maxHeight = min.getWorld().getMaxHeight();
 	}
 
 	@Override
@@ -314,168 +647,343 @@ class PasteTask extends RollbackOperation {
 		// has been
 		// running.
 		tick++;
+		stats.startTick();
+		snapshots.clear();
 
-		// Loops until done or skipped. Done is defined as when the x value goes too
-		// far.
-		while (tempLoc.getBlockX() <= max.getBlockX() && !skip) {
+		if (planner != null) {
+			runPlanned(startTime);
+			return;
+		}
 
+		// Loops until done or skipped. Done is defined as when the cursor goes past the last
+		// block.
+		while (!cursor.isDone() && !skip) {
+			int column = cursor.column;
+			int moved;
 			try {
+				// A finished column gets its second pass before the next one is started.
+				if (deferredColumn != -1 && !finishColumn(startTime)) {
+					skip = true;
+					break;
+				}
+				// Every section that was left might already be in the world.
+				if (decoder == null && !openSection())
+					continue;
 				if (!getIDsFromFile())
 					return;
-				checkAndUpdateBlocks();
-				index++;
-
-				// Subtracts from compressCount because it
-				// finished with a block.
-				compressCount--;
+				int layers = sameLayers();
+				if (layers > 0) {
+					// Whole layers that are already that block are skipped with their run.
+					long blocks = layers * columns.layerBlocks(column);
+					decoder.skipRepeats((int) blocks - 1);
+					stats.blocksVisited += blocks;
+					index += blocks;
+					moved = cursor.skipLayers(layers);
+				} else {
+					stats.blocksVisited++;
+					checkAndUpdateBlock(cursor.x, cursor.y, cursor.z, id, data, lines);
+					index++;
+					moved = cursor.next();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 				paste.end(EndStatus.FAIL_IO_ERROR);
-
+				return;
 			}
 
-			updateXYZ();
+			updateXYZ(column, moved);
 
 			// Checks if it has run out of time.
-			if (System.nanoTime() - startTime > TaskManager.getMaxTime() * 1000000) {
+			long now = System.nanoTime();
+			stats.iteration(now);
+			if (now - startTime > TaskManager.getMaxTime() * 1000000) {
 				skip = true;
 			} else {
 				skip = false;
 			}
 		}
 
+		// The blocks that were left in the last column are set once every other block is there.
+		boolean done = cursor.isDone() && !skip && finishColumn(startTime);
+
+		stats.endTick();
+
 		// Displays the status update to the user if needed.
 		statusMessage();
 
 		// Checks if it is done, ends it if it is.
-		if (tempLoc.getBlockX() > max.getBlockX())
+		if (done)
 			paste.end(EndStatus.SUCCESS);
 
 	}
 
-	private final void updateXYZ() {
-		// Updates X, Y, and Z variables.
-		tempLoc.setZ(tempLoc.getBlockZ() + 1);
+	// Pastes the changes of the planned columns, and captures the next columns to plan.
+	private final void runPlanned(long startTime) {
+		EndStatus failure = planner.getFailure();
+		if (failure != null) {
+			stats.endTick();
+			paste.end(failure);
+			return;
+		}
 
-		// Checks if the Z value has gone too far.
-		if (tempLoc.getBlockZ() > max.getBlockZ()) {
-			tempLoc.setZ(min.getBlockZ());
-			tempLoc.setY(tempLoc.getBlockY() + 1);
+		boolean skip = false;
+		while (!skip) {
+			// A finished column gets its second pass before the next one is started.
+			if (deferredColumn != -1 && !finishColumn(startTime))
+				break;
+			if (plan == null) {
+				// Keeps the worker threads busy while the changes are pasted.
+				while (System.nanoTime() - startTime < TaskManager.getMaxTime() * 1000000 && planner.captureNext()) {
+					// Captures until enough columns are planned ahead.
+				}
+				plan = planner.poll();
+				planIndex = 0;
+				if (plan == null)
+					break;
+			}
+
+			if (planIndex < plan.size) {
+				int block = plan.blocks[planIndex * 4 + 3];
+				checkAndUpdateBlock(plan.blocks[planIndex * 4], plan.blocks[planIndex * 4 + 1],
+						plan.blocks[planIndex * 4 + 2], block >> 8, block & 0xFF, plan.lines.get(planIndex));
+				planIndex++;
+			} else {
+				// The column is done.
+				index += plan.visited;
+				deferredColumn = plan.column;
+				plan = null;
+				planner.pasted();
+			}
+
+			// Checks if it has run out of time.
+			long now = System.nanoTime();
+			stats.iteration(now);
+			skip = now - startTime > TaskManager.getMaxTime() * 1000000;
 		}
-		// Checks if the Y value has gone too car.
-		if (tempLoc.getBlockY() > max.getBlockY()) {
-			tempLoc.setY(min.getBlockY());
-			tempLoc.setX(tempLoc.getBlockX() + 1);
-			// Unloads the finished chunks to save resources.
-			checkChunks(tempLoc);
+
+		// The blocks that were left in the last column are set once every other block is there.
+		boolean done = !skip && planner.isDone() && finishColumn(startTime);
+
+		stats.endTick();
+		statusMessage();
+		if (done) {
+			planner.recordSections();
+			paste.end(EndStatus.SUCCESS);
 		}
 	}
 
-	private boolean getIDsFromFile() throws IOException {
-		// less than or equal to 0 means it needs to
-		// check for the next set of blocks.
-		if (compressCount <= 0) {
-			// Gets the ID of the block.
-			id = in.read();
-
-			// For compression, it checks if this
-			// block doesn't need data saved.
-			if (isSimple(id, simpleBlocks)) {
-				data = 0;
-			} else {
-				data = in.read();
-			}
+	// Follows the cursor after it moved on from a block of that column.
+	private final void updateXYZ(int column, int moved) {
+		updateLocation();
 
-			// In some cases it reaches the end of
-			// the file early. That normally happens
-			// when there was a copy error or the
-			// file got corrupted.
-			if (id == -1) {
-				paste.end(EndStatus.FILE_END_EARLY);
-				return false;
+		if (manifest != null && (moved == ColumnIndex.NEXT_SECTION || moved == ColumnIndex.NEXT_COLUMN)) {
+			// The section is done, the next one is read from its own file.
+			if (recordSections && sectionDeferred) {
+				// Only in the world once the second pass is done.
+				deferredSections.add(new int[] { sectionX, sectionY, sectionZ });
+				deferredHashes.add(sectionHash);
+			} else if (recordSections) {
+				SectionStore.setPasted(min.getWorld(), sectionX, sectionY, sectionZ, sectionHash);
 			}
+			sectionDeferred = false;
+			decoder = null;
+		}
 
-			// For compression, it reads how many
-			// times this block is repeated.
-			compressCount = in.read();
+		// The finished chunks are unloaded to save resources, once the blocks that were left in
+		// them are set. Older saves are one column, which is done one row of chunks at a time.
+		if (columns.whole) {
+			if (moved != ColumnIndex.NEXT_BLOCK && tempLoc.getBlockX() >> 4 != lastChunkX)
+				deferredColumn = column;
+		} else if (moved == ColumnIndex.NEXT_COLUMN) {
+			deferredColumn = column;
+		}
+	}
 
-			// The following code is to read sign
-			// text and command block args.
-			if (compressCount == 0) {
-				lines = getLines();
-			} else {
-				lines = null;
+	// Moves the location to the block of the cursor.
+	private final void updateLocation() {
+		tempLoc.setX(min.getBlockX() + cursor.x);
+		tempLoc.setY(min.getBlockY() + cursor.y);
+		tempLoc.setZ(min.getBlockZ() + cursor.z);
+	}
+
+	// Starts reading the section the cursor is at from the section store. Skips the sections that
+	// are already in the world. Returns false if it skipped to the end of a column.
+	private final boolean openSection() throws IOException {
+		while (!cursor.isDone()) {
+			String hash = manifest.hashes[cursor.column * sections + cursor.section];
+			sectionX = tempLoc.getBlockX();
+			sectionY = tempLoc.getBlockY();
+			sectionZ = tempLoc.getBlockZ();
+			if (skipSections && SectionStore.wasPasted(min.getWorld(), sectionX, sectionY, sectionZ, hash)) {
+				index += cursor.sectionBlocks();
+				int column = cursor.column;
+				boolean columnDone = cursor.endSection() == ColumnIndex.NEXT_COLUMN;
+				updateLocation();
+				if (columnDone) {
+					deferredColumn = column;
+					return false;
+				}
+				continue;
 			}
+			// Forgotten until the whole section is pasted, in case the paste stops part way.
+			if (recordSections)
+				SectionStore.setPasted(min.getWorld(), sectionX, sectionY, sectionZ, null);
+			byte[] bytes = SectionStore.load(hash);
+			decoder = BlockDecoder.forSection(bytes, manifest.simpleBlocks);
+			sectionHash = hash;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean getIDsFromFile() throws IOException {
+		// In some cases it reaches the end of the file early. That normally happens when there
+		// was a copy error or the file got corrupted.
+		if (!decoder.nextBlock()) {
+			paste.end(EndStatus.FILE_END_EARLY);
+			return false;
 		}
+		id = decoder.id;
+		data = decoder.data;
+		lines = decoder.lines;
 		return true;
 	}
 
+	// Returns how many layers from the cursor on are one run in the save, and already that block in
+	// the world, up to the end of the section of the chunks. They don't have to be set one block at
+	// a time. Uniform sections, like the air above an arena or its stone floor, are one run. Only at
+	// the first block of a layer of a layered save.
 	@SuppressWarnings("deprecation")
-	private final void checkAndUpdateBlocks() {
-		// Gets the block from the temporary location.
-		Block block = tempLoc.getBlock();
-
-		// Checks if the blocks are the same to save resources. It is much more
-		// efficient to only
-		// change blocks that are different.
-		if ((id != 0 || !ignoreAir) && (id != block.getTypeId() || data != block.getData())) {
-			// If they are, schedule a new
-			// BlockClass
-			block.setTypeIdAndData(id, (byte) data, false);
+	private final int sameLayers() {
+		int column = cursor.column;
+		int y = min.getBlockY() + cursor.y;
+		if (!columns.layered || lines != null || cursor.x != columns.minX(column)
+				|| cursor.z != columns.minZ(column) || y < 0 || y >= maxHeight)
+			return 0;
+		int layers = (int) Math.min((decoder.getRepeats() + 1L) / columns.layerBlocks(column),
+				Math.min(cursor.layersLeft(), 16 - (y & 15)));
+		// Air in the file is left alone when ignoring air.
+		if (layers == 0 || (id == 0 && ignoreAir))
+			return layers;
 
-			paste.blocksChanged++;
+		int minX = min.getBlockX() + columns.minX(column);
+		int maxX = min.getBlockX() + columns.maxX(column);
+		int minZ = min.getBlockZ() + columns.minZ(column);
+		int maxZ = min.getBlockZ() + columns.maxZ(column);
+		for (int layer = 0; layer < layers; layer++) {
+			// The column may cover several chunks when it is pasted somewhere else.
+			for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+				for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+					ChunkSnapshot snapshot = snapshot(chunkX, chunkZ, y);
+					// Air is already in the sections that are empty.
+					if (id == 0 && snapshot.isSectionEmpty(y >> 4))
+						continue;
+					for (int x = Math.max(minX, chunkX << 4); x <= Math.min(maxX, chunkX << 4 | 15); x++)
+						for (int z = Math.max(minZ, chunkZ << 4); z <= Math.min(maxZ, chunkZ << 4 | 15); z++)
+							if (snapshot.getBlockTypeId(x & 15, y + layer, z & 15) != id
+									|| snapshot.getBlockData(x & 15, y + layer, z & 15) != data)
+								return layer;
+				}
+			}
 		}
+		return layers;
+	}
 
-		// If it's a sign, set the text to what it was in the database (The array named
-		// "text")
-		// Else if it's a command block, set its name and command.
-		if (lines != null) {
-			if (id == signPostID || id == wallSignID) {
-				if (!Arrays.equals(((Sign) block.getState()).getLines(), lines)) {
+	// The snapshot of a chunk, taken once per tick.
+	private final ChunkSnapshot snapshot(int chunkX, int chunkZ, int y) {
+		long key = Utilities.chunkKey(chunkX, chunkZ);
+		ChunkSnapshot snapshot = snapshots.get(key);
+		if (snapshot == null) {
+			stats.visit(min.getWorld(), chunkX << 4, y, chunkZ << 4);
+			snapshot = min.getWorld().getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+			snapshots.put(key, snapshot);
+		}
+		return snapshot;
+	}
 
-					Sign sign = (Sign) block.getState();
-					for (int i = 0; i < 4; i++) {
-						sign.setLine(i, lines[i]);
-					}
+	// Sets a block, or leaves it for the second pass. Its position is relative to the min corner.
+	private final void checkAndUpdateBlock(int x, int y, int z, int id, int data, String[] lines) {
+		int blockX = min.getBlockX() + x;
+		int blockZ = min.getBlockZ() + z;
+		stats.visit(min.getWorld(), blockX, min.getBlockY() + y, blockZ);
+		stats.blockId = id;
+		Block block = min.getWorld().getBlockAt(blockX, min.getBlockY() + y, blockZ);
 
-					// Update the sign
-					sign.update();
-				}
-			} else if (Arrays.binarySearch(commandBlockIDs, id) >= 0) {
-				CommandBlock cBlock = (CommandBlock) block.getState();
-				String name = lines[0];
-				String command = lines[1];
-				if(cBlock.getName() != name || cBlock.getCommand() != command) {
-					cBlock.setName(name);
-					cBlock.setCommand(command);
-					cBlock.update();
+		// Attached blocks and fluids that aren't there yet are left for the second pass, since the
+		// blocks they are on or between may not have been pasted yet.
+		if (twoPass && BlockClasses.is(id, BlockClasses.DEFERRED)
+				&& (block.getTypeId() != id || block.getData() != data || lines != null)) {
+			if (BlockClasses.is(id, BlockClasses.ATTACHABLE)) {
+				if (BlockClasses.wouldDrop(block, id, data)) {
+					paste.dropsAvoided++;
+					stats.dropsAvoided++;
 				}
+				attached.add(x, y, z, id, data, lines);
+			} else {
+				fluids.add(x, y, z, id, data, lines);
 			}
+			sectionDeferred = true;
+			return;
+		}
+
+		// Air in the file is left alone when ignoring air.
+		if ((id != 0 || !ignoreAir) && setBlock(block, id, data, lines)) {
+			paste.blocksChanged++;
+			stats.blocksChanged++;
+			refresher.blockChanged(blockX, blockZ);
 		}
 	}
 
-	// Used in the reading of the stored files.
-	private final String[] getLines() throws IOException {
-		// Signs have 4 lines.
-		String lines[] = new String[4];
-		String line;
-		char tempChar;
+	// Sets the blocks that were left in the finished column, then unloads it. Returns true once it is
+	// done, or false if it ran out of time.
+	private final boolean finishColumn(long startTime) {
+		if (!setDeferred(startTime))
+			return false;
+		for (int i = 0; i < deferredSections.size(); i++) {
+			int[] section = deferredSections.get(i);
+			SectionStore.setPasted(min.getWorld(), section[0], section[1], section[2], deferredHashes.get(i));
+		}
+		deferredSections.clear();
+		deferredHashes.clear();
+		attached.clear();
+		fluids.clear();
+		deferredIndex = 0;
+		if (deferredColumn != -1) {
+			if (columns.whole)
+				checkChunks(tempLoc);
+			else
+				unloadColumn(min, columns, deferredColumn, refresher);
+		}
+		deferredColumn = -1;
+		return true;
+	}
 
-		// Reads the lines.
-		for (int lineNumber = 0; lineNumber < 4; lineNumber++) {
-			boolean notDone = true;
-			line = "";
-			while (notDone) {
-				tempChar = (char) in.read();
-				if (tempChar != 0) {
-					line = line + tempChar;
-				} else {
-					notDone = false;
-				}
+	// Sets the blocks that were left, the attached blocks first. Returns true once they are all set,
+	// or false if it ran out of time.
+	private final boolean setDeferred(long startTime) {
+		World world = min.getWorld();
+		while (deferredIndex < attached.size + fluids.size) {
+			Deferred blocks = deferredIndex < attached.size ? attached : fluids;
+			int i = deferredIndex < attached.size ? deferredIndex : deferredIndex - attached.size;
+			int x = min.getBlockX() + blocks.blocks[i * 5];
+			int y = min.getBlockY() + blocks.blocks[i * 5 + 1];
+			int z = min.getBlockZ() + blocks.blocks[i * 5 + 2];
+			int blockId = blocks.blocks[i * 5 + 3];
+			stats.visit(world, x, y, z);
+			stats.blockId = blockId;
+			if (setBlock(world.getBlockAt(x, y, z), blockId, blocks.blocks[i * 5 + 4], blocks.lines.get(i))) {
+				paste.blocksChanged++;
+				stats.blocksChanged++;
+				refresher.blockChanged(x, z);
 			}
-			lines[lineNumber] = line;
+			deferredIndex++;
+
+			long now = System.nanoTime();
+			stats.iteration(now);
+			if (now - startTime > TaskManager.getMaxTime() * 1000000)
+				return deferredIndex == attached.size + fluids.size;
 		}
-		return lines;
+		return true;
 	}
 
 	// Used to send status messages to the "sender" if the sender is not null.
@@ -490,4 +998,168 @@ class PasteTask extends RollbackOperation {
 		}
 	}
 
-}
\ No newline at end of file
+}
+/**
+ * UnloadedPasteTask class, used by the Paste task when the world it pastes in isn't loaded. The
+ * blocks are written straight to the region files of the world on a worker thread, in the order of
+ * the save. The chunks are written once no later column of the save is in them, so only about two
+ * rows of chunks are in memory at a time.
+ *
+ * @see AnvilWriter
+ * @author lizardfreak321
+ */
+class UnloadedPasteTask implements Runnable {
+	// The region folders that are being written to, so that only one paste changes them at a time.
+	private static final Map<File, Object> locks = new HashMap<File, Object>();
+
+	private final Location min;
+	private final Paste paste;
+	private final File folder;					// The folder with the region files.
+	private final boolean skyLight;				// If the world has sky light.
+	private final BufferedInputStream in;		// The save after its header, closed for manifests.
+	private final int version;
+	private final int[] simpleBlocks;
+	private final ColumnIndex index;
+	private final SectionStore.Manifest manifest; // The sections, null if the file has the blocks.
+	private final boolean ignoreAir;
+	private final OperationStats stats;
+	private final Object lock;					// Held while it writes the region files.
+	int blocksChanged = 0;						// Read on the main thread once it is done.
+	private volatile boolean cancelled = false;	// Set when the paste ends before it is done.
+
+	UnloadedPasteTask(Location min, Paste paste, File folder, boolean skyLight, BufferedInputStream in,
+			int version, int[] simpleBlocks, ColumnIndex index, SectionStore.Manifest manifest, boolean ignoreAir) {
+		this.min = min;
+		this.paste = paste;
+		this.folder = folder;
+		this.skyLight = skyLight;
+		this.in = in;
+		this.version = version;
+		this.simpleBlocks = simpleBlocks;
+		this.index = index;
+		this.manifest = manifest;
+		this.ignoreAir = ignoreAir;
+		this.stats = paste.stats;
+		synchronized (locks) {
+			Object folderLock = locks.get(folder);
+			if (folderLock == null) {
+				folderLock = new Object();
+				locks.put(folder, folderLock);
+			}
+			this.lock = folderLock;
+		}
+	}
+
+	@Override
+	public void run() {
+		long startTime = System.nanoTime();
+		long startAllocated = OperationStats.allocatedByThread();
+
+		EndStatus status;
+		long visited = 0;
+		try {
+			synchronized (lock) {
+				AnvilWriter writer = new AnvilWriter(folder, skyLight);
+				// The chunks that were read and not yet written, by their key.
+				Map<Long, AnvilWriter.Chunk> chunks = new HashMap<Long, AnvilWriter.Chunk>();
+				try {
+					status = EndStatus.SUCCESS;
+					int sections = manifest == null ? 1 : index.sections(SectionStore.HEIGHT);
+					ColumnIndex.Cursor cursor = manifest == null ? index.new Cursor()
+							: index.new Cursor(SectionStore.HEIGHT);
+					BlockDecoder decoder = manifest == null ? BlockDecoder.create(in, version, simpleBlocks) : null;
+					while (!cursor.isDone() && !cancelled) {
+						if (decoder == null)
+							decoder = BlockDecoder.forSection(
+									SectionStore.load(manifest.hashes[cursor.column * sections + cursor.section]),
+									simpleBlocks);
+						// Whatever was read of a save that ends early is still written.
+						if (!decoder.nextBlock()) {
+							status = EndStatus.FILE_END_EARLY;
+							break;
+						}
+						visited++;
+						int x = min.getBlockX() + cursor.x;
+						int y = min.getBlockY() + cursor.y;
+						int z = min.getBlockZ() + cursor.z;
+						// Air in the file is left alone when ignoring air.
+						if (y >= 0 && y < AnvilWriter.HEIGHT && (decoder.id != 0 || !ignoreAir)) {
+							long key = Utilities.chunkKey(x >> 4, z >> 4);
+							AnvilWriter.Chunk chunk = chunks.get(key);
+							if (chunk == null) {
+								chunk = writer.read(x >> 4, z >> 4);
+								chunks.put(key, chunk);
+							}
+							chunk.setBlock(x & 15, y, z & 15, decoder.id, decoder.data, decoder.lines);
+						}
+
+						int column = cursor.column;
+						int moved = cursor.next();
+						if (manifest != null && (moved == ColumnIndex.NEXT_SECTION || moved == ColumnIndex.NEXT_COLUMN))
+							decoder = null;
+						// Once a row of columns is done, the chunks the next rows don't reach are done.
+						if (moved == ColumnIndex.NEXT_COLUMN && !cursor.isDone() && (column + 1) % index.columnsZ == 0)
+							save(writer, chunks, (min.getBlockX() + index.minX(column + 1)) >> 4);
+					}
+					if (!cancelled)
+						save(writer, chunks, Integer.MAX_VALUE);
+				} finally {
+					writer.close();
+				}
+			}
+		} catch (EOFException e) {
+			status = EndStatus.FILE_END_EARLY;
+		} catch (IOException e) {
+			e.printStackTrace();
+			status = EndStatus.FAIL_IO_ERROR;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		stats.addAsync(System.nanoTime() - startTime, OperationStats.allocatedByThread() - startAllocated, visited);
+
+		final EndStatus result = status;
+		Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				paste.unloadedEnded(UnloadedPasteTask.this, result);
+			}
+		});
+	}
+
+	// Writes the chunks before that X and forgets them.
+	private final void save(AnvilWriter writer, Map<Long, AnvilWriter.Chunk> chunks, int beforeChunkX)
+			throws IOException {
+		Iterator<AnvilWriter.Chunk> iterator = chunks.values().iterator();
+		while (iterator.hasNext() && !cancelled) {
+			AnvilWriter.Chunk chunk = iterator.next();
+			if (chunk.chunkX < beforeChunkX) {
+				writer.save(chunk);
+				blocksChanged += chunk.getChanged();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Stops writing after the chunk it is writing. Doesn't wait for it.
+	 */
+	final void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Waits until no paste writes the region files of the folder, once this one was canceled. The
+	 * other pastes of the folder must be canceled too, or it waits for them to finish.
+	 */
+	final void awaitStopped() {
+		cancel();
+		synchronized (lock) {
+			// Only taken once the thread that wrote the files let go of it.
+		}
+	}
+}
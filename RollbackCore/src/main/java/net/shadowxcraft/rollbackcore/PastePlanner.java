@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * Plans a paste one column at a time. The chunks of a column are captured as snapshots on the main
+ * thread, and a worker thread compares them to the save and lists the blocks that are different.
+ * Only those blocks are set, so the main thread never reads the blocks that are already right.
+ * 
+ * Blocks changed after their column was captured, and before it is pasted, are not seen. A column
+ * is pasted soon after it is captured, and only {@link #MAX_PLANNED} columns are planned ahead.
+ * The plans are handed out in the order of the columns, no matter which worker thread finishes first.
+ *
+ * @author lizardfreak321
+ */
+final class PastePlanner {
+	static final int MAX_PLANNED = 8;	// The columns that can be planned and not yet pasted at once.
+
+	// The blocks of one column that are different from the save.
+	static final class Plan {
+		final int column;
+		int[] blocks = new int[256];	// The x, y and z relative to the min corner, and the ID and data.
+		final Map<Integer, String[]> lines = new HashMap<Integer, String[]>(); // The text by change.
+		int size = 0;
+		long visited = 0;				// The blocks that were compared.
+
+		Plan(int column) {
+			this.column = column;
+		}
+
+		private final void add(int x, int y, int z, int id, int data, String[] text) {
+			if (size * 4 == blocks.length) {
+				int[] larger = new int[blocks.length * 2];
+				System.arraycopy(blocks, 0, larger, 0, blocks.length);
+				blocks = larger;
+			}
+			blocks[size * 4] = x;
+			blocks[size * 4 + 1] = y;
+			blocks[size * 4 + 2] = z;
+			blocks[size * 4 + 3] = id << 8 | data;
+			if (text != null)
+				lines.put(size, text);
+			size++;
+		}
+	}
+
+	private final Location min;
+	private final FileChannel save;					// The save the paste opened, null for manifests.
+	private final ColumnIndex index;
+	private final SectionStore.Manifest manifest;	// The sections, null if the file has the blocks.
+	private final long[] positions;					// Where each column starts in the file.
+	private final int version;						// The version of the save.
+	private final int[] simpleBlocks;
+	private final int sections;						// The number of sections in each column.
+	private final boolean ignoreAir;
+	private final boolean recordSections;			// If the pasted sections are recorded.
+	private final boolean skipSections;				// If sections already in the world are skipped.
+	private final OperationStats stats;
+	// The plans that are done and not yet handed out, by their column.
+	private final Map<Integer, Plan> planned = new ConcurrentHashMap<Integer, Plan>();
+	private final AtomicInteger pending = new AtomicInteger();	// Planned or being planned, not pasted.
+	// The sections that are recorded once the paste is done, as their x, y, z and index.
+	private final List<int[]> pastedSections = new ArrayList<int[]>();
+	private int nextColumn = 0;						// The next column to capture.
+	private int nextPlan = 0;						// The column of the next plan to hand out.
+	private volatile EndStatus failure = null;
+	private volatile boolean cancelled = false;
+
+	private PastePlanner(Location min, FileChannel save, ColumnIndex index, SectionStore.Manifest manifest, long[] positions,
+			int version, int[] simpleBlocks, boolean ignoreAir, boolean recordSections, OperationStats stats) {
+		this.min = min;
+		this.save = save;
+		this.index = index;
+		this.manifest = manifest;
+		this.positions = positions;
+		this.version = version;
+		this.simpleBlocks = simpleBlocks;
+		this.sections = manifest == null ? 1 : index.sections(SectionStore.HEIGHT);
+		this.ignoreAir = ignoreAir;
+		this.recordSections = recordSections;
+		this.skipSections = recordSections && Config.skipPastedSections;
+		this.stats = stats;
+	}
+
+	/**
+	 * @param save
+	 *            The save, opened by the paste, or null if it pastes a manifest of the section store.
+	 *            The columns are read from it instead of opening the file again, so they come from
+	 *            the same version of the save as its header even if a copy replaces the file.
+	 * @return The planner, or null if the paste can't be planned, like for older saves that are one
+	 *         column.
+	 */
+	static final PastePlanner create(Location min, FileChannel save, ColumnIndex index, SectionStore.Manifest manifest,
+			int version, int[] simpleBlocks, boolean ignoreAir, boolean recordSections, OperationStats stats) {
+		if (index.whole)
+			return null;
+		long[] positions = null;
+		if (manifest == null) {
+			try {
+				positions = index.readPositions(save);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return new PastePlanner(min, save, index, manifest, positions, version, simpleBlocks, ignoreAir,
+				recordSections, stats);
+	}
+
+	/**
+	 * Captures the next column and starts planning it on a worker thread, unless enough columns are
+	 * already planned ahead. Call it on the main thread.
+	 *
+	 * @return False if nothing was captured.
+	 */
+	@SuppressWarnings("deprecation")
+	final boolean captureNext() {
+		if (nextColumn >= index.getColumns() || pending.get() >= MAX_PLANNED)
+			return false;
+		final int column = nextColumn++;
+		World world = min.getWorld();
+		int fromX = min.getBlockX() + index.minX(column);
+		int fromZ = min.getBlockZ() + index.minZ(column);
+
+		// The sections that are already in the world don't have to be compared.
+		final boolean[] skipped = new boolean[sections];
+		if (recordSections) {
+			for (int section = 0; section < sections; section++) {
+				int y = min.getBlockY() + section * SectionStore.HEIGHT;
+				String hash = manifest.hashes[column * sections + section];
+				if (skipSections && SectionStore.wasPasted(world, fromX, y, fromZ, hash)) {
+					skipped[section] = true;
+				} else {
+					// Forgotten until it is pasted, in case the paste stops part way.
+					SectionStore.setPasted(world, fromX, y, fromZ, null);
+					pastedSections.add(new int[] { fromX, y, fromZ, column * sections + section });
+				}
+			}
+		}
+
+		// Columns that weren't copied here can be in up to four chunks.
+		final Map<Long, ChunkSnapshot> snapshots = new HashMap<Long, ChunkSnapshot>();
+		for (int chunkX = fromX >> 4; chunkX <= (min.getBlockX() + index.maxX(column)) >> 4; chunkX++) {
+			for (int chunkZ = fromZ >> 4; chunkZ <= (min.getBlockZ() + index.maxZ(column)) >> 4; chunkZ++) {
+				stats.visit(world, chunkX << 4, 0, chunkZ << 4);
+				snapshots.put(Utilities.chunkKey(chunkX, chunkZ),
+						world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false));
+			}
+		}
+
+		pending.incrementAndGet();
+		final int maxHeight = world.getMaxHeight();
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				plan(column, snapshots, skipped, maxHeight);
+			}
+		});
+		return true;
+	}
+
+	// Runs on a worker thread. Compares the blocks of the column to the snapshots.
+	@SuppressWarnings("deprecation")
+	private final void plan(int column, Map<Long, ChunkSnapshot> snapshots, boolean[] skipped, int maxHeight) {
+		if (cancelled)
+			return;
+		long startTime = System.nanoTime();
+		long startAllocated = OperationStats.allocatedByThread();
+		Plan plan = new Plan(column);
+		ColumnIndex.Cursor cursor = index.new Cursor(manifest == null ? index.sizeY : SectionStore.HEIGHT);
+		try {
+			for (int section = 0; section < sections; section++) {
+				if (skipped[section])
+					continue;
+				byte[] bytes = read(column, section);
+				BlockDecoder decoder = manifest == null
+						? BlockDecoder.create(bytes, 0, bytes.length, version, simpleBlocks)
+						: BlockDecoder.forSection(bytes, simpleBlocks);
+				cursor.moveTo(column, section);
+				long blocks = cursor.sectionBlocks();
+				while (blocks > 0) {
+					if (!decoder.nextBlock())
+						throw new EOFException("The save ended early.");
+					int layers = emptyLayers(cursor, decoder, snapshots, maxHeight);
+					if (layers > 0) {
+						// Whole layers of air that are already air are skipped with their run.
+						long skippedBlocks = layers * index.layerBlocks(column);
+						decoder.skipRepeats((int) skippedBlocks - 1);
+						cursor.skipLayers(layers);
+						plan.visited += skippedBlocks;
+						blocks -= skippedBlocks;
+						continue;
+					}
+					plan.visited++;
+					int worldX = min.getBlockX() + cursor.x;
+					int worldY = min.getBlockY() + cursor.y;
+					int worldZ = min.getBlockZ() + cursor.z;
+					// Air in the file is left alone when ignoring air.
+					if (worldY >= 0 && worldY < maxHeight && (decoder.id != 0 || !ignoreAir)) {
+						ChunkSnapshot snapshot = snapshots.get(Utilities.chunkKey(worldX >> 4, worldZ >> 4));
+						// Snapshots don't have the text of signs and command blocks, so those are
+						// always checked when they are pasted.
+						if (decoder.lines != null
+								|| snapshot.getBlockTypeId(worldX & 15, worldY, worldZ & 15) != decoder.id
+								|| snapshot.getBlockData(worldX & 15, worldY, worldZ & 15) != decoder.data)
+							plan.add(cursor.x, cursor.y, cursor.z, decoder.id, decoder.data, decoder.lines);
+					}
+					blocks--;
+					cursor.next();
+				}
+			}
+		} catch (EOFException e) {
+			failure = EndStatus.FILE_END_EARLY;
+		} catch (IOException e) {
+			// The save is closed when the paste ends.
+			if (cancelled)
+				return;
+			e.printStackTrace();
+			failure = EndStatus.FAIL_IO_ERROR;
+		}
+		stats.addAsync(System.nanoTime() - startTime, OperationStats.allocatedByThread() - startAllocated,
+				plan.visited);
+		planned.put(column, plan);
+	}
+
+	// The number of whole layers from the cursor on that are air in the save and don't need to be
+	// pasted, because they are outside the world, air is ignored, or the chunk sections they are in
+	// are empty. Only layered saves are read a layer at a time, from the first block of a layer.
+	private final int emptyLayers(ColumnIndex.Cursor cursor, BlockDecoder decoder,
+			Map<Long, ChunkSnapshot> snapshots, int maxHeight) {
+		int column = cursor.column;
+		if (!index.layered || decoder.id != 0 || cursor.x != index.minX(column) || cursor.z != index.minZ(column))
+			return 0;
+		int layers = (int) Math.min((decoder.getRepeats() + 1L) / index.layerBlocks(column), cursor.layersLeft());
+		int minChunkX = (min.getBlockX() + index.minX(column)) >> 4;
+		int maxChunkX = (min.getBlockX() + index.maxX(column)) >> 4;
+		int minChunkZ = (min.getBlockZ() + index.minZ(column)) >> 4;
+		int maxChunkZ = (min.getBlockZ() + index.maxZ(column)) >> 4;
+		for (int layer = 0; layer < layers; layer++) {
+			int y = min.getBlockY() + cursor.y + layer;
+			if (ignoreAir || y < 0 || y >= maxHeight)
+				continue;
+			// The column may cover several chunks when it is pasted somewhere else.
+			for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+				for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+					if (!snapshots.get(Utilities.chunkKey(chunkX, chunkZ)).isSectionEmpty(y >> 4))
+						return layer;
+		}
+		return layers;
+	}
+
+	// Reads the encoded blocks of a column, or a section of the section store starting with its size.
+	private final byte[] read(int column, int section) throws IOException {
+		if (manifest != null)
+			return SectionStore.load(manifest.hashes[column * sections + section]);
+		byte[] bytes = new byte[(int) (positions[column + 1] - positions[column])];
+		FileUtilities.readFully(save, bytes, bytes.length, positions[column]);
+		return bytes;
+	}
+
+	/**
+	 * @return The plan of the next column, or null if it isn't ready yet. The columns are unloaded
+	 *         as they are pasted, so a later column that is ready waits for it.
+	 */
+	final Plan poll() {
+		Plan plan = planned.remove(nextPlan);
+		if (plan != null)
+			nextPlan++;
+		return plan;
+	}
+
+	/**
+	 * Called once every block of a plan from {@link #poll()} was set.
+	 */
+	final void pasted() {
+		pending.decrementAndGet();
+	}
+
+	/**
+	 * @return If every column was planned and pasted.
+	 */
+	final boolean isDone() {
+		return nextColumn >= index.getColumns() && pending.get() == 0;
+	}
+
+	/**
+	 * @return The number of columns that were captured.
+	 */
+	final int getCaptured() {
+		return nextColumn;
+	}
+
+	/**
+	 * @return Why a column couldn't be planned, or null if nothing failed.
+	 */
+	final EndStatus getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Records the sections that were pasted. Call it once every block is set.
+	 */
+	final void recordSections() {
+		for (int[] section : pastedSections)
+			SectionStore.setPasted(min.getWorld(), section[0], section[1], section[2], manifest.hashes[section[3]]);
+	}
+
+	/**
+	 * Stops the columns that are being planned.
+	 */
+	final void cancel() {
+		cancelled = true;
+	}
+}
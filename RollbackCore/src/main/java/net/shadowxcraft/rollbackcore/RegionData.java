@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds every block of a saved region in memory so it can be worked on without a world, like when
+ * converting saves off the main thread. Each block takes two bytes, so only use it for regions that
+ * fit in RAM.
+ * 
+ * @author lizardfreak321
+ */
+class RegionData {
+	final int sizeX;		// The number of blocks along the X axis.
+	final int sizeY;		// The number of blocks along the Y axis.
+	final int sizeZ;		// The number of blocks along the Z axis.
+	// The ID and data of every block (ID << 4 | data), in X, Y, Z order.
+	final char[] blocks;
+	// The text of the signs and command blocks, by the index of the block.
+	final Map<Integer, String[]> text = new HashMap<Integer, String[]>();
+	// Where the min corner was inside its chunk, so the columns of the save line up with the chunks.
+	int alignX = 0;
+	int alignZ = 0;
+
+	RegionData(int sizeX, int sizeY, int sizeZ) {
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		this.blocks = new char[sizeX * sizeY * sizeZ];
+	}
+
+	/**
+	 * @return The index of the block in the blocks array.
+	 */
+	final int index(int x, int y, int z) {
+		return (x * sizeY + y) * sizeZ + z;
+	}
+
+	/**
+	 * Copies another region into this one.
+	 * 
+	 * @param region
+	 *            The region to copy from.
+	 * @param offsetX
+	 *            Where the min X of the other region goes in this one.
+	 * @param offsetY
+	 *            Where the min Y of the other region goes in this one.
+	 * @param offsetZ
+	 *            Where the min Z of the other region goes in this one.
+	 */
+	final void put(RegionData region, int offsetX, int offsetY, int offsetZ) {
+		for (int x = 0; x < region.sizeX; x++) {
+			for (int y = 0; y < region.sizeY; y++) {
+				// Rows along Z are stored next to each other in both regions.
+				System.arraycopy(region.blocks, region.index(x, y, 0), blocks,
+						index(x + offsetX, y + offsetY, offsetZ), region.sizeZ);
+			}
+		}
+		for (Map.Entry<Integer, String[]> entry : region.text.entrySet()) {
+			int index = entry.getKey();
+			int x = index / (region.sizeY * region.sizeZ);
+			int y = index / region.sizeZ % region.sizeY;
+			int z = index % region.sizeZ;
+			text.put(index(x + offsetX, y + offsetY, z + offsetZ), entry.getValue());
+		}
+	}
+
+	/**
+	 * Writes the region as a save file in the current format.
+	 * 
+	 * @param out
+	 *            The stream of the new file.
+	 * @throws IOException
+	 */
+	final void write(OutputStream out) throws IOException {
+		SaveWriter writer = new SaveWriter(out, new ColumnIndex(sizeX, sizeY, sizeZ, alignX, alignZ));
+		ColumnIndex.Cursor cursor = writer.index.new Cursor();
+		while (!cursor.isDone()) {
+			int i = index(cursor.x, cursor.y, cursor.z);
+			int block = blocks[i];
+			writer.writeBlock(block >> 4, block & 15, text.get(i));
+			if (cursor.next() == ColumnIndex.NEXT_COLUMN)
+				writer.endColumn();
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Reads an entire save file. Supports every version that pastes support.
+	 * 
+	 * @param file
+	 *            The save file.
+	 * @return The region that was saved.
+	 * @throws IOException
+	 *             If the file can't be read, is cut off, or has an incompatible version.
+	 */
+	static final RegionData read(File file) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return read(in, file.getPath());
+		}
+	}
+
+	/**
+	 * Reads an entire save from a stream.
+	 * 
+	 * @param in
+	 *            The stream, at the start of the save.
+	 * @param name
+	 *            The name of the save, used in the error messages.
+	 * @return The region that was saved.
+	 * @throws IOException
+	 *             If the stream can't be read, is cut off, or has an incompatible version.
+	 */
+	static final RegionData read(InputStream in, String name) throws IOException {
+		BlockDecoder.Header header = BlockDecoder.readHeader(in);
+		if (header == null) {
+			throw new IOException(name + " has an incompatible version.");
+		}
+
+		RegionData region = new RegionData(header.sizeX + 1, header.sizeY + 1, header.sizeZ + 1);
+		region.alignX = header.index.alignX;
+		region.alignZ = header.index.alignZ;
+		BlockDecoder decoder = BlockDecoder.create(in, header.version, header.simpleBlocks);
+		ColumnIndex.Cursor cursor = header.index.new Cursor();
+		while (!cursor.isDone()) {
+			if (!decoder.nextBlock()) {
+				throw new EOFException(name + " ended early.");
+			}
+			int i = region.index(cursor.x, cursor.y, cursor.z);
+			region.blocks[i] = (char) (decoder.id << 4 | decoder.data & 15);
+			if (decoder.lines != null) {
+				region.text.put(i, decoder.lines);
+			}
+			cursor.next();
+		}
+		return region;
+	}
+}
@@ -27,9 +27,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
@@ -39,6 +41,8 @@ import com.sk89q.worldedit.bukkit.WorldEditPlugin;
 import com.sk89q.worldedit.bukkit.selections.CuboidSelection;
 import com.sk89q.worldedit.bukkit.selections.Selection;
 
+import net.shadowxcraft.rollbackcore.events.DistributedEndEvent;
+
 /**
  * The rollback Utility class. Used to start some operations.
  * 
@@ -47,10 +51,16 @@ import com.sk89q.worldedit.bukkit.selections.Selection;
 public class Rollback {
 
 	/**
-	 * The max size of sub-regions in distributed mode.
+	 * The max size of sub-regions in distributed saves from before tiles were added.
 	 */
 	public static final short SIZE = 100;
 
+	/**
+	 * The name of the index of tiled saves, and the version of its format.
+	 */
+	static final String TILE_INDEX = "tiles.dat";
+	static final int TILE_INDEX_VERSION = 1;
+
 	/*------------------------------------| Copy |------------------------------------*/
 
 	/**
@@ -114,8 +124,8 @@ public class Rollback {
 	}
 
 	/**
-	 * Used to copy the region specified in the parameters in a distributed way. Not recommended any
-	 * more because the new paste function progressively rolls back arenas.
+	 * Used to copy the region specified in the parameters in a distributed way. The region is split
+	 * into tiles that are copied at the same time.
 	 * 
 	 * @param minX
 	 *            The X value of the minimum location of the region.
@@ -137,133 +147,105 @@ public class Rollback {
 	 * @param sender
 	 *            Where status messages will be sent. Null for no messages, consoleSender for
 	 *            console, and a player for a player.
-	 * @see Copy
+	 * @see #copyTiled
 	 * 
 	 * @deprecated Ever since version 2.0, this method does not increase performance, instead it
-	 *             just makes it unnecessarily complicated.
+	 *             just makes it unnecessarily complicated. It now copies the region as tiles, so
+	 *             use {@link #copyTiled} instead.
 	 */
 	public static final void copyDistributed(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, World world,
 			String name, CommandSender sender) {
-		File file = null;
-		File index = null;
-		short files = 0;
+		copyTiled(new Location(world, minX, minY, minZ), new Location(world, maxX, maxY, maxZ), name, sender,
+				Main.prefix);
+	}
 
-		try {
-			file = new File("./" + name);
-			// create
-			System.out.print("Directory created: " + file.mkdir());
-
-			index = new File("./" + name + "/index.dat");
-			// If the index exists, delete it
-			if (index.exists()) {
-				index.delete();
+	/**
+	 * Used to copy a region as tiles. The tiles line up with the chunks and are as big as the
+	 * tilesize in the config, and as many of them as the config allows are copied at the same
+	 * time. If enabled in the config, the tiles are captured as chunk snapshots and written to the
+	 * files off the main thread.
+	 * 
+	 * @param min
+	 *            The location that contains data for the min location of the region.
+	 * @param max
+	 *            The location that contains data for the max location of the region.
+	 * @param name
+	 *            The directory of the folder that will contain the tiles.
+	 * @param sender
+	 *            Where status messages will be sent. Null for no messages.
+	 * @param prefix
+	 *            The prefix that will be used when sending messages to the sender.
+	 * @return The operation, or null if the index could not be written.
+	 * @see DistributedEndEvent
+	 */
+	public static final DistributedOperation copyTiled(Location min, Location max, String name,
+			CommandSender sender, String prefix) {
+		World world = min.getWorld();
+		int minX = Math.min(min.getBlockX(), max.getBlockX());
+		int minY = Math.min(min.getBlockY(), max.getBlockY());
+		int minZ = Math.min(min.getBlockZ(), max.getBlockZ());
+		int maxX = Math.max(min.getBlockX(), max.getBlockX());
+		int maxY = Math.max(min.getBlockY(), max.getBlockY());
+		int maxZ = Math.max(min.getBlockZ(), max.getBlockZ());
+		int size = Config.tileSize;
+
+		File folder = new File(name);
+		folder.mkdirs();
+		DistributedOperation operation = new DistributedOperation(name, true, world, sender, prefix);
+
+		// The tiles start on multiples of the tile size so that they line up with the chunks.
+		int firstTileX = tileStart(minX, size);
+		int firstTileZ = tileStart(minZ, size);
+		int tiles = ((tileStart(maxX, size) - firstTileX) / size + 1) * ((tileStart(maxZ, size) - firstTileZ) / size
+				+ 1);
+
+		try (BufferedOutputStream out = new BufferedOutputStream(
+				new FileOutputStream(new File(folder, TILE_INDEX)))) {
+			out.write(TILE_INDEX_VERSION);
+			FileUtilities.writeInt(out, tiles);
+
+			int file = 0;
+			for (int tileX = firstTileX; tileX <= maxX; tileX += size) {
+				for (int tileZ = firstTileZ; tileZ <= maxZ; tileZ += size) {
+					// Keeps the tiles on the edges in-bounds.
+					int tileMinX = Math.max(tileX, minX);
+					int tileMinZ = Math.max(tileZ, minZ);
+					int tileMaxX = Math.min(tileX + size - 1, maxX);
+					int tileMaxZ = Math.min(tileZ + size - 1, maxZ);
+
+					operation.addTile(new Copy(new Location(world, tileMinX, minY, tileMinZ),
+							new Location(world, tileMaxX, maxY, tileMaxZ), new File(folder, file + ".dat").getPath(),
+							null, prefix, Config.snapshotTiles));
+
+					// Writes where the tile goes relative to the min of the region.
+					FileUtilities.writeInt(out, file);
+					FileUtilities.writeInt(out, tileMinX - minX);
+					FileUtilities.writeInt(out, 0);
+					FileUtilities.writeInt(out, tileMinZ - minZ);
+					file++;
+				}
 			}
-
-			// Create the index
-			index.createNewFile();
 		} catch (IOException e) {
 			e.printStackTrace();
 			if (sender != null) {
 				sender.sendMessage(
-						Main.prefix + ChatColor.RED + "Aborted due to file IO exception. Check console for details.");
-			}
-
-			return;
-		}
-
-		BufferedOutputStream out;
-
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(index));
-		} catch (IOException e) {
-			e.printStackTrace();
-			if (sender != null) {
-				sender.sendMessage(Main.prefix + ChatColor.RED
-						+ "Aborted due to error creating FileOutputStream. Check console for details.");
-			}
-
-			return;
-		}
-
-		// Keeps track of the min/max locations.
-		int tempMaxX = 0;
-		int tempMaxY = 0;
-		int tempMaxZ = 0;
-		int tempMinX = 0;
-		int tempMinY = 0;
-		int tempMinZ = 0;
-
-		// Keeps track of the file ID
-		short tempFile = 0;
-
-		for (int x = 0; x < ((maxX - minX - 1) / SIZE) + 1; x++) {
-			for (int y = 0; y < ((maxY - minY - 1) / SIZE) + 1; y++) {
-				for (int z = 0; z < ((maxZ - minZ - 1) / SIZE) + 1; z++) {
-
-					// Multiplies by the constant SIZE because the X Y and Z are
-					// stored in intervals of SIZE
-					tempMinX = minX + (SIZE * x);
-					tempMinY = minY + (SIZE * y);
-					tempMinZ = minZ + (SIZE * z);
-					tempMaxX = tempMinX + SIZE - 1;
-					tempMaxY = tempMinY + SIZE - 1;
-					tempMaxZ = tempMinZ + SIZE - 1;
-
-					// This code is here to allow it to keep it in-bounds on the
-					// outside.
-					if (tempMaxX >= maxX - 1) {
-						tempMaxX = maxX;
-					}
-					if (tempMaxY >= maxY - 1) {
-						tempMaxY = maxY;
-					}
-					if (tempMaxZ >= maxZ - 1) {
-						tempMaxZ = maxZ;
-					}
-
-					// One copy per tick
-					Copy copy = new Copy(tempMinX, tempMinY, tempMinZ, tempMaxX, tempMaxY, tempMaxZ, world,
-							"./" + name + "/" + files, sender);
-					Bukkit.getScheduler().runTaskLater(Main.plugin, copy, files);
-
-					// Writes to the index
-
-					tempFile = files;
-					tempMinX = x;
-					tempMinY = y;
-					tempMinZ = z;
-
-					// Uses writeShort method due to the values potentially
-					// being greater than 255.
-					try {
-						FileUtilities.writeShort(out, tempFile);
-						FileUtilities.writeShort(out, tempMinX);
-						FileUtilities.writeShort(out, tempMinY);
-						FileUtilities.writeShort(out, tempMinZ);
-					} catch (IOException ex) {
-						sender.sendMessage(Main.prefix + "Read/write exception.");
-						return;
-					}
-
-					// Adds 1 to the file ID because it just completed the
-					files++;
-				}
+						prefix + ChatColor.RED + "Aborted due to file IO exception. Check console for details.");
 			}
+			return null;
 		}
 
-		// Alerts the user that the copy process is finished.
-		if (sender != null) {
-			DelayedMessage message = new DelayedMessage(Main.prefix + "Done!", sender);
-
-			Bukkit.getScheduler().runTaskLater(Main.plugin, message, files + 1);
-		}
+		operation.start();
+		return operation;
+	}
 
-		try {
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+	// Gets the start of the tile that contains the coordinate.
+	private static final int tileStart(int coordinate, int size) {
+		int start = coordinate / size * size;
+		// Division rounds towards 0, so negative coordinates need to go one tile further.
+		if (start > coordinate) {
+			start -= size;
 		}
-
+		return start;
 	}
 
 	/*-----------------------------------| Paste |------------------------------------*/
@@ -308,8 +290,8 @@ public class Rollback {
 	}
 
 	/**
-	 * A non-recommended way to paste. It checks if you are trying to paste a simple file, or a
-	 * distributed paste, and uses the appropriate methods.
+	 * Used to paste a distributed save. Uses the tile index if the save has one, and the index of
+	 * saves from before tiles were added if not.
 	 * 
 	 * @param x
 	 *            Where the min-x of the paste will be pasted.
@@ -324,65 +306,124 @@ public class Rollback {
 	 * @param sender
 	 *            The person who will get status messages. Use null for no messsages, and
 	 *            consoleSender for console.
+	 * @see #pasteTiled
 	 * @deprecated Ever since version 2.0, due to the performance improvements this method is no
 	 *             longer needed. Only use it for backwards compatibility if your plugin used
-	 *             distributed pastes.
+	 *             distributed pastes. It now pastes the save as tiles, so use {@link #pasteTiled}
+	 *             instead.
 	 */
 	public static final void pasteDistributed(int x, int y, int z, World world, String name, CommandSender sender) {
-		// How far in each direction to paste the paste section. Divided by 80
-		int differenceX = 0;
-		int differenceY = 0;
-		int differenceZ = 0;
-		// Used to keep track of the files.
-		int file = 0;
-		// Using to read the index. The index is used to store where it should
-		// paste the parts.
-		File index = null;
-		// Used to read the file.
-		BufferedInputStream in;
-		// Stores the paste objects.
-		ArrayList<Paste> pastes = new ArrayList<Paste>(30);
-
-		// Opens the index file
+		pasteTiled(new Location(world, x, y, z), name, sender, Main.prefix);
+	}
+
+	/**
+	 * Used to paste a distributed save. As many tiles as the config allows are pasted at the same
+	 * time.
+	 * 
+	 * @param min
+	 *            Where the min X, Y, and Z of the save will be pasted.
+	 * @param name
+	 *            The directory of the folder that contains the tiles.
+	 * @param sender
+	 *            The person who will get status messages. Use null for no messsages.
+	 * @param prefix
+	 *            The prefix that will be used when sending messages to the sender.
+	 * @return The operation, or null if the index could not be read.
+	 * @see DistributedEndEvent
+	 */
+	public static final DistributedOperation pasteTiled(Location min, String name, CommandSender sender,
+			String prefix) {
+		World world = min.getWorld();
+		File folder = new File(name);
+		// Created before the pastes so it knows the world save setting from before they disable it.
+		DistributedOperation operation = new DistributedOperation(name, false, world, sender, prefix);
+
 		try {
-			index = new File(name + "/index.dat");
-		} catch (Exception e) {
-			// if any error occurs
+			for (int[] tile : readTileIndex(folder)) {
+				Location tileMin = new Location(world, min.getBlockX() + tile[1], min.getBlockY() + tile[2],
+						min.getBlockZ() + tile[3]);
+				String fileName = new File(folder, tile[0] + ".dat").getPath();
+				operation.addTile(new Paste(tileMin, fileName, null, false, false, prefix));
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
 			if (sender != null) {
-				sender.sendMessage("Paste operation canceled due to read error.");
+				sender.sendMessage(prefix + "Error reading or accessing file!");
 			}
-			return;
+			return null;
 		}
 
-		try {
-			// Starts the fileReader used to edit the file
-			in = new BufferedInputStream(new FileInputStream(index));
-
-			// It needs to check 6 values, so it only checks when there are 6+
-			while (in.available() >= 6) {
-				file = FileUtilities.readShort(in);
-
-				// Read the width, height, and depth.
-				differenceX = FileUtilities.readShort(in);
-				differenceY = FileUtilities.readShort(in);
-				differenceZ = FileUtilities.readShort(in);
+		operation.start();
+		return operation;
+	}
 
-				// Adds the paste to the ArrayList so it can be pasted later.
-				pastes.add(new Paste(x + (differenceX * SIZE), y + (differenceY * SIZE), z + (differenceZ * SIZE),
-						world, name + "/" + file + ".dat", pastes, sender));
+	/**
+	 * Used to paste the same save at several places, like to reset every instance of an arena at
+	 * once. The save is only read once, and the targets are pasted one after the other.
+	 * 
+	 * @param name
+	 *            The path of the save.
+	 * @param origins
+	 *            Where the min X, Y, and Z of the save will be pasted, once for each location.
+	 * @param sender
+	 *            The person who will get status messages. Use null for no messsages.
+	 * @param clearEntities
+	 *            Used to specify if the entities of each target will be removed.
+	 * @param ignoreAir
+	 *            Not check blocks that are air in the file.
+	 * @param prefix
+	 *            The prefix that will be used when sending messages to the sender.
+	 * @return The operation. A PasteEndEvent is called for each target.
+	 * @see TemplatePaste
+	 */
+	public static final TemplatePaste pasteTemplate(String name, List<Location> origins, CommandSender sender,
+			boolean clearEntities, boolean ignoreAir, String prefix) {
+		TemplatePaste operation = new TemplatePaste(name, origins, sender, clearEntities, ignoreAir, prefix);
+		operation.start();
+		return operation;
+	}
 
+	/**
+	 * Reads the index of a distributed save. Uses the tile index if the save has one, and the index
+	 * of saves from before tiles were added if not.
+	 * 
+	 * @param folder
+	 *            The folder of the distributed save.
+	 * @return The tiles, each one is the number of its file followed by its X, Y, and Z relative to
+	 *         the min of the region.
+	 * @throws IOException
+	 *             If the index can't be read or has an incompatible version.
+	 */
+	static final List<int[]> readTileIndex(File folder) throws IOException {
+		List<int[]> tiles = new ArrayList<int[]>();
+		File tileIndex = new File(folder, TILE_INDEX);
+
+		if (tileIndex.exists()) {
+			try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(tileIndex))) {
+				if (in.read() != TILE_INDEX_VERSION) {
+					throw new IOException(tileIndex.getPath() + " has an incompatible version.");
+				}
+				int count = FileUtilities.readInt(in);
+				for (int i = 0; i < count; i++) {
+					tiles.add(new int[] { FileUtilities.readInt(in), FileUtilities.readInt(in),
+							FileUtilities.readInt(in), FileUtilities.readInt(in) });
+				}
 			}
-
-		} catch (IOException e) {
-			e.printStackTrace();
-			if (sender != null) {
-				sender.sendMessage(Main.prefix + "Error reading or accessing file!");
+		} else {
+			// Saves from before tiles were added use the index with the constant SIZE.
+			try (BufferedInputStream in = new BufferedInputStream(
+					new FileInputStream(new File(folder, "index.dat")))) {
+				// It needs to check 8 bytes, so it only checks when there are 8+
+				while (in.available() >= 8) {
+					int file = FileUtilities.readShort(in);
+					// Read the position of the tile.
+					int differenceX = FileUtilities.readShort(in);
+					int differenceY = FileUtilities.readShort(in);
+					int differenceZ = FileUtilities.readShort(in);
+					tiles.add(new int[] { file, differenceX * SIZE, differenceY * SIZE, differenceZ * SIZE });
+				}
 			}
-			return;
 		}
-
-		// Schedules the first paste task to run.
-		Bukkit.getScheduler().runTaskLater(Main.plugin, pastes.get(0), 1);
+		return tiles;
 	}
 }
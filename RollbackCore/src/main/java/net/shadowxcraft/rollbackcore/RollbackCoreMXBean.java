@@ -0,0 +1,493 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+
+/**
+ * The runtime state of RollbackCore exposed over JMX, under
+ * {@value RollbackCoreMonitor#OBJECT_NAME}. The operation values are live, the WatchDog values are
+ * refreshed on the main thread once a second.
+ * 
+ * @see RollbackCoreMonitor
+ * @author lizardfreak321
+ */
+public interface RollbackCoreMXBean {
+
+	/**
+	 * @return The running operations plus the distributed tiles waiting to start.
+	 */
+	int getQueueDepth();
+
+	int getRunningCopies();
+
+	int getRunningPastes();
+
+	int getRunningEntityClears();
+
+	int getRunningWatchDogRollbacks();
+
+	int getRunningWatchDogImports();
+
+	int getWaitingTiles();
+
+	/**
+	 * @return The target time from the config, in milliseconds.
+	 */
+	int getTargetTime();
+
+	/**
+	 * @return The time each operation currently gets per tick, in milliseconds.
+	 */
+	double getEffectiveTickBudget();
+
+	/**
+	 * @return The running operations.
+	 */
+	List<OperationInfo> getOperations();
+
+	/**
+	 * @return The totals of every type of operation since the statistics were last reset.
+	 */
+	List<OperationInfo> getTotals();
+
+	/**
+	 * @return The slowest single iterations of the running operations and of every operation since
+	 *         the statistics were last reset, slowest first.
+	 */
+	List<IterationInfo> getWorstIterations();
+
+	/**
+	 * @return The active WatchDogs.
+	 */
+	List<WatchDogInfo> getWatchDogs();
+
+	/**
+	 * @return The blocks logged by every WatchDog.
+	 */
+	long getLoggedBlocks();
+
+	/**
+	 * @return The estimated bytes of RAM used by the logged blocks. It is the number of logged
+	 *         blocks times about 200 bytes, not a measurement of the heap.
+	 * @see WatchDogRegion#getEstimatedMemory()
+	 */
+	long getEstimatedWatchDogMemory();
+
+	/**
+	 * @return The arena pools, refreshed with the WatchDog values.
+	 */
+	List<PoolInfo> getPools();
+
+	/**
+	 * @return When the WatchDog values were last refreshed, in milliseconds since the epoch.
+	 */
+	long getLastRefresh();
+
+	/**
+	 * Clears the statistics totals.
+	 */
+	void resetStatistics();
+
+	/**
+	 * The state of an operation, or the totals of a type of operation.
+	 */
+	final class OperationInfo {
+		private final String type;
+		private final String name;
+		private final int operations;
+		private final double progress;
+		private final long elapsedMillis;
+		private final long blocksVisited;
+		private final long blocksChanged;
+		private final double blocksPerSecond;
+		private final long chunkLoads;
+		private final long ticks;
+		private final double budgetUsage;
+		private final double maxTickMillis;
+		private final double medianTickMillis;
+		private final double p99TickMillis;
+		private final long overruns;
+		private final double overrunMillis;
+		private final long[] tickHistogram;
+
+		@ConstructorProperties({ "type", "name", "operations", "progress", "elapsedMillis", "blocksVisited",
+				"blocksChanged", "blocksPerSecond", "chunkLoads", "ticks", "budgetUsage", "maxTickMillis",
+				"medianTickMillis", "p99TickMillis", "overruns", "overrunMillis", "tickHistogram" })
+		public OperationInfo(String type, String name, int operations, double progress, long elapsedMillis,
+				long blocksVisited, long blocksChanged, double blocksPerSecond, long chunkLoads, long ticks,
+				double budgetUsage, double maxTickMillis, double medianTickMillis, double p99TickMillis,
+				long overruns, double overrunMillis, long[] tickHistogram) {
+			this.type = type;
+			this.name = name;
+			this.operations = operations;
+			this.progress = progress;
+			this.elapsedMillis = elapsedMillis;
+			this.blocksVisited = blocksVisited;
+			this.blocksChanged = blocksChanged;
+			this.blocksPerSecond = blocksPerSecond;
+			this.chunkLoads = chunkLoads;
+			this.ticks = ticks;
+			this.budgetUsage = budgetUsage;
+			this.maxTickMillis = maxTickMillis;
+			this.medianTickMillis = medianTickMillis;
+			this.p99TickMillis = p99TickMillis;
+			this.overruns = overruns;
+			this.overrunMillis = overrunMillis;
+			this.tickHistogram = tickHistogram;
+		}
+
+		OperationInfo(OperationStats stats) {
+			this(stats, stats.getTickHistogram());
+		}
+
+		private OperationInfo(OperationStats stats, LatencyHistogram histogram) {
+			this(stats.getType().toString(), stats.getName() == null ? "" : stats.getName(), stats.getOperations(),
+					stats.getProgress(), stats.getElapsedNanos() / 1000000, stats.getBlocksVisited(),
+					stats.getBlocksChanged(), stats.getBlocksPerSecond(), stats.getChunkLoads(), stats.getTicks(),
+					stats.getBudgetUsage(), stats.getMaxTickNanos() / 1000000.0, histogram.getPercentileMillis(50),
+					histogram.getPercentileMillis(99), stats.getOverruns(), stats.getOverrunNanos() / 1000000.0,
+					histogram.getCounts());
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return What the operation works on, empty for totals.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The operations in the totals, 0 for a running operation.
+		 */
+		public int getOperations() {
+			return operations;
+		}
+
+		/**
+		 * @return The progress from 0 to 1, or -1 if unknown.
+		 */
+		public double getProgress() {
+			return progress;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public long getBlocksVisited() {
+			return blocksVisited;
+		}
+
+		public long getBlocksChanged() {
+			return blocksChanged;
+		}
+
+		public double getBlocksPerSecond() {
+			return blocksPerSecond;
+		}
+
+		public long getChunkLoads() {
+			return chunkLoads;
+		}
+
+		public long getTicks() {
+			return ticks;
+		}
+
+		/**
+		 * @return The average share of its budget it used, where 1 is all of it.
+		 */
+		public double getBudgetUsage() {
+			return budgetUsage;
+		}
+
+		public double getMaxTickMillis() {
+			return maxTickMillis;
+		}
+
+		/**
+		 * @return Half of the ticks took less than this, rounded up to a histogram bucket.
+		 */
+		public double getMedianTickMillis() {
+			return medianTickMillis;
+		}
+
+		/**
+		 * @return 99% of the ticks took less than this, rounded up to a histogram bucket.
+		 */
+		public double getP99TickMillis() {
+			return p99TickMillis;
+		}
+
+		/**
+		 * @return The ticks it ran more than a tenth past its budget.
+		 */
+		public long getOverruns() {
+			return overruns;
+		}
+
+		public double getOverrunMillis() {
+			return overrunMillis;
+		}
+
+		/**
+		 * @return The number of ticks in each bucket of the tick time histogram.
+		 * @see LatencyHistogram#getUpperBoundMicros(int)
+		 */
+		public long[] getTickHistogram() {
+			return tickHistogram.clone();
+		}
+	}
+
+	/**
+	 * One of the slowest iterations.
+	 */
+	final class IterationInfo {
+		private final String type;
+		private final String operation;
+		private final double millis;
+		private final String world;
+		private final int x;
+		private final int y;
+		private final int z;
+		private final int blockId;
+		private final long time;
+
+		@ConstructorProperties({ "type", "operation", "millis", "world", "x", "y", "z", "blockId", "time" })
+		public IterationInfo(String type, String operation, double millis, String world, int x, int y, int z,
+				int blockId, long time) {
+			this.type = type;
+			this.operation = operation;
+			this.millis = millis;
+			this.world = world;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.blockId = blockId;
+			this.time = time;
+		}
+
+		IterationInfo(OperationStats.Iteration iteration) {
+			this(iteration.getType().toString(), iteration.getOperation() == null ? "" : iteration.getOperation(),
+					iteration.getNanos() / 1000000.0, iteration.getWorld() == null ? "" : iteration.getWorld(),
+					iteration.getX(), iteration.getY(), iteration.getZ(), iteration.getBlockId(),
+					iteration.getTime());
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public double getMillis() {
+			return millis;
+		}
+
+		public String getWorld() {
+			return world;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		public int getZ() {
+			return z;
+		}
+
+		/**
+		 * @return The ID of the block, or -1 if the iteration was not for one block.
+		 */
+		public int getBlockId() {
+			return blockId;
+		}
+
+		/**
+		 * @return When it happened, in milliseconds since the epoch.
+		 */
+		public long getTime() {
+			return time;
+		}
+	}
+
+	/**
+	 * The state of a WatchDog.
+	 */
+	final class WatchDogInfo {
+		private final String world;
+		private final String region;
+		private final long loggedBlocks;
+		private final long estimatedMemory;
+		private final boolean rollingBack;
+
+		@ConstructorProperties({ "world", "region", "loggedBlocks", "estimatedMemory", "rollingBack" })
+		public WatchDogInfo(String world, String region, long loggedBlocks, long estimatedMemory,
+				boolean rollingBack) {
+			this.world = world;
+			this.region = region;
+			this.loggedBlocks = loggedBlocks;
+			this.estimatedMemory = estimatedMemory;
+			this.rollingBack = rollingBack;
+		}
+
+		public String getWorld() {
+			return world;
+		}
+
+		/**
+		 * @return The min and max corners of the region.
+		 */
+		public String getRegion() {
+			return region;
+		}
+
+		public long getLoggedBlocks() {
+			return loggedBlocks;
+		}
+
+		/**
+		 * @return The logged blocks times about 200 bytes.
+		 * @see WatchDogRegion#getEstimatedMemory()
+		 */
+		public long getEstimatedMemory() {
+			return estimatedMemory;
+		}
+
+		public boolean isRollingBack() {
+			return rollingBack;
+		}
+	}
+
+	/**
+	 * The state of an arena pool.
+	 */
+	final class PoolInfo {
+		private final String name;
+		private final String template;
+		private final int size;
+		private final int ready;
+		private final int inUse;
+		private final int queued;
+		private final int resetting;
+		private final long oldestQueuedMillis;
+		private final double medianQueueMillis;
+		private final double p99QueueMillis;
+		private final double maxQueueMillis;
+
+		@ConstructorProperties({ "name", "template", "size", "ready", "inUse", "queued", "resetting",
+				"oldestQueuedMillis", "medianQueueMillis", "p99QueueMillis", "maxQueueMillis" })
+		public PoolInfo(String name, String template, int size, int ready, int inUse, int queued, int resetting,
+				long oldestQueuedMillis, double medianQueueMillis, double p99QueueMillis, double maxQueueMillis) {
+			this.name = name;
+			this.template = template;
+			this.size = size;
+			this.ready = ready;
+			this.inUse = inUse;
+			this.queued = queued;
+			this.resetting = resetting;
+			this.oldestQueuedMillis = oldestQueuedMillis;
+			this.medianQueueMillis = medianQueueMillis;
+			this.p99QueueMillis = p99QueueMillis;
+			this.maxQueueMillis = maxQueueMillis;
+		}
+
+		PoolInfo(ArenaPool pool) {
+			this(pool.getName(), pool.getTemplate(), pool.getSize(), pool.getReady(),
+					pool.count(ArenaPool.State.IN_USE), pool.count(ArenaPool.State.QUEUED),
+					pool.count(ArenaPool.State.RESETTING), pool.getOldestQueuedMillis(),
+					pool.getQueueLatency().getPercentileMillis(50), pool.getQueueLatency().getPercentileMillis(99),
+					pool.getQueueLatency().getMaxNanos() / 1000000.0);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The save the slots are reset to.
+		 */
+		public String getTemplate() {
+			return template;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * @return The slots that can be handed out right away.
+		 */
+		public int getReady() {
+			return ready;
+		}
+
+		public int getInUse() {
+			return inUse;
+		}
+
+		/**
+		 * @return The slots waiting for their reset to start.
+		 */
+		public int getQueued() {
+			return queued;
+		}
+
+		public int getResetting() {
+			return resetting;
+		}
+
+		public long getOldestQueuedMillis() {
+			return oldestQueuedMillis;
+		}
+
+		/**
+		 * @return Half of the slots waited less than this in the queue, rounded up to a histogram
+		 *         bucket.
+		 */
+		public double getMedianQueueMillis() {
+			return medianQueueMillis;
+		}
+
+		/**
+		 * @return 99% of the slots waited less than this in the queue, rounded up to a histogram
+		 *         bucket.
+		 */
+		public double getP99QueueMillis() {
+			return p99QueueMillis;
+		}
+
+		public double getMaxQueueMillis() {
+			return maxQueueMillis;
+		}
+	}
+}
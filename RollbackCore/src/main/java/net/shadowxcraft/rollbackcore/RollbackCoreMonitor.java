@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Exposes the runtime state of the plugin over JMX. The operation statistics are safe to read from
+ * any thread, but the WatchDogs and distributed operations are only changed on the main thread, so
+ * those are copied on the main thread once a second and the copy is what JMX sees.
+ * 
+ * @author lizardfreak321
+ */
+public class RollbackCoreMonitor implements RollbackCoreMXBean, Runnable {
+	public static final String OBJECT_NAME = "net.shadowxcraft.rollbackcore:type=RollbackCore";
+	private static final long REFRESH_TICKS = 20;	// How often the main thread values are copied.
+
+	private static RollbackCoreMonitor registered = null;
+	private final ObjectName name;
+	private int taskID = -1;
+	// The values copied from the main thread.
+	private volatile List<WatchDogInfo> watchDogs = Collections.emptyList();
+	private volatile int waitingTiles = 0;
+	private volatile List<PoolInfo> pools = Collections.emptyList();
+	private volatile long lastRefresh = 0;
+
+	private RollbackCoreMonitor() throws JMException {
+		name = new ObjectName(OBJECT_NAME);
+	}
+
+	/**
+	 * Registers the MBean and starts refreshing it. Replaces the one from before a reload.
+	 * 
+	 * @param plugin
+	 *            The plugin that refreshes it.
+	 */
+	static final void register(Plugin plugin) {
+		unregister();
+		try {
+			RollbackCoreMonitor monitor = new RollbackCoreMonitor();
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(monitor.name))
+				server.unregisterMBean(monitor.name);
+			server.registerMBean(monitor, monitor.name);
+			monitor.run();
+			monitor.taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, monitor, REFRESH_TICKS,
+					REFRESH_TICKS);
+			registered = monitor;
+		} catch (JMException e) {
+			plugin.getLogger().warning("Failed to register the JMX MBean: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops refreshing the MBean and unregisters it.
+	 */
+	static final void unregister() {
+		if (registered == null)
+			return;
+		if (registered.taskID != -1)
+			Bukkit.getScheduler().cancelTask(registered.taskID);
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered.name);
+		} catch (JMException e) {
+			// It is already gone.
+		}
+		registered = null;
+	}
+
+	// Copies the values that are only safe to read on the main thread.
+	@Override
+	public void run() {
+		List<WatchDogInfo> watchDogs = new ArrayList<WatchDogInfo>(WatchDogRegion.activeWatchDogs.size());
+		for (WatchDogRegion watchDog : WatchDogRegion.activeWatchDogs) {
+			Location min = watchDog.getMin();
+			Location max = watchDog.getMax();
+			watchDogs.add(new WatchDogInfo(min.getWorld().getName(),
+					min.getBlockX() + "," + min.getBlockY() + "," + min.getBlockZ() + " to " + max.getBlockX() + ","
+							+ max.getBlockY() + "," + max.getBlockZ(),
+					watchDog.getLoggedBlocks(), watchDog.getEstimatedMemory(), watchDog.isRollingBack()));
+		}
+		int waiting = 0;
+		for (DistributedOperation operation : DistributedOperation.runningOperations)
+			waiting += operation.getWaitingTiles();
+		for (TemplatePaste template : TemplatePaste.runningTemplates)
+			waiting += template.getWaitingTargets();
+
+		List<PoolInfo> pools = new ArrayList<PoolInfo>(ArenaPool.getPools().size());
+		for (ArenaPool pool : ArenaPool.getPools())
+			pools.add(new PoolInfo(pool));
+
+		this.watchDogs = Collections.unmodifiableList(watchDogs);
+		this.waitingTiles = waiting;
+		this.pools = Collections.unmodifiableList(pools);
+		this.lastRefresh = System.currentTimeMillis();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return Statistics.getRunning().size() + waitingTiles;
+	}
+
+	@Override
+	public int getRunningCopies() {
+		return countRunning(OperationStats.Type.COPY);
+	}
+
+	@Override
+	public int getRunningPastes() {
+		return countRunning(OperationStats.Type.PASTE);
+	}
+
+	@Override
+	public int getRunningEntityClears() {
+		return countRunning(OperationStats.Type.CLEAR_ENTITIES);
+	}
+
+	@Override
+	public int getRunningWatchDogRollbacks() {
+		return countRunning(OperationStats.Type.WATCHDOG_ROLLBACK);
+	}
+
+	@Override
+	public int getRunningWatchDogImports() {
+		return countRunning(OperationStats.Type.WATCHDOG_IMPORT);
+	}
+
+	private static int countRunning(OperationStats.Type type) {
+		int count = 0;
+		for (OperationStats stats : Statistics.getRunning())
+			if (stats.getType() == type)
+				count++;
+		return count;
+	}
+
+	@Override
+	public int getWaitingTiles() {
+		return waitingTiles;
+	}
+
+	@Override
+	public int getTargetTime() {
+		return Config.targetTime;
+	}
+
+	@Override
+	public double getEffectiveTickBudget() {
+		return TaskManager.getMaxTime();
+	}
+
+	@Override
+	public List<OperationInfo> getOperations() {
+		List<OperationInfo> operations = new ArrayList<OperationInfo>();
+		for (OperationStats stats : Statistics.getRunning())
+			operations.add(new OperationInfo(stats));
+		return operations;
+	}
+
+	@Override
+	public List<OperationInfo> getTotals() {
+		List<OperationInfo> totals = new ArrayList<OperationInfo>();
+		for (OperationStats.Type type : OperationStats.Type.values())
+			totals.add(new OperationInfo(Statistics.getTotals(type)));
+		return totals;
+	}
+
+	@Override
+	public List<IterationInfo> getWorstIterations() {
+		List<OperationStats.Iteration> worst = new ArrayList<OperationStats.Iteration>();
+		for (OperationStats.Type type : OperationStats.Type.values())
+			worst.addAll(Statistics.getTotals(type).getWorstIterations());
+		for (OperationStats stats : Statistics.getRunning())
+			worst.addAll(stats.getWorstIterations());
+		Collections.sort(worst, new Comparator<OperationStats.Iteration>() {
+			@Override
+			public int compare(OperationStats.Iteration a, OperationStats.Iteration b) {
+				return Long.compare(b.getNanos(), a.getNanos());
+			}
+		});
+		List<IterationInfo> iterations = new ArrayList<IterationInfo>();
+		for (int i = 0; i < worst.size() && i < OperationStats.WORST_ITERATIONS; i++)
+			iterations.add(new IterationInfo(worst.get(i)));
+		return iterations;
+	}
+
+	@Override
+	public List<WatchDogInfo> getWatchDogs() {
+		return watchDogs;
+	}
+
+	@Override
+	public long getLoggedBlocks() {
+		long blocks = 0;
+		for (WatchDogInfo watchDog : watchDogs)
+			blocks += watchDog.getLoggedBlocks();
+		return blocks;
+	}
+
+	@Override
+	public long getEstimatedWatchDogMemory() {
+		long bytes = 0;
+		for (WatchDogInfo watchDog : watchDogs)
+			bytes += watchDog.getEstimatedMemory();
+		return bytes;
+	}
+
+	@Override
+	public List<PoolInfo> getPools() {
+		return pools;
+	}
+
+	@Override
+	public long getLastRefresh() {
+		return lastRefresh;
+	}
+
+	@Override
+	public void resetStatistics() {
+		Statistics.reset();
+	}
+}
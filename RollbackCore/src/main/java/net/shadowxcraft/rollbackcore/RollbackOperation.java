@@ -27,6 +27,10 @@ import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CommandBlock;
+import org.bukkit.block.Sign;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
@@ -44,8 +48,9 @@ abstract class RollbackOperation implements Runnable {
 	public String prefix;				// The prefixes used by messages if sender is not null
 	protected String fileName;			// The name and directory of the file.
 	protected int taskID = -1;			// The ID of the task running for the operation.
-	public static final int VERSION = 1;// The current version of the plugin stoage format.
+	public static final int VERSION = 5;// The current version of the plugin stoage format.
 	int lastChunkX;						// To keep track of when to unload the row of chunks.
+	OperationStats stats = null;		// The performance statistics, null until it starts.
 
 	// Storing the following IDs provides about a 15% increase in performance
 	// than comparing the materials.
@@ -91,6 +96,86 @@ abstract class RollbackOperation implements Runnable {
 		return Arrays.binarySearch(simpleBlocks, id) >= 0;
 	}
 
+	/**
+	 * Checks if the block stores text in the save file, like signs and command blocks. Blocks with
+	 * text are never compressed.
+	 * 
+	 * @param id
+	 *            The ID of the block.
+	 * @return If the block has text that needs saving.
+	 */
+	protected static final boolean hasText(int id) {
+		return id == wallSignID || id == signPostID || Arrays.binarySearch(commandBlockIDs, id) >= 0;
+	}
+
+	/**
+	 * Gets the text that is saved for a block with text. Signs save their four lines, command
+	 * blocks save their name and command as the first two lines.
+	 * 
+	 * @param id
+	 *            The ID of the block.
+	 * @param state
+	 *            The state of the block, must be a sign or a command block.
+	 * @return The four lines of text.
+	 */
+	protected static final String[] getText(int id, BlockState state) {
+		if (id == wallSignID || id == signPostID)
+			return ((Sign) state).getLines();
+		CommandBlock cBlock = (CommandBlock) state;
+		return new String[] { cBlock.getName(), cBlock.getCommand(), "", "" };
+	}
+
+	/**
+	 * Sets a block to a saved block. Only changes what is different, since that is much more
+	 * efficient than changing every block.
+	 * 
+	 * @param block
+	 *            The block in the world.
+	 * @param id
+	 *            The saved ID.
+	 * @param data
+	 *            The saved data.
+	 * @param lines
+	 *            The saved text of a sign or command block, null for other blocks.
+	 * @return If the type or data of the block changed.
+	 */
+	@SuppressWarnings("deprecation")
+	protected static final boolean setBlock(Block block, int id, int data, String[] lines) {
+		boolean changed = false;
+		if (id != block.getTypeId() || data != block.getData()) {
+			block.setTypeIdAndData(id, (byte) data, false);
+			changed = true;
+		}
+
+		// If it's a sign, set the text to what it was in the database (The array named
+		// "text")
+		// Else if it's a command block, set its name and command.
+		if (lines != null) {
+			if (id == signPostID || id == wallSignID) {
+				if (!Arrays.equals(((Sign) block.getState()).getLines(), lines)) {
+
+					Sign sign = (Sign) block.getState();
+					for (int i = 0; i < 4; i++) {
+						sign.setLine(i, lines[i]);
+					}
+
+					// Update the sign
+					sign.update();
+				}
+			} else if (Arrays.binarySearch(commandBlockIDs, id) >= 0) {
+				CommandBlock cBlock = (CommandBlock) block.getState();
+				String name = lines[0];
+				String command = lines[1];
+				if(cBlock.getName() != name || cBlock.getCommand() != command) {
+					cBlock.setName(name);
+					cBlock.setCommand(command);
+					cBlock.update();
+				}
+			}
+		}
+		return changed;
+	}
+
 	// Used to check the chunk at that no longer is being pasted in, and unloads
 	// it to save RAM if no players are in it.
 	protected static final void checkChunk(World world, int x, int z) {
@@ -121,6 +206,40 @@ abstract class RollbackOperation implements Runnable {
 		}
 	}
 
+	/**
+	 * Unloads the chunks of a finished column of a save, unless players are near them or the next
+	 * column needs them too.
+	 * 
+	 * @param min
+	 *            Where the min corner of the save is in the world.
+	 * @param index
+	 *            The columns of the save.
+	 * @param column
+	 *            The column that was finished.
+	 */
+	protected static final void unloadColumn(Location min, ColumnIndex index, int column, ChunkRefresher refresher) {
+		World world = min.getWorld();
+		int fromX = (min.getBlockX() + index.minX(column)) >> 4;
+		int toX = (min.getBlockX() + index.maxX(column)) >> 4;
+		int fromZ = (min.getBlockZ() + index.minZ(column)) >> 4;
+		int toZ = (min.getBlockZ() + index.maxZ(column)) >> 4;
+		int next = column + 1;
+		for (int chunkX = fromX; chunkX <= toX; chunkX++) {
+			for (int chunkZ = fromZ; chunkZ <= toZ; chunkZ++) {
+				// Only happens when it is pasted somewhere the columns don't line up with the chunks.
+				if (next < index.getColumns() && chunkX >= (min.getBlockX() + index.minX(next)) >> 4
+						&& chunkX <= (min.getBlockX() + index.maxX(next)) >> 4
+						&& chunkZ >= (min.getBlockZ() + index.minZ(next)) >> 4
+						&& chunkZ <= (min.getBlockZ() + index.maxZ(next)) >> 4)
+					continue;
+				if (refresher != null)
+					refresher.chunkDone(chunkX, chunkZ);
+				if (world.isChunkLoaded(chunkX, chunkZ))
+					safeUnloadChunk(world.getChunkAt(chunkX, chunkZ));
+			}
+		}
+	}
+
 	protected static final boolean playersNearBy(Chunk chunk) {
 		int chunkX = chunk.getX();
 		int chunkZ = chunk.getZ();
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the saved blocks at some positions of a save, without reading the whole save. Only the
+ * columns, or the sections of the section store, that have one of the positions are decoded. Older
+ * saves that are one column are not supported, since finding a block in them means decoding
+ * everything before it.
+ *
+ * @author lizardfreak321
+ */
+final class SaveLookup {
+	final int[] ids;			// The saved ID of each position.
+	final int[] data;			// The saved data of each position.
+	final String[][] lines;		// The saved text of each position, null for blocks without text.
+
+	private SaveLookup(int positions) {
+		ids = new int[positions];
+		data = new int[positions];
+		lines = new String[positions][];
+	}
+
+	/**
+	 * Checks if the blocks of a save can be looked up. Only reads the start of the file.
+	 *
+	 * @return False if it is an older save, has an unsupported version, isn't that size, or can't be
+	 *         read.
+	 */
+	static final boolean canRead(File file, int sizeX, int sizeY, int sizeZ) {
+		try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			in.mark(1);
+			boolean isManifest = in.read() == SectionStore.MANIFEST;
+			in.reset();
+			ColumnIndex index;
+			if (isManifest) {
+				SectionStore.Manifest manifest = SectionStore.readManifest(in, file.getPath());
+				index = manifest == null ? null : manifest.index;
+			} else {
+				BlockDecoder.Header header = BlockDecoder.readHeader(in);
+				index = header == null ? null : header.index;
+			}
+			return index != null && !index.whole && index.sizeX == sizeX && index.sizeY == sizeY
+					&& index.sizeZ == sizeZ;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the saved blocks. Doesn't use the Bukkit API, so it can be called from any thread.
+	 *
+	 * @param file
+	 *            The save, or a manifest of the section store.
+	 * @param xs
+	 *            The X of each position, relative to the min corner of the save.
+	 * @param ys
+	 *            The Y of each position.
+	 * @param zs
+	 *            The Z of each position.
+	 * @return The blocks, or null if the save is an older save, has an unsupported version, or
+	 *         doesn't have one of the positions.
+	 * @throws EOFException
+	 *             If part of the save ended early.
+	 * @throws IOException
+	 *             If it couldn't be read.
+	 */
+	static final SaveLookup read(File file, int[] xs, int[] ys, int[] zs) throws IOException {
+		// Opened once, so the columns are read from the same version of the save as the header even
+		// if a copy replaces it.
+		try (FileChannel save = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			SectionStore.Manifest manifest = null;
+			ColumnIndex index;
+			int version = RollbackOperation.VERSION;
+			int[] simpleBlocks;
+			BufferedInputStream in = new BufferedInputStream(Channels.newInputStream(save));
+			in.mark(1);
+			boolean isManifest = in.read() == SectionStore.MANIFEST;
+			in.reset();
+			if (isManifest) {
+				manifest = SectionStore.readManifest(in, file.getPath());
+				if (manifest == null)
+					return null;
+				index = manifest.index;
+				simpleBlocks = manifest.simpleBlocks;
+			} else {
+				BlockDecoder.Header header = BlockDecoder.readHeader(in);
+				if (header == null || header.index.whole)
+					return null;
+				index = header.index;
+				version = header.version;
+				simpleBlocks = header.simpleBlocks;
+			}
+
+			// Each position is found by the part of the save it is in, and by how many blocks come
+			// before it in that part.
+			final int height = manifest == null ? index.sizeY : SectionStore.HEIGHT;
+			int sections = index.sections(height);
+			final long[] keys = new long[xs.length];
+			Integer[] order = new Integer[xs.length];
+			for (int i = 0; i < xs.length; i++) {
+				int x = xs[i], y = ys[i], z = zs[i];
+				if (x < 0 || y < 0 || z < 0 || x >= index.sizeX || y >= index.sizeY || z >= index.sizeZ)
+					return null;
+				int column = index.column(x, z);
+				keys[i] = (long) (column * sections + y / height) << 32 | index.offset(x, y, z, height);
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(keys[a], keys[b]);
+				}
+			});
+
+			SaveLookup lookup = new SaveLookup(xs.length);
+			long[] positions = manifest == null ? index.readPositions(save) : null;
+			int part = -1;				// The column or section being decoded.
+			long decoded = 0;			// The number of blocks of it that were decoded.
+			BlockDecoder decoder = null;
+			for (int i : order) {
+				if ((int) (keys[i] >>> 32) != part) {
+					part = (int) (keys[i] >>> 32);
+					if (manifest != null) {
+						decoder = BlockDecoder.forSection(SectionStore.load(manifest.hashes[part]), simpleBlocks);
+					} else {
+						byte[] bytes = new byte[(int) (positions[part + 1] - positions[part])];
+						FileUtilities.readFully(save, bytes, bytes.length, positions[part]);
+						decoder = BlockDecoder.create(bytes, 0, bytes.length, version, simpleBlocks);
+					}
+					decoded = 0;
+				}
+				long before = keys[i] & 0xFFFFFFFFL;
+				// Positions that are the same block share it.
+				while (decoded <= before) {
+					if (!decoder.nextBlock())
+						throw new EOFException("The save ended early.");
+					decoded++;
+					// The rest of a run doesn't have to be read one block at a time.
+					int repeats = (int) Math.min(decoder.getRepeats(), before + 1 - decoded);
+					decoder.skipRepeats(repeats);
+					decoded += repeats;
+				}
+				lookup.ids[i] = decoder.id;
+				lookup.data[i] = decoder.data;
+				lookup.lines[i] = decoder.lines;
+			}
+			return lookup;
+		}
+	}
+}
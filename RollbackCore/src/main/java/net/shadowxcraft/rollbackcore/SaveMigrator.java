@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Converts saves in old formats to a single file in the current format. Version 0 files and
+ * distributed saves are slower to paste, so converting them once makes every rollback faster.
+ * Everything is done off the main thread, the old saves are moved to the backups folder, and the
+ * new files replace them atomically so a paste can run at the same time.
+ * 
+ * @author lizardfreak321
+ */
+public class SaveMigrator implements Runnable {
+	private static SaveMigrator runningMigration = null; // Only one migration runs at a time.
+	private final File target;				// The save or the folder of saves to migrate.
+	private final Set<String> savesInUse;	// The saves that are being copied to, which are skipped.
+	private final Path backupFolder;		// Where the old saves are moved to.
+	private final CommandSender sender;		// The optional sender of messages.
+	private final String prefix;			// The prefix used by messages.
+	private volatile int migrated = 0;		// The number of saves converted.
+	private volatile int failed = 0;		// The number of saves that could not be converted.
+	private volatile int total = 0;			// The number of saves found that need converting.
+
+	SaveMigrator(File target, Set<String> savesInUse, CommandSender sender, String prefix) {
+		this.target = target;
+		this.savesInUse = savesInUse;
+		this.backupFolder = Main.savesPath.resolve("backups");
+		this.sender = sender;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Starts converting the old saves. Must be called on the main thread.
+	 * 
+	 * @param target
+	 *            A save file, a distributed save folder, or a folder that contains saves, like the
+	 *            saves folder. Folders are searched through.
+	 * @param sender
+	 *            Where the progress will be sent. Null for no messages.
+	 * @param prefix
+	 *            The prefix of the messages.
+	 * @return The migration, or null if one is already running.
+	 */
+	public static final SaveMigrator migrate(File target, CommandSender sender, String prefix) {
+		if (runningMigration != null) {
+			if (sender != null)
+				sender.sendMessage(prefix + "A migration is already running! "
+						+ (runningMigration.migrated + runningMigration.failed) + "/" + runningMigration.total
+						+ " saves done.");
+			return null;
+		}
+
+		// The copies are checked now because they can only be read on the main thread.
+		Set<String> savesInUse = new HashSet<String>();
+		for (Copy copy : Copy.runningCopies) {
+			savesInUse.add(new File(copy.getFileName()).getAbsolutePath());
+		}
+
+		runningMigration = new SaveMigrator(target, savesInUse, sender, prefix);
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, runningMigration);
+		return runningMigration;
+	}
+
+	/**
+	 * @return If a migration is running.
+	 */
+	public static final boolean isRunning() {
+		return runningMigration != null;
+	}
+
+	// Runs on a worker thread.
+	@Override
+	public void run() {
+		List<File> saves = new ArrayList<File>();
+		try {
+			findOldSaves(target, saves);
+			total = saves.size();
+			message("Found " + total + " save(s) in an old format.");
+
+			for (File save : saves) {
+				try {
+					if (save.isDirectory())
+						migrateDistributed(save);
+					else
+						migrateFile(save);
+					migrated++;
+					message("Migrated " + save.getName() + " (" + (migrated + failed) + "/" + total + ").");
+				} catch (IOException e) {
+					e.printStackTrace();
+					failed++;
+					message("Failed migrating " + save.getName() + " (" + (migrated + failed) + "/" + total
+							+ "), it was left as it was.");
+				}
+			}
+			message("Done migrating! " + migrated + " migrated, " + failed + " failed.");
+		} finally {
+			// Cleared on the main thread since that is where it is checked.
+			Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+				@Override
+				public void run() {
+					runningMigration = null;
+				}
+			});
+		}
+	}
+
+	// Adds the saves that need converting in the file or folder to the list.
+	final void findOldSaves(File file, List<File> saves) {
+		if (file.isDirectory()) {
+			if (new File(file, Rollback.TILE_INDEX).exists() || new File(file, "index.dat").exists()) {
+				// A distributed save, so its tiles don't need to be checked.
+				saves.add(file);
+			} else if (!file.toPath().equals(backupFolder)) {
+				File[] files = file.listFiles();
+				if (files != null)
+					for (File child : files)
+						findOldSaves(child, saves);
+			}
+		} else if (file.getName().endsWith(".dat") && !savesInUse.contains(file.getAbsolutePath())) {
+			try (InputStream in = new FileInputStream(file)) {
+				int version = in.read();
+				if (version >= 0 && version < RollbackOperation.VERSION)
+					saves.add(file);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Re-writes an old single file save in the current format.
+	final void migrateFile(File file) throws IOException {
+		RegionData region = RegionData.read(file);
+		Path temp = writeTemp(region, file);
+
+		// Backs it up before replacing it so the save always exists.
+		Files.createDirectories(backupFolder);
+		Files.copy(file.toPath(), backupFolder.resolve(backupName(file)));
+		FileUtilities.replaceFile(temp, file.toPath());
+	}
+
+	// Joins the tiles of a distributed save into one file in the current format.
+	final void migrateDistributed(File folder) throws IOException {
+		File file = new File(folder.getPath() + ".dat");
+		if (savesInUse.contains(file.getAbsolutePath())) {
+			throw new IOException(file.getPath() + " is being copied to.");
+		}
+
+		List<int[]> tiles = Rollback.readTileIndex(folder);
+		List<RegionData> tileRegions = new ArrayList<RegionData>(tiles.size());
+		int sizeX = 0;
+		int sizeY = 0;
+		int sizeZ = 0;
+
+		// Reads all of the tiles first since the size of the region is only known from them.
+		for (int[] tile : tiles) {
+			File tileFile = new File(folder, tile[0] + ".dat");
+			if (!tileFile.exists()) {
+				// Older versions saved the tiles without the extension.
+				tileFile = new File(folder, Integer.toString(tile[0]));
+			}
+			RegionData tileRegion = RegionData.read(tileFile);
+			tileRegions.add(tileRegion);
+			sizeX = Math.max(sizeX, tile[1] + tileRegion.sizeX);
+			sizeY = Math.max(sizeY, tile[2] + tileRegion.sizeY);
+			sizeZ = Math.max(sizeZ, tile[3] + tileRegion.sizeZ);
+		}
+
+		RegionData region = new RegionData(sizeX, sizeY, sizeZ);
+		for (int i = 0; i < tiles.size(); i++) {
+			int[] tile = tiles.get(i);
+			region.put(tileRegions.get(i), tile[1], tile[2], tile[3]);
+		}
+		tileRegions.clear();
+
+		Path temp = writeTemp(region, file);
+		// Once the file is in place, rollbacks use it instead of the folder.
+		FileUtilities.replaceFile(temp, file.toPath());
+		Files.createDirectories(backupFolder);
+		Files.move(folder.toPath(), backupFolder.resolve(backupName(folder)));
+	}
+
+	// Writes the region to a temporary file next to the save it will replace.
+	private final Path writeTemp(RegionData region, File save) throws IOException {
+		File temp = new File(save.getPath() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+			region.write(out);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		return temp.toPath();
+	}
+
+	// The name of the backup, with the time so that backups never replace each other.
+	private final String backupName(File save) {
+		return save.getName() + "." + new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()) + ".bak";
+	}
+
+	// Sends the message on the main thread.
+	private final void message(String message) {
+		if (sender != null)
+			Bukkit.getScheduler().runTask(Main.plugin, new DelayedMessage(prefix + message, sender));
+	}
+
+	/**
+	 * @return The number of saves found that need converting.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return The number of saves that were converted.
+	 */
+	public int getMigrated() {
+		return migrated;
+	}
+
+	/**
+	 * @return The number of saves that could not be converted.
+	 */
+	public int getFailed() {
+		return failed;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a save in the current format. The blocks have to be written in the order of a
+ * {@link ColumnIndex.Cursor}, and {@link #endColumn()} has to be called after the last block of
+ * each column. Keeps track of where each column starts so the positions can be written at the end.
+ *
+ * @author lizardfreak321
+ */
+class SaveWriter extends FilterOutputStream {
+	final ColumnIndex index;			// The columns of the save.
+	final BlockEncoder encoder;			// Used to write the blocks of the current column.
+	private final long[] positions;		// Where each column starts, and where the positions start.
+	private long position = 0;			// The number of bytes written.
+	private int column = 0;				// The column being written.
+
+	/**
+	 * Writes the header of the save.
+	 *
+	 * @param out
+	 *            The stream of the new file.
+	 * @param index
+	 *            The columns of the region, which must not be a whole older save.
+	 * @throws IOException
+	 */
+	SaveWriter(OutputStream out, ColumnIndex index) throws IOException {
+		super(out);
+		this.index = index;
+		this.encoder = new BlockEncoder(this);
+		this.positions = new long[index.getColumns() + 1];
+		BlockEncoder.writeHeader(this, index);
+		positions[0] = position;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		position++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		position += len;
+	}
+
+	/**
+	 * Adds the next block to the current column.
+	 *
+	 * @see BlockEncoder#writeBlock(int, int, String[])
+	 */
+	final void writeBlock(int id, int data, String[] lines) throws IOException {
+		encoder.writeBlock(id, data, lines);
+	}
+
+	/**
+	 * Finishes the current column. The next block starts the next column.
+	 */
+	final void endColumn() throws IOException {
+		encoder.finish();
+		positions[++column] = position;
+	}
+
+	/**
+	 * Adds a column that was already encoded, like one copied from an older version of the save.
+	 * Ends it too, so it must not be mixed with {@link #writeBlock(int, int, String[])}.
+	 *
+	 * @param bytes
+	 *            The encoded column.
+	 * @param length
+	 *            The number of bytes to write.
+	 */
+	final void writeColumn(byte[] bytes, int length) throws IOException {
+		write(bytes, 0, length);
+		positions[++column] = position;
+	}
+
+	/**
+	 * @return The index of the column being written.
+	 */
+	final int getColumn() {
+		return column;
+	}
+
+	/**
+	 * Writes the positions of the columns after the last column. Does not close the stream.
+	 *
+	 * @throws IOException
+	 *             If it fails, or if not every column was written.
+	 */
+	final void finish() throws IOException {
+		if (column != index.getColumns())
+			throw new IOException("Only " + column + " of " + index.getColumns() + " columns were written.");
+		for (long columnPosition : positions) {
+			if (columnPosition > Integer.MAX_VALUE)
+				throw new IOException("The save is too large.");
+			FileUtilities.writeInt(this, (int) columnPosition);
+		}
+		flush();
+	}
+}
@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Keeps every different 16x16x16 section of the copied regions once, in files named after the
+ * SHA-1 hash of their content. When it is enabled in the config, a save is a manifest that lists
+ * the hash of each of its sections instead of containing the blocks, so arenas copied from the same
+ * template share most of their files.
+ *
+ * It also remembers which section was last pasted at each location, so a paste can skip the
+ * sections that are already in the world. That is forgotten for a chunk as soon as a block in it
+ * changes.
+ *
+ * @see Config#sectionStore
+ * @author lizardfreak321
+ */
+public final class SectionStore {
+	static final int HEIGHT = 16;			// The height of a section. They are as wide as their column.
+	static final int MANIFEST = 'M';		// The first byte of a manifest, where saves have their version.
+	static final int HASH_BYTES = 20;		// The length of a SHA-1 hash.
+	static final int SECTION_HEADER = 3;	// The size of the section at the start of its file.
+	// Added to the first size byte of sections saved one layer at a time, so a section never has
+	// the same hash as a section of a version 2 save with the same bytes in the other order.
+	static final int LAYERED = 0x80;
+	// Added to the first size byte of sections encoded by the BlockCodec, since version 5. Sections
+	// of older saves can be reused by newer ones, so each section says how it is read.
+	static final int VARINTS = 0x40;
+
+	// The hash of the section last pasted at each location, by world, then chunk, then the min
+	// corner of the section. Only used on the main thread.
+	private static final Map<String, Map<Long, Map<Long, String>>> pasted =
+			new HashMap<String, Map<Long, Map<Long, String>>>();
+
+	/**
+	 * The sections of a save.
+	 */
+	static final class Manifest {
+		final int[] simpleBlocks;	// The blocks that were saved without data.
+		final ColumnIndex index;	// The columns of the region.
+		final String[] hashes;		// The sections, one column after another, from the bottom up.
+
+		Manifest(int[] simpleBlocks, ColumnIndex index, String[] hashes) {
+			this.simpleBlocks = simpleBlocks;
+			this.index = index;
+			this.hashes = hashes;
+		}
+	}
+
+	private SectionStore() {
+	}
+
+	/**
+	 * @return The folder the sections are stored in.
+	 */
+	static final File getFolder() {
+		return new File(Main.savesPath.toFile(), "sections");
+	}
+
+	private static final File getFile(String hash) {
+		return new File(new File(getFolder(), hash.substring(0, 2)), hash + ".sec");
+	}
+
+	/**
+	 * Hashes an encoded section, which is what it is stored under.
+	 *
+	 * @param bytes
+	 *            The section, starting with its size.
+	 * @param length
+	 *            The number of bytes to hash.
+	 * @return The hash as hexadecimal.
+	 */
+	static final String hash(byte[] bytes, int length) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support it.
+			throw new IllegalStateException(e);
+		}
+		digest.update(bytes, 0, length);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Adds a section to the store if it isn't in it yet. Safe to call from any thread.
+	 *
+	 * @param hash
+	 *            The hash of the section, from {@link #hash(byte[], int)}.
+	 * @param bytes
+	 *            The section, starting with its size.
+	 * @param length
+	 *            The number of bytes in the section.
+	 * @return If it was new.
+	 * @throws IOException
+	 */
+	static final boolean store(String hash, byte[] bytes, int length) throws IOException {
+		File file = getFile(hash);
+		if (file.exists()) {
+			// Marks it as in use, so a prune that is running doesn't delete it.
+			file.setLastModified(System.currentTimeMillis());
+			return false;
+		}
+		File folder = file.getParentFile();
+		folder.mkdirs();
+		// Written to a temporary file first, so a section is never seen half written.
+		File temp = File.createTempFile(hash, ".tmp", folder);
+		try {
+			try (OutputStream out = new FileOutputStream(temp)) {
+				out.write(bytes, 0, length);
+			}
+			FileUtilities.replaceFile(temp.toPath(), file.toPath());
+		} finally {
+			temp.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a section from the store.
+	 *
+	 * @return The section, starting with its size.
+	 * @throws IOException
+	 *             If it can't be read or is missing from the store.
+	 */
+	static final byte[] load(String hash) throws IOException {
+		File file = getFile(hash);
+		if (!file.exists())
+			throw new IOException("Section " + hash + " is missing from " + getFolder().getPath());
+		return Files.readAllBytes(file.toPath());
+	}
+
+	/**
+	 * @return If the file is a manifest instead of a save that contains its blocks.
+	 */
+	static final boolean isManifest(File file) {
+		try (InputStream in = new FileInputStream(file)) {
+			return in.read() == MANIFEST;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a manifest. It starts with the same header as a save of the current version.
+	 */
+	static final void writeManifest(File file, Manifest manifest) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			out.write(MANIFEST);
+			BlockEncoder.writeHeader(out, manifest.index);
+			for (String hash : manifest.hashes) {
+				for (int i = 0; i < HASH_BYTES; i++)
+					out.write(Integer.parseInt(hash.substring(i * 2, i * 2 + 2), 16));
+			}
+		}
+	}
+
+	static final Manifest readManifest(File file) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return readManifest(in, file.getPath());
+		}
+	}
+
+	/**
+	 * Reads a manifest from a stream.
+	 *
+	 * @param in
+	 *            The stream, at the start of the manifest.
+	 * @param name
+	 *            The name of the file, used in the error messages.
+	 * @return The manifest, or null if it was written by a newer version.
+	 * @throws IOException
+	 *             If it isn't a manifest or it is cut off.
+	 */
+	static final Manifest readManifest(InputStream in, String name) throws IOException {
+		if (in.read() != MANIFEST)
+			throw new IOException(name + " is not a section manifest.");
+		BlockDecoder.Header header = BlockDecoder.readHeader(in);
+		if (header == null || header.index.whole)
+			return null;
+		ColumnIndex index = header.index;
+		String[] hashes = new String[index.getColumns() * index.sections(HEIGHT)];
+		byte[] hash = new byte[HASH_BYTES];
+		for (int i = 0; i < hashes.length; i++) {
+			int read = 0;
+			while (read < HASH_BYTES) {
+				int count = in.read(hash, read, HASH_BYTES - read);
+				if (count < 0)
+					throw new EOFException(name + " ended early.");
+				read += count;
+			}
+			hashes[i] = toHex(hash);
+		}
+		return new Manifest(header.simpleBlocks, index, hashes);
+	}
+
+	private static final String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return If that section is what was last pasted with its min corner there, and no block in
+	 *         its chunk changed since.
+	 */
+	static final boolean wasPasted(World world, int x, int y, int z, String hash) {
+		Map<Long, Map<Long, String>> chunks = pasted.get(world.getName());
+		if (chunks == null)
+			return false;
+		Map<Long, String> sections = chunks.get(Utilities.chunkKey(x >> 4, z >> 4));
+		return sections != null && hash.equals(sections.get(Utilities.blockKey(x, y, z)));
+	}
+
+	/**
+	 * Records the section that was pasted with its min corner there. The section must be inside
+	 * that chunk. A null hash forgets what was there, for when a section starts being pasted.
+	 */
+	static final void setPasted(World world, int x, int y, int z, String hash) {
+		Map<Long, Map<Long, String>> chunks = pasted.get(world.getName());
+		if (chunks == null) {
+			if (hash == null)
+				return;
+			chunks = new HashMap<Long, Map<Long, String>>();
+			pasted.put(world.getName(), chunks);
+		}
+		long chunk = Utilities.chunkKey(x >> 4, z >> 4);
+		Map<Long, String> sections = chunks.get(chunk);
+		if (sections == null) {
+			if (hash == null)
+				return;
+			sections = new HashMap<Long, String>();
+			chunks.put(chunk, sections);
+		}
+		if (hash == null)
+			sections.remove(Utilities.blockKey(x, y, z));
+		else
+			sections.put(Utilities.blockKey(x, y, z), hash);
+	}
+
+	/**
+	 * Forgets the sections pasted in the chunk of a block that changed.
+	 */
+	static final void blockChanged(World world, int x, int z) {
+		if (pasted.isEmpty())
+			return;
+		Map<Long, Map<Long, String>> chunks = pasted.get(world.getName());
+		if (chunks != null)
+			chunks.remove(Utilities.chunkKey(x >> 4, z >> 4));
+	}
+
+	/**
+	 * Forgets the sections pasted in the chunks that overlap an area, for when it changes without
+	 * events.
+	 *
+	 * @param world
+	 *            The name of the world, which doesn't have to be loaded.
+	 */
+	static final void areaChanged(String world, int minX, int minZ, int maxX, int maxZ) {
+		if (pasted.isEmpty())
+			return;
+		Map<Long, Map<Long, String>> chunks = pasted.get(world);
+		if (chunks == null)
+			return;
+		Iterator<Long> iterator = chunks.keySet().iterator();
+		while (iterator.hasNext()) {
+			long key = iterator.next();
+			int chunkX = Utilities.chunkKeyX(key);
+			int chunkZ = Utilities.chunkKeyZ(key);
+			if (chunkX >= minX >> 4 && chunkX <= maxX >> 4 && chunkZ >= minZ >> 4 && chunkZ <= maxZ >> 4)
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * Deletes the sections that no manifest in the saves folder uses, on a worker thread. Manifests
+	 * saved somewhere else lose their sections.
+	 *
+	 * @param sender
+	 *            Told how much was deleted. Can be null.
+	 * @param prefix
+	 *            The prefix of the messages.
+	 * @return False if it can't start because copies are running, since they may be using sections
+	 *         their manifest doesn't list yet.
+	 */
+	static final boolean prune(final CommandSender sender, final String prefix) {
+		if (!Copy.runningCopies.isEmpty())
+			return false;
+		final long startTime = System.currentTimeMillis();
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				String message;
+				try {
+					Set<String> used = new HashSet<String>();
+					findUsedSections(Main.savesPath.toFile(), used);
+					int deleted = 0;
+					long bytes = 0;
+					File[] folders = getFolder().listFiles();
+					if (folders != null) {
+						for (File folder : folders) {
+							File[] files = folder.listFiles();
+							if (files == null)
+								continue;
+							for (File file : files) {
+								String name = file.getName();
+								// Sections stored or reused since the prune started might not be in a
+								// manifest yet.
+								if (name.endsWith(".sec") && !used.contains(name.substring(0, name.length() - 4))
+										&& file.lastModified() < startTime) {
+									long length = file.length();
+									if (file.delete()) {
+										deleted++;
+										bytes += length;
+									}
+								}
+							}
+						}
+					}
+					message = prefix + "Deleted " + deleted + " unused sections (" + bytes / 1024 + " KB). "
+							+ used.size() + " sections are in use.";
+				} catch (IOException e) {
+					e.printStackTrace();
+					message = prefix + "Failed pruning the sections: " + e.getMessage();
+				}
+				if (sender != null)
+					Bukkit.getScheduler().runTask(Main.plugin, new DelayedMessage(message, sender));
+			}
+		});
+		return true;
+	}
+
+	private static final void findUsedSections(File folder, Set<String> used) throws IOException {
+		File[] files = folder.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.isDirectory()) {
+				if (!file.equals(getFolder()))
+					findUsedSections(file, used);
+			} else if (isManifest(file)) {
+				Manifest manifest = readManifest(file);
+				if (manifest == null)
+					throw new IOException(file.getPath() + " is from a newer version.");
+				for (String hash : manifest.hashes)
+					used.add(hash);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+
+/**
+ * Keeps the performance statistics of the running operations, the most recent finished ones, and
+ * the totals of every type since the last reset.
+ * 
+ * @see OperationStats
+ * @author lizardfreak321
+ */
+public final class Statistics {
+	private static final int RECENT_SIZE = 20;	// How many finished operations are kept.
+
+	private static final List<OperationStats> running = new ArrayList<OperationStats>();
+	private static final LinkedList<OperationStats> recent = new LinkedList<OperationStats>();
+	private static final Map<OperationStats.Type, OperationStats> totals = new EnumMap<OperationStats.Type, OperationStats>(
+			OperationStats.Type.class);
+	private static long resetTime = System.currentTimeMillis();
+
+	static {
+		reset();
+	}
+
+	private Statistics() {
+	}
+
+	/**
+	 * Starts tracking an operation.
+	 * 
+	 * @param type
+	 *            The type of the operation.
+	 * @param name
+	 *            What it works on, like the file name.
+	 * @return The stats the operation should update.
+	 */
+	static synchronized final OperationStats start(OperationStats.Type type, String name) {
+		OperationStats stats = new OperationStats(type, name == null ? "" : name);
+		running.add(stats);
+		return stats;
+	}
+
+	/**
+	 * Stops tracking an operation without adding it to the totals, like when it has to wait before
+	 * it can start.
+	 */
+	static synchronized final void discard(OperationStats stats) {
+		running.remove(stats);
+	}
+
+	/**
+	 * Stops tracking an operation and adds it to the totals. Does nothing if it already ended.
+	 */
+	static synchronized final void end(OperationStats stats, EndStatus endStatus) {
+		if (stats == null || !running.remove(stats))
+			return;
+		stats.end(endStatus);
+		recent.addFirst(stats);
+		if (recent.size() > RECENT_SIZE)
+			recent.removeLast();
+		totals.get(stats.getType()).add(stats);
+	}
+
+	/**
+	 * @return The stats of every running operation.
+	 */
+	public static synchronized final List<OperationStats> getRunning() {
+		return new ArrayList<OperationStats>(running);
+	}
+
+	/**
+	 * @return The stats of the most recent finished operations, newest first.
+	 */
+	public static synchronized final List<OperationStats> getRecent() {
+		return new ArrayList<OperationStats>(recent);
+	}
+
+	/**
+	 * @param type
+	 *            The type of operation.
+	 * @return The totals of every finished operation of the type since the last reset.
+	 */
+	public static synchronized final OperationStats getTotals(OperationStats.Type type) {
+		return totals.get(type);
+	}
+
+	/**
+	 * @return When the totals were last reset, in milliseconds since the epoch.
+	 */
+	public static synchronized final long getResetTime() {
+		return resetTime;
+	}
+
+	/**
+	 * Clears the totals and the finished operations. Running operations are still tracked.
+	 */
+	public static synchronized final void reset() {
+		recent.clear();
+		for (OperationStats.Type type : OperationStats.Type.values())
+			totals.put(type, new OperationStats(type, null));
+		resetTime = System.currentTimeMillis();
+	}
+}
@@ -26,7 +26,7 @@ public class TaskManager {
 	static int getNumTasks() {
 		return Copy.runningCopies.size() + Paste.runningPastes.size()
 			+ ClearEntities.runningClears.size() + WatchDogRegion.rollbackingWatchDogs.size()
-			+ ImportOperation.runningImports.size();
+			+ ImportOperation.runningImports.size() + ArenaWatchDogs.runningRestores.size();
 	}
 
 	/**
@@ -47,8 +47,12 @@ public class TaskManager {
 
 	public static int cancelAllTasks() {
 		int totalCanceledTasks = 0;
+		// First, so the operations that end next don't start the ones that wait for them.
+		totalCanceledTasks += OperationAreas.cancelQueued();
+		totalCanceledTasks += ArenaWatchDogs.cancelAll();
 		totalCanceledTasks += WatchDogRegion.cancelAll();
 		totalCanceledTasks += Copy.cancelAll();
+		totalCanceledTasks += TemplatePaste.cancelAll();
 		totalCanceledTasks += Paste.cancelAll();
 		return totalCanceledTasks;
 	}
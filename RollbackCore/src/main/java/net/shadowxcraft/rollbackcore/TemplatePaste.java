@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import net.shadowxcraft.rollbackcore.events.EndStatus;
+import net.shadowxcraft.rollbackcore.events.PasteEndEvent;
+
+/**
+ * Pastes one save at several places, like the instances of an arena that are all reset after a
+ * round. The save is read and decoded once, off the main thread, and the blocks are shared by every
+ * target. The targets are then pasted one after the other by a single task. Each target is its own
+ * {@link Paste}, so a PasteEndEvent is called for each one as soon as it is done.
+ * 
+ * @see PasteEndEvent
+ * @see Rollback#pasteTemplate
+ * @author lizardfreak321
+ */
+public class TemplatePaste implements Runnable {
+	static final List<TemplatePaste> runningTemplates = new ArrayList<TemplatePaste>();
+	private final String fileName;			// The path of the save.
+	private final int targets;				// The number of targets in total.
+	// The targets that have not been started yet.
+	private final LinkedList<Paste> waitingTargets = new LinkedList<Paste>();
+	// The world save settings from before any of the targets disabled them, restored at the end.
+	private final Map<World, Boolean> originalWorldSaveSettings = new HashMap<World, Boolean>();
+	public final CommandSender sender;		// The optional sender of messages.
+	public final String prefix;				// The prefix used by messages.
+	private DecodedSave decoded = null;		// The blocks of the save, null until it is decoded.
+	private Paste current = null;			// The target being pasted.
+	private int finishedTargets = 0;		// The number of targets that ended.
+	private int taskID = -1;				// The ID of the task that pastes the targets.
+	private boolean ended = false;
+	ArenaPool pool = null;					// The pool whose slots this resets, if it is one.
+
+	TemplatePaste(String fileName, List<Location> origins, CommandSender sender, boolean clearEntities,
+			boolean ignoreAir, String prefix) {
+		for (Location origin : origins) {
+			if (!originalWorldSaveSettings.containsKey(origin.getWorld()))
+				originalWorldSaveSettings.put(origin.getWorld(), origin.getWorld().isAutoSave());
+			Paste target = new Paste(origin, fileName, sender, clearEntities, ignoreAir, prefix);
+			target.template = this;
+			waitingTargets.add(target);
+			// The paste adds the folder and extension if they were left out.
+			fileName = target.getFileName();
+		}
+		this.fileName = fileName;
+		this.targets = origins.size();
+		this.sender = sender;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Decodes the save asynchronously, and then starts pasting the targets.
+	 */
+	final void start() {
+		runningTemplates.add(this);
+		if (waitingTargets.isEmpty()) {
+			end();
+			return;
+		}
+		final File file = new File(fileName);
+		if (!file.exists()) {
+			Main.plugin.getLogger().info("Could not find file " + file.getAbsolutePath());
+			endWaitingTargets(EndStatus.FAIL_NO_SUCH_FILE);
+			end();
+			return;
+		}
+
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				DecodedSave save = null;
+				EndStatus status;
+				try {
+					save = DecodedSave.read(file);
+					status = save == null ? EndStatus.FAIL_INCOMPATIBLE_VERSION : EndStatus.SUCCESS;
+				} catch (EOFException e) {
+					status = EndStatus.FILE_END_EARLY;
+				} catch (IOException e) {
+					e.printStackTrace();
+					status = EndStatus.FAIL_IO_ERROR;
+				}
+				final DecodedSave result = save;
+				final EndStatus resultStatus = status;
+				Bukkit.getScheduler().runTask(Main.plugin, new Runnable() {
+					@Override
+					public void run() {
+						decoded(result, resultStatus);
+					}
+				});
+			}
+		});
+	}
+
+	// Called on the main thread once the save is decoded.
+	private final void decoded(DecodedSave save, EndStatus status) {
+		if (ended)
+			return;
+		if (status != EndStatus.SUCCESS) {
+			endWaitingTargets(status);
+			end();
+			return;
+		}
+		decoded = save;
+		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Main.plugin, this, 1, 1);
+	}
+
+	/**
+	 * Pastes the current target for this tick, or starts the next one.
+	 */
+	@Override
+	public void run() {
+		if (current == null) {
+			if (waitingTargets.isEmpty()) {
+				end();
+				return;
+			}
+			current = waitingTargets.removeFirst();
+			current.decoded = decoded;
+			// Each target restores the setting when it ends, so it is disabled again for the next.
+			current.getMin().getWorld().setAutoSave(false);
+			// Ends right away if it can't start.
+			current.run();
+		} else if (current.pasteTask != null) {
+			// Not started yet while it waits for an operation it overlaps.
+			current.pasteTask.run();
+		}
+	}
+
+	/**
+	 * Called by the targets when they end.
+	 * 
+	 * @param target
+	 *            The target that ended.
+	 * @param status
+	 *            How the target ended.
+	 */
+	final void targetEnded(Paste target, EndStatus status) {
+		finishedTargets++;
+		if (target == current)
+			current = null;
+		if (pool != null)
+			pool.targetEnded(target, status);
+		// Canceling one target cancels the ones after it too.
+		if (status == EndStatus.FAIL_EXERNAL_TERMONATION && !ended) {
+			endWaitingTargets(status);
+			end();
+		}
+	}
+
+	// Ends the targets that didn't start.
+	private final void endWaitingTargets(EndStatus status) {
+		while (!waitingTargets.isEmpty()) {
+			Paste target = waitingTargets.removeFirst();
+			// It never started, so no time was taken.
+			target.startPasteTime = System.nanoTime();
+			target.end(status);
+		}
+	}
+
+	private final void end() {
+		if (ended)
+			return;
+		ended = true;
+		Bukkit.getScheduler().cancelTask(taskID);
+		taskID = -1;
+		runningTemplates.remove(this);
+		decoded = null;
+		for (Map.Entry<World, Boolean> setting : originalWorldSaveSettings.entrySet())
+			setting.getKey().setAutoSave(setting.getValue());
+		if (pool != null)
+			pool.resetEnded();
+	}
+
+	/**
+	 * Cancels every running template paste, along with the targets they didn't paste yet.
+	 * 
+	 * @return The number of targets that were canceled.
+	 */
+	public static final int cancelAll() {
+		int canceled = 0;
+		// Copies the list since ending an operation removes it from the list.
+		for (TemplatePaste template : new ArrayList<TemplatePaste>(runningTemplates)) {
+			canceled += template.waitingTargets.size();
+			if (template.current != null) {
+				canceled++;
+				template.current.end(EndStatus.FAIL_EXERNAL_TERMONATION);
+			} else {
+				template.endWaitingTargets(EndStatus.FAIL_EXERNAL_TERMONATION);
+				template.end();
+			}
+		}
+		return canceled;
+	}
+
+	/**
+	 * @return The path of the save that is pasted.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return The number of places the save is pasted at.
+	 */
+	public int getTargets() {
+		return targets;
+	}
+
+	/**
+	 * @return The number of targets that have not started yet.
+	 */
+	public int getWaitingTargets() {
+		return waitingTargets.size();
+	}
+
+	/**
+	 * @return The number of targets that ended.
+	 */
+	public int getFinishedTargets() {
+		return finishedTargets;
+	}
+
+	/**
+	 * @return If the save was decoded and the targets are being pasted.
+	 */
+	public boolean isDecoded() {
+		return decoded != null;
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Records what every operation does in each tick into a ring buffer, and writes it as a Chrome
+ * trace-event file that can be opened with chrome://tracing or https://ui.perfetto.dev. Each
+ * operation gets its own row, with one span for every tick it ran in and one for work done on a
+ * worker thread. Tracing is off until it is started, and costs nothing while off.
+ *
+ * @see OperationStats
+ * @author lizardfreak321
+ */
+public final class Tracer {
+	private static final int TICK_ROW = 0;	// The row the server ticks are shown on.
+
+	// The events in the buffer. Once it is full, the oldest event is replaced.
+	private static Span[] buffer = null;
+	private static int next = 0;			// Where the next event goes.
+	private static int size = 0;			// How many events are in the buffer.
+	private static volatile boolean enabled = false;
+	private static long startNanos;			// The nano-time the trace started at.
+	private static long startMillis;		// The same time, in milliseconds since the epoch.
+	private static long tick = 0;			// The server ticks since the trace started.
+	private static int tickTask = -1;		// The task marking the start of each tick.
+
+	// One event of the trace.
+	private static final class Span {
+		final OperationStats stats;			// The operation, null for ticks.
+		final long start;					// The nano-time the event started at.
+		final long duration;				// How long it lasted, -1 for instant events.
+		final long blocks;					// The blocks processed.
+		final long chunkLoads;				// The chunks loaded.
+		final long slowestIteration;		// The longest single iteration.
+		final long tick;					// The server tick it happened in.
+		final boolean async;				// If it ran on a worker thread.
+
+		Span(OperationStats stats, long start, long duration, long blocks, long chunkLoads,
+				long slowestIteration, long tick, boolean async) {
+			this.stats = stats;
+			this.start = start;
+			this.duration = duration;
+			this.blocks = blocks;
+			this.chunkLoads = chunkLoads;
+			this.slowestIteration = slowestIteration;
+			this.tick = tick;
+			this.async = async;
+		}
+	}
+
+	private Tracer() {
+	}
+
+	/**
+	 * Starts recording, clearing anything recorded before. Must be called on the main thread.
+	 *
+	 * @return False if it was already recording.
+	 */
+	public static synchronized final boolean start() {
+		if (enabled)
+			return false;
+		buffer = new Span[Config.traceBufferSize];
+		next = 0;
+		size = 0;
+		tick = 0;
+		startNanos = System.nanoTime();
+		startMillis = System.currentTimeMillis();
+		tickTask = Bukkit.getScheduler().scheduleSyncRepeatingTask(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				synchronized (Tracer.class) {
+					tick++;
+					add(new Span(null, System.nanoTime(), -1, 0, 0, 0, tick, false));
+				}
+			}
+		}, 0, 1);
+		enabled = true;
+		return true;
+	}
+
+	/**
+	 * Stops recording. What was recorded is kept until the next start, so it can still be dumped.
+	 *
+	 * @return False if it was not recording.
+	 */
+	public static synchronized final boolean stop() {
+		if (!enabled)
+			return false;
+		enabled = false;
+		if (tickTask != -1) {
+			Bukkit.getScheduler().cancelTask(tickTask);
+			tickTask = -1;
+		}
+		return true;
+	}
+
+	/**
+	 * @return If it is recording.
+	 */
+	public static final boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The number of events that would be dumped.
+	 */
+	public static synchronized final int getSize() {
+		return size;
+	}
+
+	// Records the work an operation did in one tick. Called by OperationStats.
+	static synchronized final void tickSpan(OperationStats stats, long start, long duration, long blocks,
+			long chunkLoads, long slowestIteration) {
+		if (enabled)
+			add(new Span(stats, start, duration, blocks, chunkLoads, slowestIteration, tick, false));
+	}
+
+	// Records work done on a worker thread. Called by OperationStats.
+	static synchronized final void asyncSpan(OperationStats stats, long start, long duration, long blocks) {
+		if (enabled)
+			add(new Span(stats, start, duration, blocks, 0, 0, tick, true));
+	}
+
+	private static final void add(Span span) {
+		buffer[next] = span;
+		next = (next + 1) % buffer.length;
+		if (size < buffer.length)
+			size++;
+	}
+
+	/**
+	 * Writes the recorded events to a new file in the traces folder of the plugin. The file is
+	 * written off the main thread.
+	 *
+	 * @param sender
+	 *            Told where the file is once it is written, or why it failed. Can be null.
+	 * @param prefix
+	 *            The prefix of the messages.
+	 * @return False if nothing has been recorded.
+	 */
+	public static final boolean dump(final CommandSender sender, final String prefix) {
+		final Span[] spans;
+		final long traceStart;
+		synchronized (Tracer.class) {
+			if (size == 0)
+				return false;
+			// Copies the events oldest first, so recording can go on while the file is written.
+			spans = new Span[size];
+			int first = (next - size + buffer.length) % buffer.length;
+			for (int i = 0; i < size; i++)
+				spans[i] = buffer[(first + i) % buffer.length];
+			traceStart = startNanos;
+		}
+		File folder = new File(Main.plugin.getDataFolder(), "traces");
+		final File file = new File(folder, "trace-" + new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date())
+				+ ".json");
+		final long traceStartMillis = startMillis;
+
+		Bukkit.getScheduler().runTaskAsynchronously(Main.plugin, new Runnable() {
+			@Override
+			public void run() {
+				String message;
+				try {
+					file.getParentFile().mkdirs();
+					write(file, spans, traceStart, traceStartMillis);
+					message = prefix + "Wrote " + spans.length + " trace events to " + file.getPath();
+				} catch (IOException e) {
+					e.printStackTrace();
+					message = prefix + "Failed writing the trace: " + e.getMessage();
+				}
+				if (sender != null)
+					Bukkit.getScheduler().runTask(Main.plugin, new DelayedMessage(message, sender));
+			}
+		});
+		return true;
+	}
+
+	// Writes the events in the Chrome trace-event format. Times are in microseconds.
+	private static final void write(File file, Span[] spans, long traceStart, long traceStartMillis)
+			throws IOException {
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.write("{\"displayTimeUnit\":\"ms\",\"otherData\":{\"startTime\":\"");
+			out.write(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(traceStartMillis)));
+			out.write("\"},\"traceEvents\":[\n");
+			out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"RollbackCore\"}}");
+			out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + TICK_ROW
+					+ ",\"args\":{\"name\":\"Server ticks\"}}");
+
+			// Names the row of each operation the first time it shows up.
+			Map<Integer, Boolean> named = new HashMap<Integer, Boolean>();
+			for (Span span : spans) {
+				out.write(",\n");
+				if (span.stats == null) {
+					out.write("{\"name\":\"Tick " + span.tick + "\",\"cat\":\"tick\",\"ph\":\"i\",\"s\":\"g\",\"ts\":"
+							+ micros(span.start - traceStart) + ",\"pid\":1,\"tid\":" + TICK_ROW + "}");
+					continue;
+				}
+				OperationStats stats = span.stats;
+				if (named.put(stats.id, Boolean.TRUE) == null) {
+					out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + stats.id
+							+ ",\"args\":{\"name\":\"" + escape(stats.getType() + " " + stats.getName()) + "\"}},\n");
+				}
+				out.write("{\"name\":\"" + (span.async ? "async " : "") + stats.getType() + "\",\"cat\":\""
+						+ (span.async ? "async" : "tick") + "\",\"ph\":\"X\",\"ts\":" + micros(span.start - traceStart)
+						+ ",\"dur\":" + micros(span.duration) + ",\"pid\":1,\"tid\":" + stats.id
+						+ ",\"args\":{\"operation\":\"" + escape(stats.getName()) + "\",\"blocks\":" + span.blocks
+						+ ",\"chunkLoads\":" + span.chunkLoads + ",\"slowestIterationUs\":"
+						+ micros(span.slowestIteration) + ",\"tick\":" + span.tick + "}}");
+			}
+			out.write("\n]}\n");
+		}
+	}
+
+	private static final String micros(long nanos) {
+		return String.valueOf(nanos / 1000.0);
+	}
+
+	// Escapes a string to be put in JSON quotes.
+	private static final String escape(String string) {
+		StringBuilder builder = new StringBuilder(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+}
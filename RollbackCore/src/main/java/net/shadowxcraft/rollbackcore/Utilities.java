@@ -41,4 +41,47 @@ public class Utilities {
 				&& z >= min.getBlockZ() && z <= max.getBlockZ() && loc.getWorld().equals(min.getWorld()));
 	}
 
+	/**
+	 * Packs the coordinates of a block into a single long so it can be used as a map key without
+	 * creating a Location.
+	 * 
+	 * @param x
+	 *            The X value of the block.
+	 * @param y
+	 *            The Y value of the block.
+	 * @param z
+	 *            The Z value of the block.
+	 * @return The key of the block.
+	 */
+	public final static long blockKey(int x, int y, int z) {
+		return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (y & 0xFFF);
+	}
+
+	/**
+	 * Packs the coordinates of a chunk into a single long so it can be used as a map key.
+	 * 
+	 * @param chunkX
+	 *            The X value of the chunk.
+	 * @param chunkZ
+	 *            The Z value of the chunk.
+	 * @return The key of the chunk.
+	 */
+	public final static long chunkKey(int chunkX, int chunkZ) {
+		return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return The X value of the chunk of a key from {@link #chunkKey(int, int)}.
+	 */
+	public final static int chunkKeyX(long key) {
+		return (int) (key >> 32);
+	}
+
+	/**
+	 * @return The Z value of the chunk of a key from {@link #chunkKey(int, int)}.
+	 */
+	public final static int chunkKeyZ(long key) {
+		return (int) key;
+	}
+
 }
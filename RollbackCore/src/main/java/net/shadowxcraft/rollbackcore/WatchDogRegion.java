@@ -72,10 +72,19 @@ public class WatchDogRegion {
 	static Set<WatchDogRegion> activeWatchDogs = new HashSet<WatchDogRegion>();
 	private Location min, max;						// The min and max of the region.
 	private int rollbackTask = -1;					// The task ID of the running operation.
+	private OperationStats rollbackStats = null;	// The statistics of the running rollback.
+	private OperationAreas.Area rollbackArea = null;// The area the running rollback claimed.
 	// Where it stores the blocks' data for later repair.
 	private Map<Location, BlockState> originalStates = new HashMap<Location, BlockState>();
 	private final boolean originalWorldSaveSetting; // The original world save setting of the world.
 	private final String prefix; 					// Used as the prefix in messages.
+	// The estimated RAM used per logged block. It isn't measured. On a 64-bit JVM with compressed
+	// pointers, the HashMap entry with its slot of the table takes about 40 bytes, the Location 48,
+	// and a CraftBlockState with its MaterialData about 72. That is 160, rounded up for the states
+	// of signs and containers, which are larger.
+	private static final int BYTES_PER_BLOCK = 200;
+	private int maxBlocks = 0;						// The most blocks it logs, 0 for no limit.
+	private boolean overflowed = false;				// If it stopped logging because it was full.
 
 	/**
 	 * This constructor creates a new temporary watchdog region for the variables specified.
@@ -123,6 +132,9 @@ public class WatchDogRegion {
 		for (WatchDogRegion wd : activeWatchDogs)
 			if (wd.rollbackTask != -1) {
 				Bukkit.getScheduler().cancelTask(wd.rollbackTask);
+				Statistics.end(wd.rollbackStats, EndStatus.FAIL_EXERNAL_TERMONATION);
+				OperationAreas.release(wd.rollbackArea);
+				wd.rollbackArea = null;
 				new WDRollbackEndEvent(wd, 0, 0, EndStatus.FAIL_EXERNAL_TERMONATION);
 				wd.min.getWorld().setAutoSave(wd.originalWorldSaveSetting);
 			}
@@ -138,6 +150,7 @@ public class WatchDogRegion {
 	 *            The blockState that should be saved.
 	 */
 	public final static void logBlock(BlockState state) {
+		ArenaChangeTracker.blockChanged(state.getWorld(), state.getX(), state.getZ());
 		for (WatchDogRegion watchDog : activeWatchDogs) {
 			if (watchDog.isInRegion(state.getLocation())) {
 				watchDog.addState(state, state.getLocation());
@@ -164,10 +177,52 @@ public class WatchDogRegion {
 	 *            The blockState that should be saved.
 	 */
 	protected final void addState(BlockState state, Location location) {
+		if (overflowed)
+			return;
 		if (!originalStates.containsKey(location)) {
+			if (maxBlocks > 0 && originalStates.size() >= maxBlocks) {
+				// What it logged is no longer enough to roll back, so the RAM is freed.
+				overflowed = true;
+				originalStates.clear();
+				return;
+			}
 			originalStates.put(location, state);
 		}
 	}
+
+	/**
+	 * Limits the number of blocks it logs. Once more blocks change, it forgets the logged blocks and
+	 * stops logging until it is reset.
+	 * 
+	 * @param maxBlocks
+	 *            The most blocks it logs, or 0 for no limit.
+	 */
+	public final void setMaxBlocks(int maxBlocks) {
+		this.maxBlocks = maxBlocks;
+	}
+
+	/**
+	 * @return If more blocks changed than the limit since it was last reset.
+	 */
+	public final boolean hasOverflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * @return The locations of the logged blocks. They are no longer logged after this.
+	 */
+	final List<Location> takeLoggedLocations() {
+		List<Location> locations = new ArrayList<Location>(originalStates.keySet());
+		originalStates.clear();
+		return locations;
+	}
+
+	/**
+	 * @return If it is logging changes, which stops when it is removed or canceled.
+	 */
+	final boolean isActive() {
+		return activeWatchDogs.contains(this);
+	}
 	
 	/**
 	 * @return the location of the minimum x, y, and z of the region.
@@ -176,6 +231,38 @@ public class WatchDogRegion {
 		return min;
 	}
 
+	/**
+	 * @return the location of the maximum x, y, and z of the region.
+	 */
+	public final Location getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The number of blocks that will be put back by a rollback.
+	 */
+	public final int getLoggedBlocks() {
+		return originalStates == null ? 0 : originalStates.size();
+	}
+
+	/**
+	 * A rough estimate of the RAM used by the logged blocks. Each one takes a map entry, a location
+	 * and a block state, which are counted as 200 bytes together. Nothing is measured, so the states
+	 * of containers with many items take more than that.
+	 * 
+	 * @return The estimated number of bytes.
+	 */
+	public final long getEstimatedMemory() {
+		return getLoggedBlocks() * (long) BYTES_PER_BLOCK;
+	}
+
+	/**
+	 * @return If the WatchDog is currently rolling back.
+	 */
+	public final boolean isRollingBack() {
+		return rollbackTask != -1;
+	}
+
 	/**
 	 * Used to check if the location is in the WatchDog's region.
 	 * 
@@ -311,6 +398,24 @@ public class WatchDogRegion {
 	 */
 	public final void rollBack(final CommandSender sender, final boolean clearEntities,
 			final boolean quickClearEntities) {
+		OperationAreas.Area claimed = null;
+		if (!this.originalStates.isEmpty()) {
+			// Waits for the operations it overlaps, and then rolls back what was logged by then.
+			claimed = OperationAreas.claim(min, max, true, new OperationAreas.Waiting() {
+				@Override
+				public void retry() {
+					rollBack(sender, clearEntities, quickClearEntities);
+				}
+
+				@Override
+				public void end(EndStatus status) {
+					new WDRollbackEndEvent(WatchDogRegion.this, 0, 0, status);
+				}
+			});
+			if (claimed == null)
+				return;
+		}
+		final OperationAreas.Area area = claimed;
 		final int size = originalStates.size();
 		final List<BlockState> originalStates = new ArrayList<BlockState>(this.originalStates.values());
 		this.originalStates.clear();
@@ -331,27 +436,46 @@ public class WatchDogRegion {
 		min.getWorld().setAutoSave(false);
 		if (size > 0) {
 			rollbackingWatchDogs.add(this);
+			final OperationStats stats = Statistics.start(OperationStats.Type.WATCHDOG_ROLLBACK,
+					min.getWorld().getName());
+			final ChunkRefresher refresher = new ChunkRefresher(min.getWorld());
+			stats.totalBlocks = size;
+			rollbackStats = stats;
+			rollbackArea = area;
 
 			rollbackTask = Main.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(Main.plugin,
 					new Runnable() {
 						int index = 0;
 						long tick = 0;
 
+						@SuppressWarnings("deprecation")
 						@Override
 						public void run() {
 							tick++;
 							long startTime = System.nanoTime();
+							long now = startTime;
+							stats.startTick();
 
 							while ((clearing == null || clearing.isDone()) && index < size
-									&& System.nanoTime() - startTime < TaskManager.getMaxTime() * 1000000) {
+									&& now - startTime < TaskManager.getMaxTime() * 1000000) {
+								BlockState state = originalStates.get(index);
+								stats.visit(state.getWorld(), state.getX(), state.getY(), state.getZ());
+								stats.blockId = state.getTypeId();
+								ArenaChangeTracker.blockChanged(state.getWorld(), state.getX(), state.getZ());
 								// The update puts it back to the way it was.
 								try {
-									originalStates.get(index).update(true, false);
+									state.update(true, false);
 								} catch (NoSuchMethodError e) {
-									originalStates.get(index).update(true);
+									state.update(true);
 								}
+								refresher.blockChanged(state.getX(), state.getZ());
+								stats.blocksVisited++;
+								stats.blocksChanged++;
 								index++;
+								now = System.nanoTime();
+								stats.iteration(now);
 							}
+							stats.endTick();
 
 							// Lets the user know how it is going.
 							if (sender != null && tick % 100 == 0) {
@@ -367,6 +491,11 @@ public class WatchDogRegion {
 								Bukkit.getScheduler().cancelTask(rollbackTask);
 								rollbackingWatchDogs.remove(WatchDogRegion.this);
 								rollbackTask = -1;
+								rollbackStats = null;
+								OperationAreas.release(area);
+								rollbackArea = null;
+								refresher.finish();
+								Statistics.end(stats, EndStatus.SUCCESS);
 								min.getWorld().setAutoSave(originalWorldSaveSetting);
 								if (sender != null) {
 									sender.sendMessage(prefix + "Done with rollback!");
@@ -479,7 +608,7 @@ public class WatchDogRegion {
 				exportedTo = new WatchDogRegion(min, max, prefix);
 			}
 			// Starts the operation.
-			new ImportOperation(in, min, world, exportedTo, sender);
+			new ImportOperation(in, file, min, world, exportedTo, sender);
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -501,6 +630,7 @@ public class WatchDogRegion {
 	 */
 	public final void reset() {
 		originalStates.clear();
+		overflowed = false;
 	}
 
 	public static boolean hasActiveRegion() {
@@ -538,9 +668,16 @@ class ImportOperation extends BukkitRunnable {
 	CommandSender sender;
 	long startTime = System.nanoTime();
 	int blocksImported = 0;
+	private final File file;		// The backup being imported.
+	private final OperationStats stats;
 
-	ImportOperation(InputStream in, Location min, World world, WatchDogRegion exportedTo, CommandSender sender) {
+	ImportOperation(InputStream in, File file, Location min, World world, WatchDogRegion exportedTo,
+			CommandSender sender) {
 		this.in = in;
+		this.file = file;
+		this.stats = Statistics.start(OperationStats.Type.WATCHDOG_IMPORT, file.getName());
+		// Every block takes 8 bytes, the header is small enough to not matter.
+		this.stats.totalBlocks = file.length() / 8;
 		blockLocation = new Location(world, 0, 0, 0);
 		this.min = min;
 		this.exportedTo = exportedTo;
@@ -549,30 +686,57 @@ class ImportOperation extends BukkitRunnable {
 		this.sender = sender;
 	}
 
+	/**
+	 * Reads one block of a backup.
+	 * 
+	 * @param in
+	 *            The stream of the backup, after the region.
+	 * @param entry
+	 *            Gets filled with the X, Y, and Z relative to the min of the region, then the ID and
+	 *            the data of the block.
+	 * @throws IOException
+	 */
+	static final void readEntry(InputStream in, int[] entry) throws IOException {
+		// Gets the X Y and Z from the file.
+		entry[0] = FileUtilities.readShort(in);
+		entry[1] = FileUtilities.readShort(in);
+		entry[2] = FileUtilities.readShort(in);
+		// Gets the data, stored in two bytes using bitwise operators.
+		int dataID = FileUtilities.readShort(in);
+		entry[3] = dataID >> 4;
+		entry[4] = dataID & 15;
+	}
+
 	@SuppressWarnings("deprecation")
 	@Override
 	public final void run() {
-		int tempDataID;
+		int[] entry = new int[5];
 		long time = System.nanoTime();
+		long now = time;
+		stats.startTick();
 		try {
 			// Loops until it runs out of stuff to import, or time.
-			while ((in.available() > 7) && ((System.nanoTime() - time) < TaskManager.getMaxTime() * 1000000)) {
-				// Gets the X Y and Z from the file.
-				blockLocation.setX(min.getX() + FileUtilities.readShort(in));
-				blockLocation.setY(min.getY() + FileUtilities.readShort(in));
-				blockLocation.setZ(min.getZ() + FileUtilities.readShort(in));
-				// Gets the data, stored in two bytes using bitwise operators.
-				tempDataID = FileUtilities.readShort(in);
+			while ((in.available() > 7) && ((now - time) < TaskManager.getMaxTime() * 1000000)) {
+				readEntry(in, entry);
+				blockLocation.setX(min.getX() + entry[0]);
+				blockLocation.setY(min.getY() + entry[1]);
+				blockLocation.setZ(min.getZ() + entry[2]);
+				stats.visit(blockLocation.getWorld(), blockLocation.getBlockX(), blockLocation.getBlockY(),
+						blockLocation.getBlockZ());
+				stats.blockId = entry[3];
+				stats.blocksVisited++;
 				// Gets the state at the location
 				state = blockLocation.getBlock().getState();
 				// Updates its type to what it is in the backup.
-				// The bitwise operators are used to properly read the compressed data.
-				state.setTypeId(tempDataID >> 4);
-				state.setRawData((byte) ((tempDataID) & 15));
+				state.setTypeId(entry[3]);
+				state.setRawData((byte) entry[4]);
 				// Adds it to the watchdog region.
 				exportedTo.addState(state, blockLocation);
 				blocksImported++;
+				now = System.nanoTime();
+				stats.iteration(now);
 			}
+			stats.endTick();
 			if (in.available() < 8) {
 				// Ends it once it finishes.
 				end(EndStatus.SUCCESS);
@@ -590,6 +754,9 @@ class ImportOperation extends BukkitRunnable {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		if (endStatus == EndStatus.SUCCESS)
+			stats.bytesRead = file.length();
+		Statistics.end(stats, endStatus);
 		new WDImportEndEvent(exportedTo, System.nanoTime() - startTime, blocksImported, endStatus, sender);
 		// Cancels the task because it is done.
 		this.cancel();
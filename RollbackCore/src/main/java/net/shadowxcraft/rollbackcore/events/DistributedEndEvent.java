@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ * 
+ * This file is part of RollbackCore
+ * 
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.shadowxcraft.rollbackcore.events;
+
+import org.bukkit.Bukkit;
+
+import net.shadowxcraft.rollbackcore.DistributedOperation;
+
+/**
+ * Called when all of the tiles of a distributed copy or paste complete.
+ */
+public class DistributedEndEvent extends RollbackEvent {
+	private final DistributedOperation operation;
+	private final long blocks;
+
+	public DistributedEndEvent(DistributedOperation operation, long nanoSecondsTaken, long blocks,
+			EndStatus endStatus) {
+		this.operation = operation;
+		this.nanoSecondsTaken = nanoSecondsTaken;
+		this.blocks = blocks;
+		this.endStatus = endStatus;
+
+		if (operation.sender != null)
+			operation.sender.sendMessage(operation.prefix + "The distributed "
+					+ (operation.isCopy() ? "copy" : "paste") + " operation " + endStatus.getDescription()
+					+ " Took " + nanoSecondsTaken / 1000000000.0 + " seconds to "
+					+ (operation.isCopy() ? "copy " : "rollback ") + blocks + " blocks in "
+					+ operation.getTiles() + " tiles.");
+		Bukkit.getPluginManager().callEvent(this);
+	}
+
+	/**
+	 * @return The distributed operation that completed.
+	 */
+	public DistributedOperation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return The number of blocks copied for copies, or the number of blocks changed for pastes.
+	 */
+	public long getBlocks() {
+		return blocks;
+	}
+
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static net.shadowxcraft.rollbackcore.RegionFiles.GZIP;
+import static net.shadowxcraft.rollbackcore.RegionFiles.ZLIB;
+import static net.shadowxcraft.rollbackcore.RegionFiles.addSection;
+import static net.shadowxcraft.rollbackcore.RegionFiles.chunk;
+import static net.shadowxcraft.rollbackcore.RegionFiles.level;
+import static net.shadowxcraft.rollbackcore.RegionFiles.sign;
+import static net.shadowxcraft.rollbackcore.RegionFiles.world;
+import static net.shadowxcraft.rollbackcore.RegionFiles.writeRegion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.World;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads chunks from region files that were written the way the server writes them.
+ *
+ * @author lizardfreak321
+ */
+public class AnvilReaderTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private File worldFolder;
+	private File regionFolder;
+
+	@Before
+	public void createRegionFolder() throws IOException {
+		worldFolder = folder.getRoot();
+		regionFolder = folder.newFolder("region");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void readsBlocksAndTileEntities() throws IOException {
+		// In the region of negative Z, at the last chunk along Z.
+		Map<String, Object> chunk = chunk(33, -1);
+		addSection(chunk, 0, 7, 0);
+		Map<String, Object> section = addSection(chunk, 2, 1, 3);
+		((byte[]) section.get("Blocks"))[5 << 8 | 6 << 4 | 7] = (byte) 63;
+		((List<Object>) level(chunk).get("TileEntities")).add(sign(33 * 16 + 7, 37, -16 + 6));
+		addSection(chunk, 15, 300, 1);
+		writeRegion(new File(regionFolder, "r.1.-1.mca"), ZLIB, chunk(32, -1), chunk);
+
+		try (AnvilReader reader = new AnvilReader(world("world", worldFolder, false))) {
+			AnvilReader.Chunk read = reader.read(33, -1);
+			assertEquals(7, read.getBlockTypeId(0, 0, 0));
+			assertEquals(7, read.getBlockTypeId(15, 15, 15));
+			assertEquals(0, read.getBlockTypeId(4, 16, 4));
+			assertTrue(read.isSectionEmpty(1));
+			assertFalse(read.isSectionEmpty(2));
+			assertEquals(1, read.getBlockTypeId(0, 32, 0));
+			assertEquals(3, read.getBlockData(0, 32, 0));
+			assertEquals(63, read.getBlockTypeId(7, 37, 6));
+			assertEquals(300, read.getBlockTypeId(9, 255, 9));
+			assertEquals(1, read.getBlockData(9, 255, 9));
+			assertArrayEquals(new int[] { 33 * 16 + 7, 37, -10 }, read.tileEntities);
+
+			assertTrue(reader.read(32, -1).isSectionEmpty(0));
+		}
+	}
+
+	@Test
+	public void readsGzipChunks() throws IOException {
+		Map<String, Object> chunk = chunk(0, 0);
+		addSection(chunk, 4, 35, 14);
+		writeRegion(new File(regionFolder, "r.0.0.mca"), GZIP, chunk);
+
+		try (AnvilReader reader = new AnvilReader(world("world", worldFolder, false))) {
+			AnvilReader.Chunk read = reader.read(0, 0);
+			assertEquals(35, read.getBlockTypeId(3, 64, 3));
+			assertEquals(14, read.getBlockData(3, 79, 3));
+		}
+	}
+
+	@Test
+	public void readsMissingChunksAsNull() throws IOException {
+		writeRegion(new File(regionFolder, "r.0.0.mca"), ZLIB, chunk(0, 0));
+		// A region file that was created but never written to.
+		new File(regionFolder, "r.1.0.mca").createNewFile();
+
+		try (AnvilReader reader = new AnvilReader(world("world", worldFolder, false))) {
+			assertNull(reader.read(1, 0));
+			assertNull(reader.read(32, 0));
+			assertNull(reader.read(-1, 0));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsChunksThatAreNotWhereTheyShouldBe() throws IOException {
+		Map<String, Object> chunk = chunk(0, 0);
+		level(chunk).put("xPos", 1);
+		File file = new File(regionFolder, "r.0.0.mca");
+		writeRegion(file, ZLIB, chunk);
+		// Moved to the location of chunk 0,0.
+		try (RandomAccessFile region = new RandomAccessFile(file, "rw")) {
+			region.seek(4);
+			int location = region.readInt();
+			region.seek(0);
+			region.writeInt(location);
+			region.seek(4);
+			region.writeInt(0);
+		}
+		try (AnvilReader reader = new AnvilReader(world("world", worldFolder, false))) {
+			reader.read(0, 0);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsInvalidLengths() throws IOException {
+		File file = new File(regionFolder, "r.0.0.mca");
+		writeRegion(file, ZLIB, chunk(0, 0));
+		try (RandomAccessFile region = new RandomAccessFile(file, "rw")) {
+			region.seek(8192);
+			region.writeInt(4096);
+		}
+		try (AnvilReader reader = new AnvilReader(world("world", worldFolder, false))) {
+			reader.read(0, 0);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnknownCompressions() throws IOException {
+		File file = new File(regionFolder, "r.0.0.mca");
+		writeRegion(file, ZLIB, chunk(0, 0));
+		try (RandomAccessFile region = new RandomAccessFile(file, "rw")) {
+			region.seek(8196);
+			region.writeByte(3);
+		}
+		try (AnvilReader reader = new AnvilReader(world("world", worldFolder, false))) {
+			reader.read(0, 0);
+		}
+	}
+
+	@Test
+	public void keepsEveryTagOfTheRoot() throws IOException {
+		Map<String, Object> chunk = chunk(5, 6);
+		Map<String, Object> extra = new LinkedHashMap<String, Object>();
+		extra.put("longs", new long[] { 1, -1 });
+		extra.put("short", (short) -3);
+		extra.put("name", "é");
+		chunk.put("Extra", extra);
+		File file = new File(regionFolder, "r.0.0.mca");
+		writeRegion(file, ZLIB, chunk);
+
+		try (RandomAccessFile region = new RandomAccessFile(file, "r")) {
+			Map<String, Object> root = AnvilReader.readRoot(region, 5, 6);
+			assertEquals(Arrays.asList("DataVersion", "Level", "Extra"), new ArrayList<String>(root.keySet()));
+			Map<?, ?> readExtra = (Map<?, ?>) root.get("Extra");
+			assertArrayEquals(new long[] { 1, -1 }, (long[]) readExtra.get("longs"));
+			assertEquals((short) -3, readExtra.get("short"));
+			assertEquals("é", readExtra.get("name"));
+			// Empty lists keep their type, so they are written back the same.
+			AnvilReader.TagList sections = (AnvilReader.TagList) level(root).get("Sections");
+			assertTrue(sections.isEmpty());
+			assertEquals(AnvilReader.TAG_END, sections.type);
+			assertNull(AnvilReader.readRoot(region, 5, 7));
+		}
+	}
+
+	@Test
+	public void trustsChunksOnceTheWriteDelayPassed() throws InterruptedException {
+		int previousDelay = Config.regionWriteDelay;
+		try {
+			World world = world("anvil-delay", worldFolder, false);
+			Config.regionWriteDelay = 30;
+			assertTrue(AnvilReader.isWritten(world, 3, 4));
+			AnvilReader.chunkUnloaded(world, 3, 4);
+			assertFalse(AnvilReader.isWritten(world, 3, 4));
+			assertTrue(AnvilReader.isWritten(world, 3, 5));
+
+			Config.regionWriteDelay = 0;
+			Thread.sleep(5);
+			assertTrue(AnvilReader.isWritten(world, 3, 4));
+			assertFalse(AnvilReader.isWritten(world("anvil-loaded", worldFolder, true), 3, 4));
+		} finally {
+			Config.regionWriteDelay = previousDelay;
+		}
+	}
+}
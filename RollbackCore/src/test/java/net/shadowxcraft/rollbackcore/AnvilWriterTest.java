@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Changes chunks in sample region files and reads them back, and checks that chunks are only ever
+ * written to sectors no other chunk uses.
+ *
+ * @author lizardfreak321
+ */
+public class AnvilWriterTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private File worldFolder;
+	private File regionFolder;
+
+	@Before
+	public void findRegionFolder() {
+		worldFolder = folder.getRoot();
+		regionFolder = new File(worldFolder, "region");
+	}
+
+	private final AnvilReader reader() {
+		return new AnvilReader(RegionFiles.world("world", worldFolder, false));
+	}
+
+	private final Map<String, Object> readRoot(int chunkX, int chunkZ) throws IOException {
+		File file = new File(regionFolder, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".mca");
+		try (RandomAccessFile region = new RandomAccessFile(file, "r")) {
+			return AnvilReader.readRoot(region, chunkX, chunkZ);
+		}
+	}
+
+	// The first sector and the number of sectors of each chunk in the region file.
+	private static final int[] readLocations(File file) throws IOException {
+		int[] locations = new int[1024];
+		try (RandomAccessFile region = new RandomAccessFile(file, "r")) {
+			for (int i = 0; i < 1024; i++)
+				locations[i] = region.readInt();
+		}
+		return locations;
+	}
+
+	private static final void assertNoOverlap(File file) throws IOException {
+		BitSet used = new BitSet();
+		used.set(0, 2);
+		for (int location : readLocations(file)) {
+			if (location == 0)
+				continue;
+			int offset = location >>> 8;
+			int sectors = location & 255;
+			assertTrue("Chunks overlap at sector " + offset, used.nextSetBit(offset) == -1
+					|| used.nextSetBit(offset) >= offset + sectors);
+			used.set(offset, offset + sectors);
+			assertTrue(file.length() >= (long) (offset + sectors) * AnvilReader.SECTOR);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void changesBlocksAndKeepsTheRest() throws IOException {
+		regionFolder.mkdirs();
+		Map<String, Object> sample = RegionFiles.chunk(0, 0);
+		RegionFiles.addSection(sample, 0, 1, 0);
+		Map<String, Object> entity = new LinkedHashMap<String, Object>();
+		entity.put("id", "minecraft:pig");
+		List<Object> entities = new ArrayList<Object>();
+		entities.add(entity);
+		RegionFiles.level(sample).put("Entities", entities);
+		sample.put("Extra", "kept");
+		RegionFiles.writeRegion(new File(regionFolder, "r.0.0.mca"), RegionFiles.ZLIB, sample);
+
+		try (AnvilWriter writer = new AnvilWriter(regionFolder, true)) {
+			AnvilWriter.Chunk chunk = writer.read(0, 0);
+			assertTrue(chunk.setBlock(1, 2, 3, 35, 4, null));
+			assertFalse(chunk.setBlock(1, 2, 3, 35, 4, null));
+			// Air in a section that doesn't exist is already there.
+			assertFalse(chunk.setBlock(5, 200, 5, 0, 0, null));
+			assertTrue(chunk.setBlock(5, 200, 5, 1, 0, null));
+			assertTrue(chunk.setBlock(6, 0, 6, 300, 2, null));
+			assertEquals(3, chunk.getChanged());
+			writer.save(chunk);
+		}
+
+		try (AnvilReader reader = reader()) {
+			AnvilReader.Chunk chunk = reader.read(0, 0);
+			assertEquals(35, chunk.getBlockTypeId(1, 2, 3));
+			assertEquals(4, chunk.getBlockData(1, 2, 3));
+			assertEquals(1, chunk.getBlockTypeId(1, 3, 3));
+			assertEquals(1, chunk.getBlockTypeId(5, 200, 5));
+			assertEquals(0, chunk.getBlockTypeId(5, 201, 5));
+			assertTrue(chunk.isSectionEmpty(11));
+			assertEquals(300, chunk.getBlockTypeId(6, 0, 6));
+			assertEquals(2, chunk.getBlockData(6, 0, 6));
+			assertEquals(1, chunk.getBlockTypeId(7, 0, 6));
+		}
+
+		Map<String, Object> root = readRoot(0, 0);
+		assertEquals("kept", root.get("Extra"));
+		Map<String, Object> level = RegionFiles.level(root);
+		assertEquals(1234L, level.get("LastUpdate"));
+		assertEquals((byte) 0, level.get("LightPopulated"));
+		assertEquals("minecraft:pig", ((Map<String, Object>) ((List<Object>) level.get("Entities")).get(0)).get("id"));
+		// Only the height of the columns that changed is made again.
+		int[] heightMap = (int[]) level.get("HeightMap");
+		assertEquals(201, heightMap[5 << 4 | 5]);
+		assertEquals(16, heightMap[3 << 4 | 1]);
+		assertEquals(0, heightMap[0]);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void createsChunksThatWereNeverGenerated() throws IOException {
+		try (AnvilWriter writer = new AnvilWriter(regionFolder, false)) {
+			AnvilWriter.Chunk chunk = writer.read(40, -3);
+			assertTrue(chunk.setBlock(2, 70, 15, 63, 4, new String[] { "Line \"1\"", "", "", "" }));
+			assertTrue(chunk.setBlock(3, 70, 15, 137, 0, new String[] { "@", "say hi", "", "" }));
+			writer.save(chunk);
+		}
+
+		try (AnvilReader reader = reader()) {
+			AnvilReader.Chunk chunk = reader.read(40, -3);
+			assertEquals(63, chunk.getBlockTypeId(2, 70, 15));
+			assertEquals(4, chunk.getBlockData(2, 70, 15));
+			assertArrayEquals(new int[] { 40 * 16 + 2, 70, -48 + 15, 40 * 16 + 3, 70, -48 + 15 },
+					chunk.tileEntities);
+		}
+		Map<String, Object> level = RegionFiles.level(readRoot(40, -3));
+		assertEquals((byte) 1, level.get("TerrainPopulated"));
+		List<Object> tileEntities = (List<Object>) level.get("TileEntities");
+		Map<String, Object> sign = (Map<String, Object>) tileEntities.get(0);
+		assertEquals("minecraft:sign", sign.get("id"));
+		assertEquals("{\"text\":\"Line \\\"1\\\"\"}", sign.get("Text1"));
+		Map<String, Object> commandBlock = (Map<String, Object>) tileEntities.get(1);
+		assertEquals("say hi", commandBlock.get("Command"));
+		assertFalse(commandBlock.containsKey("CustomName"));
+		// The nether and the end have no sky light.
+		Map<String, Object> section = (Map<String, Object>) ((List<Object>) level.get("Sections")).get(0);
+		assertFalse(section.containsKey("SkyLight"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void removesTheTileEntitiesOfChangedBlocks() throws IOException {
+		regionFolder.mkdirs();
+		Map<String, Object> sample = RegionFiles.chunk(1, 1);
+		Map<String, Object> section = RegionFiles.addSection(sample, 4, 0, 0);
+		((byte[]) section.get("Blocks"))[0] = (byte) 63;
+		((List<Object>) RegionFiles.level(sample).get("TileEntities")).add(RegionFiles.sign(16, 64, 16));
+		RegionFiles.writeRegion(new File(regionFolder, "r.0.0.mca"), RegionFiles.ZLIB, sample);
+
+		try (AnvilWriter writer = new AnvilWriter(regionFolder, true)) {
+			AnvilWriter.Chunk chunk = writer.read(1, 1);
+			assertTrue(chunk.setBlock(0, 64, 0, 1, 0, null));
+			writer.save(chunk);
+		}
+		try (AnvilReader reader = reader()) {
+			assertEquals(0, reader.read(1, 1).tileEntities.length);
+		}
+	}
+
+	@Test
+	public void addsToListsThatWereEmpty() throws IOException {
+		// The server writes empty lists without a type, like the sections of an empty chunk.
+		regionFolder.mkdirs();
+		RegionFiles.writeRegion(new File(regionFolder, "r.0.0.mca"), RegionFiles.ZLIB,
+				RegionFiles.chunk(0, 0));
+
+		try (AnvilWriter writer = new AnvilWriter(regionFolder, true)) {
+			AnvilWriter.Chunk chunk = writer.read(0, 0);
+			assertTrue(chunk.setBlock(8, 8, 8, 68, 2, new String[] { "a", "b", "c", "d" }));
+			writer.save(chunk);
+		}
+		try (AnvilReader reader = reader()) {
+			AnvilReader.Chunk chunk = reader.read(0, 0);
+			assertEquals(68, chunk.getBlockTypeId(8, 8, 8));
+			assertArrayEquals(new int[] { 8, 8, 8 }, chunk.tileEntities);
+		}
+	}
+
+	@Test
+	public void leavesUnchangedChunksAlone() throws IOException {
+		regionFolder.mkdirs();
+		Map<String, Object> sample = RegionFiles.chunk(0, 0);
+		RegionFiles.addSection(sample, 0, 1, 0);
+		File file = new File(regionFolder, "r.0.0.mca");
+		RegionFiles.writeRegion(file, RegionFiles.GZIP, sample);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		try (AnvilWriter writer = new AnvilWriter(regionFolder, true)) {
+			AnvilWriter.Chunk chunk = writer.read(0, 0);
+			assertFalse(chunk.setBlock(0, 0, 0, 1, 0, null));
+			writer.save(chunk);
+		}
+		assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void writesChunksToFreeSectors() throws IOException {
+		regionFolder.mkdirs();
+		File file = new File(regionFolder, "r.0.0.mca");
+		RegionFiles.writeRegion(file, RegionFiles.ZLIB, RegionFiles.chunk(0, 0),
+				RegionFiles.chunk(1, 0), RegionFiles.chunk(2, 0));
+		int[] before = readLocations(file);
+		assertEquals(3 << 8 | 1, before[1]);
+
+		// Random blocks don't compress, so the middle chunk no longer fits where it was.
+		Random random = new Random(1);
+		try (AnvilWriter writer = new AnvilWriter(regionFolder, true)) {
+			AnvilWriter.Chunk chunk = writer.read(1, 0);
+			for (int y = 0; y < 64; y++)
+				for (int z = 0; z < 16; z++)
+					for (int x = 0; x < 16; x++)
+						chunk.setBlock(x, y, z, 1 + random.nextInt(200), random.nextInt(16), null);
+			writer.save(chunk);
+			assertNoOverlap(file);
+			int[] grown = readLocations(file);
+			assertTrue(grown[1] >>> 8 >= 5);
+			assertTrue((grown[1] & 255) > 1);
+			assertEquals(before[0], grown[0]);
+			assertEquals(before[2], grown[2]);
+
+			// A new small chunk goes in the sector the middle chunk left.
+			AnvilWriter.Chunk added = writer.read(3, 0);
+			added.setBlock(0, 0, 0, 1, 0, null);
+			writer.save(added);
+			assertEquals(3 << 8 | 1, readLocations(file)[3]);
+			assertNoOverlap(file);
+		}
+
+		random = new Random(1);
+		try (AnvilReader reader = reader()) {
+			AnvilReader.Chunk chunk = reader.read(1, 0);
+			for (int y = 0; y < 64; y++) {
+				for (int z = 0; z < 16; z++) {
+					for (int x = 0; x < 16; x++) {
+						assertEquals(1 + random.nextInt(200), chunk.getBlockTypeId(x, y, z));
+						assertEquals(random.nextInt(16), chunk.getBlockData(x, y, z));
+					}
+				}
+			}
+			assertTrue(reader.read(0, 0).isSectionEmpty(0));
+			assertTrue(reader.read(2, 0).isSectionEmpty(0));
+			assertEquals(1, reader.read(3, 0).getBlockTypeId(0, 0, 0));
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Encodes blocks with the BlockEncoder and reads them back with the BlockDecoder, and reads streams
+ * written by hand in the formats of the older versions.
+ *
+ * @author lizardfreak321
+ */
+public class BlockCodecTest {
+	private static final int STONE = 1;
+	private static final int TNT = 46;			// Simple in version 1, but not since version 2.
+	private static final int SIGN_POST = 63;
+	private static final int COMMAND_BLOCK = 137;
+
+	// A block as it is expected back from the decoder.
+	private static final class Block {
+		final int id;
+		final int data;
+		final String[] lines;
+
+		Block(int id, int data, String[] lines) {
+			this.id = id;
+			this.data = data;
+			this.lines = lines;
+		}
+	}
+
+	private static final byte[] encode(List<Block> blocks) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockEncoder encoder = new BlockEncoder(out);
+		for (Block block : blocks)
+			encoder.writeBlock(block.id, block.data, block.lines);
+		encoder.finish();
+		return out.toByteArray();
+	}
+
+	private static final void assertDecodes(List<Block> expected, BlockDecoder decoder) throws IOException {
+		for (int i = 0; i < expected.size(); i++) {
+			Block block = expected.get(i);
+			assertTrue("Ended early at block " + i, decoder.nextBlock());
+			assertEquals("ID of block " + i, block.id, decoder.id);
+			assertEquals("Data of block " + i, block.data, decoder.data);
+			assertArrayEquals("Text of block " + i, block.lines, decoder.lines);
+		}
+		assertFalse(decoder.nextBlock());
+	}
+
+	// Runs of stone with different data, air that has its data dropped, and signs in between.
+	private static final List<Block> randomBlocks(long seed, int count) {
+		Random random = new Random(seed);
+		List<Block> blocks = new ArrayList<Block>();
+		while (blocks.size() < count) {
+			int kind = random.nextInt(10);
+			int length = 1 + random.nextInt(random.nextBoolean() ? 4 : 400);
+			for (int i = 0; i < length; i++) {
+				if (kind == 0)
+					blocks.add(new Block(SIGN_POST, random.nextInt(16),
+							new String[] { "Line " + i, "", "§aGreen ✓", "été" }));
+				else if (kind < 4)
+					blocks.add(new Block(0, 0, null));
+				else
+					blocks.add(new Block(STONE, kind, null));
+			}
+		}
+		return blocks;
+	}
+
+	@Test
+	public void roundTripsFromStream() throws IOException {
+		List<Block> blocks = randomBlocks(1, 100000);
+		byte[] bytes = encode(blocks);
+		assertDecodes(blocks, BlockDecoder.create(new ByteArrayInputStream(bytes), 5, RollbackOperation.simpleBlocks));
+	}
+
+	@Test
+	public void roundTripsFromBytes() throws IOException {
+		List<Block> blocks = randomBlocks(2, 20000);
+		byte[] encoded = encode(blocks);
+		// Surrounded by other bytes, like a column in the middle of a save.
+		byte[] bytes = new byte[encoded.length + 20];
+		Arrays.fill(bytes, (byte) 0xFF);
+		System.arraycopy(encoded, 0, bytes, 10, encoded.length);
+		assertDecodes(blocks, BlockDecoder.create(bytes, 10, encoded.length, 5, RollbackOperation.simpleBlocks));
+	}
+
+	@Test
+	public void dropsTheDataOfSimpleBlocks() throws IOException {
+		List<Block> blocks = new ArrayList<Block>();
+		blocks.add(new Block(0, 5, null));
+		blocks.add(new Block(0, 7, null));
+		// Both are air with data 0, so they are one run.
+		assertArrayEquals(new byte[] { 0, 2 }, encode(blocks));
+	}
+
+	@Test
+	public void keepsTextLongerThanTheBuffer() throws IOException {
+		char[] command = new char[BlockCodec.BUFFER_SIZE * 3];
+		Arrays.fill(command, 'é');
+		List<Block> blocks = new ArrayList<Block>();
+		blocks.add(new Block(STONE, 0, null));
+		blocks.add(new Block(COMMAND_BLOCK, 3, new String[] { "@", new String(command), "", "" }));
+		blocks.add(new Block(COMMAND_BLOCK, 3, new String[] { "@", "say hi", "", "" }));
+		blocks.add(new Block(STONE, 0, null));
+		assertDecodes(blocks, BlockDecoder.create(new ByteArrayInputStream(encode(blocks)), 5,
+				RollbackOperation.simpleBlocks));
+	}
+
+	@Test
+	public void writesMissingTextAsEmptyLines() throws IOException {
+		List<Block> blocks = new ArrayList<Block>();
+		blocks.add(new Block(SIGN_POST, 0, null));
+		BlockDecoder decoder = BlockDecoder.create(new ByteArrayInputStream(encode(blocks)), 5,
+				RollbackOperation.simpleBlocks);
+		assertTrue(decoder.nextBlock());
+		assertArrayEquals(new String[] { "", "", "", "" }, decoder.lines);
+	}
+
+	@Test
+	public void mergesRunsWithTheSameBlock() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockEncoder encoder = new BlockEncoder(out);
+		encoder.writeBlock(STONE, 0, null);
+		encoder.writeRun(STONE, 0, 10);
+		encoder.finish();
+		assertArrayEquals(new byte[] { 16, 11 }, out.toByteArray());
+	}
+
+	@Test
+	public void writesUniformSectionsAsOneRun() throws IOException {
+		for (int block : new int[] { 0, STONE << 4 | 3 }) {
+			List<Block> section = new ArrayList<Block>();
+			for (int i = 0; i < 4096; i++)
+				section.add(new Block(block >> 4, block & 15, null));
+			byte[] bytes = encode(section);
+			// The block and 4096 as a varint, so a paste reads the whole section as one run.
+			assertArrayEquals(new byte[] { (byte) block, (byte) 0x80, 0x20 }, bytes);
+			BlockDecoder decoder = BlockDecoder.create(bytes, 0, bytes.length, 5, RollbackOperation.simpleBlocks);
+			assertTrue(decoder.nextBlock());
+			assertEquals(4095, decoder.getRepeats());
+		}
+	}
+
+	@Test
+	public void splitsRunsLongerThanAnInt() throws IOException {
+		long blocks = 3L * Integer.MAX_VALUE + 5;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockEncoder encoder = new BlockEncoder(out);
+		encoder.writeRun(STONE, 2, blocks);
+		encoder.finish();
+
+		BlockDecoder decoder = BlockDecoder.create(out.toByteArray(), 0, out.size(), 5, RollbackOperation.simpleBlocks);
+		long decoded = 0;
+		while (decoder.nextBlock()) {
+			assertEquals(STONE, decoder.id);
+			assertEquals(2, decoder.data);
+			decoded += 1 + decoder.getRepeats();
+			decoder.skipRepeats(decoder.getRepeats());
+		}
+		assertEquals(blocks, decoded);
+	}
+
+	@Test
+	public void varIntsRoundTrip() throws IOException {
+		int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1 };
+		int[] lengths = { 1, 1, 1, 2, 2, 3, 5, 5 };
+		for (int i = 0; i < values.length; i++) {
+			ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.MAX_VARINT);
+			BlockCodec.putVarInt(buffer, values[i]);
+			assertEquals("Length of " + values[i], lengths[i], buffer.position());
+			buffer.flip();
+			assertEquals(values[i], BlockCodec.getVarInt(buffer));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsVarIntsThatAreTooLong() throws IOException {
+		byte[] bytes = new byte[BlockCodec.MAX_VARINT + 1];
+		Arrays.fill(bytes, (byte) 0xFF);
+		BlockCodec.getVarInt(ByteBuffer.wrap(bytes));
+	}
+
+	@Test
+	public void stopsAtARunThatWasCutOff() throws IOException {
+		List<Block> blocks = new ArrayList<Block>();
+		blocks.add(new Block(STONE, 1, null));
+		blocks.add(new Block(STONE, 2, null));
+		byte[] bytes = encode(blocks);
+		BlockDecoder decoder = BlockDecoder.create(new ByteArrayInputStream(bytes, 0, bytes.length - 1), 5,
+				RollbackOperation.simpleBlocks);
+		assertTrue(decoder.nextBlock());
+		assertFalse(decoder.nextBlock());
+	}
+
+	@Test
+	public void readsVersion4() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// Stone with data 3, 5 times.
+		out.write(new byte[] { STONE, 3, 5 });
+		// Stone with data 4, 300 times, which needs the short count.
+		out.write(new byte[] { STONE, 4, 0 });
+		FileUtilities.writeShort(out, 300);
+		// Air is simple, so it has no data.
+		out.write(new byte[] { 0, 2 });
+		// A sign, which is followed by its text.
+		out.write(new byte[] { SIGN_POST, 6, 0, 'a', 0, 'b', 'c', 0, 0, 0 });
+
+		List<Block> blocks = new ArrayList<Block>();
+		for (int i = 0; i < 5; i++)
+			blocks.add(new Block(STONE, 3, null));
+		for (int i = 0; i < 300; i++)
+			blocks.add(new Block(STONE, 4, null));
+		blocks.add(new Block(0, 0, null));
+		blocks.add(new Block(0, 0, null));
+		blocks.add(new Block(SIGN_POST, 6, new String[] { "a", "bc", "", "" }));
+		assertDecodes(blocks, BlockDecoder.create(new ByteArrayInputStream(out.toByteArray()), 4,
+				RollbackOperation.simpleBlocks));
+	}
+
+	@Test
+	public void readsVersion0() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(0);
+		FileUtilities.writeShort(out, 1);
+		FileUtilities.writeShort(out, 0);
+		FileUtilities.writeShort(out, 0);
+		// TNT had no data in version 1 and older.
+		out.write(new byte[] { TNT, 1, STONE, 7, 1 });
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		BlockDecoder.Header header = BlockDecoder.readHeader(in);
+		assertEquals(0, header.version);
+		assertArrayEquals(RollbackOperation.version1Blocks, header.simpleBlocks);
+		assertTrue(header.index.whole);
+		List<Block> blocks = new ArrayList<Block>();
+		blocks.add(new Block(TNT, 0, null));
+		blocks.add(new Block(STONE, 7, null));
+		assertDecodes(blocks, BlockDecoder.create(in, header.version, header.simpleBlocks));
+	}
+
+	@Test
+	public void readsTheHeaderOfEveryVersion() throws IOException {
+		for (int version = 1; version <= RollbackOperation.VERSION; version++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(version);
+			out.write(new byte[] { 2, 0, 7 });
+			FileUtilities.writeShort(out, 299);
+			FileUtilities.writeShort(out, 9);
+			FileUtilities.writeShort(out, 19);
+			if (version >= 2)
+				out.write(new byte[] { 3, 14 });
+
+			BlockDecoder.Header header = BlockDecoder.readHeader(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(version, header.version);
+			assertArrayEquals(new int[] { 0, 7 }, header.simpleBlocks);
+			assertEquals(299, header.sizeX);
+			assertEquals(9, header.sizeY);
+			assertEquals(19, header.sizeZ);
+			assertEquals("Split into columns in version " + version, version < 2, header.index.whole);
+			assertEquals("Layered in version " + version, version >= 3, header.index.layered);
+			assertEquals(version < 2 ? 0 : 3, header.index.alignX);
+			assertEquals(version < 2 ? 0 : 14, header.index.alignZ);
+		}
+	}
+
+	@Test
+	public void writesTheHeaderItReads() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockEncoder.writeHeader(out, new ColumnIndex(40, 256, 17, 5, 15));
+		BlockDecoder.Header header = BlockDecoder.readHeader(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(RollbackOperation.VERSION, header.version);
+		assertArrayEquals(RollbackOperation.simpleBlocks, header.simpleBlocks);
+		assertTrue(header.index.matches(new ColumnIndex(40, 256, 17, 5, 15)));
+	}
+
+	@Test
+	public void rejectsNewerVersions() throws IOException {
+		assertNull(BlockDecoder.readHeader(new ByteArrayInputStream(new byte[] { RollbackOperation.VERSION + 1 })));
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that the cursors of every kind of index go through each block exactly once, in the
+ * columns and sections the index says they are in.
+ *
+ * @author lizardfreak321
+ */
+public class ColumnIndexTest {
+	// Sizes and alignments that start and end inside chunks, on their edges, and inside one chunk.
+	private static final int[][] REGIONS = { { 37, 5, 20, 3, 14 }, { 16, 16, 16, 0, 0 }, { 1, 1, 1, 15, 15 },
+			{ 17, 33, 2, 15, 0 } };
+
+	private static final ColumnIndex[] indexes(int[] region) {
+		return new ColumnIndex[] { new ColumnIndex(region[0], region[1], region[2], region[3], region[4]),
+				ColumnIndex.version2(region[0], region[1], region[2], region[3], region[4]),
+				ColumnIndex.whole(region[0], region[1], region[2]) };
+	}
+
+	@Test
+	public void cursorVisitsEveryBlockOnce() {
+		for (int[] region : REGIONS) {
+			for (ColumnIndex index : indexes(region)) {
+				for (int height : new int[] { index.sizeY, 16, 2 }) {
+					checkCursor(index, height);
+				}
+			}
+		}
+	}
+
+	private static final void checkCursor(ColumnIndex index, int height) {
+		boolean[] visited = new boolean[index.sizeX * index.sizeY * index.sizeZ];
+		long[] columnBlocks = new long[index.getColumns()];
+		ColumnIndex.Cursor cursor = index.new Cursor(height);
+		int sections = 0;
+		long sectionBlocks = cursor.sectionBlocks();
+		long offset = 0;
+		while (!cursor.isDone()) {
+			int column = cursor.column;
+			assertEquals(column, index.column(cursor.x, cursor.z));
+			assertTrue(cursor.x >= index.minX(column) && cursor.x <= index.maxX(column));
+			assertTrue(cursor.z >= index.minZ(column) && cursor.z <= index.maxZ(column));
+			assertEquals(cursor.y / height, cursor.section);
+			if (!index.whole)
+				assertEquals(offset, index.offset(cursor.x, cursor.y, cursor.z, height));
+
+			int i = (cursor.x * index.sizeY + cursor.y) * index.sizeZ + cursor.z;
+			assertFalse("Visited twice", visited[i]);
+			visited[i] = true;
+			columnBlocks[column]++;
+			offset++;
+
+			int moved = cursor.next();
+			if (moved == ColumnIndex.NEXT_SECTION || moved == ColumnIndex.NEXT_COLUMN) {
+				assertEquals(sectionBlocks, offset);
+				sections++;
+				offset = 0;
+				if (moved == ColumnIndex.NEXT_SECTION)
+					assertEquals(column, cursor.column);
+				else
+					assertEquals(column + 1, cursor.column);
+				if (!cursor.isDone())
+					sectionBlocks = cursor.sectionBlocks();
+			}
+		}
+		for (boolean block : visited)
+			assertTrue("Not visited", block);
+		for (int column = 0; column < index.getColumns(); column++)
+			assertEquals(index.blocks(column), columnBlocks[column]);
+		assertEquals(index.getColumns() * index.sections(height), sections);
+	}
+
+	@Test
+	public void columnsLineUpWithTheChunks() {
+		ColumnIndex index = new ColumnIndex(37, 5, 20, 3, 14);
+		// 13 + 16 + 8 blocks along X and 2 + 16 + 2 along Z.
+		assertEquals(9, index.getColumns());
+		assertEquals(0, index.minX(0));
+		assertEquals(12, index.maxX(0));
+		assertEquals(13, index.minX(3));
+		assertEquals(28, index.maxX(3));
+		assertEquals(29, index.minX(6));
+		assertEquals(36, index.maxX(6));
+		assertEquals(0, index.minZ(0));
+		assertEquals(1, index.maxZ(0));
+		assertEquals(2, index.minZ(1));
+		assertEquals(17, index.maxZ(1));
+		assertEquals(18, index.minZ(2));
+		assertEquals(19, index.maxZ(2));
+		assertEquals(4, index.column(13, 2));
+		assertEquals(8, index.column(36, 19));
+		assertEquals(16 * 5 * 16, index.blocks(4));
+		assertEquals(16 * 16, index.layerBlocks(4));
+	}
+
+	@Test
+	public void wholeIndexIsOneColumn() {
+		ColumnIndex index = ColumnIndex.whole(40, 3, 40);
+		assertEquals(1, index.getColumns());
+		assertEquals(0, index.column(39, 39));
+		assertEquals(40 * 3 * 40, index.blocks(0));
+		assertFalse(index.isAligned(0, 0));
+	}
+
+	@Test
+	public void skipsWholeLayers() {
+		ColumnIndex index = new ColumnIndex(20, 40, 20, 0, 0);
+		ColumnIndex.Cursor cursor = index.new Cursor(16);
+		assertEquals(16, cursor.layersLeft());
+		assertEquals(ColumnIndex.NEXT_BLOCK, cursor.skipLayers(10));
+		assertEquals(10, cursor.y);
+		assertEquals(ColumnIndex.NEXT_SECTION, cursor.skipLayers(cursor.layersLeft()));
+		assertEquals(16, cursor.y);
+		assertEquals(ColumnIndex.NEXT_SECTION, cursor.endSection());
+		// The last section is only 8 layers high.
+		assertEquals(8, cursor.layersLeft());
+		assertEquals(16 * 8 * 16, cursor.sectionBlocks());
+		assertEquals(ColumnIndex.NEXT_COLUMN, cursor.skipLayers(8));
+		assertEquals(1, cursor.column);
+		assertEquals(0, cursor.y);
+		assertEquals(16, cursor.z);
+	}
+
+	@Test
+	public void movesToASection() {
+		ColumnIndex index = new ColumnIndex(20, 40, 20, 4, 4);
+		ColumnIndex.Cursor cursor = index.new Cursor(16);
+		cursor.moveTo(3, 2);
+		assertEquals(12, cursor.x);
+		assertEquals(32, cursor.y);
+		assertEquals(12, cursor.z);
+		assertEquals(0, index.offset(12, 32, 12, 16));
+	}
+
+	@Test
+	public void matchesOnlyTheSameLayout() {
+		ColumnIndex index = new ColumnIndex(20, 40, 20, 4, 4);
+		assertTrue(index.matches(new ColumnIndex(20, 40, 20, 4, 4)));
+		assertFalse(index.matches(new ColumnIndex(20, 40, 20, 4, 5)));
+		assertFalse(index.matches(new ColumnIndex(20, 41, 20, 4, 4)));
+		assertFalse(index.matches(ColumnIndex.version2(20, 40, 20, 4, 4)));
+		assertTrue(index.isAligned(-12, 36));
+		assertFalse(index.isAligned(-13, 36));
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package net.shadowxcraft.rollbackcore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.World;
+
+/**
+ * Writes region files with a separate NBT writer, the way the server writes them, for the tests to
+ * read and change.
+ *
+ * @author lizardfreak321
+ */
+final class RegionFiles {
+	static final int GZIP = 1, ZLIB = 2;
+
+	private RegionFiles() {
+	}
+
+	/**
+	 * A world that is only its folder, with no chunks loaded unless it says so.
+	 */
+	static final World world(final String name, final File folder, final boolean chunksLoaded) {
+		return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getName":
+							return name;
+						case "getWorldFolder":
+							return folder;
+						case "getEnvironment":
+							return World.Environment.NORMAL;
+						case "isChunkLoaded":
+							return chunksLoaded;
+						case "hashCode":
+							return name.hashCode();
+						case "equals":
+							return proxy == args[0];
+						default:
+							return method.getReturnType() == boolean.class ? false : null;
+						}
+					}
+				});
+	}
+
+	/**
+	 * Creates the root compound of a 1.12 chunk with no sections.
+	 */
+	static final Map<String, Object> chunk(int chunkX, int chunkZ) {
+		Map<String, Object> level = new LinkedHashMap<String, Object>();
+		level.put("xPos", chunkX);
+		level.put("zPos", chunkZ);
+		level.put("LastUpdate", 1234L);
+		level.put("LightPopulated", (byte) 1);
+		level.put("TerrainPopulated", (byte) 1);
+		level.put("HeightMap", new int[256]);
+		level.put("Sections", new ArrayList<Object>());
+		level.put("TileEntities", new ArrayList<Object>());
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("DataVersion", 1343);
+		root.put("Level", level);
+		return root;
+	}
+
+	@SuppressWarnings("unchecked")
+	static final Map<String, Object> level(Map<String, Object> chunk) {
+		return (Map<String, Object>) chunk.get("Level");
+	}
+
+	/**
+	 * Adds a section to a chunk, filled with the block.
+	 *
+	 * @return The section.
+	 */
+	@SuppressWarnings("unchecked")
+	static final Map<String, Object> addSection(Map<String, Object> chunk, int y, int id, int data) {
+		Map<String, Object> section = new LinkedHashMap<String, Object>();
+		section.put("Y", (byte) y);
+		byte[] blocks = new byte[4096];
+		Arrays.fill(blocks, (byte) id);
+		section.put("Blocks", blocks);
+		if (id > 255) {
+			byte[] add = new byte[2048];
+			Arrays.fill(add, (byte) (id >> 8 | id >> 8 << 4));
+			section.put("Add", add);
+		}
+		byte[] nibbles = new byte[2048];
+		Arrays.fill(nibbles, (byte) (data | data << 4));
+		section.put("Data", nibbles);
+		section.put("BlockLight", new byte[2048]);
+		section.put("SkyLight", new byte[2048]);
+		((List<Object>) level(chunk).get("Sections")).add(section);
+		return section;
+	}
+
+	/**
+	 * Writes a region file with the chunks one after another, each starting at a new sector.
+	 */
+	@SafeVarargs
+	static final void writeRegion(File file, int compression, Map<String, Object>... chunks) throws IOException {
+		try (RandomAccessFile region = new RandomAccessFile(file, "rw")) {
+			region.setLength(8192);
+			int sector = 2;
+			for (Map<String, Object> chunk : chunks) {
+				byte[] bytes = compress(chunk, compression);
+				int sectors = (bytes.length + 5 + 4095) / 4096;
+				int chunkX = (Integer) level(chunk).get("xPos");
+				int chunkZ = (Integer) level(chunk).get("zPos");
+				region.seek(4 * ((chunkX & 31) + (chunkZ & 31) * 32));
+				region.writeInt(sector << 8 | sectors);
+				region.seek(sector * 4096L);
+				region.writeInt(bytes.length + 1);
+				region.writeByte(compression);
+				region.write(bytes);
+				sector += sectors;
+				region.setLength(sector * 4096L);
+			}
+		}
+	}
+
+	static final byte[] compress(Map<String, Object> chunk, int compression) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream compressed = compression == GZIP ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+		try (DataOutputStream out = new DataOutputStream(compressed)) {
+			out.writeByte(10);
+			out.writeUTF("");
+			writeTag(out, chunk);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static final byte type(Object value) {
+		if (value instanceof Byte)
+			return 1;
+		if (value instanceof Short)
+			return 2;
+		if (value instanceof Integer)
+			return 3;
+		if (value instanceof Long)
+			return 4;
+		if (value instanceof byte[])
+			return 7;
+		if (value instanceof String)
+			return 8;
+		if (value instanceof List)
+			return 9;
+		if (value instanceof Map)
+			return 10;
+		if (value instanceof int[])
+			return 11;
+		return 12;
+	}
+
+	private static final void writeTag(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof Byte) {
+			out.writeByte((Byte) value);
+		} else if (value instanceof Short) {
+			out.writeShort((Short) value);
+		} else if (value instanceof Integer) {
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeLong((Long) value);
+		} else if (value instanceof byte[]) {
+			out.writeInt(((byte[]) value).length);
+			out.write((byte[]) value);
+		} else if (value instanceof String) {
+			out.writeUTF((String) value);
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			// Empty lists have no type, like the server writes them.
+			out.writeByte(list.isEmpty() ? 0 : type(list.get(0)));
+			out.writeInt(list.size());
+			for (Object element : list)
+				writeTag(out, element);
+		} else if (value instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				out.writeByte(type(entry.getValue()));
+				out.writeUTF((String) entry.getKey());
+				writeTag(out, entry.getValue());
+			}
+			out.writeByte(0);
+		} else if (value instanceof int[]) {
+			out.writeInt(((int[]) value).length);
+			for (int i : (int[]) value)
+				out.writeInt(i);
+		} else {
+			out.writeInt(((long[]) value).length);
+			for (long l : (long[]) value)
+				out.writeLong(l);
+		}
+	}
+
+	static final Map<String, Object> sign(int x, int y, int z) {
+		Map<String, Object> sign = new LinkedHashMap<String, Object>();
+		sign.put("id", "minecraft:sign");
+		sign.put("Text1", "{\"text\":\"Hi\"}");
+		sign.put("x", x);
+		sign.put("y", y);
+		sign.put("z", z);
+		return sign;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Migrates saves of the older versions and distributed saves, and checks that the new files have
+ * the same blocks and that the old ones were backed up.
+ *
+ * @author lizardfreak321
+ */
+public class SaveMigratorTest {
+	@Rule
+	public final SavesFolder saves = new SavesFolder();
+
+	/**
+	 * Writes a save of version 0 or 1, which is one column in X, Y, Z order with counts of up to
+	 * 255. The text is written one byte per character, like those versions did.
+	 */
+	private static final void writeOldSave(RegionData region, int version, File file) throws IOException {
+		int[] simpleBlocks = version == 0 ? RollbackOperation.version1Blocks : RollbackOperation.simpleBlocks;
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			out.write(version);
+			if (version == 1) {
+				out.write(simpleBlocks.length);
+				for (int id : simpleBlocks)
+					out.write(id);
+			}
+			FileUtilities.writeShort(out, region.sizeX - 1);
+			FileUtilities.writeShort(out, region.sizeY - 1);
+			FileUtilities.writeShort(out, region.sizeZ - 1);
+
+			int i = 0;
+			while (i < region.blocks.length) {
+				int block = region.blocks[i];
+				int id = block >> 4;
+				out.write(id);
+				if (!RollbackOperation.isSimple(id, simpleBlocks))
+					out.write(block & 15);
+				if (RollbackOperation.hasText(id)) {
+					out.write(0);
+					for (String line : region.text.get(i)) {
+						out.write(line.getBytes("ISO-8859-1"));
+						out.write(0);
+					}
+					i++;
+					continue;
+				}
+				int count = 1;
+				while (count < 255 && i + count < region.blocks.length && region.blocks[i + count] == block)
+					count++;
+				out.write(count);
+				i += count;
+			}
+		}
+	}
+
+	private static final int readVersion(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return in.read();
+		}
+	}
+
+	private final File findBackup(String name) {
+		File[] backups = new File(saves.getRoot(), "backups").listFiles();
+		if (backups != null)
+			for (File backup : backups)
+				if (backup.getName().startsWith(name + "."))
+					return backup;
+		fail("No backup of " + name);
+		return null;
+	}
+
+	private final SaveMigrator migrator(Set<String> savesInUse) {
+		return new SaveMigrator(saves.getRoot(), savesInUse, null, "");
+	}
+
+	@Test
+	public void migratesOldSingleFiles() throws IOException {
+		for (int version = 0; version <= 1; version++) {
+			RegionData region = TestRegions.createRegion(30, 8, 21, version);
+			File file = new File(saves.getRoot(), "arena" + version + ".dat");
+			writeOldSave(region, version, file);
+			byte[] old = Files.readAllBytes(file.toPath());
+
+			migrator(Collections.<String>emptySet()).migrateFile(file);
+			assertEquals(RollbackOperation.VERSION, readVersion(file));
+			TestRegions.assertRegionsEqual(region, RegionData.read(file));
+			assertArrayEquals(old, Files.readAllBytes(findBackup(file.getName()).toPath()));
+			assertFalse(new File(file.getPath() + ".tmp").exists());
+		}
+	}
+
+	@Test
+	public void joinsDistributedSaves() throws IOException {
+		RegionData region = TestRegions.createRegion(40, 6, 25, 3);
+		File folder = new File(saves.getRoot(), "big");
+		folder.mkdirs();
+		// Two tiles along X, the second one saved without the extension like older versions did.
+		int[][] tiles = { { 0, 0, 0, 0 }, { 1, 24, 0, 0 } };
+		try (OutputStream out = new FileOutputStream(new File(folder, Rollback.TILE_INDEX))) {
+			out.write(Rollback.TILE_INDEX_VERSION);
+			FileUtilities.writeInt(out, tiles.length);
+			for (int[] tile : tiles)
+				for (int value : tile)
+					FileUtilities.writeInt(out, value);
+		}
+		RegionData first = new RegionData(24, 6, 25);
+		RegionData second = new RegionData(16, 6, 25);
+		for (int x = 0; x < 40; x++) {
+			RegionData tile = x < 24 ? first : second;
+			int tileX = x < 24 ? x : x - 24;
+			for (int y = 0; y < 6; y++) {
+				for (int z = 0; z < 25; z++) {
+					int i = region.index(x, y, z);
+					tile.blocks[tile.index(tileX, y, z)] = region.blocks[i];
+					if (region.text.containsKey(i))
+						tile.text.put(tile.index(tileX, y, z), region.text.get(i));
+				}
+			}
+		}
+		try (OutputStream out = new FileOutputStream(new File(folder, "0.dat"))) {
+			first.write(out);
+		}
+		writeOldSave(second, 1, new File(folder, "1"));
+
+		SaveMigrator migrator = migrator(Collections.<String>emptySet());
+		List<File> found = new ArrayList<File>();
+		migrator.findOldSaves(saves.getRoot(), found);
+		assertEquals(Collections.singletonList(folder), found);
+
+		migrator.migrateDistributed(folder);
+		File file = new File(saves.getRoot(), "big.dat");
+		assertEquals(RollbackOperation.VERSION, readVersion(file));
+		TestRegions.assertRegionsEqual(region, RegionData.read(file));
+		assertFalse(folder.exists());
+		assertTrue(new File(findBackup("big"), Rollback.TILE_INDEX).exists());
+	}
+
+	@Test
+	public void findsOnlyOldSaves() throws IOException {
+		File old = new File(saves.getRoot(), "old.dat");
+		writeOldSave(TestRegions.createRegion(5, 5, 5, 4), 0, old);
+		File inUse = new File(saves.getRoot(), "inuse.dat");
+		writeOldSave(TestRegions.createRegion(5, 5, 5, 5), 0, inUse);
+		File current = new File(saves.getRoot(), "current.dat");
+		try (OutputStream out = new FileOutputStream(current)) {
+			TestRegions.createRegion(5, 5, 5, 6).write(out);
+		}
+		File backups = new File(saves.getRoot(), "backups");
+		backups.mkdirs();
+		writeOldSave(TestRegions.createRegion(5, 5, 5, 7), 0, new File(backups, "backup.dat"));
+
+		Set<String> savesInUse = new HashSet<String>();
+		savesInUse.add(inUse.getAbsolutePath());
+		List<File> found = new ArrayList<File>();
+		migrator(savesInUse).findOldSaves(saves.getRoot(), found);
+		assertEquals(Collections.singletonList(old), found);
+	}
+
+	@Test
+	public void leavesSavesThatWereCutOff() throws IOException {
+		File file = new File(saves.getRoot(), "cut.dat");
+		writeOldSave(TestRegions.createRegion(10, 5, 10, 8), 1, file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(bytes, 0, bytes.length / 2);
+		}
+
+		try {
+			migrator(Collections.<String>emptySet()).migrateFile(file);
+			fail("Migrated a save that was cut off.");
+		} catch (IOException e) {
+			// Expected, the save is cut off.
+		}
+		assertEquals(bytes.length / 2, file.length());
+		assertFalse(new File(saves.getRoot(), "backups").exists());
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes saves split into columns and reads them back whole, and one column at a time through the
+ * positions at the end of the file.
+ *
+ * @author lizardfreak321
+ */
+public class SaveWriterTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = folder.newFile("save.dat");
+	}
+
+	private final void write(RegionData region) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			region.write(out);
+		}
+	}
+
+	@Test
+	public void readsBackWhatItWrote() throws IOException {
+		RegionData region = TestRegions.createRegion(45, 12, 30, 1);
+		region.alignX = 7;
+		region.alignZ = 2;
+		write(region);
+
+		RegionData read = RegionData.read(file);
+		TestRegions.assertRegionsEqual(region, read);
+		assertEquals(7, read.alignX);
+		assertEquals(2, read.alignZ);
+	}
+
+	@Test
+	public void readsEachColumnOnItsOwn() throws IOException {
+		RegionData region = TestRegions.createRegion(45, 12, 30, 2);
+		region.alignX = 7;
+		region.alignZ = 2;
+		write(region);
+
+		BlockDecoder.Header header;
+		try (InputStream in = new FileInputStream(file)) {
+			header = BlockDecoder.readHeader(in);
+		}
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		long[] positions;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			positions = header.index.readPositions(raf.getChannel());
+		}
+		assertEquals(header.index.getColumns() + 1, positions.length);
+
+		// Backwards, so no column depends on being read after the one before it.
+		ColumnIndex.Cursor cursor = header.index.new Cursor();
+		for (int column = header.index.getColumns() - 1; column >= 0; column--) {
+			BlockDecoder decoder = BlockDecoder.create(bytes, (int) positions[column],
+					(int) (positions[column + 1] - positions[column]), header.version, header.simpleBlocks);
+			cursor.moveTo(column, 0);
+			int moved;
+			do {
+				int i = region.index(cursor.x, cursor.y, cursor.z);
+				if (!decoder.nextBlock())
+					fail("Column " + column + " ended early.");
+				assertEquals(region.blocks[i], decoder.id << 4 | decoder.data);
+				assertArrayEquals(region.text.get(i), decoder.lines);
+				moved = cursor.next();
+			} while (moved != ColumnIndex.NEXT_COLUMN);
+			assertFalse("Column " + column + " has extra blocks.", decoder.nextBlock());
+		}
+	}
+
+	@Test
+	public void copiesEncodedColumns() throws IOException {
+		RegionData region = TestRegions.createRegion(20, 6, 20, 3);
+		ByteArrayOutputStream original = new ByteArrayOutputStream();
+		region.write(original);
+		byte[] bytes = original.toByteArray();
+		write(region);
+
+		ColumnIndex index = new ColumnIndex(20, 6, 20, 0, 0);
+		long[] positions;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			positions = index.readPositions(raf.getChannel());
+		}
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		SaveWriter writer = new SaveWriter(copy, index);
+		for (int column = 0; column < index.getColumns(); column++) {
+			int length = (int) (positions[column + 1] - positions[column]);
+			writer.writeColumn(Arrays.copyOfRange(bytes, (int) positions[column], (int) positions[column + 1]), length);
+		}
+		writer.finish();
+		assertArrayEquals(bytes, copy.toByteArray());
+		TestRegions.assertRegionsEqual(region, RegionData.read(new ByteArrayInputStream(copy.toByteArray()), "copy"));
+	}
+
+	@Test(expected = IOException.class)
+	public void refusesToFinishEarly() throws IOException {
+		SaveWriter writer = new SaveWriter(new ByteArrayOutputStream(), new ColumnIndex(20, 6, 20, 0, 0));
+		writer.writeBlock(0, 0, null);
+		writer.endColumn();
+		writer.finish();
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsPositionsThatWereCutOff() throws IOException {
+		write(TestRegions.createRegion(20, 6, 20, 4));
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+			new ColumnIndex(20, 6, 20, 0, 0).readPositions(raf.getChannel());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsPositionsOfAnotherLayout() throws IOException {
+		write(TestRegions.createRegion(20, 6, 20, 5));
+		try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+			// Nine columns instead of four, so the positions are read from the middle of the blocks.
+			new ColumnIndex(20, 6, 20, 14, 14).readPositions(channel);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import java.nio.file.Path;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A temporary folder that is the saves folder of the plugin while a test runs.
+ *
+ * @author lizardfreak321
+ */
+class SavesFolder extends TemporaryFolder {
+	private Path previousSavesPath;
+
+	@Override
+	protected void before() throws Throwable {
+		super.before();
+		previousSavesPath = Main.savesPath;
+		Main.savesPath = getRoot().toPath();
+	}
+
+	@Override
+	protected void after() {
+		Main.savesPath = previousSavesPath;
+		super.after();
+	}
+}
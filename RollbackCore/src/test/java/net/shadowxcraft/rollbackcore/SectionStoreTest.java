@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+
+import org.bukkit.World;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Stores the sections of regions, writes their manifests and reads both back, and checks what is
+ * remembered about the sections that were pasted.
+ *
+ * @author lizardfreak321
+ */
+public class SectionStoreTest {
+	@Rule
+	public final SavesFolder saves = new SavesFolder();
+
+	/**
+	 * Stores each section of the region like a copy does, and returns its manifest.
+	 */
+	private static final SectionStore.Manifest storeSections(RegionData region) throws IOException {
+		ColumnIndex index = new ColumnIndex(region.sizeX, region.sizeY, region.sizeZ, region.alignX, region.alignZ);
+		int sections = index.sections(SectionStore.HEIGHT);
+		String[] hashes = new String[index.getColumns() * sections];
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		BlockEncoder encoder = new BlockEncoder(buffer);
+		ColumnIndex.Cursor cursor = index.new Cursor(SectionStore.HEIGHT);
+		while (!cursor.isDone()) {
+			int column = cursor.column;
+			int section = cursor.section;
+			buffer.reset();
+			buffer.write(index.maxX(column) - index.minX(column) | SectionStore.LAYERED | SectionStore.VARINTS);
+			buffer.write(Math.min(region.sizeY, (section + 1) * SectionStore.HEIGHT) - 1 - section * SectionStore.HEIGHT);
+			buffer.write(index.maxZ(column) - index.minZ(column));
+			int moved;
+			do {
+				int i = region.index(cursor.x, cursor.y, cursor.z);
+				encoder.writeBlock(region.blocks[i] >> 4, region.blocks[i] & 15, region.text.get(i));
+				moved = cursor.next();
+			} while (moved == ColumnIndex.NEXT_BLOCK);
+			encoder.finish();
+
+			byte[] bytes = buffer.toByteArray();
+			String hash = SectionStore.hash(bytes, bytes.length);
+			SectionStore.store(hash, bytes, bytes.length);
+			hashes[column * sections + section] = hash;
+		}
+		return new SectionStore.Manifest(RollbackOperation.simpleBlocks, index, hashes);
+	}
+
+	private static final void assertSameBlocks(DecodedSave expected, DecodedSave actual) throws IOException {
+		BlockDecoder expectedBlocks = expected.new Reader();
+		BlockDecoder actualBlocks = actual.new Reader();
+		long blocks = 0;
+		while (expectedBlocks.nextBlock()) {
+			assertTrue("Ended early after " + blocks + " blocks.", actualBlocks.nextBlock());
+			assertEquals(expectedBlocks.id, actualBlocks.id);
+			assertEquals(expectedBlocks.data, actualBlocks.data);
+			assertArrayEquals(expectedBlocks.lines, actualBlocks.lines);
+			blocks++;
+		}
+		assertFalse(actualBlocks.nextBlock());
+	}
+
+	@Test
+	public void manifestsRoundTrip() throws IOException {
+		RegionData region = TestRegions.createRegion(37, 20, 20, 1);
+		region.alignX = 3;
+		region.alignZ = 14;
+		SectionStore.Manifest manifest = storeSections(region);
+		assertEquals(9 * 2, manifest.hashes.length);
+
+		File file = new File(saves.getRoot(), "arena.dat");
+		SectionStore.writeManifest(file, manifest);
+		assertTrue(SectionStore.isManifest(file));
+		SectionStore.Manifest read = SectionStore.readManifest(file);
+		assertArrayEquals(manifest.simpleBlocks, read.simpleBlocks);
+		assertTrue(manifest.index.matches(read.index));
+		assertArrayEquals(manifest.hashes, read.hashes);
+	}
+
+	@Test
+	public void decodesTheSameBlocksAsASave() throws IOException {
+		RegionData region = TestRegions.createRegion(40, 35, 19, 2);
+		region.alignX = 9;
+		region.alignZ = 1;
+		File manifestFile = new File(saves.getRoot(), "sections.dat");
+		SectionStore.writeManifest(manifestFile, storeSections(region));
+		File saveFile = new File(saves.getRoot(), "save.dat");
+		try (OutputStream out = new FileOutputStream(saveFile)) {
+			region.write(out);
+		}
+		assertFalse(SectionStore.isManifest(saveFile));
+
+		// The save is read one whole column at a time and the manifest one section at a time, but
+		// both go through the same blocks when read with the same cursor.
+		DecodedSave fromSections = DecodedSave.read(manifestFile);
+		assertEquals(SectionStore.HEIGHT, fromSections.height);
+		ColumnIndex.Cursor cursor = fromSections.index.new Cursor(SectionStore.HEIGHT);
+		BlockDecoder reader = fromSections.new Reader();
+		while (!cursor.isDone()) {
+			assertTrue(reader.nextBlock());
+			int i = region.index(cursor.x, cursor.y, cursor.z);
+			assertEquals(region.blocks[i], reader.id << 4 | reader.data);
+			assertArrayEquals(region.text.get(i), reader.lines);
+			cursor.next();
+		}
+		assertFalse(reader.nextBlock());
+		assertNotEquals(fromSections.height, DecodedSave.read(saveFile).height);
+	}
+
+	@Test
+	public void storesEachSectionOnce() throws IOException {
+		RegionData region = TestRegions.createRegion(20, 16, 20, 3);
+		SectionStore.Manifest first = storeSections(region);
+		SectionStore.Manifest second = storeSections(region);
+		assertArrayEquals(first.hashes, second.hashes);
+
+		byte[] bytes = SectionStore.load(first.hashes[0]);
+		assertEquals(first.hashes[0], SectionStore.hash(bytes, bytes.length));
+		assertFalse(SectionStore.store(first.hashes[0], bytes, bytes.length));
+		DecodedSave a = DecodedSave.read(writeManifest(first, "a.dat"));
+		DecodedSave b = DecodedSave.read(writeManifest(second, "b.dat"));
+		assertSameBlocks(a, b);
+	}
+
+	private final File writeManifest(SectionStore.Manifest manifest, String name) throws IOException {
+		File file = new File(saves.getRoot(), name);
+		SectionStore.writeManifest(file, manifest);
+		return file;
+	}
+
+	@Test(expected = IOException.class)
+	public void failsOnMissingSections() throws IOException {
+		SectionStore.load(SectionStore.hash(new byte[] { 1, 2, 3 }, 3));
+	}
+
+	@Test
+	public void readsSectionsOfVersion4() throws IOException {
+		// Sections without the varint flag are in the encoding of version 4, like from older saves.
+		byte[] bytes = { 0, 0, 1, 1, 5, 2, 0, 1 };
+		BlockDecoder decoder = BlockDecoder.forSection(bytes, RollbackOperation.simpleBlocks);
+		assertTrue(decoder.nextBlock());
+		assertEquals(1, decoder.id);
+		assertEquals(5, decoder.data);
+		assertTrue(decoder.nextBlock());
+		assertTrue(decoder.nextBlock());
+		assertEquals(0, decoder.id);
+		assertFalse(decoder.nextBlock());
+	}
+
+	@Test(expected = EOFException.class)
+	public void rejectsManifestsThatWereCutOff() throws IOException {
+		File file = writeManifest(storeSections(TestRegions.createRegion(20, 20, 20, 4)), "cut.dat");
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		SectionStore.readManifest(new ByteArrayInputStream(bytes, 0, bytes.length - 1), "cut.dat");
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsSavesAsManifests() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestRegions.createRegion(5, 5, 5, 5).write(out);
+		SectionStore.readManifest(new ByteArrayInputStream(out.toByteArray()), "save.dat");
+	}
+
+	@Test
+	public void skipsManifestsOfNewerVersions() throws IOException {
+		byte[] bytes = { SectionStore.MANIFEST, RollbackOperation.VERSION + 1 };
+		assertNull(SectionStore.readManifest(new ByteArrayInputStream(bytes), "new.dat"));
+	}
+
+	private static final World world(final String name) {
+		return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getName"))
+							return name;
+						if (method.getName().equals("hashCode"))
+							return name.hashCode();
+						if (method.getName().equals("equals"))
+							return proxy == args[0];
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void forgetsPastedSectionsOnceTheyChange() {
+		World world = world("sectionstore-test");
+		SectionStore.setPasted(world, 32, 0, 48, "a");
+		SectionStore.setPasted(world, 32, 16, 48, "b");
+		SectionStore.setPasted(world, 64, 0, 48, "c");
+		assertTrue(SectionStore.wasPasted(world, 32, 0, 48, "a"));
+		assertFalse(SectionStore.wasPasted(world, 32, 0, 48, "b"));
+		assertFalse(SectionStore.wasPasted(world("other"), 32, 0, 48, "a"));
+
+		// A block anywhere in the chunk forgets every section of it.
+		SectionStore.blockChanged(world, 47, 63);
+		assertFalse(SectionStore.wasPasted(world, 32, 0, 48, "a"));
+		assertFalse(SectionStore.wasPasted(world, 32, 16, 48, "b"));
+		assertTrue(SectionStore.wasPasted(world, 64, 0, 48, "c"));
+
+		SectionStore.areaChanged(world.getName(), 60, 40, 70, 50);
+		assertFalse(SectionStore.wasPasted(world, 64, 0, 48, "c"));
+
+		SectionStore.setPasted(world, 32, 0, 48, "a");
+		SectionStore.setPasted(world, 32, 0, 48, null);
+		assertFalse(SectionStore.wasPasted(world, 32, 0, 48, "a"));
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 lizardfreak321 <lizardfreak7@gmail.com>
+ *
+ * This file is part of RollbackCore
+ *
+ * RollbackCore is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.shadowxcraft.rollbackcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Regions for the tests to write, and the check that two regions have the same blocks.
+ *
+ * @author lizardfreak321
+ */
+final class TestRegions {
+	private TestRegions() {
+	}
+
+	/**
+	 * Creates a region with floors, walls, random blocks and a few signs, like a small arena.
+	 */
+	static final RegionData createRegion(int sizeX, int sizeY, int sizeZ, long seed) {
+		Random random = new Random(seed);
+		RegionData region = new RegionData(sizeX, sizeY, sizeZ);
+		for (int x = 0; x < sizeX; x++) {
+			for (int y = 0; y < sizeY; y++) {
+				for (int z = 0; z < sizeZ; z++) {
+					int block;
+					if (y == 0)
+						block = 7 << 4;
+					else if (x == 0 || z == 0 || x == sizeX - 1 || z == sizeZ - 1)
+						block = 98 << 4 | random.nextInt(3);
+					else if (random.nextInt(20) == 0)
+						block = 35 << 4 | random.nextInt(16);
+					else
+						block = 0;
+					region.blocks[region.index(x, y, z)] = (char) block;
+				}
+			}
+		}
+		for (int i = 0; i < 5; i++) {
+			int index = region.index(1 + random.nextInt(sizeX - 2), 1, 1 + random.nextInt(sizeZ - 2));
+			region.blocks[index] = (char) (63 << 4 | random.nextInt(16));
+			region.text.put(index, new String[] { "Sign " + i, "", "§4Red", "" });
+		}
+		return region;
+	}
+
+	static final void assertRegionsEqual(RegionData expected, RegionData actual) {
+		assertEquals(expected.sizeX, actual.sizeX);
+		assertEquals(expected.sizeY, actual.sizeY);
+		assertEquals(expected.sizeZ, actual.sizeZ);
+		assertArrayEquals(expected.blocks, actual.blocks);
+		assertEquals(expected.text.keySet(), actual.text.keySet());
+		for (Map.Entry<Integer, String[]> entry : expected.text.entrySet())
+			assertArrayEquals(entry.getValue(), actual.text.get(entry.getKey()));
+	}
+}